@@ -1,5 +1,7 @@
 package edu.berkeley.cs186.database;
 
+import edu.berkeley.cs186.database.table.VersionStore;
+
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -68,6 +70,11 @@ public abstract class AbstractTransactionContext implements TransactionContext {
         return this.blocked;
     }
 
+    @Override
+    public VersionStore.Snapshot getSnapshot() {
+        return null;
+    }
+
     @SuppressWarnings("unchecked")
     private static <T extends Throwable> void rethrow(Throwable t) throws T {
         // rethrows checked exceptions as unchecked
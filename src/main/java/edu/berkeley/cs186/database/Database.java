@@ -2,12 +2,16 @@ package edu.berkeley.cs186.database;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.UnaryOperator;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import edu.berkeley.cs186.database.common.ByteBuffer;
 import edu.berkeley.cs186.database.common.PredicateOperator;
@@ -60,6 +64,11 @@ public class Database implements AutoCloseable {
     private final BufferManager bufferManager;
     // recovery manager
     private final RecoveryManager recoveryManager;
+    // deadlock detector, or null if locking is disabled
+    private final DeadlockDetector deadlockDetector;
+
+    // versions of records kept for read-only transactions
+    private final VersionStore versionStore = new VersionStore();
 
     // transaction for creating metadata partitions and loading tables
     private final Transaction primaryInitTransaction;
@@ -77,6 +86,10 @@ public class Database implements AutoCloseable {
     private final Phaser loadingProgress = new Phaser(1);
     // active transactions
     private Phaser activeTransactions = new Phaser(0);
+    // MBeans registered for this database, by name
+    private final Map<ObjectName, Object> mBeans = new HashMap<>();
+    // MBeans registered by any database, by name
+    private static final Map<ObjectName, Object> registeredMBeans = new HashMap<>();
 
     /**
      * Creates a new database with locking disabled.
@@ -133,6 +146,43 @@ public class Database implements AutoCloseable {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy, boolean useRecoveryManager) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, false);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param instantRestart flag to admit transactions right after the analysis pass of
+     *                       restart recovery, redoing pages as they are fetched (ARIES only)
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager, boolean instantRestart) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, instantRestart, null);
+    }
+
+    /**
+     * Opens a hot standby of another database, with locking disabled. The standby's log is
+     * shipped from the primary, and applied in the background; only read-only transactions
+     * may be run on it. The directory may be empty, or hold a copy of the primary's files.
+     *
+     * @param fileDir the directory to put the standby's files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param standby the standby's recovery manager, shipping the primary's log
+     */
+    public Database(String fileDir, int numMemoryPages, HotStandby standby) {
+        this(fileDir, numMemoryPages, new DummyLockManager(), new ClockEvictionPolicy(), false,
+             false, standby);
+        waitSetupFinished();
+    }
+
+    private Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                     EvictionPolicy policy, boolean useRecoveryManager, boolean instantRestart,
+                     HotStandby standby) {
         boolean initialized = setupDirectory(fileDir);
 
         numTransactions = 0;
@@ -145,9 +195,13 @@ public class Database implements AutoCloseable {
         indexInfoLookup = new ConcurrentHashMap<>();
         this.executor = new ThreadPool();
 
-        if (useRecoveryManager) {
-            recoveryManager = new ARIESRecoveryManager(lockManager.databaseContext(),
+        if (standby != null) {
+            recoveryManager = standby;
+        } else if (useRecoveryManager) {
+            ARIESRecoveryManager ariesRecoveryManager = new ARIESRecoveryManager(lockManager.databaseContext(),
                     this::beginRecoveryTranscation, this::setTransactionCounter, this::getTransactionCounter);
+            ariesRecoveryManager.setInstantRestart(instantRestart);
+            recoveryManager = ariesRecoveryManager;
         } else {
             recoveryManager = new DummyRecoveryManager();
         }
@@ -161,13 +215,35 @@ public class Database implements AutoCloseable {
         }
 
         recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        if (lockManager instanceof DummyLockManager) {
+            deadlockDetector = null;
+        } else if (recoveryManager instanceof ARIESRecoveryManager) {
+            // the victim of a deadlock is the transaction with the least work to undo
+            deadlockDetector = new DeadlockDetector(lockManager,
+                                                    ((ARIESRecoveryManager) recoveryManager)::getNumLogRecords,
+                                                    DeadlockDetector.DEFAULT_INTERVAL_MILLIS,
+                                                    DeadlockDetector.DEFAULT_LONG_WAIT_MILLIS);
+        } else {
+            deadlockDetector = new DeadlockDetector(lockManager);
+        }
+        if (!(lockManager instanceof DummyLockManager)) {
+            registerMBean(fileDir, "Escalation", lockManager.getEscalationMetrics());
+            registerMBean(fileDir, "LockWaits", lockManager.getWaitMetrics());
+        }
+        if (recoveryManager instanceof ARIESRecoveryManager) {
+            ARIESRecoveryManager ariesRecoveryManager = (ARIESRecoveryManager) recoveryManager;
+            registerMBean(fileDir, "Log", ariesRecoveryManager.getLogMetrics());
+            registerMBean(fileDir, "Recovery", ariesRecoveryManager.getMetrics());
+        }
 
-        if (!initialized) {
+        if (!initialized && standby == null) {
             recoveryManager.initialize();
         }
 
         Runnable r = recoveryManager.restart();
         executor.submit(r);
+        // a standby's metadata tables come from the primary's log, which restart has applied
+        initialized |= standby != null;
 
         primaryInitTransaction = beginTransaction();
         secondaryInitTransaction = beginTransaction();
@@ -337,6 +413,7 @@ public class Database implements AutoCloseable {
                     HeapFile heapFile = new PageDirectory(bufferManager, record.partNum, record.pageNum, (short) 0,
                                                           tableContext);
                     Table table = new Table(record.tableName, record.schema, heapFile, tableContext);
+                    table.setVersionStore(versionStore);
                     tableLookup.put(record.tableName, table);
 
                     // sync on lock manager to ensure that multiple jobs don't
@@ -429,6 +506,47 @@ public class Database implements AutoCloseable {
         loadingProgress.arriveAndAwaitAdvance(); // start index loading
     }
 
+    /**
+     * Registers an MBean with the platform MBean server, under
+     * edu.berkeley.cs186.database:type=<type>,directory=<this database's directory>,
+     * replacing any MBean of a database previously opened in the same directory. MBeans
+     * are unregistered when the database is closed.
+     */
+    private void registerMBean(String fileDir, String type, Object bean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("edu.berkeley.cs186.database:type=" + type +
+                                             ",directory=" + ObjectName.quote(fileDir));
+            synchronized (registeredMBeans) {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(bean, name);
+                registeredMBeans.put(name, bean);
+            }
+            mBeans.put(name, bean);
+        } catch (JMException e) {
+            throw new DatabaseException("could not register " + type + " MBean: " + e.getMessage());
+        }
+    }
+
+    private void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (registeredMBeans) {
+            for (Map.Entry<ObjectName, Object> entry : mBeans.entrySet()) {
+                // unless replaced by a database opened later in the same directory
+                if (registeredMBeans.remove(entry.getKey(), entry.getValue())) {
+                    try {
+                        server.unregisterMBean(entry.getKey());
+                    } catch (JMException e) {
+                        // unregistered by someone else
+                    }
+                }
+            }
+        }
+        mBeans.clear();
+    }
+
     // wait until setup has finished
     public void waitSetupFinished() {
         while (!loadingProgress.isTerminated()) {
@@ -457,10 +575,14 @@ public class Database implements AutoCloseable {
 
         // finish executor tasks
         this.executor.shutdown();
+        if (this.deadlockDetector != null) {
+            this.deadlockDetector.close();
+        }
 
         this.bufferManager.evictAll();
 
         this.recoveryManager.close();
+        this.unregisterMBeans();
 
         this.tableInfo = null;
         this.indexInfo = null;
@@ -483,6 +605,14 @@ public class Database implements AutoCloseable {
         return lockManager;
     }
 
+    /**
+     * @return the deadlock detector of the database's lock manager, or null if locking is
+     * disabled
+     */
+    public DeadlockDetector getDeadlockDetector() {
+        return deadlockDetector;
+    }
+
     public DiskSpaceManager getDiskSpaceManager() {
         return diskSpaceManager;
     }
@@ -491,6 +621,34 @@ public class Database implements AutoCloseable {
         return bufferManager;
     }
 
+    public VersionStore getVersionStore() {
+        return versionStore;
+    }
+
+    public RecoveryManager getRecoveryManager() {
+        return recoveryManager;
+    }
+
+    /**
+     * Copies this database into another directory while transactions run on it. Opening
+     * the copy with the recovery manager enabled restores the database as of the end of
+     * the backup (see OnlineBackup); only databases with the recovery manager enabled may
+     * be backed up.
+     *
+     * @param backupDir directory to copy the database into; must not exist, or be empty
+     * @param maxBytesPerSecond maximum bytes to copy per second, or 0 for no limit
+     * @return the finished backup
+     */
+    public OnlineBackup backup(String backupDir, long maxBytesPerSecond) {
+        if (!(recoveryManager instanceof ARIESRecoveryManager)) {
+            throw new DatabaseException("only a database with the recovery manager enabled can be backed up");
+        }
+        OnlineBackup backup = new OnlineBackup((ARIESRecoveryManager) recoveryManager, backupDir);
+        backup.setMaxBytesPerSecond(maxBytesPerSecond);
+        backup.run();
+        return backup;
+    }
+
     @Deprecated
     public Table getTable(String tableName) {
         return tableLookup.get(prefixUserTableName(tableName));
@@ -506,6 +664,50 @@ public class Database implements AutoCloseable {
         this.workMem = workMem;
     }
 
+    /**
+     * Sets how the lock manager deals with deadlocks: by detecting them (the default), or
+     * by preventing them with wait-die or wound-wait (see DeadlockPolicy). Should be set
+     * before transactions are run.
+     */
+    public void setDeadlockPolicy(DeadlockPolicy deadlockPolicy) {
+        lockManager.setDeadlockPolicy(deadlockPolicy);
+    }
+
+    /**
+     * Locks the records of table TABLENAME individually, rather than whole pages, with
+     * locks on the records of a page escalating to a page-level lock as set by
+     * EscalationPolicy.DEFAULT (see Table's Record Locks). Only tables with a bitmap have
+     * record locks. The setting is not saved, and must be made again after the database is
+     * reopened.
+     */
+    public void enableRecordLocks(String tableName) {
+        enableRecordLocks(tableName, EscalationPolicy.DEFAULT);
+    }
+
+    /**
+     * Locks the records of table TABLENAME individually, with locks on the records of a
+     * page escalating to a page-level lock as set by POLICY (see enableRecordLocks).
+     */
+    public void enableRecordLocks(String tableName, EscalationPolicy policy) {
+        getExistingTable(tableName).enableRecordLocks(policy);
+    }
+
+    /**
+     * Locks the pages of table TABLENAME again when its records are accessed.
+     */
+    public void disableRecordLocks(String tableName) {
+        getExistingTable(tableName).disableRecordLocks();
+    }
+
+    private Table getExistingTable(String tableName) {
+        String prefixedTableName = prefixUserTableName(tableName);
+        Table table = tableLookup.get(prefixedTableName);
+        if (table == null) {
+            throw new DatabaseException("table " + prefixedTableName + " does not exist");
+        }
+        return table;
+    }
+
     // schema for information_schema.tables
     private Schema getTableInfoSchema() {
         return new Schema(
@@ -630,7 +832,7 @@ public class Database implements AutoCloseable {
         // will be blocked while we're inside a compute call.
         boolean mayNeedToCreate = !tableInfoLookup.containsKey(tableName);
         if (mayNeedToCreate) {
-            // TODO(proj4_part2): acquire all locks needed on database/information_schema.tables before compute()
+            LockUtil.ensureIntentLockHeld(getTableInfoContext(), LockType.IX);
             tableInfoLookup.compute(tableName, (tableName_, recordId) -> {
                 if (recordId != null) { // record created between containsKey call and this
                     return recordId;
@@ -640,7 +842,10 @@ public class Database implements AutoCloseable {
             });
         }
 
-        // TODO(proj4_part2): acquire all locks needed on the row in information_schema.tables
+        RecordId rid = tableInfoLookup.get(tableName);
+        if (rid != null) {
+            LockUtil.ensureSufficientLockHeld(getTableInfoContext().childContext(rid.getPageNum()), lockType);
+        }
     }
 
     private TableInfoRecord getTableMetadata(String tableName) {
@@ -658,7 +863,7 @@ public class Database implements AutoCloseable {
         // see getTableMetadata - same logic/structure, just with a different table
         boolean mayNeedToCreate = !indexInfoLookup.containsKey(indexName);
         if (mayNeedToCreate) {
-            // TODO(proj4_part2): acquire all locks needed on database/information_schema.indices before compute()
+            LockUtil.ensureIntentLockHeld(getIndexInfoContext(), LockType.IX);
             indexInfoLookup.compute(indexName, (indexName_, recordId) -> {
                 if (recordId != null) { // record created between containsKey call and this
                     return recordId;
@@ -677,7 +882,10 @@ public class Database implements AutoCloseable {
             });
         }
 
-        // TODO(proj4_part2): acquire all locks needed on the row in information_schema.indices
+        RecordId rid = indexInfoLookup.get(indexName);
+        if (rid != null) {
+            LockUtil.ensureSufficientLockHeld(getIndexInfoContext().childContext(rid.getPageNum()), lockType);
+        }
     }
 
     private BPlusTreeMetadata getIndexMetadata(String tableName, String columnName) {
@@ -695,7 +903,26 @@ public class Database implements AutoCloseable {
      * @return the new Transaction
      */
     public synchronized Transaction beginTransaction() {
-        TransactionImpl t = new TransactionImpl(this.numTransactions, false);
+        return beginTransaction(null);
+    }
+
+    /**
+     * Start a new read-only transaction. The transaction reads the database as of the moment
+     * it starts (the changes of the transactions committed by then) and takes no locks on
+     * what it reads, so that it neither waits for transactions writing what it reads, nor
+     * makes them wait. Indices are not versioned: lookups and sorted scans in the
+     * transaction scan tables instead. Neither are the tables themselves: a table created
+     * since the transaction started is read as empty, and a table dropped since cannot be
+     * read.
+     *
+     * @return the new Transaction
+     */
+    public synchronized Transaction beginReadOnlyTransaction() {
+        return beginTransaction(versionStore.beginSnapshot());
+    }
+
+    private synchronized Transaction beginTransaction(VersionStore.Snapshot snapshot) {
+        TransactionImpl t = new TransactionImpl(this.numTransactions, false, snapshot);
         activeTransactions.register();
         if (activeTransactions.isTerminated()) {
             activeTransactions = new Phaser(1);
@@ -715,7 +942,7 @@ public class Database implements AutoCloseable {
     private synchronized Transaction beginRecoveryTranscation(Long transactionNum) {
         this.numTransactions = Math.max(this.numTransactions, transactionNum + 1);
 
-        TransactionImpl t = new TransactionImpl(transactionNum, true);
+        TransactionImpl t = new TransactionImpl(transactionNum, true, null);
         activeTransactions.register();
         if (activeTransactions.isTerminated()) {
             activeTransactions = new Phaser(1);
@@ -742,12 +969,14 @@ public class Database implements AutoCloseable {
 
     private class TransactionContextImpl extends AbstractTransactionContext {
         long transNum;
+        VersionStore.Snapshot snapshot;
         Map<String, String> aliases;
         Map<String, Table> tempTables;
         long tempTableCounter;
 
-        private TransactionContextImpl(long tNum) {
+        private TransactionContextImpl(long tNum, VersionStore.Snapshot snapshot) {
             this.transNum = tNum;
+            this.snapshot = snapshot;
             this.aliases = new HashMap<>();
             this.tempTables = new HashMap<>();
             this.tempTableCounter = 0;
@@ -758,6 +987,11 @@ public class Database implements AutoCloseable {
             return transNum;
         }
 
+        @Override
+        public VersionStore.Snapshot getSnapshot() {
+            return snapshot;
+        }
+
         @Override
         public int getWorkMemSize() {
             return Database.this.getWorkMem();
@@ -770,13 +1004,17 @@ public class Database implements AutoCloseable {
 
             int partNum = diskSpaceManager.allocPart();
             long pageNum = diskSpaceManager.allocPage(partNum);
-            RecordId recordId = tableInfo.addRecord(Arrays.asList(
-                    new StringDataBox(tableName, 32),
-                    new IntDataBox(partNum),
-                    new LongDataBox(pageNum),
-                    new BoolDataBox(true),
-                    new StringDataBox(new String(schema.toBytes()), MAX_SCHEMA_SIZE)));
-            tableInfoLookup.put(tableName, recordId);
+            if (snapshot == null) {
+                // a read-only transaction does not write to information_schema.tables, which
+                // would lock it: its temp table's partition is freed by rollback after a crash
+                RecordId recordId = tableInfo.addRecord(Arrays.asList(
+                        new StringDataBox(tableName, 32),
+                        new IntDataBox(partNum),
+                        new LongDataBox(pageNum),
+                        new BoolDataBox(true),
+                        new StringDataBox(new String(schema.toBytes()), MAX_SCHEMA_SIZE)));
+                tableInfoLookup.put(tableName, recordId);
+            }
 
             LockContext lockContext = getTableContext(tableName, partNum);
             lockContext.disableChildLocks();
@@ -795,9 +1033,10 @@ public class Database implements AutoCloseable {
 
             String tableName = prefixTempTableName(tempTableName);
             RecordId recordId = tableInfoLookup.remove(tableName);
-            Record record = tableInfo.deleteRecord(recordId);
-            TableInfoRecord tableInfoRecord = new TableInfoRecord(record);
-            bufferManager.freePart(tableInfoRecord.partNum);
+            if (recordId != null) {
+                tableInfo.deleteRecord(recordId);
+            }
+            bufferManager.freePart(tempTables.get(tempTableName).getPartNum());
             tempTables.remove(tempTableName);
             tableLookup.remove(tableName);
             tableIndices.remove(tableName);
@@ -824,6 +1063,9 @@ public class Database implements AutoCloseable {
 
         @Override
         public boolean indexExists(String tableName, String columnName) {
+            if (snapshot != null) {
+                return false; // indices have no versions
+            }
             try {
                 resolveIndexFromName(tableName, columnName);
             } catch (DatabaseException e) {
@@ -848,10 +1090,12 @@ public class Database implements AutoCloseable {
 
         @Override
         public Iterator<Record> sortedScan(String tableName, String columnName) {
-            // TODO(proj4_part2): scan locking
-
             Table tab = getTable(tableName);
+            LockUtil.ensureSufficientLockHeld(getTableContext(tab.getName()), LockType.S);
             try {
+                if (snapshot != null) {
+                    throw new DatabaseException("indices have no versions");
+                }
                 Pair<String, BPlusTree> index = resolveIndexFromName(tableName, columnName);
                 return new RecordIterator(tab, index.getSecond().scanAll());
             } catch (DatabaseException e1) {
@@ -867,15 +1111,21 @@ public class Database implements AutoCloseable {
 
         @Override
         public Iterator<Record> sortedScanFrom(String tableName, String columnName, DataBox startValue) {
-            // TODO(proj4_part2): scan locking
-
+            if (snapshot != null) {
+                return scanWhere(sortedScan(tableName, columnName), tableName, columnName,
+                                 value -> value.compareTo(startValue) >= 0);
+            }
             Table tab = getTable(tableName);
+            LockUtil.ensureSufficientLockHeld(getTableContext(tab.getName()), LockType.S);
             Pair<String, BPlusTree> index = resolveIndexFromName(tableName, columnName);
             return new RecordIterator(tab, index.getSecond().scanGreaterEqual(startValue));
         }
 
         @Override
         public Iterator<Record> lookupKey(String tableName, String columnName, DataBox key) {
+            if (snapshot != null) {
+                return scanWhere(getRecordIterator(tableName), tableName, columnName, key::equals);
+            }
             Table tab = getTable(tableName);
             Pair<String, BPlusTree> index = resolveIndexFromName(tableName, columnName);
             return new RecordIterator(tab, index.getSecond().scanEqual(key));
@@ -883,7 +1133,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public BacktrackingIterator<Record> getRecordIterator(String tableName) {
-            return getTable(tableName).iterator();
+            return getTable(tableName).iterator(snapshot);
         }
 
         @Override
@@ -894,11 +1144,14 @@ public class Database implements AutoCloseable {
         @Override
         public BacktrackingIterator<Record> getBlockIterator(String tableName, Iterator<Page> block,
                 int maxPages) {
-            return getTable(tableName).blockIterator(block, maxPages);
+            return getTable(tableName).blockIterator(block, maxPages, snapshot);
         }
 
         @Override
         public boolean contains(String tableName, String columnName, DataBox key) {
+            if (snapshot != null) {
+                return lookupKey(tableName, columnName, key).hasNext();
+            }
             Pair<String, BPlusTree> index = resolveIndexFromName(tableName, columnName);
             return index.getSecond().get(key).isPresent();
         }
@@ -935,7 +1188,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public Record getRecord(String tableName, RecordId rid) {
-            return getTable(tableName).getRecord(rid);
+            return getTable(tableName).getRecord(rid, snapshot);
         }
 
         @Override
@@ -1054,8 +1307,38 @@ public class Database implements AutoCloseable {
 
         @Override
         public void close() {
-            // TODO(proj4_part2): release locks held by the transaction
-            return;
+            // release locks on descendants before their ancestors, through their lock contexts
+            // so that the contexts' counts of locks on their children stay right
+            List<LockContext> contexts = new ArrayList<>();
+            for (Lock lock : lockManager.getLocks(this)) {
+                contexts.add(LockContext.fromResourceName(lockManager, lock.name));
+            }
+            contexts.sort((a, b) -> Integer.compare(depth(b), depth(a)));
+            for (LockContext context : contexts) {
+                context.release(this);
+            }
+        }
+
+        // the records of RECORDS (of TABLENAME) whose COLUMNNAME satisfies PREDICATE, in order
+        private Iterator<Record> scanWhere(Iterator<Record> records, String tableName, String columnName,
+                                           java.util.function.Predicate<DataBox> predicate) {
+            int offset = getTable(tableName).getSchema().getFieldNames().indexOf(columnName);
+            List<Record> matches = new ArrayList<>();
+            while (records.hasNext()) {
+                Record record = records.next();
+                if (predicate.test(record.getValues().get(offset))) {
+                    matches.add(record);
+                }
+            }
+            return matches.iterator();
+        }
+
+        private int depth(LockContext context) {
+            int depth = 0;
+            for (LockContext ctx = context.parentContext(); ctx != null; ctx = ctx.parentContext()) {
+                ++depth;
+            }
+            return depth;
         }
 
         @Override
@@ -1081,7 +1364,7 @@ public class Database implements AutoCloseable {
             }
             String indexName = tableName + "," + columnName;
 
-            // TODO(proj4_part2): add locking
+            lockIndexMetadata(indexName, LockType.S);
 
             BPlusTreeMetadata metadata = getIndexMetadata(tableName, columnName);
             if (metadata == null) {
@@ -1110,13 +1393,16 @@ public class Database implements AutoCloseable {
                 tableName = prefixUserTableName(tableName);
             }
 
-            // TODO(proj4_part2): add locking
+            if (snapshot == null) {
+                lockTableMetadata(tableName, LockType.S);
+            }
 
             TableInfoRecord record = getTableMetadata(tableName);
-            if (!record.isAllocated()) {
+            Table table = Database.this.tableLookup.get(tableName);
+            if (!record.isAllocated() || table == null) {
                 throw new DatabaseException("no table with name " + tableName);
             }
-            return Database.this.tableLookup.get(tableName);
+            return table;
         }
 
         private String prefixTempTableName(String name) {
@@ -1132,22 +1418,41 @@ public class Database implements AutoCloseable {
     private class TransactionImpl extends AbstractTransaction {
         private long transNum;
         private boolean recoveryTransaction;
+        private VersionStore.Snapshot snapshot;
         private TransactionContext transactionContext;
 
-        private TransactionImpl(long transNum, boolean recovery) {
+        private TransactionImpl(long transNum, boolean recovery, VersionStore.Snapshot snapshot) {
             this.transNum = transNum;
             this.recoveryTransaction = recovery;
-            this.transactionContext = new TransactionContextImpl(transNum);
+            this.snapshot = snapshot;
+            this.transactionContext = new TransactionContextImpl(transNum, snapshot);
         }
 
         @Override
         protected void startCommit() {
             // TODO(proj5): replace immediate cleanup() call with job (the commented out code)
 
+            if (lockManager instanceof OptimisticLockManager) {
+                try {
+                    ((OptimisticLockManager) lockManager).validate(transactionContext);
+                } catch (ValidationException e) {
+                    rollback();
+                    throw e;
+                }
+            }
+
             transactionContext.deleteAllTempTables();
 
             recoveryManager.commit(transNum);
 
+            // pages freed on commit are logged as part of this transaction
+            TransactionContext.setTransaction(transactionContext);
+            try {
+                versionStore.commit(transNum);
+            } finally {
+                TransactionContext.unsetTransaction();
+            }
+
             this.cleanup();
             /*
             executor.execute(this::cleanup);
@@ -1171,6 +1476,12 @@ public class Database implements AutoCloseable {
             if (!this.recoveryTransaction) {
                 recoveryManager.end(transNum);
             }
+            // after rollback, if the transaction aborted
+            versionStore.end(transNum);
+            if (snapshot != null) {
+                versionStore.endSnapshot(snapshot);
+            }
+            lockManager.end(transactionContext);
 
             transactionContext.close();
             activeTransactions.arriveAndDeregister();
@@ -1183,6 +1494,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public void createTable(Schema s, String tableName) {
+            checkWritable();
             if (tableName.contains(".") && !tableName.startsWith("tables.")) {
                 throw new IllegalArgumentException("name of new table may not contain '.'");
             }
@@ -1190,9 +1502,7 @@ public class Database implements AutoCloseable {
             String prefixedTableName = prefixUserTableName(tableName);
             TransactionContext.setTransaction(transactionContext);
             try {
-                // TODO(proj4_part2): add locking
-
-                lockTableMetadata(prefixedTableName, LockType.NL);
+                lockTableMetadata(prefixedTableName, LockType.X);
 
                 TableInfoRecord record = getTableMetadata(prefixedTableName);
                 if (record.isAllocated()) {
@@ -1208,8 +1518,9 @@ public class Database implements AutoCloseable {
                 LockContext tableContext = getTableContext(prefixedTableName, record.partNum);
                 HeapFile heapFile = new PageDirectory(bufferManager, record.partNum, record.pageNum,
                                                       (short) 0, tableContext);
-                tableLookup.put(prefixedTableName, new Table(prefixedTableName, s,
-                                heapFile, tableContext));
+                Table table = new Table(prefixedTableName, s, heapFile, tableContext);
+                table.setVersionStore(versionStore);
+                tableLookup.put(prefixedTableName, table);
                 tableIndices.put(prefixedTableName, new ArrayList<>());
             } finally {
                 TransactionContext.unsetTransaction();
@@ -1218,6 +1529,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public void dropTable(String tableName) {
+            checkWritable();
             if (tableName.contains(".") && !tableName.startsWith("tables.")) {
                 throw new IllegalArgumentException("name of table may not contain '.': " + tableName);
             }
@@ -1225,14 +1537,13 @@ public class Database implements AutoCloseable {
             String prefixedTableName = prefixUserTableName(tableName);
             TransactionContext.setTransaction(transactionContext);
             try {
-                // TODO(proj4_part2): add locking
-
-                lockTableMetadata(prefixedTableName, LockType.NL);
+                lockTableMetadata(prefixedTableName, LockType.X);
 
                 TableInfoRecord record = getTableMetadata(prefixedTableName);
                 if (!record.isAllocated()) {
                     throw new DatabaseException("table " + prefixedTableName + " does not exist");
                 }
+                LockUtil.ensureSufficientLockHeld(getTableContext(prefixedTableName), LockType.X);
 
                 for (String indexName : new ArrayList<>(tableIndices.get(prefixedTableName))) {
                     String[] parts = indexName.split(",");
@@ -1252,9 +1563,10 @@ public class Database implements AutoCloseable {
 
         @Override
         public void dropAllTables() {
+            checkWritable();
             TransactionContext.setTransaction(transactionContext);
             try {
-                // TODO(proj4_part2): add locking
+                LockUtil.ensureSufficientLockHeld(lockManager.databaseContext(), LockType.X);
 
                 List<String> tableNames = new ArrayList<>(tableLookup.keySet());
 
@@ -1270,15 +1582,14 @@ public class Database implements AutoCloseable {
 
         @Override
         public void createIndex(String tableName, String columnName, boolean bulkLoad) {
+            checkWritable();
             if (tableName.contains(".") && !tableName.startsWith("tables.")) {
                 throw new IllegalArgumentException("name of table may not contain '.'");
             }
             String prefixedTableName = prefixUserTableName(tableName);
             TransactionContext.setTransaction(transactionContext);
             try {
-                // TODO(proj4_part2): add locking
-
-                lockTableMetadata(prefixedTableName, LockType.NL);
+                lockTableMetadata(prefixedTableName, LockType.S);
 
                 TableInfoRecord tableMetadata = getTableMetadata(prefixedTableName);
                 if (!tableMetadata.isAllocated()) {
@@ -1296,7 +1607,7 @@ public class Database implements AutoCloseable {
                 Type colType = schemaColType.get(columnIndex);
                 String indexName = tableName + "," + columnName;
 
-                lockIndexMetadata(indexName, LockType.NL);
+                lockIndexMetadata(indexName, LockType.X);
 
                 BPlusTreeMetadata metadata = getIndexMetadata(tableName, columnName);
                 if (metadata != null) {
@@ -1340,18 +1651,18 @@ public class Database implements AutoCloseable {
 
         @Override
         public void dropIndex(String tableName, String columnName) {
+            checkWritable();
             String prefixedTableName = prefixUserTableName(tableName);
             String indexName = tableName + "," + columnName;
             TransactionContext.setTransaction(transactionContext);
             try {
-                // TODO(proj4_part2): add locking
-
-                lockIndexMetadata(indexName, LockType.NL);
+                lockIndexMetadata(indexName, LockType.X);
 
                 BPlusTreeMetadata metadata = getIndexMetadata(tableName, columnName);
                 if (metadata == null) {
                     throw new DatabaseException("no index on " + tableName + "(" + columnName + ")");
                 }
+                LockUtil.ensureSufficientLockHeld(getIndexContext(indexName), LockType.X);
                 indexInfo.updateRecord(Arrays.asList(
                                            new StringDataBox(tableName, 32),
                                            new StringDataBox(columnName, 32),
@@ -1382,6 +1693,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public void insert(String tableName, List<DataBox> values) {
+            checkWritable();
             TransactionContext.setTransaction(transactionContext);
             try {
                 transactionContext.addRecord(tableName, values);
@@ -1398,6 +1710,7 @@ public class Database implements AutoCloseable {
         @Override
         public void update(String tableName, String targetColumnName, UnaryOperator<DataBox> targetValue,
                            String predColumnName, PredicateOperator predOperator, DataBox predValue) {
+            checkWritable();
             TransactionContext.setTransaction(transactionContext);
             try {
                 transactionContext.runUpdateRecordWhere(tableName, targetColumnName, targetValue, predColumnName,
@@ -1410,6 +1723,7 @@ public class Database implements AutoCloseable {
         @Override
         public void delete(String tableName, String predColumnName, PredicateOperator predOperator,
                            DataBox predValue) {
+            checkWritable();
             TransactionContext.setTransaction(transactionContext);
             try {
                 transactionContext.runDeleteRecordWhere(tableName, predColumnName, predOperator, predValue);
@@ -1433,6 +1747,7 @@ public class Database implements AutoCloseable {
             TransactionContext.setTransaction(transactionContext);
             try {
                 recoveryManager.rollbackToSavepoint(transNum, savepointName);
+                versionStore.rolledBack(transNum);
             } finally {
                 TransactionContext.unsetTransaction();
             }
@@ -1493,6 +1808,12 @@ public class Database implements AutoCloseable {
             return transactionContext.getTreeHeight(tableName, columnName);
         }
 
+        private void checkWritable() {
+            if (snapshot != null) {
+                throw new DatabaseException("transaction " + transNum + " is read-only");
+            }
+        }
+
         @Override
         public TransactionContext getTransactionContext() {
             return transactionContext;
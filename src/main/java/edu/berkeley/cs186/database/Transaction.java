@@ -60,6 +60,10 @@ public interface Transaction extends AutoCloseable {
      *      COMMIT
      *
      * This is the default way a transaction ends.
+     *
+     * @throws edu.berkeley.cs186.database.concurrency.ValidationException if the database
+     * uses an OptimisticLockManager and the transaction fails validation, in which case it
+     * is rolled back instead
      */
     void commit();
 
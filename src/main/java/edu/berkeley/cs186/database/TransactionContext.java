@@ -9,6 +9,7 @@ import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.VersionStore;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.ArrayList;
@@ -72,6 +73,12 @@ public interface TransactionContext extends AutoCloseable {
 
     int getWorkMemSize();
 
+    /**
+     * @return the snapshot read by this transaction, which then reads without shared
+     * locks, or null if it reads the current contents of the database under locks
+     */
+    VersionStore.Snapshot getSnapshot();
+
     @Override
     void close();
 
@@ -0,0 +1,111 @@
+package edu.berkeley.cs186.database.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of latencies in power-of-two buckets of microseconds: bucket 0 holds latencies
+ * under 1 us, and bucket i > 0 latencies of at least 2^(i-1) us and under 2^i us, except
+ * that the last bucket also holds anything longer. Recording does not lock, so any number
+ * of threads may record at once; reads are not atomic with respect to concurrent records.
+ */
+public class LatencyHistogram {
+    public static final int NUM_BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos latency to record, in nanoseconds
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(getBucket(nanos));
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @return number of latencies recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return number of latencies recorded in each bucket
+     */
+    public long[] getCounts() {
+        long[] result = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return mean latency in microseconds, or 0 if nothing was recorded
+     */
+    public double getMeanMicros() {
+        long count = getCount();
+        return count == 0 ? 0.0 : totalNanos.sum() / 1000.0 / count;
+    }
+
+    /**
+     * @return sum of the latencies recorded, in microseconds
+     */
+    public long getTotalMicros() {
+        return totalNanos.sum() / 1000L;
+    }
+
+    /**
+     * @return longest latency recorded, in microseconds
+     */
+    public long getMaxMicros() {
+        return maxNanos.get() / 1000L;
+    }
+
+    /**
+     * @param percentile percentile, between 0 and 100
+     * @return upper bound in microseconds of the bucket holding the given percentile of the
+     * latencies recorded (the maximum latency, for the last bucket), or 0 if nothing was
+     * recorded
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] snapshot = getCounts();
+        long count = 0;
+        for (long bucketCount : snapshot) {
+            count += bucketCount;
+        }
+        if (count == 0) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS - 1; ++i) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return getBucketUpperBoundMicros(i);
+            }
+        }
+        return getMaxMicros();
+    }
+
+    /**
+     * @param bucket bucket number
+     * @return latency in microseconds that the bucket holds latencies under
+     */
+    public static long getBucketUpperBoundMicros(int bucket) {
+        return 1L << bucket;
+    }
+
+    private static int getBucket(long nanos) {
+        long micros = nanos / 1000L;
+        return Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+}
@@ -0,0 +1,213 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Breaks deadlocks between transactions waiting in a LockManager's queues.
+ *
+ * The detector looks for cycles in the waits-for graph of the lock manager (see
+ * LockManager#cancelWaiters) every so often, and also once a transaction has been waiting
+ * for a while, so that a deadlock is usually broken soon after it forms rather than at
+ * the next periodic check. For each cycle found, the transaction in it that is cheapest to
+ * roll back (by a cost function, such as the number of log records it has written; the
+ * younger transaction on ties) is picked as the victim: its request is cancelled and it
+ * throws a DeadlockException, and the search goes on without it until no cycle is left.
+ *
+ * Detection runs on a single background thread, which close() stops. The thread only
+ * holds a weak reference to the detector, so a detector that is never closed (along with
+ * the lock manager, and anything the cost function refers to) can still be collected,
+ * which stops the thread.
+ */
+public class DeadlockDetector implements AutoCloseable {
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000L;
+    public static final long DEFAULT_LONG_WAIT_MILLIS = 100L;
+
+    private final LockManager lockManager;
+    // cost of rolling back a transaction, by transaction number
+    private final LongUnaryOperator victimCost;
+    private final long longWaitMillis;
+    private final ScheduledExecutorService executor;
+    // whether a check for a transaction that started waiting is scheduled
+    private final AtomicBoolean longWaitCheckScheduled = new AtomicBoolean(false);
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder cyclesDetected = new LongAdder();
+
+    /**
+     * Starts a detector for LOCKMANAGER checking every DEFAULT_INTERVAL_MILLIS, and
+     * DEFAULT_LONG_WAIT_MILLIS after a transaction starts waiting, that picks the victim
+     * holding the fewest locks.
+     */
+    public DeadlockDetector(LockManager lockManager) {
+        this(lockManager, lockManager::getNumLocks, DEFAULT_INTERVAL_MILLIS, DEFAULT_LONG_WAIT_MILLIS);
+    }
+
+    /**
+     * Starts a detector for LOCKMANAGER.
+     * @param victimCost cost of rolling back a transaction, by transaction number
+     * @param intervalMillis time between periodic checks
+     * @param longWaitMillis time after a transaction starts waiting to check for deadlocks
+     */
+    public DeadlockDetector(LockManager lockManager, LongUnaryOperator victimCost,
+                            long intervalMillis, long longWaitMillis) {
+        if (intervalMillis <= 0 || longWaitMillis < 0) {
+            throw new IllegalArgumentException("invalid deadlock detection interval");
+        }
+        this.lockManager = lockManager;
+        this.victimCost = victimCost;
+        this.longWaitMillis = longWaitMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "deadlock-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(new PeriodicCheck(this), intervalMillis,
+                                             intervalMillis, TimeUnit.MILLISECONDS);
+        lockManager.setDeadlockDetector(this);
+    }
+
+    private static class PeriodicCheck implements Runnable {
+        private final WeakReference<DeadlockDetector> detector;
+        private final ScheduledExecutorService executor;
+
+        PeriodicCheck(DeadlockDetector detector) {
+            this.detector = new WeakReference<>(detector);
+            this.executor = detector.executor;
+        }
+
+        @Override
+        public void run() {
+            DeadlockDetector detector = this.detector.get();
+            if (detector == null) {
+                executor.shutdown();
+            } else {
+                detector.detect();
+            }
+        }
+    }
+
+    /**
+     * Called by the lock manager when a transaction starts waiting for a lock: schedules a
+     * check after the long wait time, unless one is already scheduled.
+     */
+    void waitStarted() {
+        if (longWaitCheckScheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(() -> {
+                    longWaitCheckScheduled.set(false);
+                    detect();
+                }, longWaitMillis, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // shut down
+                longWaitCheckScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Looks for deadlocks once, and breaks any found.
+     * @return the transactions chosen as victims
+     */
+    public synchronized Collection<Long> detect() {
+        runs.increment();
+        Collection<Long> victims = lockManager.cancelWaiters(this::chooseVictims);
+        cyclesDetected.add(victims.size());
+        return victims;
+    }
+
+    /**
+     * Picks a victim from each cycle of WAITSFOR until there are no cycles left.
+     */
+    private List<Long> chooseVictims(Map<Long, Set<Long>> waitsFor) {
+        List<Long> victims = new ArrayList<>();
+        Map<Long, Long> costs = new HashMap<>();
+        for (List<Long> cycle = findCycle(waitsFor); cycle != null; cycle = findCycle(waitsFor)) {
+            long victim = cycle.get(0);
+            long victimCost = getCost(costs, victim);
+            for (long transNum : cycle) {
+                long cost = getCost(costs, transNum);
+                if (cost < victimCost || (cost == victimCost && transNum > victim)) {
+                    victim = transNum;
+                    victimCost = cost;
+                }
+            }
+            // once its request is cancelled, the victim waits for nothing
+            waitsFor.remove(victim);
+            victims.add(victim);
+        }
+        return victims;
+    }
+
+    private long getCost(Map<Long, Long> costs, long transNum) {
+        return costs.computeIfAbsent(transNum, victimCost::applyAsLong);
+    }
+
+    /**
+     * @return the transactions on some cycle of WAITSFOR, or null if it has none
+     */
+    private static List<Long> findCycle(Map<Long, Set<Long>> waitsFor) {
+        Set<Long> done = new HashSet<>();
+        for (long start : waitsFor.keySet()) {
+            if (done.contains(start)) {
+                continue;
+            }
+            // iterative depth first search; path holds the transactions on the current path
+            List<Long> path = new ArrayList<>();
+            Set<Long> onPath = new HashSet<>();
+            Deque<Iterator<Long>> iterators = new ArrayDeque<>();
+            path.add(start);
+            onPath.add(start);
+            iterators.push(waitsFor.get(start).iterator());
+            while (!iterators.isEmpty()) {
+                Iterator<Long> iter = iterators.peek();
+                if (!iter.hasNext()) {
+                    iterators.pop();
+                    long finished = path.remove(path.size() - 1);
+                    onPath.remove(finished);
+                    done.add(finished);
+                    continue;
+                }
+                long next = iter.next();
+                if (onPath.contains(next)) {
+                    return new ArrayList<>(path.subList(path.indexOf(next), path.size()));
+                }
+                Set<Long> edges = waitsFor.get(next);
+                if (edges == null || done.contains(next)) {
+                    // not waiting, or already searched
+                    continue;
+                }
+                path.add(next);
+                onPath.add(next);
+                iterators.push(edges.iterator());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return number of times the detector has looked for deadlocks
+     */
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    /**
+     * @return number of deadlock cycles broken (one victim each)
+     */
+    public long getCyclesDetected() {
+        return cyclesDetected.sum();
+    }
+
+    @Override
+    public void close() {
+        lockManager.setDeadlockDetector(null);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,14 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Thrown to a transaction waiting for a lock when the deadlock detector chooses it as the
+ * victim of a deadlock, or to a transaction that deadlock prevention aborts (see
+ * DeadlockPolicy) when it waits or would wait for a lock. The request it was waiting on is
+ * dropped, but its other locks are still held: the transaction must be rolled back, which
+ * releases them.
+ */
+public class DeadlockException extends RuntimeException {
+    DeadlockException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,24 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * How a LockManager deals with deadlocks. With DETECT, transactions wait for any lock, and
+ * a DeadlockDetector breaks the cycles that form. With WAIT_DIE and WOUND_WAIT, cycles
+ * never form: a transaction's priority is its transaction number (lower is older, and
+ * higher priority), and whenever a transaction would wait for a younger one (WOUND_WAIT)
+ * or an older one (WAIT_DIE), one of the two is aborted with a DeadlockException instead,
+ * so that waits only ever go one way between ages.
+ */
+public enum DeadlockPolicy {
+    DETECT,     // wait for any lock, and leave cycles to the deadlock detector
+    WAIT_DIE,   // an older transaction waits for a younger one; a younger one dies
+    WOUND_WAIT; // an older transaction wounds a younger one; a younger one waits
+
+    @Override
+    public String toString() {
+        switch (this) {
+        case WAIT_DIE: return "wait-die";
+        case WOUND_WAIT: return "wound-wait";
+        default: return "detect";
+        }
+    }
+}
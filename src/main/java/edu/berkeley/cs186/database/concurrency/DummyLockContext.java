@@ -8,12 +8,16 @@ import edu.berkeley.cs186.database.common.Pair;
  * is expected, but no locking should be done.
  */
 public class DummyLockContext extends LockContext {
+    // shared by all dummy contexts: a dummy context is made for every page fetched without
+    // locking, and the lock manager does nothing, but still allocates its lock table
+    private static final DummyLockManager LOCK_MANAGER = new DummyLockManager();
+
     public DummyLockContext() {
         this((LockContext) null);
     }
 
     public DummyLockContext(LockContext parent) {
-        super(new DummyLockManager(), parent, new Pair<>("Unnamed", -1L));
+        super(LOCK_MANAGER, parent, new Pair<>("Unnamed", -1L));
     }
 
     public DummyLockContext(Pair<String, Long> name) {
@@ -21,7 +25,7 @@ public class DummyLockContext extends LockContext {
     }
 
     public DummyLockContext(LockContext parent, Pair<String, Long> name) {
-        super(new DummyLockManager(), parent, name);
+        super(LOCK_MANAGER, parent, name);
     }
 
     @Override
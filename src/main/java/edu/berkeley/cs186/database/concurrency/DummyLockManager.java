@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.concurrency;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Pair;
@@ -29,10 +30,23 @@ public class DummyLockManager extends LockManager {
                                   LockType lockType, List<ResourceName> releaseLocks)
     throws DuplicateLockRequestException, NoLockHeldException { }
 
+    @Override
+    public CompletableFuture<Void> acquireAndReleaseAsync(TransactionContext transaction, ResourceName name,
+            LockType lockType, List<ResourceName> releaseLocks)
+    throws DuplicateLockRequestException, NoLockHeldException {
+        return CompletableFuture.completedFuture(null);
+    }
+
     @Override
     public void acquire(TransactionContext transaction, ResourceName name,
                         LockType lockType) throws DuplicateLockRequestException { }
 
+    @Override
+    public CompletableFuture<Void> acquireAsync(TransactionContext transaction, ResourceName name,
+            LockType lockType) throws DuplicateLockRequestException {
+        return CompletableFuture.completedFuture(null);
+    }
+
     @Override
     public void release(TransactionContext transaction, ResourceName name)
     throws NoLockHeldException { }
@@ -42,6 +56,13 @@ public class DummyLockManager extends LockManager {
                         LockType newLockType)
     throws DuplicateLockRequestException, NoLockHeldException, InvalidLockException { }
 
+    @Override
+    public CompletableFuture<Void> promoteAsync(TransactionContext transaction, ResourceName name,
+            LockType newLockType)
+    throws DuplicateLockRequestException, NoLockHeldException, InvalidLockException {
+        return CompletableFuture.completedFuture(null);
+    }
+
     @Override
     public LockType getLockType(TransactionContext transaction, ResourceName name) {
         return LockType.NL;
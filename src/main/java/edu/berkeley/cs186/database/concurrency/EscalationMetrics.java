@@ -0,0 +1,65 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of lock escalations done through the lock contexts of a lock manager, and of the
+ * locks they took out of the lock table. Escalations are reported by LockContext; the
+ * getters may be called from any thread.
+ */
+public class EscalationMetrics implements EscalationMetricsMXBean {
+    private final LockManager lockManager;
+    private final LongAdder escalations = new LongAdder();
+    private final LongAdder automaticEscalations = new LongAdder();
+    private final LongAdder locksReleased = new LongAdder();
+
+    EscalationMetrics(LockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+    /**
+     * Records an escalation that replaced NUMRELEASED locks on descendants with one lock.
+     */
+    void escalated(int numReleased) {
+        escalations.increment();
+        locksReleased.add(numReleased);
+    }
+
+    /**
+     * Records that an escalation was triggered by an EscalationPolicy.
+     */
+    void escalatedAutomatically() {
+        automaticEscalations.increment();
+    }
+
+    @Override
+    public long getEscalations() {
+        return escalations.sum();
+    }
+
+    @Override
+    public long getAutomaticEscalations() {
+        return automaticEscalations.sum();
+    }
+
+    /**
+     * @return number of locks on descendants released by escalations: the number of
+     * entries escalation has kept out of the lock table, as each escalation also replaces
+     * the lock it escalates
+     */
+    @Override
+    public long getLocksReleased() {
+        return locksReleased.sum();
+    }
+
+    @Override
+    public double getMeanLocksReleased() {
+        long count = escalations.sum();
+        return count == 0 ? 0.0 : (double) locksReleased.sum() / count;
+    }
+
+    @Override
+    public long getNumLocks() {
+        return lockManager.getNumLocks();
+    }
+}
@@ -0,0 +1,32 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Lock escalation activity, as exposed over JMX. Counts are since the lock manager was
+ * created.
+ */
+public interface EscalationMetricsMXBean {
+    /**
+     * @return number of escalations
+     */
+    long getEscalations();
+
+    /**
+     * @return number of escalations triggered by an EscalationPolicy
+     */
+    long getAutomaticEscalations();
+
+    /**
+     * @return number of locks on descendants released by escalations
+     */
+    long getLocksReleased();
+
+    /**
+     * @return mean number of locks on descendants released per escalation
+     */
+    double getMeanLocksReleased();
+
+    /**
+     * @return number of locks currently in the lock table
+     */
+    long getNumLocks();
+}
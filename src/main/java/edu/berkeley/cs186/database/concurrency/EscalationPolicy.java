@@ -0,0 +1,82 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TransactionContext;
+
+/**
+ * When to escalate a transaction's locks on the children of a lock context (e.g. the
+ * pages of a table) to a single lock on the context itself.
+ *
+ * A policy is attached to a lock context with LockContext#setEscalationPolicy, and is
+ * checked by LockUtil#ensureSufficientLockHeld before a lock is requested on a child of
+ * the context: if the transaction already holds enough locks on the context's children,
+ * the context is escalated first, and the lock on the child is usually no longer needed.
+ * A transaction holds enough locks when it holds locks on at least a fraction
+ * minSaturation of the children of a context with at least minCapacity children, or on at
+ * least maxChildLocks children, however many there are.
+ *
+ * Policies are immutable, so one may be shared between contexts.
+ */
+public class EscalationPolicy {
+    public static final double DEFAULT_MIN_SATURATION = 0.2;
+    public static final int DEFAULT_MIN_CAPACITY = 10;
+    public static final int DEFAULT_MAX_CHILD_LOCKS = 1000;
+
+    /**
+     * Escalates once a transaction has locked 20% of the pages of a table with at least
+     * 10 pages, or 1000 pages of any table.
+     */
+    public static final EscalationPolicy DEFAULT = new EscalationPolicy(DEFAULT_MIN_SATURATION,
+            DEFAULT_MIN_CAPACITY, DEFAULT_MAX_CHILD_LOCKS);
+
+    private final double minSaturation;
+    private final int minCapacity;
+    private final int maxChildLocks;
+
+    /**
+     * @param minSaturation fraction of the children of a context a transaction must hold
+     *                      locks on to escalate
+     * @param minCapacity number of children a context must have to escalate on saturation
+     * @param maxChildLocks number of locks on children of a context a transaction must hold
+     *                      to escalate regardless of saturation
+     */
+    public EscalationPolicy(double minSaturation, int minCapacity, int maxChildLocks) {
+        if (minSaturation <= 0.0 || minCapacity < 0 || maxChildLocks <= 0) {
+            throw new IllegalArgumentException("invalid escalation thresholds");
+        }
+        this.minSaturation = minSaturation;
+        this.minCapacity = minCapacity;
+        this.maxChildLocks = maxChildLocks;
+    }
+
+    public double getMinSaturation() {
+        return minSaturation;
+    }
+
+    public int getMinCapacity() {
+        return minCapacity;
+    }
+
+    public int getMaxChildLocks() {
+        return maxChildLocks;
+    }
+
+    /**
+     * @return whether TRANSACTION's locks on children of CONTEXT should be escalated
+     */
+    boolean shouldEscalate(LockContext context, TransactionContext transaction) {
+        int numChildLocks = context.getNumChildLocks(transaction);
+        if (numChildLocks == 0) {
+            return false;
+        }
+        if (numChildLocks >= maxChildLocks) {
+            return true;
+        }
+        return context.capacity() >= minCapacity && context.saturation(transaction) >= minSaturation;
+    }
+
+    @Override
+    public String toString() {
+        return "EscalationPolicy(saturation >= " + minSaturation + " of at least " + minCapacity +
+               ", or " + maxChildLocks + " locks)";
+    }
+}
@@ -40,6 +40,10 @@ public class LockContext {
     // Whether or not any new child LockContexts should be marked readonly.
     protected boolean childLocksDisabled;
 
+    // When to escalate locks on children of this context to this context, or null to
+    // never escalate automatically.
+    protected volatile EscalationPolicy escalationPolicy;
+
     public LockContext(LockManager lockman, LockContext parent, Pair<String, Long> name) {
         this(lockman, parent, name, false);
     }
@@ -94,9 +98,19 @@ public class LockContext {
      */
     public void acquire(TransactionContext transaction, LockType lockType)
     throws InvalidLockException, DuplicateLockRequestException {
-        // TODO(proj4_part1): implement
-
-        return;
+        checkWritable();
+        if (parent != null && !LockType.canBeParentLock(parent.getExplicitLockType(transaction), lockType)) {
+            throw new InvalidLockException("cannot acquire " + lockType + " on " + name + " under " +
+                                           parent.getExplicitLockType(transaction) + " on " + parent.name);
+        }
+        if ((lockType == LockType.S || lockType == LockType.IS) && hasSIXAncestor(transaction)) {
+            throw new InvalidLockException("cannot acquire redundant " + lockType + " on " + name +
+                                           " under a SIX lock");
+        }
+        lockman.acquire(transaction, name, lockType);
+        if (parent != null) {
+            parent.addNumChildLocks(transaction.getTransNum(), 1);
+        }
     }
 
     /**
@@ -112,9 +126,19 @@ public class LockContext {
      */
     public void release(TransactionContext transaction)
     throws NoLockHeldException, InvalidLockException {
-        // TODO(proj4_part1): implement
-
-        return;
+        checkWritable();
+        if (getExplicitLockType(transaction) == LockType.NL) {
+            throw new NoLockHeldException("no lock on " + name + " held by transaction " +
+                                          transaction.getTransNum());
+        }
+        if (getNumChildLocks(transaction) > 0) {
+            throw new InvalidLockException("cannot release lock on " + name +
+                                           " while holding locks on its children");
+        }
+        lockman.release(transaction, name);
+        if (parent != null) {
+            parent.addNumChildLocks(transaction.getTransNum(), -1);
+        }
     }
 
     /**
@@ -134,9 +158,41 @@ public class LockContext {
      */
     public void promote(TransactionContext transaction, LockType newLockType)
     throws DuplicateLockRequestException, NoLockHeldException, InvalidLockException {
-        // TODO(proj4_part1): implement
+        checkWritable();
+        LockType lockType = getExplicitLockType(transaction);
+        if (lockType == LockType.NL) {
+            throw new NoLockHeldException("no lock on " + name + " held by transaction " +
+                                          transaction.getTransNum());
+        }
+        if (lockType == newLockType) {
+            throw new DuplicateLockRequestException("transaction " + transaction.getTransNum() +
+                                                    " already holds " + newLockType + " on " + name);
+        }
+        if (parent != null && !LockType.canBeParentLock(parent.getExplicitLockType(transaction), newLockType)) {
+            throw new InvalidLockException("cannot promote to " + newLockType + " on " + name + " under " +
+                                           parent.getExplicitLockType(transaction) + " on " + parent.name);
+        }
+        if (newLockType != LockType.SIX) {
+            if (!LockType.substitutable(newLockType, lockType)) {
+                throw new InvalidLockException(newLockType + " is not a promotion of " + lockType);
+            }
+            lockman.promote(transaction, name, newLockType);
+            return;
+        }
 
-        return;
+        if (lockType != LockType.IS && lockType != LockType.IX && lockType != LockType.S) {
+            throw new InvalidLockException(newLockType + " is not a promotion of " + lockType);
+        }
+        if (hasSIXAncestor(transaction)) {
+            throw new InvalidLockException("cannot promote to redundant SIX on " + name + " under a SIX lock");
+        }
+        // S and IS locks on descendants are implied by the SIX lock
+        List<ResourceName> descendants = sisDescendants(transaction);
+        List<ResourceName> releaseNames = new ArrayList<>();
+        releaseNames.add(name);
+        releaseNames.addAll(descendants);
+        lockman.acquireAndRelease(transaction, name, newLockType, releaseNames);
+        releasedDescendants(transaction, descendants);
     }
 
     /**
@@ -161,9 +217,96 @@ public class LockContext {
      * @throws UnsupportedOperationException if context is readonly
      */
     public void escalate(TransactionContext transaction) throws NoLockHeldException {
-        // TODO(proj4_part1): implement
+        checkWritable();
+        LockType lockType = getExplicitLockType(transaction);
+        if (lockType == LockType.NL) {
+            throw new NoLockHeldException("no lock on " + name + " held by transaction " +
+                                          transaction.getTransNum());
+        }
+
+        List<ResourceName> descendants = new ArrayList<>();
+        boolean exclusive = isExclusive(lockType);
+        for (Lock lock : lockman.getLocks(transaction)) {
+            if (lock.name.isDescendantOf(name)) {
+                descendants.add(lock.name);
+                exclusive |= isExclusive(lock.lockType);
+            }
+        }
+        LockType newLockType = exclusive ? LockType.X : LockType.S;
+        if (descendants.isEmpty() && lockType == newLockType) {
+            return;
+        }
+
+        List<ResourceName> releaseNames = new ArrayList<>();
+        releaseNames.add(name);
+        releaseNames.addAll(descendants);
+        lockman.acquireAndRelease(transaction, name, newLockType, releaseNames);
+        releasedDescendants(transaction, descendants);
+        lockman.getEscalationMetrics().escalated(descendants.size());
+    }
+
+    /**
+     * Escalates TRANSACTION's locks on descendants of this context if the escalation
+     * policy of this context says so, and TRANSACTION holds a lock here to escalate.
+     *
+     * @return whether the locks were escalated
+     */
+    boolean escalateIfNeeded(TransactionContext transaction) {
+        EscalationPolicy policy = escalationPolicy;
+        if (policy == null || readonly || !policy.shouldEscalate(this, transaction) ||
+                getExplicitLockType(transaction) == LockType.NL) {
+            return false;
+        }
+        escalate(transaction);
+        lockman.getEscalationMetrics().escalatedAutomatically();
+        return true;
+    }
+
+    private static boolean isExclusive(LockType lockType) {
+        return lockType == LockType.X || lockType == LockType.IX || lockType == LockType.SIX;
+    }
+
+    /**
+     * @return names of the descendants of this context TRANSACTION holds S or IS locks on
+     */
+    private List<ResourceName> sisDescendants(TransactionContext transaction) {
+        List<ResourceName> descendants = new ArrayList<>();
+        for (Lock lock : lockman.getLocks(transaction)) {
+            if ((lock.lockType == LockType.S || lock.lockType == LockType.IS) &&
+                    lock.name.isDescendantOf(name)) {
+                descendants.add(lock.name);
+            }
+        }
+        return descendants;
+    }
+
+    /**
+     * Updates the number of child locks of the parents of DESCENDANTS, whose locks
+     * TRANSACTION has released.
+     */
+    private void releasedDescendants(TransactionContext transaction, List<ResourceName> descendants) {
+        for (ResourceName descendant : descendants) {
+            LockContext context = fromResourceName(lockman, descendant);
+            context.parent.addNumChildLocks(transaction.getTransNum(), -1);
+        }
+    }
+
+    /**
+     * @return whether TRANSACTION holds a SIX lock on an ancestor of this context
+     */
+    private boolean hasSIXAncestor(TransactionContext transaction) {
+        for (LockContext ctx = parent; ctx != null; ctx = ctx.parent) {
+            if (ctx.getExplicitLockType(transaction) == LockType.SIX) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        return;
+    private void checkWritable() {
+        if (readonly) {
+            throw new UnsupportedOperationException("lock context " + name + " is readonly");
+        }
     }
 
     /**
@@ -175,8 +318,29 @@ public class LockContext {
         if (transaction == null) {
             return LockType.NL;
         }
-        // TODO(proj4_part1): implement
-        return LockType.NL;
+        LockType lockType = getExplicitLockType(transaction);
+        if (lockType == LockType.S || lockType == LockType.SIX || lockType == LockType.X ||
+                parent == null) {
+            return lockType;
+        }
+        // S, SIX and X locks imply S, S and X locks on every descendant
+        LockType implied;
+        switch (parent.getEffectiveLockType(transaction)) {
+        case S:
+        case SIX:
+            implied = LockType.S;
+            break;
+        case X:
+            implied = LockType.X;
+            break;
+        default:
+            implied = LockType.NL;
+            break;
+        }
+        if (implied == LockType.NL || lockType == LockType.NL) {
+            return lockType == LockType.NL ? implied : lockType;
+        }
+        return lockType == LockType.IX && implied == LockType.S ? LockType.SIX : implied;
     }
 
     /**
@@ -186,8 +350,7 @@ public class LockContext {
         if (transaction == null) {
             return LockType.NL;
         }
-        // TODO(proj4_part1): implement
-        return LockType.NL;
+        return lockman.getLockType(transaction, name);
     }
 
     /**
@@ -201,6 +364,22 @@ public class LockContext {
         this.childLocksDisabled = true;
     }
 
+    /**
+     * Sets when to escalate locks on children of this context to this context (see
+     * EscalationPolicy), or disables automatic escalation if POLICY is null.
+     */
+    public void setEscalationPolicy(EscalationPolicy policy) {
+        this.escalationPolicy = policy;
+    }
+
+    /**
+     * Gets when locks on children of this context are escalated, or null if they are
+     * never escalated automatically.
+     */
+    public EscalationPolicy getEscalationPolicy() {
+        return escalationPolicy;
+    }
+
     /**
      * Gets the parent context.
      */
@@ -256,6 +435,23 @@ public class LockContext {
         return ((double) numChildLocks.getOrDefault(transaction.getTransNum(), 0)) / capacity();
     }
 
+    /**
+     * Gets the number of locks TRANSACTION holds on children of this context.
+     */
+    public int getNumChildLocks(TransactionContext transaction) {
+        if (transaction == null) {
+            return 0;
+        }
+        return numChildLocks.getOrDefault(transaction.getTransNum(), 0);
+    }
+
+    private void addNumChildLocks(long transNum, int delta) {
+        numChildLocks.compute(transNum, (t, count) -> {
+            int newCount = (count == null ? 0 : count) + delta;
+            return newCount == 0 ? null : newCount;
+        });
+    }
+
     @Override
     public String toString() {
         return "LockContext(" + name.toString() + ")";
@@ -4,6 +4,13 @@ import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Pair;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * LockManager maintains the bookkeeping for what transactions have
@@ -39,15 +46,81 @@ import java.util.*;
  * This does mean that in the case of:
  *    queue: S(A) X(A) S(A)
  * only the first request should be removed from the queue when the queue is processed.
+ *
+ * The lock table is partitioned by the hash of the resource name into stripes, each with
+ * its own lock, so that requests on unrelated resources do not contend. A request that
+ * touches several resources at once (acquire-and-release) locks the stripes of all of
+ * them, in stripe order. The locks each transaction holds are kept in a separate list per
+ * transaction, which only requests by or granted to that transaction change.
+ *
+ * Processing a queue may grant a request that releases locks on resources in other
+ * stripes; those are released (and their queues processed) after the stripe of the
+ * granted lock is unlocked, and the waiting transaction is unblocked once they are.
+ *
+ * Almost every transaction takes IS or IX locks on the database and on each table it
+ * touches, so these few resources would be the hottest entries of the lock table, even
+ * though intent locks are compatible with each other. IS and IX locks on the database
+ * and on tables are instead granted on a fast path: only recorded in the transaction's
+ * list, without touching the lock table, as long as no S, SIX or X lock is held or
+ * requested on the resource. Such strong requests are counted per resource (in a fixed
+ * array of counters indexed by hash, so two resources may share a counter), and a strong
+ * request first moves any fast-path locks on its resource into the lock table, so that
+ * it sees them. While the count is nonzero, intent locks on the resource go through the
+ * lock table as usual.
+ *
+ * Requests can also be made without blocking the calling thread (acquireAsync and friends):
+ * a request that has to wait then returns a future that is completed when the request is
+ * granted, rather than blocking the transaction until then. The blocking methods make the
+ * same requests, and block the transaction until their futures complete.
+ *
+ * A DeadlockDetector attached to the lock manager periodically looks for cycles in the
+ * graph of which waiting transactions wait for which, and cancels the request of one
+ * transaction in each cycle, which then gets a DeadlockException.
+ *
+ * Deadlocks can instead be prevented, with the wait-die or wound-wait rule (see
+ * DeadlockPolicy). Whenever a request would make its transaction wait for others (those
+ * holding incompatible locks on the resource, and those with incompatible requests ahead
+ * of it in the queue), or would make queued requests wait for it, the rule is applied to
+ * each such pair of transactions, and the one it picks is aborted: a request that would
+ * wait throws a DeadlockException instead of being queued, and a request that is waiting
+ * is cancelled as if by the detector. A wounded transaction that is not waiting is only
+ * aborted the next time it would wait, so a transaction is never aborted while it runs.
+ *
+ * Requests that have to wait are recorded in the lock manager's LockWaitMetrics, by
+ * resource and by transaction, when they are queued and when they are granted or
+ * cancelled; requests granted at once are not recorded.
  */
 public class LockManager {
-    // transactionLocks is a mapping from transaction number to a list of lock
-    // objects held by that transaction.
-    private Map<Long, List<Lock>> transactionLocks = new HashMap<>();
-    // resourceEntries is a mapping from resource names to a ResourceEntry
-    // object, which contains a list of Locks on the object, as well as a
-    // queue for requests on that resource.
-    private Map<ResourceName, ResourceEntry> resourceEntries = new HashMap<>();
+    // Number of stripes the lock table is partitioned into by default.
+    public static final int DEFAULT_NUM_STRIPES = 64;
+    // Number of counters of strong (S, SIX, X) requests on fast-path resources.
+    private static final int NUM_STRONG_COUNTERS = 1024;
+
+    // transactionLocks is a mapping from transaction number to the locks held by that
+    // transaction. Entries are only changed inside compute calls on their transaction's
+    // key, so each transaction's locks are guarded separately.
+    private final Map<Long, HeldLocks> transactionLocks = new ConcurrentHashMap<>();
+    // Number of strong locks held or requested on the fast-path resources hashing to
+    // each counter.
+    private final AtomicIntegerArray strongLockCounts = new AtomicIntegerArray(NUM_STRONG_COUNTERS);
+    // Whether new intent locks may be granted on the fast path.
+    private volatile boolean fastPathEnabled = true;
+    // Deadlock detector to tell about transactions that start waiting, if any.
+    private volatile DeadlockDetector deadlockDetector = null;
+    // How deadlocks are dealt with.
+    private volatile DeadlockPolicy deadlockPolicy = DeadlockPolicy.DETECT;
+    // The request each waiting transaction is waiting on.
+    private final Map<Long, LockRequest> waitingRequests = new ConcurrentHashMap<>();
+    // Transactions wounded under wound-wait, which may not wait for a lock until they end.
+    private final Set<Long> wounded = ConcurrentHashMap.newKeySet();
+    // Escalations done through the lock contexts of this lock manager.
+    private final EscalationMetrics escalationMetrics = new EscalationMetrics(this);
+    // Waits for locks in this lock manager.
+    private final LockWaitMetrics waitMetrics = new LockWaitMetrics(this);
+    // Partitions of the lock table. Each maps resource names to a ResourceEntry object,
+    // which contains a list of Locks on the object, as well as a queue for requests on
+    // that resource.
+    private final Stripe[] stripes;
 
     // A ResourceEntry contains the list of locks on a resource, as well as
     // the queue for requests for locks on the resource.
@@ -57,7 +130,46 @@ public class LockManager {
         // Queue for yet-to-be-satisfied lock requests on this resource.
         Deque<LockRequest> waitingQueue = new ArrayDeque<>();
 
-        // TODO(proj4_part1): You may add helper methods here if you wish
+        /**
+         * @return whether a LOCKTYPE lock for transaction TRANSNUM is compatible with the
+         * locks other transactions hold on the resource
+         */
+        boolean compatible(LockType lockType, long transNum) {
+            for (Lock lock : locks) {
+                if (lock.transactionNum != transNum && !LockType.compatible(lock.lockType, lockType)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the lock transaction TRANSNUM holds on the resource, or null
+         */
+        Lock getLock(long transNum) {
+            for (Lock lock : locks) {
+                if (lock.transactionNum == transNum) {
+                    return lock;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Replaces a transaction's lock on the resource with LOCK, keeping its place in the
+         * order of acquisition, or adds LOCK if the transaction has none.
+         */
+        void grant(Lock lock) {
+            for (ListIterator<Lock> iter = locks.listIterator(); iter.hasNext(); ) {
+                Lock old = iter.next();
+                if (old.transactionNum.equals(lock.transactionNum)) {
+                    iter.set(lock);
+                    endStrong(old);
+                    return;
+                }
+            }
+            locks.add(lock);
+        }
 
         @Override
         public String toString() {
@@ -66,19 +178,719 @@ public class LockManager {
         }
     }
 
+    // The locks a transaction holds, and which of them were granted on the fast path
+    // (and so are not in the lock table).
+    private static class HeldLocks {
+        // in order of acquisition; looked up by resource on every lock request, so that a
+        // transaction holding many locks does not scan them all each time
+        final Map<ResourceName, Lock> locks = new LinkedHashMap<>();
+        final Set<ResourceName> fastPath = new HashSet<>();
+
+        Lock get(ResourceName name) {
+            return locks.get(name);
+        }
+
+        /**
+         * Replaces the lock on LOCK's resource with LOCK, keeping its place in the order of
+         * acquisition, or adds LOCK if there is none.
+         */
+        void put(Lock lock) {
+            locks.put(lock.name, lock);
+        }
+
+        void remove(ResourceName name) {
+            locks.remove(name);
+            fastPath.remove(name);
+        }
+    }
+
+    // Transactions deadlock prevention aborts, found while the stripes of a request are
+    // locked, and aborted once they are unlocked (see abortVictims).
+    private static class Victims {
+        final DeadlockPolicy policy;
+        // waiting requests of transactions that die
+        final List<LockRequest> requests = new ArrayList<>();
+        // transactions that are wounded
+        final Set<Long> wounded = new HashSet<>();
+
+        Victims(DeadlockPolicy policy) {
+            this.policy = policy;
+        }
+    }
+
+    // A partition of the lock table.
+    private class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<ResourceName, ResourceEntry> resourceEntries = new HashMap<>();
+    }
+
     // You should not modify or use this directly.
-    private Map<Long, LockContext> contexts = new HashMap<>();
+    private Map<Long, LockContext> contexts = new ConcurrentHashMap<>();
+
+    public LockManager() {
+        this(DEFAULT_NUM_STRIPES);
+    }
+
+    /**
+     * @param numStripes number of partitions of the lock table
+     */
+    public LockManager(int numStripes) {
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("lock table needs at least one stripe");
+        }
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; ++i) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Enables or disables granting intent locks on the fast path. Locks already granted
+     * on the fast path are unaffected.
+     */
+    public void setFastPathEnabled(boolean enabled) {
+        this.fastPathEnabled = enabled;
+    }
+
+    void setDeadlockDetector(DeadlockDetector deadlockDetector) {
+        this.deadlockDetector = deadlockDetector;
+    }
+
+    DeadlockDetector getDeadlockDetector() {
+        return deadlockDetector;
+    }
+
+    /**
+     * Sets how deadlocks are dealt with (see DeadlockPolicy). Requests already waiting are
+     * left waiting: deadlocks among them are only broken by the deadlock detector, if any.
+     */
+    public void setDeadlockPolicy(DeadlockPolicy deadlockPolicy) {
+        this.deadlockPolicy = deadlockPolicy;
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return deadlockPolicy;
+    }
+
+    private int getStripeIndex(ResourceName name) {
+        int h = name.hashCode();
+        h ^= (h >>> 16);
+        return Math.floorMod(h, stripes.length);
+    }
+
+    private Stripe getStripe(ResourceName name) {
+        return stripes[getStripeIndex(name)];
+    }
 
     /**
      * Helper method to fetch the resourceEntry corresponding to NAME.
      * Inserts a new (empty) resourceEntry into the map if no entry exists yet.
+     * The stripe of NAME must be locked.
      */
     private ResourceEntry getResourceEntry(ResourceName name) {
-        resourceEntries.putIfAbsent(name, new ResourceEntry());
-        return resourceEntries.get(name);
+        return getStripe(name).resourceEntries.computeIfAbsent(name, n -> new ResourceEntry());
+    }
+
+    /**
+     * Drops the entry for NAME if no locks are held or requested on it, so that the lock
+     * table does not keep every resource ever locked. The stripe of NAME must be locked.
+     */
+    private void dropIfUnused(ResourceName name, ResourceEntry entry) {
+        if (entry.locks.isEmpty() && entry.waitingQueue.isEmpty()) {
+            getStripe(name).resourceEntries.remove(name);
+        }
+    }
+
+    /**
+     * Locks the stripes of NAMES, in stripe order.
+     * @return the stripes locked, to pass to unlockStripes
+     */
+    private List<Stripe> lockStripes(Collection<ResourceName> names) {
+        SortedSet<Integer> indices = new TreeSet<>();
+        for (ResourceName name : names) {
+            indices.add(getStripeIndex(name));
+        }
+        List<Stripe> locked = new ArrayList<>();
+        for (int i : indices) {
+            stripes[i].lock.lock();
+            locked.add(stripes[i]);
+        }
+        return locked;
+    }
+
+    private static void unlockStripes(List<Stripe> locked) {
+        for (int i = locked.size() - 1; i >= 0; --i) {
+            locked.get(i).lock.unlock();
+        }
+    }
+
+    // Per-transaction lock lists ////////////////////////////////////////////////////////
+
+    /**
+     * Records LOCK as held by its transaction, replacing the transaction's lock on the
+     * same resource in place if it has one.
+     */
+    private void addTransactionLock(Lock lock) {
+        transactionLocks.compute(lock.transactionNum, (transNum, held) -> {
+            if (held == null) {
+                held = new HeldLocks();
+            }
+            held.put(lock);
+            held.fastPath.remove(lock.name);
+            return held;
+        });
+    }
+
+    private void removeTransactionLock(long transNum, ResourceName name) {
+        transactionLocks.computeIfPresent(transNum, (t, held) -> {
+            held.remove(name);
+            return held.locks.isEmpty() ? null : held;
+        });
+    }
+
+    /**
+     * @return the lock TRANSNUM holds on NAME, or null
+     */
+    private Lock getTransactionLock(long transNum, ResourceName name) {
+        Lock[] found = new Lock[1];
+        transactionLocks.computeIfPresent(transNum, (t, held) -> {
+            found[0] = held.get(name);
+            return held;
+        });
+        return found[0];
+    }
+
+    // Fast path ///////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return whether intent locks on NAME (the database or a table) may be granted on
+     * the fast path
+     */
+    private static boolean isFastPathResource(ResourceName name) {
+        return name.getNames().size() <= 2;
+    }
+
+    private static boolean isStrong(LockType lockType) {
+        return lockType == LockType.S || lockType == LockType.SIX || lockType == LockType.X;
+    }
+
+    private int getStrongCounter(ResourceName name) {
+        return Math.floorMod(name.hashCode(), NUM_STRONG_COUNTERS);
+    }
+
+    /**
+     * Grants LOCK on the fast path, replacing the transaction's fast-path lock on the
+     * resource if it has one, unless a strong lock on a resource sharing its counter is
+     * held or requested.
+     * @return whether the lock was granted
+     */
+    private boolean tryFastPath(Lock lock) {
+        if (!fastPathEnabled || !isFastPathResource(lock.name) || isStrong(lock.lockType)) {
+            return false;
+        }
+        int counter = getStrongCounter(lock.name);
+        if (strongLockCounts.get(counter) != 0) {
+            return false;
+        }
+        // the entry must be in the map before the count is checked, so that a strong
+        // request that increments the count afterwards finds it when draining
+        transactionLocks.computeIfAbsent(lock.transactionNum, t -> new HeldLocks());
+        boolean[] granted = new boolean[1];
+        transactionLocks.computeIfPresent(lock.transactionNum, (t, held) -> {
+            Lock old = held.get(lock.name);
+            boolean inLockTable = old != null && !held.fastPath.contains(lock.name);
+            if (!inLockTable && strongLockCounts.get(counter) == 0) {
+                held.put(lock);
+                held.fastPath.add(lock.name);
+                granted[0] = true;
+            }
+            return held.locks.isEmpty() ? null : held;
+        });
+        return granted[0];
+    }
+
+    /**
+     * Releases TRANSNUM's lock on NAME if it was granted on the fast path.
+     * @return whether the lock was released
+     */
+    private boolean tryReleaseFastPath(long transNum, ResourceName name) {
+        boolean[] released = new boolean[1];
+        transactionLocks.computeIfPresent(transNum, (t, held) -> {
+            if (held.fastPath.contains(name)) {
+                held.remove(name);
+                released[0] = true;
+            }
+            return held.locks.isEmpty() ? null : held;
+        });
+        return released[0];
+    }
+
+    /**
+     * Counts a strong request for a LOCKTYPE lock on NAME, which stays counted until the
+     * lock is released or replaced. Must be called before the stripe of NAME is locked to
+     * make the request, so that no intent lock is granted on the fast path after
+     * drainFastPath.
+     */
+    private void beginStrong(ResourceName name, LockType lockType) {
+        if (isFastPathResource(name) && isStrong(lockType)) {
+            strongLockCounts.incrementAndGet(getStrongCounter(name));
+        }
+    }
+
+    private void endStrong(Lock lock) {
+        if (isFastPathResource(lock.name) && isStrong(lock.lockType)) {
+            strongLockCounts.decrementAndGet(getStrongCounter(lock.name));
+        }
+    }
+
+    /**
+     * Moves the locks on NAME granted on the fast path into the lock table. The stripe of
+     * NAME must be locked.
+     */
+    private void drainFastPath(ResourceName name) {
+        if (!isFastPathResource(name)) {
+            return;
+        }
+        ResourceEntry entry = getResourceEntry(name);
+        for (Long transNum : transactionLocks.keySet()) {
+            transactionLocks.computeIfPresent(transNum, (t, held) -> {
+                if (held.fastPath.remove(name)) {
+                    entry.locks.add(held.get(name));
+                }
+                return held;
+            });
+        }
+    }
+
+    // Granting and releasing /////////////////////////////////////////////////////////////
+
+    /**
+     * Removes TRANSNUM's lock on NAME from the lock table. The stripe of NAME must be
+     * locked.
+     */
+    private void removeLock(long transNum, ResourceName name) {
+        ResourceEntry entry = getResourceEntry(name);
+        for (Iterator<Lock> iter = entry.locks.iterator(); iter.hasNext(); ) {
+            Lock lock = iter.next();
+            if (lock.transactionNum == transNum) {
+                iter.remove();
+                endStrong(lock);
+            }
+        }
+        removeTransactionLock(transNum, name);
+        dropIfUnused(name, entry);
+    }
+
+    /**
+     * Grants the requests at the front of the queue of each resource in TOPROCESS that can
+     * be granted, releasing the locks they release (which in turn processes the queues of
+     * those resources), and unblocks their transactions. No stripe may be locked.
+     */
+    private void processQueues(Deque<ResourceName> toProcess) {
+        while (!toProcess.isEmpty()) {
+            ResourceName name = toProcess.poll();
+            List<LockRequest> granted = new ArrayList<>();
+            Stripe stripe = getStripe(name);
+            stripe.lock.lock();
+            try {
+                ResourceEntry entry = getResourceEntry(name);
+                while (!entry.waitingQueue.isEmpty()) {
+                    LockRequest request = entry.waitingQueue.peek();
+                    long transNum = request.transaction.getTransNum();
+                    if (!entry.compatible(request.lock.lockType, transNum)) {
+                        break;
+                    }
+                    entry.waitingQueue.poll();
+                    waitingRequests.remove(transNum, request);
+                    entry.grant(request.lock);
+                    addTransactionLock(request.lock);
+                    granted.add(request);
+                }
+                dropIfUnused(name, entry);
+            } finally {
+                stripe.lock.unlock();
+            }
+
+            for (LockRequest request : granted) {
+                long transNum = request.transaction.getTransNum();
+                for (Lock released : request.releasedLocks) {
+                    if (released.name.equals(request.lock.name)) {
+                        continue;
+                    }
+                    Stripe releasedStripe = getStripe(released.name);
+                    releasedStripe.lock.lock();
+                    try {
+                        removeLock(transNum, released.name);
+                    } finally {
+                        releasedStripe.lock.unlock();
+                    }
+                    toProcess.add(released.name);
+                }
+                waitMetrics.waitEnded(request, false);
+                request.granted.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Makes the transaction of REQUEST, which has just been queued, ready to block in
+     * waitFor until the request is granted or cancelled. The stripe of the request's
+     * resource must still be locked, so that the request cannot be granted (and the
+     * transaction unblocked) before the transaction is prepared to block.
+     */
+    private static void prepareWait(LockRequest request) {
+        TransactionContext transaction = request.transaction;
+        transaction.prepareBlock();
+        request.granted.whenComplete((v, e) -> transaction.unblock());
+    }
+
+    /**
+     * Blocks the transaction of REQUEST, prepared with prepareWait, until the request is
+     * granted or cancelled.
+     * @throws DeadlockException if the request was cancelled to break a deadlock
+     */
+    private void waitFor(LockRequest request) {
+        waitStarted();
+        request.transaction.block();
+        try {
+            request.granted.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof DeadlockException) {
+                throw (DeadlockException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Makes a request with MAKEREQUEST, which returns the request if queued, or null if
+     * granted without waiting.
+     * @return a future completed once the request is granted, already completed if it was
+     * granted without waiting, or already completed with a DeadlockException if deadlock
+     * prevention aborted the transaction rather than let it wait
+     */
+    private CompletableFuture<Void> whenGranted(Supplier<LockRequest> makeRequest) {
+        LockRequest request;
+        try {
+            request = makeRequest.get();
+        } catch (DeadlockException e) {
+            CompletableFuture<Void> aborted = new CompletableFuture<>();
+            aborted.completeExceptionally(e);
+            return aborted;
+        }
+        if (request == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        waitStarted();
+        return request.granted;
+    }
+
+    private void waitStarted() {
+        DeadlockDetector detector = deadlockDetector;
+        // waits cannot form cycles when deadlocks are prevented
+        if (detector != null && deadlockPolicy == DeadlockPolicy.DETECT) {
+            detector.waitStarted();
+        }
+    }
+
+    /**
+     * Builds the waits-for graph of the transactions waiting in the queues, and cancels the
+     * requests of the transactions CHOOSEVICTIMS picks from it. A waiting transaction waits
+     * for every other transaction holding an incompatible lock on the resource, or ahead of
+     * it in the queue with an incompatible request. The whole lock table is locked while
+     * the graph is built and victims are chosen, so that the graph is a snapshot.
+     *
+     * Cancelled requests are removed from their queues, which are then processed, and their
+     * transactions are unblocked and throw a DeadlockException (or, for requests made with
+     * one of the asynchronous methods, their futures complete with one).
+     *
+     * @param chooseVictims maps the graph, from each waiting transaction number to those it
+     *                      waits for, to the waiting transactions to cancel the requests of
+     * @return the transactions whose requests were cancelled
+     */
+    Collection<Long> cancelWaiters(Function<Map<Long, Set<Long>>, Collection<Long>> chooseVictims) {
+        Map<Long, Set<Long>> waitsFor = new HashMap<>();
+        Map<Long, LockRequest> requests = new HashMap<>();
+        Deque<ResourceName> toProcess = new ArrayDeque<>();
+        List<LockRequest> cancelled = new ArrayList<>();
+        List<Stripe> locked = new ArrayList<>();
+        try {
+            for (Stripe stripe : stripes) {
+                stripe.lock.lock();
+                locked.add(stripe);
+            }
+            for (Stripe stripe : stripes) {
+                for (ResourceEntry entry : stripe.resourceEntries.values()) {
+                    List<LockRequest> ahead = new ArrayList<>();
+                    for (LockRequest request : entry.waitingQueue) {
+                        long transNum = request.transaction.getTransNum();
+                        Set<Long> edges = waitsFor.computeIfAbsent(transNum, t -> new HashSet<>());
+                        for (Lock lock : entry.locks) {
+                            if (lock.transactionNum != transNum &&
+                                    !LockType.compatible(lock.lockType, request.lock.lockType)) {
+                                edges.add(lock.transactionNum);
+                            }
+                        }
+                        for (LockRequest other : ahead) {
+                            long otherNum = other.transaction.getTransNum();
+                            if (otherNum != transNum &&
+                                    !LockType.compatible(other.lock.lockType, request.lock.lockType)) {
+                                edges.add(otherNum);
+                            }
+                        }
+                        ahead.add(request);
+                        requests.put(transNum, request);
+                    }
+                }
+            }
+            if (waitsFor.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            for (long victim : chooseVictims.apply(waitsFor)) {
+                LockRequest request = requests.get(victim);
+                dequeue(request);
+                cancelled.add(request);
+                toProcess.add(request.lock.name);
+            }
+        } finally {
+            unlockStripes(locked);
+        }
+
+        failRequests(cancelled, toProcess, "was chosen as a deadlock victim");
+        List<Long> victims = new ArrayList<>();
+        for (LockRequest request : cancelled) {
+            victims.add(request.transaction.getTransNum());
+        }
+        return victims;
+    }
+
+    /**
+     * Removes REQUEST from the queue of its resource, if it is still there. The stripe of
+     * the resource must be locked.
+     * @return whether the request was removed
+     */
+    private boolean dequeue(LockRequest request) {
+        ResourceName name = request.lock.name;
+        ResourceEntry entry = getResourceEntry(name);
+        boolean removed = entry.waitingQueue.remove(request);
+        if (removed) {
+            waitingRequests.remove(request.transaction.getTransNum(), request);
+            endStrong(request.lock);
+        }
+        dropIfUnused(name, entry);
+        return removed;
+    }
+
+    /**
+     * Processes the queues of TOPROCESS, then fails the CANCELLED requests, removed from
+     * their queues with dequeue, with a DeadlockException saying their transaction REASON.
+     * No stripe may be locked.
+     */
+    private void failRequests(List<LockRequest> cancelled, Deque<ResourceName> toProcess, String reason) {
+        processQueues(toProcess);
+        for (LockRequest request : cancelled) {
+            waitMetrics.waitEnded(request, true);
+            request.granted.completeExceptionally(new DeadlockException(
+                    "transaction " + request.transaction.getTransNum() + " " + reason +
+                    " while waiting for " + request.lock));
+        }
+    }
+
+    // Deadlock prevention ///////////////////////////////////////////////////////////////
+
+    /**
+     * @return victims to collect deadlock prevention's decisions in, or null if deadlocks
+     * are not prevented
+     */
+    private Victims newVictims() {
+        DeadlockPolicy policy = deadlockPolicy;
+        return policy == DeadlockPolicy.DETECT ? null : new Victims(policy);
+    }
+
+    /**
+     * @return whether POLICY lets transaction WAITER wait for transaction HOLDER
+     */
+    private static boolean mayWait(DeadlockPolicy policy, long waiter, long holder) {
+        return policy == DeadlockPolicy.WAIT_DIE ? waiter < holder : waiter > holder;
+    }
+
+    /**
+     * Applies the deadlock policy of VICTIMS (if not null) to the waits LOCK would add on
+     * the resource of ENTRY. If WAITS, the transaction of LOCK would wait for those holding
+     * incompatible locks, and, unless ATFRONT, for those with incompatible requests in the
+     * queue; otherwise, or if ATFRONT, those requests would wait for it. Other
+     * transactions to abort are added to VICTIMS. The stripe of the resource must be
+     * locked.
+     * @return whether the transaction of LOCK must be aborted rather than wait
+     */
+    private boolean preventDeadlock(ResourceEntry entry, Lock lock, boolean waits, boolean atFront,
+                                    Victims victims) {
+        if (victims == null) {
+            return false;
+        }
+        long transNum = lock.transactionNum;
+        if (waits && wounded.contains(transNum)) {
+            return true;
+        }
+        boolean dies = false;
+        if (waits) {
+            for (Lock held : entry.locks) {
+                if (held.transactionNum != transNum && !LockType.compatible(held.lockType, lock.lockType) &&
+                        !mayWait(victims.policy, transNum, held.transactionNum)) {
+                    if (victims.policy == DeadlockPolicy.WAIT_DIE) {
+                        dies = true;
+                    } else {
+                        victims.wounded.add(held.transactionNum);
+                    }
+                }
+            }
+        }
+        for (LockRequest request : entry.waitingQueue) {
+            long otherNum = request.transaction.getTransNum();
+            if (otherNum == transNum || LockType.compatible(request.lock.lockType, lock.lockType)) {
+                continue;
+            }
+            if (waits && !atFront) {
+                // waits behind the request
+                if (!mayWait(victims.policy, transNum, otherNum)) {
+                    if (victims.policy == DeadlockPolicy.WAIT_DIE) {
+                        dies = true;
+                    } else {
+                        victims.wounded.add(otherNum);
+                    }
+                }
+            } else if (!mayWait(victims.policy, otherNum, transNum)) {
+                if (victims.policy == DeadlockPolicy.WAIT_DIE) {
+                    victims.requests.add(request);
+                } else if (waits) {
+                    dies = true;
+                } else {
+                    victims.wounded.add(transNum);
+                }
+            }
+        }
+        return dies;
+    }
+
+    /**
+     * Aborts VICTIMS (if not null): cancels the requests of those that die, and wounds the
+     * others, cancelling the request each is waiting on, if any. No stripe may be locked.
+     *
+     * A transaction is wounded before its waiting request is looked up here, and a request
+     * is published in waitingRequests before its transaction checks whether it is wounded
+     * (see enqueue), so that a wounded transaction cannot start waiting unnoticed.
+     */
+    private void abortVictims(Victims victims) {
+        if (victims == null || (victims.requests.isEmpty() && victims.wounded.isEmpty())) {
+            return;
+        }
+        List<LockRequest> requests = new ArrayList<>(victims.requests);
+        for (long transNum : victims.wounded) {
+            wounded.add(transNum);
+            LockRequest request = waitingRequests.get(transNum);
+            if (request != null) {
+                requests.add(request);
+            }
+        }
+        List<LockRequest> cancelled = new ArrayList<>();
+        Deque<ResourceName> toProcess = new ArrayDeque<>();
+        for (LockRequest request : requests) {
+            Stripe stripe = getStripe(request.lock.name);
+            stripe.lock.lock();
+            try {
+                if (dequeue(request)) {
+                    cancelled.add(request);
+                    toProcess.add(request.lock.name);
+                    waitMetrics.preventionAbort();
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        failRequests(cancelled, toProcess, "was aborted by " + victims.policy + " deadlock prevention");
+    }
+
+    /**
+     * Queues REQUEST on the resource of ENTRY, at the front of the queue if ATFRONT, and
+     * prepares its transaction to block (see prepareWait) if BLOCKING, unless deadlock
+     * prevention aborts the transaction rather than let it wait. Other transactions to
+     * abort are added to VICTIMS. The stripe of the resource must be locked.
+     * @throws DeadlockException if the transaction is aborted
+     */
+    private void enqueue(ResourceEntry entry, LockRequest request, boolean atFront, boolean blocking,
+                         Victims victims) {
+        long transNum = request.transaction.getTransNum();
+        // published before checking for a wound (see abortVictims)
+        waitingRequests.put(transNum, request);
+        if (preventDeadlock(entry, request.lock, true, atFront, victims)) {
+            waitingRequests.remove(transNum, request);
+            endStrong(request.lock);
+            dropIfUnused(request.lock.name, entry);
+            waitMetrics.preventionAbort();
+            throw new DeadlockException("transaction " + transNum + " was aborted by " + victims.policy +
+                                        " deadlock prevention rather than wait for " + request.lock);
+        }
+        if (atFront) {
+            entry.waitingQueue.addFirst(request);
+        } else {
+            entry.waitingQueue.addLast(request);
+        }
+        waitMetrics.waitStarted(request, entry.waitingQueue.size());
+        if (blocking) {
+            prepareWait(request);
+        }
+    }
+
+    /**
+     * @return number of locks transaction TRANSNUM holds
+     */
+    int getNumLocks(long transNum) {
+        int[] count = new int[1];
+        transactionLocks.computeIfPresent(transNum, (t, held) -> {
+            count[0] = held.locks.size();
+            return held;
+        });
+        return count[0];
+    }
+
+    /**
+     * @return number of locks held by all transactions, including those granted on the
+     * fast path
+     */
+    public long getNumLocks() {
+        long[] count = new long[1];
+        for (Long transNum : transactionLocks.keySet()) {
+            transactionLocks.computeIfPresent(transNum, (t, held) -> {
+                count[0] += held.locks.size();
+                return held;
+            });
+        }
+        return count[0];
+    }
+
+    /**
+     * @return counts of escalations done through the lock contexts of this lock manager
+     */
+    public EscalationMetrics getEscalationMetrics() {
+        return escalationMetrics;
     }
 
-    // TODO(proj4_part1): You may add helper methods here if you wish
+    /**
+     * @return waits for locks in this lock manager
+     */
+    public LockWaitMetrics getWaitMetrics() {
+        return waitMetrics;
+    }
+
+    /**
+     * Called when TRANSACTION ends, after it has stopped waiting for locks: adds the time
+     * it spent waiting to the wait metrics, and forgets it (and any wound).
+     */
+    public void end(TransactionContext transaction) {
+        waitMetrics.transactionEnded(transaction.getTransNum());
+        wounded.remove(transaction.getTransNum());
+    }
 
     /**
      * Acquire a LOCKTYPE lock on NAME, for transaction TRANSACTION, and releases all locks
@@ -103,17 +915,95 @@ public class LockManager {
     public void acquireAndRelease(TransactionContext transaction, ResourceName name,
                                   LockType lockType, List<ResourceName> releaseLocks)
     throws DuplicateLockRequestException, NoLockHeldException {
-        // TODO(proj4_part1): implement
-        // You may modify any part of this method. You are not required to keep all your
-        // code within the given synchronized block -- in fact,
-        // you will have to write some code outside the synchronized block to avoid locking up
-        // the entire lock manager when a transaction is blocked. You are also allowed to
-        // move the synchronized block elsewhere if you wish.
-        synchronized (this) {
-            return;
+        LockRequest request = requestAcquireAndRelease(transaction, name, lockType, releaseLocks, true);
+        if (request != null) {
+            waitFor(request);
         }
     }
 
+    /**
+     * Asynchronous acquireAndRelease: never blocks the calling thread.
+     *
+     * Errors are thrown as in acquireAndRelease. Otherwise, the request is made as in
+     * acquireAndRelease, but if it has to wait, the transaction is not blocked: the future
+     * returned completes once the request is granted and the locks in RELEASELOCKS are
+     * released (see acquireAsync).
+     */
+    public CompletableFuture<Void> acquireAndReleaseAsync(TransactionContext transaction, ResourceName name,
+            LockType lockType, List<ResourceName> releaseLocks)
+    throws DuplicateLockRequestException, NoLockHeldException {
+        return whenGranted(() -> requestAcquireAndRelease(transaction, name, lockType, releaseLocks, false));
+    }
+
+    /**
+     * Makes an acquire-and-release request, preparing the transaction to block (see
+     * prepareWait) if BLOCKING and it has to wait.
+     * @return the request, if queued, or null if granted
+     */
+    private LockRequest requestAcquireAndRelease(TransactionContext transaction, ResourceName name,
+            LockType lockType, List<ResourceName> releaseLocks, boolean blocking) {
+        long transNum = transaction.getTransNum();
+        // only this transaction changes its own locks while it is running
+        if (getTransactionLock(transNum, name) != null && !releaseLocks.contains(name)) {
+            throw new DuplicateLockRequestException("transaction " + transNum + " already holds a lock on " + name);
+        }
+        List<Lock> released = new ArrayList<>();
+        for (ResourceName releaseName : releaseLocks) {
+            Lock lock = getTransactionLock(transNum, releaseName);
+            if (lock == null) {
+                throw new NoLockHeldException("transaction " + transNum + " holds no lock on " + releaseName);
+            }
+            released.add(lock);
+        }
+
+        Lock lock = new Lock(name, lockType, transNum);
+        if (tryFastPath(lock)) {
+            for (ResourceName releaseName : releaseLocks) {
+                if (!releaseName.equals(name)) {
+                    releaseLock(transNum, releaseName);
+                }
+            }
+            return null;
+        }
+
+        List<ResourceName> names = new ArrayList<>(releaseLocks);
+        names.add(name);
+        Deque<ResourceName> toProcess = new ArrayDeque<>();
+        LockRequest request = null;
+        Victims victims = newVictims();
+        beginStrong(name, lockType);
+        List<Stripe> locked = lockStripes(names);
+        try {
+            if (isStrong(lockType)) {
+                drainFastPath(name);
+            }
+            ResourceEntry entry = getResourceEntry(name);
+            if (entry.compatible(lockType, transNum)) {
+                entry.grant(lock);
+                addTransactionLock(lock);
+                preventDeadlock(entry, lock, false, false, victims);
+                for (ResourceName releaseName : releaseLocks) {
+                    if (!releaseName.equals(name)) {
+                        removeLock(transNum, releaseName);
+                        toProcess.add(releaseName);
+                    }
+                }
+                // a lock on NAME replaced by a weaker one may let waiters through
+                toProcess.add(name);
+            } else {
+                request = new LockRequest(transaction, lock, released);
+                enqueue(entry, request, true, blocking, victims);
+            }
+        } finally {
+            unlockStripes(locked);
+        }
+        if (request == null) {
+            processQueues(toProcess);
+        }
+        abortVictims(victims);
+        return request;
+    }
+
     /**
      * Acquire a LOCKTYPE lock on NAME, for transaction TRANSACTION.
      *
@@ -127,17 +1017,75 @@ public class LockManager {
      */
     public void acquire(TransactionContext transaction, ResourceName name,
                         LockType lockType) throws DuplicateLockRequestException {
-        // TODO(proj4_part1): implement
-        // You may modify any part of this method. You are not required to keep all your
-        // code within the given synchronized block -- in fact,
-        // you will have to write some code outside the synchronized block to avoid locking up
-        // the entire lock manager when a transaction is blocked. You are also allowed to
-        // move the synchronized block elsewhere if you wish.
-        synchronized (this) {
-            return;
+        LockRequest request = requestAcquire(transaction, name, lockType, true);
+        if (request != null) {
+            waitFor(request);
         }
     }
 
+    /**
+     * Asynchronous acquire: never blocks the calling thread, so that a few threads can
+     * serve many transactions waiting for locks.
+     *
+     * Errors are thrown as in acquire. Otherwise, the request is made as in acquire, but if
+     * it has to wait, the transaction is not blocked: the future returned completes once
+     * the lock is granted, or completes exceptionally with a DeadlockException if the
+     * request is cancelled to break or prevent a deadlock (or at once, if deadlock
+     * prevention aborts the transaction rather than let it wait). It is completed by the thread that grants
+     * the lock (usually one releasing a lock), so dependent actions that do more than
+     * resume the transaction elsewhere should run on an executor of their own (e.g. with
+     * thenRunAsync).
+     *
+     * The future must not be completed or cancelled by the caller, and the transaction must
+     * not make another request until it completes.
+     *
+     * @throws DuplicateLockRequestException if a lock on NAME is held by
+     * TRANSACTION
+     */
+    public CompletableFuture<Void> acquireAsync(TransactionContext transaction, ResourceName name,
+            LockType lockType) throws DuplicateLockRequestException {
+        return whenGranted(() -> requestAcquire(transaction, name, lockType, false));
+    }
+
+    /**
+     * Makes an acquire request, preparing the transaction to block (see prepareWait) if
+     * BLOCKING and it has to wait.
+     * @return the request, if queued, or null if granted
+     */
+    private LockRequest requestAcquire(TransactionContext transaction, ResourceName name,
+                                       LockType lockType, boolean blocking) {
+        long transNum = transaction.getTransNum();
+        if (getTransactionLock(transNum, name) != null) {
+            throw new DuplicateLockRequestException("transaction " + transNum + " already holds a lock on " + name);
+        }
+        Lock lock = new Lock(name, lockType, transNum);
+        if (tryFastPath(lock)) {
+            return null;
+        }
+        LockRequest request = null;
+        Victims victims = newVictims();
+        beginStrong(name, lockType);
+        Stripe stripe = getStripe(name);
+        stripe.lock.lock();
+        try {
+            if (isStrong(lockType)) {
+                drainFastPath(name);
+            }
+            ResourceEntry entry = getResourceEntry(name);
+            if (entry.waitingQueue.isEmpty() && entry.compatible(lockType, transNum)) {
+                entry.grant(lock);
+                addTransactionLock(lock);
+            } else {
+                request = new LockRequest(transaction, lock);
+                enqueue(entry, request, false, blocking, victims);
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        abortVictims(victims);
+        return request;
+    }
+
     /**
      * Release TRANSACTION's lock on NAME.
      *
@@ -151,11 +1099,29 @@ public class LockManager {
      */
     public void release(TransactionContext transaction, ResourceName name)
     throws NoLockHeldException {
-        // TODO(proj4_part1): implement
-        // You may modify any part of this method.
-        synchronized (this) {
+        long transNum = transaction.getTransNum();
+        if (getTransactionLock(transNum, name) == null) {
+            throw new NoLockHeldException("transaction " + transNum + " holds no lock on " + name);
+        }
+        releaseLock(transNum, name);
+    }
+
+    /**
+     * Releases TRANSNUM's lock on NAME, which it holds, and processes the queue of NAME.
+     */
+    private void releaseLock(long transNum, ResourceName name) {
+        if (tryReleaseFastPath(transNum, name)) {
+            // nothing waits on a fast-path lock
             return;
         }
+        Stripe stripe = getStripe(name);
+        stripe.lock.lock();
+        try {
+            removeLock(transNum, name);
+        } finally {
+            stripe.lock.unlock();
+        }
+        processQueues(new ArrayDeque<>(Collections.singletonList(name)));
     }
 
     /**
@@ -181,29 +1147,108 @@ public class LockManager {
     public void promote(TransactionContext transaction, ResourceName name,
                         LockType newLockType)
     throws DuplicateLockRequestException, NoLockHeldException, InvalidLockException {
-        // TODO(proj4_part1): implement
-        // You may modify any part of this method.
-        synchronized (this) {
-            return;
+        LockRequest request = requestPromote(transaction, name, newLockType, true);
+        if (request != null) {
+            waitFor(request);
         }
     }
 
     /**
-     * Return the type of lock TRANSACTION has on NAME (return NL if no lock is held).
+     * Asynchronous promote: never blocks the calling thread.
+     *
+     * Errors are thrown as in promote. Otherwise, the request is made as in promote, but if
+     * it has to wait, the transaction is not blocked: the future returned completes once the
+     * lock is promoted (see acquireAsync).
      */
-    public synchronized LockType getLockType(TransactionContext transaction, ResourceName name) {
-        // TODO(proj4_part1): implement
+    public CompletableFuture<Void> promoteAsync(TransactionContext transaction, ResourceName name,
+            LockType newLockType)
+    throws DuplicateLockRequestException, NoLockHeldException, InvalidLockException {
+        return whenGranted(() -> requestPromote(transaction, name, newLockType, false));
+    }
 
-        return LockType.NL;
+    /**
+     * Makes a promote request, preparing the transaction to block (see prepareWait) if
+     * BLOCKING and it has to wait.
+     * @return the request, if queued, or null if granted
+     */
+    private LockRequest requestPromote(TransactionContext transaction, ResourceName name,
+                                       LockType newLockType, boolean blocking) {
+        long transNum = transaction.getTransNum();
+        Lock oldLock = getTransactionLock(transNum, name);
+        if (oldLock == null) {
+            throw new NoLockHeldException("transaction " + transNum + " holds no lock on " + name);
+        }
+        if (oldLock.lockType == newLockType) {
+            throw new DuplicateLockRequestException("transaction " + transNum + " already holds " +
+                                                    newLockType + " on " + name);
+        }
+        if (!LockType.substitutable(newLockType, oldLock.lockType)) {
+            throw new InvalidLockException(newLockType + " is not a promotion of " + oldLock.lockType);
+        }
+
+        Lock lock = new Lock(name, newLockType, transNum);
+        if (tryFastPath(lock)) {
+            return null;
+        }
+        LockRequest request = null;
+        Victims victims = newVictims();
+        beginStrong(name, newLockType);
+        Stripe stripe = getStripe(name);
+        stripe.lock.lock();
+        try {
+            if (isStrong(newLockType)) {
+                drainFastPath(name);
+            }
+            ResourceEntry entry = getResourceEntry(name);
+            if (entry.compatible(newLockType, transNum)) {
+                entry.grant(lock);
+                addTransactionLock(lock);
+                preventDeadlock(entry, lock, false, false, victims);
+            } else {
+                request = new LockRequest(transaction, lock, Collections.singletonList(oldLock));
+                enqueue(entry, request, true, blocking, victims);
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        abortVictims(victims);
+        return request;
+    }
+
+    /**
+     * Return the type of lock TRANSACTION has on NAME (return NL if no lock is held).
+     */
+    public LockType getLockType(TransactionContext transaction, ResourceName name) {
+        Lock lock = getTransactionLock(transaction.getTransNum(), name);
+        return lock == null ? LockType.NL : lock.lockType;
     }
 
     /**
      * Returns the list of locks held on NAME, in order of acquisition.
      * A promotion or acquire-and-release should count as acquired
-     * at the original time.
+     * at the original time. Locks granted on the fast path come after those in the lock
+     * table, in no particular order.
      */
-    public synchronized List<Lock> getLocks(ResourceName name) {
-        return new ArrayList<>(resourceEntries.getOrDefault(name, new ResourceEntry()).locks);
+    public List<Lock> getLocks(ResourceName name) {
+        Stripe stripe = getStripe(name);
+        stripe.lock.lock();
+        try {
+            ResourceEntry entry = stripe.resourceEntries.get(name);
+            List<Lock> locks = entry == null ? new ArrayList<>() : new ArrayList<>(entry.locks);
+            if (isFastPathResource(name)) {
+                for (Long transNum : transactionLocks.keySet()) {
+                    transactionLocks.computeIfPresent(transNum, (t, held) -> {
+                        if (held.fastPath.contains(name)) {
+                            locks.add(held.get(name));
+                        }
+                        return held;
+                    });
+                }
+            }
+            return locks;
+        } finally {
+            stripe.lock.unlock();
+        }
     }
 
     /**
@@ -211,27 +1256,28 @@ public class LockManager {
      * TRANSACTION, in order of acquisition. A promotion or
      * acquire-and-release should count as acquired at the original time.
      */
-    public synchronized List<Lock> getLocks(TransactionContext transaction) {
-        return new ArrayList<>(transactionLocks.getOrDefault(transaction.getTransNum(),
-                               Collections.emptyList()));
+    public List<Lock> getLocks(TransactionContext transaction) {
+        List<Lock> result = new ArrayList<>();
+        transactionLocks.computeIfPresent(transaction.getTransNum(), (t, held) -> {
+            result.addAll(held.locks.values());
+            return held;
+        });
+        return result;
     }
 
     /**
      * Creates a lock context. See comments at
      * he top of this file and the top of LockContext.java for more information.
      */
-    public synchronized LockContext context(String readable, long name) {
-        if (!contexts.containsKey(name)) {
-            contexts.put(name, new LockContext(this, null, new Pair<>(readable, name)));
-        }
-        return contexts.get(name);
+    public LockContext context(String readable, long name) {
+        return contexts.computeIfAbsent(name, n -> new LockContext(this, null, new Pair<>(readable, n)));
     }
 
     /**
      * Create a lock context for the database. See comments at
      * the top of this file and the top of LockContext.java for more information.
      */
-    public synchronized LockContext databaseContext() {
+    public LockContext databaseContext() {
         return context("database", 0L);
     }
 }
@@ -4,17 +4,23 @@ import edu.berkeley.cs186.database.TransactionContext;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Represents a lock request on the queue, for
  * TRANSACTION requesting LOCK and releasing everything in RELEASEDLOCKS.
  * LOCK should be granted and everything in RELEASEDLOCKS should be released
- * *before* the transaction is unblocked.
+ * *before* the transaction is unblocked, which completes GRANTED. GRANTED completes
+ * exceptionally with a DeadlockException if the request is dropped from the queue because
+ * the transaction was chosen as a deadlock victim.
  */
 class LockRequest {
     TransactionContext transaction;
     Lock lock;
     List<Lock> releasedLocks;
+    final CompletableFuture<Void> granted = new CompletableFuture<>();
+    // when the request was queued (requests are only made when they have to wait)
+    final long queuedNanos = System.nanoTime();
 
     // Lock request for LOCK, that is not releasing anything.
     LockRequest(TransactionContext transaction, Lock lock) {
@@ -18,9 +18,17 @@ public enum LockType {
         if (a == null || b == null) {
             throw new NullPointerException("null lock type");
         }
-        // TODO(proj4_part1): implement
-
-        return false;
+        if (a == NL || b == NL) {
+            return true;
+        }
+        switch (a) {
+        case IS: return b != X;
+        case IX: return b == IS || b == IX;
+        case S: return b == IS || b == S;
+        case SIX: return b == IS;
+        case X: return false;
+        default: throw new UnsupportedOperationException("bad lock type");
+        }
     }
 
     /**
@@ -50,9 +58,19 @@ public enum LockType {
         if (parentLockType == null || childLockType == null) {
             throw new NullPointerException("null lock type");
         }
-        // TODO(proj4_part1): implement
-
-        return false;
+        if (childLockType == NL) {
+            return true;
+        }
+        switch (parentLockType) {
+        case IS: return childLockType == IS || childLockType == S;
+        case IX: return true;
+        // S is already implied on every descendant of a SIX lock
+        case SIX: return childLockType == IX || childLockType == X;
+        case S:
+        case X:
+        case NL: return false;
+        default: throw new UnsupportedOperationException("bad lock type");
+        }
     }
 
     /**
@@ -65,9 +83,15 @@ public enum LockType {
         if (required == null || substitute == null) {
             throw new NullPointerException("null lock type");
         }
-        // TODO(proj4_part1): implement
-
-        return false;
+        switch (required) {
+        case NL: return true;
+        case IS: return substitute != NL;
+        case IX: return substitute == IX || substitute == SIX || substitute == X;
+        case S: return substitute == S || substitute == SIX || substitute == X;
+        case SIX: return substitute == SIX || substitute == X;
+        case X: return substitute == X;
+        default: throw new UnsupportedOperationException("bad lock type");
+        }
     }
 
     @Override
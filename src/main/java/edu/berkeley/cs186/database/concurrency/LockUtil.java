@@ -17,14 +17,102 @@ public class LockUtil {
      * lockType is guaranteed to be one of: S, X, NL.
      *
      * If the current transaction is null (i.e. there is no current transaction), this method should do nothing.
+     * Nor should it do anything for an S lock if the current transaction reads a snapshot.
+     * With an OptimisticLockManager, an S lock is not acquired either: the read is recorded
+     * to be validated when the transaction commits.
+     *
+     * Before anything is acquired, the locks on children of the parent of LOCKCONTEXT are
+     * escalated if the parent's EscalationPolicy says so, which usually makes the lock on
+     * LOCKCONTEXT unnecessary.
      */
     public static void ensureSufficientLockHeld(LockContext lockContext, LockType lockType) {
-        // TODO(proj4_part2): implement
-
+        // checked first: every read and write of a page in a database without locking comes here
+        if (lockContext == null || lockContext instanceof DummyLockContext || lockType == LockType.NL) {
+            return;
+        }
         TransactionContext transaction = TransactionContext.getTransaction(); // current transaction
+        if (transaction == null) {
+            return;
+        }
+        if (lockType == LockType.S && transaction.getSnapshot() != null) {
+            // reads a snapshot, which writers do not change
+            return;
+        }
+        if (lockType == LockType.S && lockContext.lockman instanceof OptimisticLockManager) {
+            // validated when the transaction commits instead
+            ((OptimisticLockManager) lockContext.lockman).read(transaction, lockContext.getResourceName());
+            return;
+        }
+        if (LockType.substitutable(lockContext.getEffectiveLockType(transaction), lockType)) {
+            return;
+        }
+        LockContext parent = lockContext.parentContext();
+        if (parent != null && parent.escalateIfNeeded(transaction) &&
+                LockType.substitutable(lockContext.getEffectiveLockType(transaction), lockType)) {
+            return;
+        }
 
-        return;
+        LockType explicitLockType = lockContext.getExplicitLockType(transaction);
+        if (explicitLockType == LockType.IX && lockType == LockType.S) {
+            lockContext.promote(transaction, LockType.SIX);
+            return;
+        }
+        if (explicitLockType == LockType.IS || explicitLockType == LockType.IX ||
+                explicitLockType == LockType.SIX) {
+            lockContext.escalate(transaction);
+            if (LockType.substitutable(lockContext.getExplicitLockType(transaction), lockType)) {
+                return;
+            }
+            explicitLockType = lockContext.getExplicitLockType(transaction);
+        }
+
+        ensureAncestorsHeld(transaction, parent, LockType.parentLock(lockType));
+        if (explicitLockType == LockType.NL) {
+            lockContext.acquire(transaction, lockType);
+        } else {
+            lockContext.promote(transaction, lockType);
+        }
     }
 
-    // TODO(proj4_part2): add helper methods as you see fit
+    /**
+     * Ensure that the current transaction holds an intent lock of type LOCKTYPE (IS or IX)
+     * on LOCKCONTEXT, or a lock that implies one, so that it can lock children of
+     * LOCKCONTEXT itself.
+     *
+     * If the current transaction is null (i.e. there is no current transaction), this method should do nothing.
+     */
+    public static void ensureIntentLockHeld(LockContext lockContext, LockType lockType) {
+        if (lockType != LockType.IS && lockType != LockType.IX) {
+            throw new IllegalArgumentException("not an intent lock type: " + lockType);
+        }
+        TransactionContext transaction = TransactionContext.getTransaction(); // current transaction
+        if (transaction == null || lockContext == null || lockContext instanceof DummyLockContext) {
+            return;
+        }
+        ensureAncestorsHeld(transaction, lockContext, lockType);
+    }
+
+    /**
+     * Acquires or promotes locks on CONTEXT and its ancestors, top-down, until TRANSACTION
+     * can acquire locks under CONTEXT needing an intent lock of type INTENTTYPE.
+     */
+    private static void ensureAncestorsHeld(TransactionContext transaction, LockContext context,
+                                            LockType intentType) {
+        if (context == null) {
+            return;
+        }
+        LockType lockType = context.getExplicitLockType(transaction);
+        if (LockType.substitutable(lockType, intentType) ||
+                LockType.substitutable(context.getEffectiveLockType(transaction), intentType)) {
+            return;
+        }
+        ensureAncestorsHeld(transaction, context.parentContext(), intentType);
+        if (lockType == LockType.NL) {
+            context.acquire(transaction, intentType);
+        } else if (lockType == LockType.S && intentType == LockType.IX) {
+            context.promote(transaction, LockType.SIX);
+        } else {
+            context.promote(transaction, intentType);
+        }
+    }
 }
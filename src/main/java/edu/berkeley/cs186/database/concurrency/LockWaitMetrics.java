@@ -0,0 +1,322 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.LatencyHistogram;
+
+import java.beans.ConstructorProperties;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Waits for locks in a lock manager: how often and how long requests wait, on which
+ * resources, behind how many other requests, and how long each transaction has spent
+ * waiting. Waits are reported by the lock manager; the getters may be called from any
+ * thread.
+ *
+ * Only requests that have to wait are recorded, when they are queued and when they are
+ * granted or cancelled, so requests granted at once cost nothing more, and the cost of a
+ * wait is small next to the wait itself. Waits are counted per resource for at most
+ * MAX_TRACKED_RESOURCES resources: when a resource that is not tracked is first waited for
+ * while that many are, the tracked resource with the least time waited for it is dropped.
+ * Time spent blocked is kept per transaction until the transaction ends (see
+ * LockManager#end), when it is added to a histogram over all transactions.
+ */
+public class LockWaitMetrics implements LockWaitMetricsMXBean {
+    public static final int MAX_TRACKED_RESOURCES = 1024;
+    // Number of resources getTopContendedResources() lists.
+    public static final int DEFAULT_TOP_RESOURCES = 10;
+
+    private final LockManager lockManager;
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitsEnded = new LongAdder();
+    private final LongAdder cancelledWaits = new LongAdder();
+    private final LongAdder preventionAborts = new LongAdder();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LatencyHistogram transactionBlockedTime = new LatencyHistogram();
+    // Waits for each tracked resource. Only changed while synchronized on it.
+    private final Map<ResourceName, ResourceWaits> resources = new ConcurrentHashMap<>();
+    // Time spent waiting by each transaction that has waited and has not ended.
+    private final Map<Long, LongAdder> blockedNanos = new ConcurrentHashMap<>();
+
+    // Orders resources by time waited for them, then by number of waits.
+    private static final Comparator<ResourceWaits> BY_TOTAL_WAIT_TIME = Comparator
+            .comparingLong((ResourceWaits r) -> r.waitTime.getTotalMicros())
+            .thenComparingLong(r -> r.waits.sum());
+
+    // Waits for one resource.
+    private static class ResourceWaits {
+        final ResourceName name;
+        final LongAdder waits = new LongAdder();
+        final LatencyHistogram waitTime = new LatencyHistogram();
+        // sum of the lengths of the queue when requests joined it
+        final LongAdder queueLengths = new LongAdder();
+        final AtomicInteger maxQueueLength = new AtomicInteger();
+
+        ResourceWaits(ResourceName name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Waits for one resource, as reported by getTopContendedResources.
+     */
+    public static class ContendedResource {
+        private final String name;
+        private final long waits;
+        private final long waiting;
+        private final long totalWaitMicros;
+        private final long waitTimeP99Micros;
+        private final double meanQueueLength;
+        private final int maxQueueLength;
+
+        @ConstructorProperties({"name", "waits", "waiting", "totalWaitMicros", "waitTimeP99Micros",
+                                "meanQueueLength", "maxQueueLength"})
+        public ContendedResource(String name, long waits, long waiting, long totalWaitMicros,
+                                 long waitTimeP99Micros, double meanQueueLength, int maxQueueLength) {
+            this.name = name;
+            this.waits = waits;
+            this.waiting = waiting;
+            this.totalWaitMicros = totalWaitMicros;
+            this.waitTimeP99Micros = waitTimeP99Micros;
+            this.meanQueueLength = meanQueueLength;
+            this.maxQueueLength = maxQueueLength;
+        }
+
+        /**
+         * @return name of the resource (see ResourceName#toString)
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return number of requests that waited for the resource
+         */
+        public long getWaits() {
+            return waits;
+        }
+
+        /**
+         * @return number of requests waiting for the resource when this was taken
+         */
+        public long getWaiting() {
+            return waiting;
+        }
+
+        /**
+         * @return total time requests that are no longer waiting waited, in microseconds
+         */
+        public long getTotalWaitMicros() {
+            return totalWaitMicros;
+        }
+
+        /**
+         * @return 99th percentile time requests waited, in microseconds
+         */
+        public long getWaitTimeP99Micros() {
+            return waitTimeP99Micros;
+        }
+
+        /**
+         * @return mean length of the queue when requests joined it, counting themselves
+         */
+        public double getMeanQueueLength() {
+            return meanQueueLength;
+        }
+
+        /**
+         * @return longest the queue has been when a request joined it
+         */
+        public int getMaxQueueLength() {
+            return maxQueueLength;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + waits + " waits (" + waiting + " waiting), " + totalWaitMicros +
+                   " us total, p99 " + waitTimeP99Micros + " us, queue length mean " +
+                   String.format("%.1f", meanQueueLength) + " max " + maxQueueLength;
+        }
+    }
+
+    LockWaitMetrics(LockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+    /**
+     * Records that REQUEST has joined the queue of its resource, leaving QUEUELENGTH requests
+     * in the queue.
+     */
+    void waitStarted(LockRequest request, int queueLength) {
+        waits.increment();
+        ResourceWaits resource = getResourceWaits(request.lock.name);
+        resource.waits.increment();
+        resource.queueLengths.add(queueLength);
+        resource.maxQueueLength.accumulateAndGet(queueLength, Math::max);
+    }
+
+    /**
+     * Records that REQUEST has stopped waiting: it has been granted, or CANCELLED.
+     */
+    void waitEnded(LockRequest request, boolean cancelled) {
+        long nanos = System.nanoTime() - request.queuedNanos;
+        waitsEnded.increment();
+        if (cancelled) {
+            cancelledWaits.increment();
+        }
+        waitTime.record(nanos);
+        ResourceWaits resource = resources.get(request.lock.name);
+        if (resource != null) {
+            resource.waitTime.record(nanos);
+        }
+        blockedNanos.computeIfAbsent(request.transaction.getTransNum(), t -> new LongAdder()).add(nanos);
+    }
+
+    /**
+     * Records that deadlock prevention aborted a transaction that waited or would have
+     * waited.
+     */
+    void preventionAbort() {
+        preventionAborts.increment();
+    }
+
+    /**
+     * Records the time transaction TRANSNUM, which is ending, has spent waiting.
+     */
+    void transactionEnded(long transNum) {
+        LongAdder blocked = blockedNanos.remove(transNum);
+        transactionBlockedTime.record(blocked == null ? 0L : blocked.sum());
+    }
+
+    private ResourceWaits getResourceWaits(ResourceName name) {
+        ResourceWaits resource = resources.get(name);
+        if (resource != null) {
+            return resource;
+        }
+        synchronized (resources) {
+            resource = resources.get(name);
+            if (resource == null) {
+                if (resources.size() >= MAX_TRACKED_RESOURCES) {
+                    resources.remove(Collections.min(resources.values(), BY_TOTAL_WAIT_TIME).name);
+                }
+                resource = new ResourceWaits(name);
+                resources.put(name, resource);
+            }
+            return resource;
+        }
+    }
+
+    /**
+     * @return time TRANSACTION has spent waiting for locks, in microseconds, if it has not
+     * ended
+     */
+    public long getBlockedMicros(TransactionContext transaction) {
+        LongAdder blocked = blockedNanos.get(transaction.getTransNum());
+        return blocked == null ? 0L : blocked.sum() / 1000L;
+    }
+
+    /**
+     * @return the N tracked resources with the most time waited for them (by requests
+     * that are no longer waiting), most first, with as many waits on ties
+     */
+    public List<ContendedResource> getTopContendedResources(int n) {
+        List<ResourceWaits> sorted = new ArrayList<>(resources.values());
+        sorted.sort(BY_TOTAL_WAIT_TIME.reversed());
+        List<ContendedResource> top = new ArrayList<>();
+        for (ResourceWaits resource : sorted.subList(0, Math.min(n, sorted.size()))) {
+            long resourceWaits = resource.waits.sum();
+            long waiting = Math.max(0L, resourceWaits - resource.waitTime.getCount());
+            double meanQueueLength = resourceWaits == 0 ? 0.0 :
+                                     (double) resource.queueLengths.sum() / resourceWaits;
+            top.add(new ContendedResource(resource.name.toString(), resourceWaits, waiting,
+                                          resource.waitTime.getTotalMicros(),
+                                          resource.waitTime.getPercentileMicros(99.0),
+                                          meanQueueLength, resource.maxQueueLength.get()));
+        }
+        return top;
+    }
+
+    @Override
+    public List<ContendedResource> getTopContendedResources() {
+        return getTopContendedResources(DEFAULT_TOP_RESOURCES);
+    }
+
+    @Override
+    public int getTrackedResources() {
+        return resources.size();
+    }
+
+    @Override
+    public long getWaits() {
+        return waits.sum();
+    }
+
+    @Override
+    public long getWaiting() {
+        return Math.max(0L, waits.sum() - waitsEnded.sum());
+    }
+
+    @Override
+    public long getCancelledWaits() {
+        return cancelledWaits.sum();
+    }
+
+    @Override
+    public long getPreventionAborts() {
+        return preventionAborts.sum();
+    }
+
+    @Override
+    public double getWaitTimeMeanMicros() {
+        return waitTime.getMeanMicros();
+    }
+
+    @Override
+    public long getWaitTimeP50Micros() {
+        return waitTime.getPercentileMicros(50.0);
+    }
+
+    @Override
+    public long getWaitTimeP99Micros() {
+        return waitTime.getPercentileMicros(99.0);
+    }
+
+    @Override
+    public long getWaitTimeMaxMicros() {
+        return waitTime.getMaxMicros();
+    }
+
+    @Override
+    public long[] getWaitTimeHistogram() {
+        return waitTime.getCounts();
+    }
+
+    @Override
+    public double getTransactionBlockedMeanMicros() {
+        return transactionBlockedTime.getMeanMicros();
+    }
+
+    @Override
+    public long getTransactionBlockedP99Micros() {
+        return transactionBlockedTime.getPercentileMicros(99.0);
+    }
+
+    @Override
+    public long getTransactionBlockedMaxMicros() {
+        return transactionBlockedTime.getMaxMicros();
+    }
+
+    @Override
+    public long getDeadlockChecks() {
+        DeadlockDetector detector = lockManager.getDeadlockDetector();
+        return detector == null ? 0L : detector.getRuns();
+    }
+
+    @Override
+    public long getDeadlocksBroken() {
+        DeadlockDetector detector = lockManager.getDeadlockDetector();
+        return detector == null ? 0L : detector.getCyclesDetected();
+    }
+}
@@ -0,0 +1,93 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import java.util.List;
+
+/**
+ * Lock waits and deadlocks of a lock manager, as exposed over JMX. Counts are since the
+ * lock manager was created.
+ */
+public interface LockWaitMetricsMXBean {
+    /**
+     * @return number of lock requests that had to wait
+     */
+    long getWaits();
+
+    /**
+     * @return number of lock requests waiting now
+     */
+    long getWaiting();
+
+    /**
+     * @return number of waiting requests cancelled to break or prevent deadlocks
+     */
+    long getCancelledWaits();
+
+    /**
+     * @return number of requests failed by wait-die or wound-wait deadlock prevention,
+     * whether they were waiting or would have waited
+     */
+    long getPreventionAborts();
+
+    /**
+     * @return mean time requests waited, in microseconds
+     */
+    double getWaitTimeMeanMicros();
+
+    /**
+     * @return median time requests waited, in microseconds (see
+     * LatencyHistogram#getPercentileMicros)
+     */
+    long getWaitTimeP50Micros();
+
+    /**
+     * @return 99th percentile time requests waited, in microseconds
+     */
+    long getWaitTimeP99Micros();
+
+    /**
+     * @return longest time a request waited, in microseconds
+     */
+    long getWaitTimeMaxMicros();
+
+    /**
+     * @return number of waits in each bucket of LatencyHistogram
+     */
+    long[] getWaitTimeHistogram();
+
+    /**
+     * @return mean time ended transactions spent waiting for locks, in microseconds
+     */
+    double getTransactionBlockedMeanMicros();
+
+    /**
+     * @return 99th percentile time ended transactions spent waiting for locks, in
+     * microseconds
+     */
+    long getTransactionBlockedP99Micros();
+
+    /**
+     * @return longest time an ended transaction spent waiting for locks, in microseconds
+     */
+    long getTransactionBlockedMaxMicros();
+
+    /**
+     * @return the resources with the most time waited for them, most first (see
+     * LockWaitMetrics#getTopContendedResources)
+     */
+    List<LockWaitMetrics.ContendedResource> getTopContendedResources();
+
+    /**
+     * @return number of resources whose waits are tracked
+     */
+    int getTrackedResources();
+
+    /**
+     * @return number of times the deadlock detector has looked for deadlocks
+     */
+    long getDeadlockChecks();
+
+    /**
+     * @return number of deadlock cycles broken
+     */
+    long getDeadlocksBroken();
+}
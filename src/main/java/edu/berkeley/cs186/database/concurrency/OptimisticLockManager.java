@@ -0,0 +1,226 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TransactionContext;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock manager for optimistic concurrency control. Transactions of a database using it
+ * take no locks to read: LockUtil records each resource a transaction reads in the
+ * transaction's read set instead, and the transaction is validated when it commits,
+ * failing with a ValidationException (and being rolled back) if another transaction may
+ * have written a resource it read since it read it. Writes still take X locks as usual,
+ * so that transactions do not write over each other's uncommitted changes.
+ *
+ * Writes are counted per resource: when a transaction releases an X lock on a resource
+ * (when it ends, or when it escalates), the resource's write counter is incremented, and
+ * so are the counters of writes to the subtrees of the resource and of each of its
+ * ancestors. Like the counters of strong requests of LockManager, counters are kept in
+ * fixed arrays indexed by hash, so that two resources may share a counter: a write to one
+ * of them then fails the validation of readers of the other, which is safe.
+ *
+ * Reading a resource records the count of writes to its subtree, and the counts of writes
+ * to each of its ancestors (an X lock on an ancestor covers the resource). A transaction is
+ * valid if none of these counts have changed since, and no other transaction holds a lock
+ * on a resource it read that would conflict with S, or an X lock on an ancestor of one.
+ * Locks are checked before counts: a writer increments the counters before it releases its
+ * lock, so a write that has ended by the time the counts are checked is seen in them, and
+ * one still running is seen in the locks.
+ *
+ * Transactions that write a resource they read validate the read like any other, so that
+ * a write made by another transaction in between (which the write would overwrite) fails
+ * their validation.
+ */
+public class OptimisticLockManager extends LockManager {
+    // Number of counters of writes, in each array.
+    private static final int NUM_WRITE_COUNTERS = 4096;
+
+    // Number of X locks released on the resources hashing to each counter.
+    private final AtomicLongArray writes = new AtomicLongArray(NUM_WRITE_COUNTERS);
+    // Number of X locks released on the resources hashing to each counter, or on their
+    // descendants.
+    private final AtomicLongArray subtreeWrites = new AtomicLongArray(NUM_WRITE_COUNTERS);
+
+    // Read sets of transactions that have read and have not been validated or ended.
+    private final Map<Long, ReadSet> readSets = new ConcurrentHashMap<>();
+
+    private final LongAdder validations = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+
+    // The resources a transaction has read, with the counts of writes seen when it first
+    // read them. Only changed by the transaction's own thread.
+    private static class ReadSet {
+        // resources read, with the count of writes to their subtrees
+        final Map<ResourceName, Long> read = new HashMap<>();
+        // ancestors of resources read, with the count of writes to them
+        final Map<ResourceName, Long> ancestors = new HashMap<>();
+    }
+
+    public OptimisticLockManager() {
+        super();
+    }
+
+    /**
+     * @param numStripes number of partitions of the lock table
+     */
+    public OptimisticLockManager(int numStripes) {
+        super(numStripes);
+    }
+
+    private static int counterIndex(ResourceName name) {
+        return Math.floorMod(name.hashCode(), NUM_WRITE_COUNTERS);
+    }
+
+    /**
+     * Records that TRANSACTION is about to read NAME, in place of locking it. Must be
+     * called before the resource is read.
+     */
+    void read(TransactionContext transaction, ResourceName name) {
+        ReadSet readSet = readSets.computeIfAbsent(transaction.getTransNum(), transNum -> new ReadSet());
+        if (readSet.read.containsKey(name)) {
+            return;
+        }
+        readSet.read.put(name, subtreeWrites.get(counterIndex(name)));
+        for (ResourceName ancestor = name.parent(); ancestor != null; ancestor = ancestor.parent()) {
+            if (readSet.ancestors.putIfAbsent(ancestor, writes.get(counterIndex(ancestor))) != null) {
+                break; // and so are the ancestors of this ancestor
+            }
+        }
+    }
+
+    /**
+     * Validates the reads of TRANSACTION, which is about to commit, and forgets them.
+     *
+     * @throws ValidationException if another transaction may have written a resource
+     * TRANSACTION read since it read it
+     */
+    public void validate(TransactionContext transaction) {
+        long transNum = transaction.getTransNum();
+        ReadSet readSet = readSets.remove(transNum);
+        if (readSet == null) {
+            return;
+        }
+        validations.increment();
+        for (Map.Entry<ResourceName, Long> entry : readSet.read.entrySet()) {
+            ResourceName name = entry.getKey();
+            for (Lock lock : getLocks(name)) {
+                if (lock.transactionNum != transNum && !LockType.compatible(lock.lockType, LockType.S)) {
+                    throw validationFailed(transNum, name, "is locked " + lock.lockType + " by transaction " +
+                                           lock.transactionNum);
+                }
+            }
+            if (subtreeWrites.get(counterIndex(name)) != entry.getValue()) {
+                throw validationFailed(transNum, name, "has been written");
+            }
+        }
+        for (Map.Entry<ResourceName, Long> entry : readSet.ancestors.entrySet()) {
+            ResourceName name = entry.getKey();
+            for (Lock lock : getLocks(name)) {
+                if (lock.transactionNum != transNum && lock.lockType == LockType.X) {
+                    throw validationFailed(transNum, name, "is locked X by transaction " + lock.transactionNum);
+                }
+            }
+            if (writes.get(counterIndex(name)) != entry.getValue()) {
+                throw validationFailed(transNum, name, "has been written");
+            }
+        }
+    }
+
+    private ValidationException validationFailed(long transNum, ResourceName name, String reason) {
+        validationFailures.increment();
+        return new ValidationException("transaction " + transNum + " failed validation: " + name + " " + reason +
+                                       " since it was read");
+    }
+
+    /**
+     * Forgets the reads of TRANSACTION, which is ending (without being validated, if it is
+     * rolled back).
+     */
+    @Override
+    public void end(TransactionContext transaction) {
+        readSets.remove(transaction.getTransNum());
+        super.end(transaction);
+    }
+
+    /**
+     * @return number of transactions validated at commit
+     */
+    public long getValidations() {
+        return validations.sum();
+    }
+
+    /**
+     * @return number of transactions that failed validation at commit
+     */
+    public long getValidationFailures() {
+        return validationFailures.sum();
+    }
+
+    /**
+     * Counts a write to NAME by transaction TRANSNUM, which is about to release its X lock
+     * on NAME. The counts of writes in TRANSNUM's own read set are updated with it (if no
+     * other transaction wrote in between), so that the transaction does not fail
+     * validation because of its own writes.
+     */
+    private void written(long transNum, ResourceName name) {
+        ReadSet readSet = readSets.get(transNum);
+        int index = counterIndex(name);
+        long before = writes.getAndIncrement(index);
+        if (readSet != null) {
+            advance(readSet.ancestors, index, before);
+        }
+        for (ResourceName n = name; n != null; n = n.parent()) {
+            index = counterIndex(n);
+            before = subtreeWrites.getAndIncrement(index);
+            if (readSet != null) {
+                advance(readSet.read, index, before);
+            }
+        }
+    }
+
+    // counts the write to the counter at INDEX, which was at BEFORE, in the entries of COUNTS
+    private static void advance(Map<ResourceName, Long> counts, int index, long before) {
+        for (Map.Entry<ResourceName, Long> entry : counts.entrySet()) {
+            if (counterIndex(entry.getKey()) == index && entry.getValue() == before) {
+                entry.setValue(before + 1);
+            }
+        }
+    }
+
+    private void writtenIfLockedX(TransactionContext transaction, ResourceName name) {
+        if (getLockType(transaction, name) == LockType.X) {
+            written(transaction.getTransNum(), name);
+        }
+    }
+
+    @Override
+    public void acquireAndRelease(TransactionContext transaction, ResourceName name,
+                                  LockType lockType, List<ResourceName> releaseLocks)
+    throws DuplicateLockRequestException, NoLockHeldException {
+        for (ResourceName releaseName : releaseLocks) {
+            writtenIfLockedX(transaction, releaseName);
+        }
+        super.acquireAndRelease(transaction, name, lockType, releaseLocks);
+    }
+
+    @Override
+    public CompletableFuture<Void> acquireAndReleaseAsync(TransactionContext transaction, ResourceName name,
+            LockType lockType, List<ResourceName> releaseLocks)
+    throws DuplicateLockRequestException, NoLockHeldException {
+        for (ResourceName releaseName : releaseLocks) {
+            writtenIfLockedX(transaction, releaseName);
+        }
+        return super.acquireAndReleaseAsync(transaction, name, lockType, releaseLocks);
+    }
+
+    @Override
+    public void release(TransactionContext transaction, ResourceName name)
+    throws NoLockHeldException {
+        writtenIfLockedX(transaction, name);
+        super.release(transaction, name);
+    }
+}
@@ -19,6 +19,9 @@ import static java.util.stream.Collectors.toList;
  * hierarchy would be [("database", 0)] (which represents the entire database),
  * and [("database", 0), ("Students", 3)] (which
  * represents the Students table, of which this is a page of).
+ *
+ * Tables that lock records individually (see Table#enableRecordLocks) add a level below
+ * pages: the record in slot 4 of that page is named (0, 3, 10, 4).
  */
 public class ResourceName {
     private final List<Pair<String, Long>> names;
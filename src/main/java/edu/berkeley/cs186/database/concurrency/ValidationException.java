@@ -0,0 +1,12 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Thrown when a transaction of an OptimisticLockManager fails validation at commit: a
+ * resource it read without a lock may have been written by another transaction since. The
+ * transaction is rolled back instead of committed.
+ */
+public class ValidationException extends RuntimeException {
+    ValidationException(String message) {
+        super(message);
+    }
+}
@@ -88,7 +88,9 @@ public class BPlusTree {
      * All pages allocated on the given partition are serializations of inner and leaf nodes.
      */
     public BPlusTree(BufferManager bufferManager, BPlusTreeMetadata metadata, LockContext lockContext) {
-        // TODO(proj4_part2): B+ tree locking
+        // the tree is locked as a whole: no locks are taken on its pages
+        lockContext.disableChildLocks();
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
 
         // Sanity checks.
         if (metadata.getOrder() < 0) {
@@ -138,11 +140,10 @@ public class BPlusTree {
      */
     public Optional<RecordId> get(DataBox key) {
         typecheck(key);
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
         // TODO(proj2): implement
         LeafNode leaf = root.get(key); //get leafNode contains key
         return leaf.getKey(key);  //get rid from leaf node
-        // TODO(proj4_part2): B+ tree locking
-
     }
 
     /**
@@ -154,7 +155,7 @@ public class BPlusTree {
      */
     public Iterator<RecordId> scanEqual(DataBox key) {
         typecheck(key);
-        // TODO(proj4_part2): B+ tree locking
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
 
         Optional<RecordId> rid = get(key);
         if (rid.isPresent()) {
@@ -192,11 +193,11 @@ public class BPlusTree {
      * memory will receive 0 points.
      */
     public Iterator<RecordId> scanAll() {
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
         // TODO(proj2): Return a BPlusTreeIterator
         BPlusTreeIterator itr = new BPlusTreeIterator(); //generate iterator
         if (itr.hasNext()) // if itr has next, return it
             return itr;
-        // TODO(proj4_part2): B+ tree locking
 
         return Collections.emptyIterator(); //otherwise, return empty iterator
     }
@@ -226,11 +227,11 @@ public class BPlusTree {
      */
     public Iterator<RecordId> scanGreaterEqual(DataBox key) {
         typecheck(key);
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
         // TODO(proj2): Return a BPlusTreeIterator.
         BPlusTreeIterator itr = new BPlusTreeIterator(key); //generate iterator
         if (itr.hasNext()) // if itr has next, return it
             return itr;
-        // TODO(proj4_part2): B+ tree locking
 
         return Collections.emptyIterator(); //otherwise, itr don't has next, return empty iterator
     }
@@ -246,6 +247,7 @@ public class BPlusTree {
      */
     public void put(DataBox key, RecordId rid) {
         typecheck(key);
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
         // TODO(proj2): implement
         Optional<Pair<DataBox, Long>> pair = root.put(key, rid);
         if (pair.isPresent()){ //this means root overflow, need to construct new root
@@ -260,11 +262,6 @@ public class BPlusTree {
             InnerNode new_root= new InnerNode(metadata, bufferManager, new_keys, new_children, lockContext);
             updateRoot(new_root); //update
         }
-
-
-        // TODO(proj4_part2): B+ tree locking
-
-        return;
     }
 
     /**
@@ -285,6 +282,7 @@ public class BPlusTree {
      * bulkLoad (see comments in BPlusNode.bulkLoad).
      */
     public void bulkLoad(Iterator<Pair<DataBox, RecordId>> data, float fillFactor) {
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
         // TODO(proj2): implement
         if (!(root instanceof LeafNode) || ((LeafNode) root).scanAll().hasNext()){
             //for an empty tree, root must be a leafNode and don't have any keys or rids
@@ -307,9 +305,6 @@ public class BPlusTree {
 
             }
         }
-        // TODO(proj4_part2): B+ tree locking
-
-        return;
     }
 
     /**
@@ -325,11 +320,9 @@ public class BPlusTree {
      */
     public void remove(DataBox key) {
         typecheck(key);
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
         // TODO(proj2): implement
         root.remove(key);
-        // TODO(proj4_part2): B+ tree locking
-
-        return;
     }
 
     // Helpers /////////////////////////////////////////////////////////////////
@@ -338,7 +331,7 @@ public class BPlusTree {
      * more information.
      */
     public String toSexp() {
-        // TODO(proj4_part2): B+ tree locking
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
         return root.toSexp();
     }
 
@@ -355,7 +348,7 @@ public class BPlusTree {
      * to create a PDF of the tree.
      */
     public String toDot() {
-        // TODO(proj4_part2): B+ tree locking
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
         List<String> strings = new ArrayList<>();
         strings.add("digraph g {" );
         strings.add("  node [shape=record, height=0.1];");
@@ -620,6 +620,69 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
     }
 
+    /**
+     * @return numbers of the partitions that exist, in ascending order
+     */
+    public List<Integer> getPartNums() {
+        this.managerLock.lock();
+        try {
+            List<Integer> partNums = new ArrayList<>(this.partInfo.keySet());
+            Collections.sort(partNums);
+            return partNums;
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Copies the OS file of a partition into another directory, one page at a time. The
+     * partition lock is only held while a page is read, so the partition may be written to
+     * (and pages allocated or freed) while it is copied: each page of the copy is as it was
+     * at some point during the copy, but the copy as a whole may not be (a fuzzy copy).
+     *
+     * @param partNum partition to copy
+     * @param toDir directory to copy the partition's file into
+     * @param beforePage called before each page is copied, with no locks held
+     * @return number of pages copied
+     * @throws NoSuchElementException if the partition does not exist, or is freed while
+     * it is copied
+     */
+    public long copyPart(int partNum, String toDir, Runnable beforePage) {
+        this.managerLock.lock();
+        PartInfo pi;
+        try {
+            pi = getPartInfo(partNum);
+        } finally {
+            this.managerLock.unlock();
+        }
+        byte[] buf = new byte[PAGE_SIZE];
+        long numPages = 0;
+        try (RandomAccessFile copy = new RandomAccessFile(toDir + "/" + partNum, "rw")) {
+            FileChannel copyChannel = copy.getChannel();
+            while (true) {
+                beforePage.run();
+                long offset = numPages * PAGE_SIZE;
+                pi.partitionLock.lock();
+                try {
+                    if (!pi.fileChannel.isOpen()) {
+                        throw new NoSuchElementException("partition " + partNum + " was freed");
+                    }
+                    if (offset >= pi.fileChannel.size()) {
+                        return numPages;
+                    }
+                    Arrays.fill(buf, (byte) 0);
+                    pi.fileChannel.read(ByteBuffer.wrap(buf), offset);
+                } finally {
+                    pi.partitionLock.unlock();
+                }
+                copyChannel.write(ByteBuffer.wrap(buf), offset);
+                ++numPages;
+            }
+        } catch (IOException e) {
+            throw new PageException("could not copy partition " + partNum + ": " + e.getMessage());
+        }
+    }
+
     // Gets PartInfo, throws exception if not found.
     private PartInfo getPartInfo(int partNum) {
         PartInfo pi = this.partInfo.get(partNum);
@@ -1,5 +1,7 @@
 package edu.berkeley.cs186.database.memory;
 
+import edu.berkeley.cs186.database.common.Bits;
+
 /**
  * Buffer frame.
  */
@@ -32,6 +34,13 @@ abstract class BufferFrame {
         return pinCount > 0;
     }
 
+    /**
+     * @return number of times this frame is pinned
+     */
+    int getPinCount() {
+        return pinCount;
+    }
+
     /**
      * @return whether this frame is valid
      */
@@ -63,6 +72,36 @@ abstract class BufferFrame {
      */
     abstract void writeBytes(short position, short num, byte[] buf);
 
+    /**
+     * Fill a slot of the buffer frame: write data at offset and set bit bitIndex, and
+     * mark frame as dirtied. By default this is done as ordinary writes.
+     * @param bitIndex index of the slot's bit, from the most significant bit of byte 0
+     * @param offset position in buffer frame of the slot's contents
+     * @param data new contents of the slot
+     */
+    void insertSlot(short bitIndex, short offset, byte[] data) {
+        writeBytes(offset, (short) data.length, data);
+        writeSlotBit(bitIndex, Bits.Bit.ONE);
+    }
+
+    /**
+     * Empty a slot of the buffer frame: clear bit bitIndex, and mark frame as dirtied.
+     * By default this is done as an ordinary write.
+     * @param bitIndex index of the slot's bit, from the most significant bit of byte 0
+     * @param offset position in buffer frame of the slot's contents
+     * @param length size of the slot's contents
+     */
+    void deleteSlot(short bitIndex, short offset, short length) {
+        writeSlotBit(bitIndex, Bits.Bit.ZERO);
+    }
+
+    private void writeSlotBit(short bitIndex, Bits.Bit bit) {
+        byte[] b = new byte[1];
+        readBytes((short) (bitIndex / 8), (short) 1, b);
+        Bits.setBit(b, bitIndex % 8, bit);
+        writeBytes((short) (bitIndex / 8), (short) 1, b);
+    }
+
     /**
      * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
      * Frame is pinned on return.
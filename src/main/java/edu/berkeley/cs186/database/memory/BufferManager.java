@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.memory;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 
+import java.util.Map;
 import java.util.function.BiConsumer;
 
 public interface BufferManager extends AutoCloseable {
@@ -94,6 +95,27 @@ public interface BufferManager extends AutoCloseable {
      */
     void iterPageNums(BiConsumer<Long, Boolean> process);
 
+    /**
+     * Records LSN, of a log record changing a page, as the recLSN of the page in its buffer
+     * frame, unless the frame already holds one (the page has been changed since it was last
+     * written to disk). The frame forgets the recLSN when the page is written to disk.
+     * @param pageNum page number
+     * @param LSN LSN of the log record
+     * @return false if the page is not in the buffer, in which case nothing is recorded
+     */
+    boolean markDirty(long pageNum, long LSN);
+
+    /**
+     * @return the recLSN of each page in the buffer whose frame holds one (see markDirty)
+     */
+    Map<Long, Long> getRecLSNs();
+
+    /**
+     * Get the number of buffer frames that do not currently hold a page.
+     * @return number of free frames
+     */
+    int getNumFreeFrames();
+
     /**
      * Get the number of I/Os since the buffer manager was started, excluding anything used in disk
      * space management, and not counting allocation/free. This is not really useful except as a
@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.memory;
 
 import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Bits;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
@@ -9,6 +10,8 @@ import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 
@@ -26,7 +29,7 @@ public class BufferManagerImpl implements BufferManager {
     // Reference to the disk space manager underneath this buffer manager instance.
     private DiskSpaceManager diskSpaceManager;
 
-    // Map of page number to frame index
+    // Map of page number to frame index (only changed while holding managerLock)
     private Map<Long, Integer> pageToFrame;
 
     // Lock on buffer manager
@@ -44,6 +47,9 @@ public class BufferManagerImpl implements BufferManager {
     // Count of number of I/Os
     private long numIOs = 0;
 
+    private static final AtomicLongFieldUpdater<Frame> REC_LSN =
+        AtomicLongFieldUpdater.newUpdater(Frame.class, "recLSN");
+
     /**
      * Buffer frame, containing information about the loaded page, wrapped around the
      * underlying byte array. Free frames use the index field to create a (singly) linked
@@ -51,6 +57,7 @@ public class BufferManagerImpl implements BufferManager {
      */
     class Frame extends BufferFrame {
         private static final int INVALID_INDEX = Integer.MIN_VALUE;
+        private static final long NO_REC_LSN = -1L;
 
         byte[] contents;
         private int index;
@@ -59,12 +66,28 @@ public class BufferManagerImpl implements BufferManager {
         private ReentrantLock frameLock;
         private boolean logPage;
 
+        // Page write session: logged writes made while the frame is pinned are not logged
+        // until the last unpin, when the changed ranges are logged together. sessionBefore
+        // holds the original contents of the bytes written (those set in sessionWritten),
+        // and sessionTransNum the transaction making the writes.
+        private byte[] sessionBefore;
+        private final BitSet sessionWritten = new BitSet();
+        private long sessionTransNum;
+
+        // LSN of the first log record to change the page since it was last written to
+        // disk, or NO_REC_LSN. Kept here rather than in a shared dirty page table, which
+        // the recovery manager builds from the frames when it takes a checkpoint.
+        volatile long recLSN = NO_REC_LSN;
+
         Frame(byte[] contents, int nextFree, boolean logPage) {
             this(contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM, logPage);
         }
 
         Frame(Frame frame) {
             this(frame.contents, frame.index, frame.pageNum, frame.logPage);
+            this.sessionBefore = frame.sessionBefore;
+            this.sessionWritten.or(frame.sessionWritten);
+            this.sessionTransNum = frame.sessionTransNum;
         }
 
         Frame(byte[] contents, int index, long pageNum, boolean logPage) {
@@ -92,12 +115,18 @@ public class BufferManagerImpl implements BufferManager {
         }
 
         /**
-         * Unpin buffer frame.
+         * Unpin buffer frame. The last unpin logs the writes made while pinned.
          */
         @Override
         public void unpin() {
-            super.unpin();
-            this.frameLock.unlock();
+            try {
+                if (this.getPinCount() == 1) {
+                    this.endWriteSession();
+                }
+            } finally {
+                super.unpin();
+                this.frameLock.unlock();
+            }
         }
 
         /**
@@ -169,12 +198,14 @@ public class BufferManagerImpl implements BufferManager {
                 if (!this.dirty) {
                     return;
                 }
+                this.endWriteSession();
                 if (!this.logPage) {
                     recoveryManager.pageFlushHook(this.getPageLSN());
                 }
                 BufferManagerImpl.this.diskSpaceManager.writePage(pageNum, contents);
                 BufferManagerImpl.this.incrementIOs();
                 this.dirty = false;
+                this.recLSN = NO_REC_LSN;
             } finally {
                 super.unpin();
                 this.frameLock.unlock();
@@ -216,17 +247,14 @@ public class BufferManagerImpl implements BufferManager {
                 }
                 int offset = position + dataOffset();
                 TransactionContext transaction = TransactionContext.getTransaction();
-                if (transaction != null && !logPage) {
-                    List<Pair<Integer, Integer>> changedRanges = getChangedBytes(offset, num, buf);
-                    for (Pair<Integer, Integer> range : changedRanges) {
-                        int start = range.getFirst();
-                        int len = range.getSecond();
-                        byte[] before = Arrays.copyOfRange(contents, start + offset, start + offset + len);
-                        byte[] after = Arrays.copyOfRange(buf, start, start + len);
-                        long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, position, before,
-                                       after);
-                        this.setPageLSN(pageLSN);
+                if (transaction == null || logPage) {
+                    this.endWriteSession();
+                } else {
+                    if (transaction.getTransNum() != sessionTransNum) {
+                        this.endWriteSession();
+                        sessionTransNum = transaction.getTransNum();
                     }
+                    saveBeforeImage(offset, offset + num);
                 }
                 System.arraycopy(buf, 0, this.contents, offset, num);
                 this.dirty = true;
@@ -236,6 +264,128 @@ public class BufferManagerImpl implements BufferManager {
             }
         }
 
+        /**
+         * Fills a slot, logging it as a single slot insert rather than as page writes.
+         */
+        @Override
+        void insertSlot(short bitIndex, short offset, byte[] data) {
+            this.pin();
+            try {
+                if (!this.isValid()) {
+                    throw new IllegalStateException("writing to invalid buffer frame");
+                }
+                this.endWriteSession();
+                TransactionContext transaction = TransactionContext.getTransaction();
+                if (transaction != null && !logPage) {
+                    long pageLSN = recoveryManager.logSlotInsert(transaction.getTransNum(), pageNum,
+                                   bitIndex, offset, data);
+                    this.setPageLSN(pageLSN);
+                }
+                System.arraycopy(data, 0, this.contents, offset + dataOffset(), data.length);
+                setSlotBit(bitIndex, Bits.Bit.ONE);
+                this.dirty = true;
+                BufferManagerImpl.this.evictionPolicy.hit(this);
+            } finally {
+                this.unpin();
+            }
+        }
+
+        /**
+         * Empties a slot, logging it as a single slot delete (with the slot's contents,
+         * so that it can be undone) rather than as a page write.
+         */
+        @Override
+        void deleteSlot(short bitIndex, short offset, short length) {
+            this.pin();
+            try {
+                if (!this.isValid()) {
+                    throw new IllegalStateException("writing to invalid buffer frame");
+                }
+                this.endWriteSession();
+                TransactionContext transaction = TransactionContext.getTransaction();
+                if (transaction != null && !logPage) {
+                    int start = offset + dataOffset();
+                    byte[] data = Arrays.copyOfRange(contents, start, start + length);
+                    long pageLSN = recoveryManager.logSlotDelete(transaction.getTransNum(), pageNum,
+                                   bitIndex, offset, data);
+                    this.setPageLSN(pageLSN);
+                }
+                setSlotBit(bitIndex, Bits.Bit.ZERO);
+                this.dirty = true;
+                BufferManagerImpl.this.evictionPolicy.hit(this);
+            } finally {
+                this.unpin();
+            }
+        }
+
+        /**
+         * Saves the current contents of bytes [start, end) of the frame that have not
+         * been written yet in this write session.
+         */
+        private void saveBeforeImage(int start, int end) {
+            if (sessionBefore == null) {
+                sessionBefore = new byte[DiskSpaceManager.PAGE_SIZE];
+            }
+            int i = sessionWritten.nextClearBit(start);
+            while (i < end) {
+                int next = sessionWritten.nextSetBit(i);
+                int j = next < 0 ? end : Math.min(next, end);
+                System.arraycopy(contents, i, sessionBefore, i, j - i);
+                sessionWritten.set(i, j);
+                i = sessionWritten.nextClearBit(j);
+            }
+        }
+
+        /**
+         * Logs the ranges changed by the writes of the current write session, if any, and
+         * ends it. Called with the frame lock held.
+         */
+        private void endWriteSession() {
+            if (sessionWritten.isEmpty()) {
+                return;
+            }
+            List<Short> offsets = new ArrayList<>();
+            List<byte[]> befores = new ArrayList<>();
+            List<byte[]> afters = new ArrayList<>();
+            int i = sessionWritten.nextSetBit(0);
+            while (i >= 0) {
+                int j = sessionWritten.nextClearBit(i);
+                for (Pair<Integer, Integer> range : getChangedBytes(i, j - i,
+                        Arrays.copyOfRange(sessionBefore, i, j))) {
+                    int start = i + range.getFirst();
+                    int end = start + range.getSecond();
+                    offsets.add((short) (start - dataOffset()));
+                    befores.add(Arrays.copyOfRange(sessionBefore, start, end));
+                    afters.add(Arrays.copyOfRange(contents, start, end));
+                }
+                i = sessionWritten.nextSetBit(j);
+            }
+            sessionWritten.clear();
+            if (offsets.isEmpty()) {
+                return;
+            }
+            long pageLSN;
+            if (offsets.size() == 1) {
+                pageLSN = recoveryManager.logPageWrite(sessionTransNum, pageNum, offsets.get(0),
+                                                       befores.get(0), afters.get(0));
+            } else {
+                short[] pageOffsets = new short[offsets.size()];
+                for (int k = 0; k < pageOffsets.length; ++k) {
+                    pageOffsets[k] = offsets.get(k);
+                }
+                pageLSN = recoveryManager.logPageWrites(sessionTransNum, pageNum, pageOffsets,
+                                                        befores.toArray(new byte[0][]), afters.toArray(new byte[0][]));
+            }
+            this.setPageLSN(pageLSN);
+        }
+
+        private void setSlotBit(short bitIndex, Bits.Bit bit) {
+            int position = dataOffset() + bitIndex / 8;
+            byte[] b = new byte[] {contents[position]};
+            Bits.setBit(b, bitIndex % 8, bit);
+            contents[position] = b[0];
+        }
+
         /**
          * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
          * Page is pinned on return.
@@ -341,7 +491,7 @@ public class BufferManagerImpl implements BufferManager {
         }
         this.firstFreeIndex = 0;
         this.diskSpaceManager = diskSpaceManager;
-        this.pageToFrame = new HashMap<>();
+        this.pageToFrame = new ConcurrentHashMap<>();
         this.managerLock = new ReentrantLock();
         this.evictionPolicy = evictionPolicy;
         this.recoveryManager = recoveryManager;
@@ -429,6 +579,9 @@ public class BufferManagerImpl implements BufferManager {
 
     @Override
     public Page fetchPage(LockContext parentContext, long pageNum, boolean logPage) {
+        if (!logPage) {
+            recoveryManager.pageFetchHook(pageNum);
+        }
         return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum, logPage));
     }
 
@@ -455,6 +608,10 @@ public class BufferManagerImpl implements BufferManager {
         try {
             int frameIndex = this.pageToFrame.get(page.getPageNum());
             Frame frame = this.frames[frameIndex];
+            if (frame.frameLock.isHeldByCurrentThread()) {
+                // log writes made before the free ahead of it
+                frame.endWriteSession();
+            }
             this.pageToFrame.remove(page.getPageNum(), frameIndex);
             evictionPolicy.cleanup(frame);
             frame.setFree();
@@ -539,6 +696,42 @@ public class BufferManagerImpl implements BufferManager {
         }
     }
 
+    @Override
+    public boolean markDirty(long pageNum, long LSN) {
+        Integer frameIndex = pageToFrame.get(pageNum);
+        if (frameIndex == null) {
+            return false;
+        }
+        Frame frame = frames[frameIndex];
+        if (frame.pageNum != pageNum || !frame.isValid()) {
+            return false;
+        }
+        REC_LSN.compareAndSet(frame, Frame.NO_REC_LSN, LSN);
+        return true;
+    }
+
+    @Override
+    public Map<Long, Long> getRecLSNs() {
+        Map<Long, Long> recLSNs = new HashMap<>();
+        for (Frame frame : frames) {
+            long recLSN = frame.recLSN;
+            if (recLSN != Frame.NO_REC_LSN && frame.isValid()) {
+                recLSNs.merge(frame.pageNum, recLSN, Math::min);
+            }
+        }
+        return recLSNs;
+    }
+
+    @Override
+    public int getNumFreeFrames() {
+        managerLock.lock();
+        try {
+            return frames.length - pageToFrame.size();
+        } finally {
+            managerLock.unlock();
+        }
+    }
+
     @Override
     public long getNumIOs() {
         return numIOs;
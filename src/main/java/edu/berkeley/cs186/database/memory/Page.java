@@ -44,6 +44,15 @@ public class Page {
         this.lockContext = new DummyLockContext();
     }
 
+    /**
+     * Makes reads and writes through this page handle lock LOCKCONTEXT instead of the
+     * page's own context: e.g. the context of the record of the page they access, when
+     * records are locked individually.
+     */
+    public void setLockContext(LockContext lockContext) {
+        this.lockContext = lockContext;
+    }
+
     /**
      * Gets a Buffer object for more convenient access to the page.
      *
@@ -115,6 +124,46 @@ public class Page {
         getBuffer().put(data);
     }
 
+    /**
+     * Fills a slot of the page: writes data at offset, and sets the slot's bit in a bitmap
+     * stored on the page. The change is logged as a single slot insert, rather than as
+     * separate writes to the slot and the bitmap.
+     *
+     * @param bitIndex index of the slot's bit, counting from the most significant bit
+     *                 of the page's first byte
+     * @param offset offset in the page of the slot's contents
+     * @param data new contents of the slot
+     */
+    public void insertSlot(int bitIndex, int offset, byte[] data) {
+        checkSlot(bitIndex, offset, data.length);
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+        this.frame.insertSlot((short) bitIndex, (short) offset, data);
+    }
+
+    /**
+     * Empties a slot of the page by clearing the slot's bit. The change is logged as a
+     * single slot delete, carrying the slot's contents so that it can be undone.
+     *
+     * @param bitIndex index of the slot's bit, counting from the most significant bit
+     *                 of the page's first byte
+     * @param offset offset in the page of the slot's contents
+     * @param length size of the slot's contents
+     */
+    public void deleteSlot(int bitIndex, int offset, int length) {
+        checkSlot(bitIndex, offset, length);
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+        this.frame.deleteSlot((short) bitIndex, (short) offset, (short) length);
+    }
+
+    private void checkSlot(int bitIndex, int offset, int length) {
+        if (bitIndex < 0 || offset < 0 || length < 0) {
+            throw new PageException("bitIndex, offset, or length can't be negative");
+        }
+        if (frame.getEffectivePageSize() < Math.max(bitIndex / 8 + 1, offset + length)) {
+            throw new PageException("slot would go out of bounds");
+        }
+    }
+
     /**
      * Completely wipe (zero out) the page.
      */
@@ -204,7 +253,7 @@ public class Page {
          */
         @Override
         public Buffer get(byte[] dst, int offset, int length) {
-            // TODO(proj4_part2): locking code here
+            LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
             Page.this.readBytes(this.offset + offset, length, dst);
             return this;
         }
@@ -219,7 +268,7 @@ public class Page {
          */
         @Override
         public Buffer put(byte[] src, int offset, int length) {
-            // TODO(proj4_part2): locking code here
+            LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
             Page.this.writeBytes(this.offset + offset, length, src);
             return this;
         }
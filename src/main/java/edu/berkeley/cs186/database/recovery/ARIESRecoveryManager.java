@@ -3,10 +3,12 @@ package edu.berkeley.cs186.database.recovery;
 import edu.berkeley.cs186.database.Transaction;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 
@@ -36,7 +38,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
     // Log manager
     LogManager logManager;
-    // Dirty page table (page number -> recLSN).
+    // Dirty page table (page number -> recLSN), for pages not in the buffer; the recLSNs of
+    // buffered pages are kept in their frames (see markDirty).
     Map<Long, Long> dirtyPageTable = new ConcurrentHashMap<>();
     // Transaction table (transaction number -> entry).
     Map<Long, TransactionTableEntry> transactionTable = new ConcurrentHashMap<>();
@@ -44,6 +47,52 @@ public class ARIESRecoveryManager implements RecoveryManager {
     // List of lock requests made during recovery. This is only populated when locking is disabled.
     List<String> lockRequests;
 
+    // LSN of the begin checkpoint record of the last checkpoint taken.
+    private volatile long lastCheckpointLSN = 0L;
+    // Serializes checkpoints (explicit and background).
+    private final Object checkpointLock = new Object();
+    // Number of threads used for page-level redo during restart recovery.
+    private volatile int redoParallelism = 1;
+    // Number of threads used to roll back loser transactions during restart recovery.
+    private volatile int undoParallelism = 1;
+
+    // Checkpoint counters and restart progress.
+    private final RecoveryMetrics metrics = new RecoveryMetrics(this);
+
+    // Whether restart redo prefetches DPT pages, how many reads it keeps outstanding, and
+    // how many free frames it leaves for the log cursor and the page being redone.
+    private volatile boolean redoPrefetching = true;
+    private static final int REDO_PREFETCH_THREADS = 4;
+    private static final int REDO_RESERVED_FRAMES = 2;
+
+    // Whether restart admits new transactions right after analysis, redoing pages
+    // when they are first fetched; and the state of that redo, if in progress.
+    private volatile boolean instantRestart = false;
+    private volatile InstantRedo instantRedo = null;
+    // Redoable records seen by analysis during an instant restart: page number -> LSNs,
+    // and LSNs of partition-level records. Used to build the per-page redo chains.
+    private Map<Long, List<Long>> analysisPageLSNs;
+    private List<Long> analysisPartLSNs;
+
+    // Maximum bytes of undo information cached per transaction.
+    static final long DEFAULT_UNDO_CACHE_BYTES = 1024L * 1024;
+    private volatile long undoCacheBytes = DEFAULT_UNDO_CACHE_BYTES;
+
+    // Whether page writes are logged as XOR deltas of their before and after images.
+    private volatile boolean deltaEncoding = false;
+
+    // Whether new transactions commit asynchronously; the background log flusher bounding
+    // the durability lag of asynchronous commits (null if not running, in which case all
+    // commits are synchronous); and the most unflushed log an asynchronous commit may leave.
+    private volatile boolean asyncCommit = false;
+    private volatile LogFlusher logFlusher = null;
+    private volatile long maxUnflushedLogBytes = 0L;
+    private final Object flusherLock = new Object();
+
+    // Background checkpointer, or null if checkpoints are only taken explicitly.
+    private CheckpointScheduler checkpointScheduler;
+    private final Object schedulerLock = new Object();
+
     public ARIESRecoveryManager(LockContext dbContext, Function<Long, Transaction> newTransaction,
                                 Consumer<Long> updateTransactionCounter, Supplier<Long> getTransactionCounter) {
         this(dbContext, newTransaction, updateTransactionCounter, getTransactionCounter, false);
@@ -96,7 +145,32 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public synchronized void startTransaction(Transaction transaction) {
-        this.transactionTable.put(transaction.getTransNum(), new TransactionTableEntry(transaction));
+        TransactionTableEntry entry = new TransactionTableEntry(transaction, undoCacheBytes);
+        entry.asyncCommit = asyncCommit;
+        entry.beginLSN = logManager.getLastLSN();
+        this.transactionTable.put(transaction.getTransNum(), entry);
+    }
+
+    /**
+     * Sets how many bytes of undo information (before-images and LSNs) are cached in
+     * memory for each transaction started after this call, so that rollback does not
+     * need to read the transaction's update records back from the log.
+     * @param undoCacheBytes bytes to cache per transaction; 0 disables the cache
+     */
+    public void setUndoCacheBytes(long undoCacheBytes) {
+        this.undoCacheBytes = undoCacheBytes;
+    }
+
+    /**
+     * Sets whether page writes are logged as a single record holding the run-length
+     * compressed XOR of the before and after images, instead of holding both images.
+     * Undoing and redoing such a record XORs the delta into the page, so it is only correct
+     * if no other transaction writes the same bytes before the writer commits or aborts
+     * (which strict two-phase locking on pages guarantees).
+     * @param deltaEncoding true to log page writes as XOR deltas
+     */
+    public void setDeltaEncoding(boolean deltaEncoding) {
+        this.deltaEncoding = deltaEncoding;
     }
 
     /**
@@ -105,13 +179,110 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * A commit record should be emitted, the log should be flushed,
      * and the transaction table and the transaction status should be updated.
      *
+     * If the transaction commits asynchronously (see setAsyncCommit) and the log flusher
+     * is running, the log is not flushed here unless more than maxUnflushedLogBytes of log
+     * are unflushed; the flusher makes the commit durable later.
+     *
      * @param transNum transaction being committed
      * @return LSN of the commit record
      */
     @Override
     public long commit(long transNum) {
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        long LSN = logManager.appendToLog(new CommitTransactionLogRecord(transNum,
+                                          transactionEntry.lastLSN));
+        LogFlusher flusher = logFlusher;
+        if (!transactionEntry.asyncCommit || flusher == null) {
+            logManager.flushToLSN(LSN);
+        } else if (getUnflushedLogBytes() > maxUnflushedLogBytes) {
+            logManager.flushToLSN(LSN);
+        } else if (getUnflushedLogBytes() > maxUnflushedLogBytes / 2) {
+            flusher.requestFlush();
+        }
+        transactionEntry.lastLSN = LSN;
+        ++transactionEntry.numLogRecords;
+        transactionEntry.transaction.setStatus(Transaction.Status.COMMITTING);
+        return LSN;
+    }
+
+    /**
+     * Sets whether transactions started after this call commit asynchronously: commit
+     * returns once the commit record is appended to the log, without waiting for it to be
+     * flushed. Asynchronous commit only takes effect while the log flusher is running
+     * (see startLogFlusher); otherwise commits are synchronous.
+     *
+     * A transaction that committed asynchronously is lost in a crash if, and only if, its
+     * commit record had not been flushed: restart then rolls it back like any other
+     * transaction without a commit record. That is only possible for transactions that
+     * committed less than maxDelayMillis (plus the time of one flush) before the crash,
+     * and whose commit records are among the last maxUnflushedLogBytes bytes of the log.
+     * The log is flushed in order, so an asynchronous commit is also durable once any
+     * later synchronous commit returns, or any page with a later pageLSN is flushed.
+     * Synchronous commits are never lost.
+     *
+     * @param asyncCommit true for new transactions to commit asynchronously
+     */
+    public void setAsyncCommit(boolean asyncCommit) {
+        this.asyncCommit = asyncCommit;
+    }
+
+    /**
+     * Sets whether a single running transaction commits asynchronously (see
+     * setAsyncCommit(boolean)).
+     * @param transNum transaction
+     * @param asyncCommit true for the transaction to commit asynchronously
+     */
+    public void setAsyncCommit(long transNum, boolean asyncCommit) {
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+        transactionEntry.asyncCommit = asyncCommit;
+    }
+
+    /**
+     * Starts flushing the log in the background, every maxDelayMillis milliseconds, which
+     * enables asynchronous commit. An asynchronous commit that finds more than
+     * maxUnflushedLogBytes bytes of the log unflushed flushes the log itself, as a
+     * synchronous commit does. Replaces any previously started flusher.
+     *
+     * @param maxDelayMillis milliseconds between background flushes
+     * @param maxUnflushedLogBytes most bytes of log an asynchronous commit leaves unflushed
+     */
+    public void startLogFlusher(long maxDelayMillis, long maxUnflushedLogBytes) {
+        if (maxUnflushedLogBytes < 0) {
+            throw new IllegalArgumentException("unflushed log bound must be non-negative");
+        }
+        LogFlusher flusher = new LogFlusher(logManager, maxDelayMillis);
+        synchronized (flusherLock) {
+            stopLogFlusher();
+            this.maxUnflushedLogBytes = maxUnflushedLogBytes;
+            this.logFlusher = flusher;
+            flusher.start();
+        }
+    }
+
+    /**
+     * Stops flushing the log in the background, after flushing it one last time; commits
+     * are synchronous again. Does nothing if the flusher is not running.
+     */
+    public void stopLogFlusher() {
+        synchronized (flusherLock) {
+            LogFlusher flusher = logFlusher;
+            logFlusher = null;
+            if (flusher != null) {
+                flusher.close();
+            }
+        }
+    }
+
+    /**
+     * @return number of bytes of log appended but not yet flushed
+     */
+    long getUnflushedLogBytes() {
+        // flushedLSN is -1 if nothing has been flushed
+        return Math.max(0L, LogManagerImpl.getLogBytesBetween(logManager.getFlushedLSN() + 1,
+                        logManager.getLastLSN()));
     }
 
     /**
@@ -125,8 +296,15 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public long abort(long transNum) {
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        long LSN = logManager.appendToLog(new AbortTransactionLogRecord(transNum,
+                                          transactionEntry.lastLSN));
+        transactionEntry.lastLSN = LSN;
+        ++transactionEntry.numLogRecords;
+        transactionEntry.transaction.setStatus(Transaction.Status.ABORTING);
+        return LSN;
     }
 
     /**
@@ -142,8 +320,17 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public long end(long transNum) {
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        if (transactionEntry.transaction.getStatus() == Transaction.Status.ABORTING) {
+            rollbackToLSN(transactionEntry, 0L);
+        }
+        long LSN = logManager.appendToLog(new EndTransactionLogRecord(transNum,
+                                          transactionEntry.lastLSN));
+        transactionTable.remove(transNum);
+        transactionEntry.transaction.setStatus(Transaction.Status.COMPLETE);
+        return LSN;
     }
 
     /**
@@ -159,6 +346,22 @@ public class ARIESRecoveryManager implements RecoveryManager {
         logManager.flushToLSN(pageLSN);
     }
 
+    /**
+     * Called before a page is fetched from the buffer cache. This method is
+     * never called on a log page.
+     *
+     * During an instant restart, pages still needing redo are redone here.
+     *
+     * @param pageNum page number of page about to be fetched
+     */
+    @Override
+    public void pageFetchHook(long pageNum) {
+        InstantRedo redo = instantRedo;
+        if (redo != null) {
+            redo.recoverPage(pageNum);
+        }
+    }
+
     /**
      * Called when a page has been updated on disk.
      *
@@ -178,9 +381,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * This method is never called on a log page. Arguments to the before and after params
      * are guaranteed to be the same length.
      *
-     * The appropriate log record should be emitted; if the number of bytes written is
-     * too large (larger than BufferManager.EFFECTIVE_PAGE_SIZE / 2), then two records
-     * should be written instead: an undo-only record followed by a redo-only record.
+     * The appropriate log record should be emitted. Log records may span log pages, so a
+     * single record holds both the before and after images however many bytes are written.
      *
      * Both the transaction table and dirty page table should be updated accordingly.
      *
@@ -196,8 +398,132 @@ public class ARIESRecoveryManager implements RecoveryManager {
                              byte[] after) {
         assert (before.length == after.length);
 
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        long LSN;
+        byte[] delta = deltaEncoding ? XorDelta.encode(before, after) : null;
+        if (delta != null) {
+            LSN = logManager.appendToLog(new UpdatePageDeltaLogRecord(transNum, pageNum,
+                                         transactionEntry.lastLSN, pageOffset, (short) after.length, delta));
+            transactionEntry.undoChain.add(LSN, transactionEntry.lastLSN, pageNum, pageOffset, before);
+        } else {
+            LSN = logManager.appendToLog(new UpdatePageLogRecord(transNum, pageNum,
+                                         transactionEntry.lastLSN, pageOffset, before, after));
+            transactionEntry.undoChain.add(LSN, transactionEntry.lastLSN, pageNum, pageOffset, before);
+        }
+        // Update lastLSN, touchedPages, DPT
+        transactionEntry.lastLSN = LSN;
+        ++transactionEntry.numLogRecords;
+        transactionEntry.touchedPages.add(pageNum);
+        markDirty(pageNum, LSN);
+        return LSN;
+    }
+
+    /**
+     * Called when several disjoint ranges of a page were written by one operation.
+     *
+     * A single UPDATE_PAGE_RANGES record holding every range is emitted, unless page writes
+     * are delta encoded, in which case each range is logged as by logPageWrite. Records for
+     * several ranges are not kept in the undo cache.
+     *
+     * @param transNum transaction performing the writes
+     * @param pageNum page number of page being written
+     * @param pageOffsets offset into page where each range begins
+     * @param before bytes of each range before the writes
+     * @param after bytes of each range after the writes
+     * @return LSN of last record written to log
+     */
+    @Override
+    public long logPageWrites(long transNum, long pageNum, short[] pageOffsets, byte[][] before,
+                              byte[][] after) {
+        assert (pageOffsets.length == before.length && before.length == after.length);
+        if (pageOffsets.length == 1 || deltaEncoding) {
+            long LSN = 0L;
+            for (int i = 0; i < pageOffsets.length; ++i) {
+                LSN = logPageWrite(transNum, pageNum, pageOffsets[i], before[i], after[i]);
+            }
+            return LSN;
+        }
+
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        long LSN = logManager.appendToLog(new UpdatePageRangesLogRecord(transNum, pageNum,
+                                          transactionEntry.lastLSN, pageOffsets, before, after));
+        transactionEntry.lastLSN = LSN;
+        ++transactionEntry.numLogRecords;
+        transactionEntry.touchedPages.add(pageNum);
+        markDirty(pageNum, LSN);
+        return LSN;
+    }
+
+    /**
+     * Called when a slot of a page is filled, in place of logging the individual writes.
+     *
+     * A single INSERT_SLOT record carrying only the slot's new contents is emitted, and
+     * the transaction table and dirty page table are updated accordingly.
+     *
+     * @param transNum transaction performing the insert
+     * @param pageNum page number of page being written
+     * @param bitIndex index of the slot's bit in the page
+     * @param offset offset into page of the slot's contents
+     * @param data new contents of the slot
+     * @return LSN of record written to log
+     */
+    @Override
+    public long logSlotInsert(long transNum, long pageNum, short bitIndex, short offset, byte[] data) {
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        return logSlotChange(transactionEntry, new InsertSlotLogRecord(transNum, pageNum,
+                             transactionEntry.lastLSN, bitIndex, offset, data));
+    }
+
+    /**
+     * Called when a slot of a page is emptied, in place of logging the write to its bit.
+     *
+     * A single DELETE_SLOT record carrying the slot's old contents (needed to undo the
+     * delete) is emitted, and the transaction table and dirty page table are updated
+     * accordingly.
+     *
+     * @param transNum transaction performing the delete
+     * @param pageNum page number of page being written
+     * @param bitIndex index of the slot's bit in the page
+     * @param offset offset into page of the slot's contents
+     * @param data contents of the slot at the time of the delete
+     * @return LSN of record written to log
+     */
+    @Override
+    public long logSlotDelete(long transNum, long pageNum, short bitIndex, short offset, byte[] data) {
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        return logSlotChange(transactionEntry, new DeleteSlotLogRecord(transNum, pageNum,
+                             transactionEntry.lastLSN, bitIndex, offset, data));
+    }
+
+    private long logSlotChange(TransactionTableEntry transactionEntry, LogRecord record) {
+        long LSN = logManager.appendToLog(record);
+        long pageNum = record.getPageNum().orElseThrow(NoSuchElementException::new);
+        transactionEntry.lastLSN = LSN;
+        ++transactionEntry.numLogRecords;
+        transactionEntry.touchedPages.add(pageNum);
+        markDirty(pageNum, LSN);
+        return LSN;
+    }
+
+    /**
+     * Records that a logged change to a page has not reached disk. The recLSN of a page in
+     * the buffer is kept in its buffer frame, so that logging a write to it does not update
+     * a table shared by all writers; the dirty page table only holds pages that are not in
+     * the buffer (and the pages found by restart recovery), and is combined with the recLSNs
+     * of the frames when a checkpoint is taken.
+     */
+    private void markDirty(long pageNum, long LSN) {
+        if (!bufferManager.markDirty(pageNum, LSN)) {
+            dirtyPageTable.putIfAbsent(pageNum, LSN);
+        }
     }
 
     /**
@@ -228,6 +554,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long LSN = logManager.appendToLog(record);
         // Update lastLSN
         transactionEntry.lastLSN = LSN;
+        ++transactionEntry.numLogRecords;
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -261,6 +588,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long LSN = logManager.appendToLog(record);
         // Update lastLSN
         transactionEntry.lastLSN = LSN;
+        ++transactionEntry.numLogRecords;
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -294,6 +622,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long LSN = logManager.appendToLog(record);
         // Update lastLSN, touchedPages
         transactionEntry.lastLSN = LSN;
+        ++transactionEntry.numLogRecords;
         transactionEntry.touchedPages.add(pageNum);
         // Flush log
         logManager.flushToLSN(LSN);
@@ -328,6 +657,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long LSN = logManager.appendToLog(record);
         // Update lastLSN, touchedPages
         transactionEntry.lastLSN = LSN;
+        ++transactionEntry.numLogRecords;
         transactionEntry.touchedPages.add(pageNum);
         dirtyPageTable.remove(pageNum);
         // Flush log
@@ -385,8 +715,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // All of the transaction's changes strictly after the record at LSN should be undone.
         long LSN = transactionEntry.getSavepoint(name);
 
-        // TODO(proj5): implement
-        return;
+        rollbackToLSN(transactionEntry, LSN);
     }
 
     /**
@@ -404,58 +733,265 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public void checkpoint() {
-        // Create begin checkpoint log record and write to log
-        LogRecord beginRecord = new BeginCheckpointLogRecord(getTransactionCounter.get());
-        long beginLSN = logManager.appendToLog(beginRecord);
-
-        Map<Long, Long> dpt = new HashMap<>();
-        Map<Long, Pair<Transaction.Status, Long>> txnTable = new HashMap<>();
-        Map<Long, List<Long>> touchedPages = new HashMap<>();
-        int numTouchedPages = 0;
-
-        // TODO(proj5): generate end checkpoint record(s) for DPT and transaction table
-
-        for (Map.Entry<Long, TransactionTableEntry> entry : transactionTable.entrySet()) {
-            long transNum = entry.getKey();
-            for (long pageNum : entry.getValue().touchedPages) {
-                boolean fitsAfterAdd;
-                if (!touchedPages.containsKey(transNum)) {
-                    fitsAfterAdd = EndCheckpointLogRecord.fitsInOneRecord(
-                                       dpt.size(), txnTable.size(), touchedPages.size() + 1, numTouchedPages + 1);
-                } else {
-                    fitsAfterAdd = EndCheckpointLogRecord.fitsInOneRecord(
-                                       dpt.size(), txnTable.size(), touchedPages.size(), numTouchedPages + 1);
+        synchronized (checkpointLock) {
+            long start = System.nanoTime();
+            // Create begin checkpoint log record and write to log
+            LogRecord beginRecord = new BeginCheckpointLogRecord(getTransactionCounter.get());
+            long beginLSN = logManager.appendToLog(beginRecord);
+
+            // Snapshot the DPT and transaction table. This is a fuzzy checkpoint: anything that
+            // changes after the begin record is also in the log after it, so forward processing
+            // only has to wait for the copy, not for the end records to be written.
+            Map<Long, Long> dptSnapshot;
+            Map<Long, Pair<Transaction.Status, Long>> txnTableSnapshot = new HashMap<>();
+            Map<Long, List<Long>> touchedPagesSnapshot = new HashMap<>();
+            synchronized (this) {
+                dptSnapshot = new HashMap<>(dirtyPageTable);
+                bufferManager.getRecLSNs().forEach((pageNum, recLSN) ->
+                                                   dptSnapshot.merge(pageNum, recLSN, Math::min));
+                for (Map.Entry<Long, TransactionTableEntry> entry : transactionTable.entrySet()) {
+                    TransactionTableEntry transactionEntry = entry.getValue();
+                    txnTableSnapshot.put(entry.getKey(), new Pair<>(transactionEntry.transaction.getStatus(),
+                                         transactionEntry.lastLSN));
+                    touchedPagesSnapshot.put(entry.getKey(), new ArrayList<>(transactionEntry.touchedPages));
                 }
+            }
+
+            Map<Long, Long> dpt = new HashMap<>();
+            Map<Long, Pair<Transaction.Status, Long>> txnTable = new HashMap<>();
+            Map<Long, List<Long>> touchedPages = new HashMap<>();
+            int numTouchedPages = 0;
 
-                if (!fitsAfterAdd) {
-                    LogRecord endRecord = new EndCheckpointLogRecord(dpt, txnTable, touchedPages);
-                    logManager.appendToLog(endRecord);
+            for (Map.Entry<Long, Long> entry : dptSnapshot.entrySet()) {
+                if (!EndCheckpointLogRecord.fitsInOneRecord(dpt.size() + 1, txnTable.size(), touchedPages.size(),
+                        numTouchedPages)) {
+                    logManager.appendToLog(new EndCheckpointLogRecord(dpt, txnTable, touchedPages));
+                    dpt.clear();
+                }
+                dpt.put(entry.getKey(), entry.getValue());
+            }
 
+            for (Map.Entry<Long, Pair<Transaction.Status, Long>> entry : txnTableSnapshot.entrySet()) {
+                if (!EndCheckpointLogRecord.fitsInOneRecord(dpt.size(), txnTable.size() + 1, touchedPages.size(),
+                        numTouchedPages)) {
+                    logManager.appendToLog(new EndCheckpointLogRecord(dpt, txnTable, touchedPages));
                     dpt.clear();
                     txnTable.clear();
-                    touchedPages.clear();
-                    numTouchedPages = 0;
                 }
+                txnTable.put(entry.getKey(), entry.getValue());
+            }
 
-                touchedPages.computeIfAbsent(transNum, t -> new ArrayList<>());
-                touchedPages.get(transNum).add(pageNum);
-                ++numTouchedPages;
+            for (Map.Entry<Long, List<Long>> entry : touchedPagesSnapshot.entrySet()) {
+                long transNum = entry.getKey();
+                for (long pageNum : entry.getValue()) {
+                    boolean fitsAfterAdd;
+                    if (!touchedPages.containsKey(transNum)) {
+                        fitsAfterAdd = EndCheckpointLogRecord.fitsInOneRecord(
+                                           dpt.size(), txnTable.size(), touchedPages.size() + 1, numTouchedPages + 1);
+                    } else {
+                        fitsAfterAdd = EndCheckpointLogRecord.fitsInOneRecord(
+                                           dpt.size(), txnTable.size(), touchedPages.size(), numTouchedPages + 1);
+                    }
+
+                    if (!fitsAfterAdd) {
+                        LogRecord endRecord = new EndCheckpointLogRecord(dpt, txnTable, touchedPages);
+                        logManager.appendToLog(endRecord);
+
+                        dpt.clear();
+                        txnTable.clear();
+                        touchedPages.clear();
+                        numTouchedPages = 0;
+                    }
+
+                    touchedPages.computeIfAbsent(transNum, t -> new ArrayList<>());
+                    touchedPages.get(transNum).add(pageNum);
+                    ++numTouchedPages;
+                }
             }
+
+            // Last end checkpoint record
+            LogRecord endRecord = new EndCheckpointLogRecord(dpt, txnTable, touchedPages);
+            logManager.appendToLog(endRecord);
+
+            // Update master record
+            MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
+            logManager.rewriteMasterRecord(masterRecord);
+            lastCheckpointLSN = beginLSN;
+            metrics.recordCheckpoint(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Starts taking checkpoints in the background, whenever maxLogBytes bytes of log have
+     * been written since the last checkpoint, or maxIntervalMillis milliseconds have passed
+     * since the last checkpoint. Either threshold may be 0 to disable that trigger. Replaces
+     * any previously configured background checkpointing.
+     *
+     * @param maxLogBytes bytes of log between checkpoints, or 0 to disable
+     * @param maxIntervalMillis milliseconds between checkpoints, or 0 to disable
+     */
+    public void enableBackgroundCheckpoints(long maxLogBytes, long maxIntervalMillis) {
+        CheckpointScheduler scheduler = new CheckpointScheduler(this::checkpoint,
+                this::getLogBytesSinceCheckpoint, maxLogBytes, maxIntervalMillis);
+        disableBackgroundCheckpoints();
+        synchronized (schedulerLock) {
+            checkpointScheduler = scheduler;
+        }
+        scheduler.start();
+    }
+
+    /**
+     * Stops taking checkpoints in the background. Does nothing if background checkpoints
+     * are not enabled.
+     */
+    public void disableBackgroundCheckpoints() {
+        CheckpointScheduler scheduler;
+        synchronized (schedulerLock) {
+            scheduler = checkpointScheduler;
+            checkpointScheduler = null;
+        }
+        // the scheduler may be in the middle of a checkpoint, so it must not be
+        // stopped while holding any lock that checkpoint() needs
+        if (scheduler != null) {
+            scheduler.close();
+        }
+    }
+
+    /**
+     * @return number of bytes of log written since the last checkpoint began
+     */
+    long getLogBytesSinceCheckpoint() {
+        return LogManagerImpl.getLogBytesBetween(lastCheckpointLSN, logManager.getLastLSN());
+    }
+
+    /**
+     * @return number of log records transaction TRANSNUM has written since it started (or,
+     * if restart recovery saw it, since restart), or 0 if it is not running
+     */
+    public long getNumLogRecords(long transNum) {
+        TransactionTableEntry entry = transactionTable.get(transNum);
+        return entry == null ? 0L : entry.numLogRecords;
+    }
+
+    /**
+     * @return LSN of the begin checkpoint record of the last checkpoint
+     */
+    long getLastCheckpointLSN() {
+        return lastCheckpointLSN;
+    }
+
+    /**
+     * @return the smallest recLSN of a dirty page, or LSN that no record of an active
+     * transaction comes before; the last LSN of the log if there are neither
+     */
+    long getOldestActiveLSN() {
+        long oldestLSN = logManager.getLastLSN();
+        for (long recLSN : dirtyPageTable.values()) {
+            oldestLSN = Math.min(oldestLSN, recLSN);
+        }
+        for (long recLSN : bufferManager.getRecLSNs().values()) {
+            oldestLSN = Math.min(oldestLSN, recLSN);
+        }
+        for (TransactionTableEntry entry : transactionTable.values()) {
+            oldestLSN = Math.min(oldestLSN, entry.beginLSN);
         }
+        return oldestLSN;
+    }
 
-        // Last end checkpoint record
-        LogRecord endRecord = new EndCheckpointLogRecord(dpt, txnTable, touchedPages);
-        logManager.appendToLog(endRecord);
+    /**
+     * @return number of pages with logged changes that have not been flushed
+     */
+    int getNumDirtyPages() {
+        Set<Long> dirtyPages = new HashSet<>(dirtyPageTable.keySet());
+        dirtyPages.addAll(bufferManager.getRecLSNs().keySet());
+        return dirtyPages.size();
+    }
 
-        // Update master record
-        MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
-        logManager.rewriteMasterRecord(masterRecord);
+    /**
+     * @return checkpoint counters and restart progress of this recovery manager, which
+     * may be registered with JMX
+     */
+    public RecoveryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return append and flush counters of the log, which may be registered with JMX
+     */
+    public LogMetrics getLogMetrics() {
+        return logManager.getMetrics();
+    }
+
+    /**
+     * Undoes all of a transaction's changes after the record at LSN, in reverse order,
+     * writing CLRs.
+     * @param transactionEntry transaction to roll back
+     * @param LSN LSN to roll back to (exclusive); 0 to roll back everything
+     */
+    private void rollbackToLSN(TransactionTableEntry transactionEntry, long LSN) {
+        long currentLSN = transactionEntry.lastLSN;
+        while (currentLSN > LSN) {
+            currentLSN = undoRecord(transactionEntry, currentLSN);
+        }
+    }
+
+    /**
+     * Undoes the record at LSN of a transaction's chain if it is undoable, emitting and
+     * applying the CLR. The undo information is taken from the transaction's undo chain
+     * cache when present there, and read from the log otherwise.
+     * @param transactionEntry transaction the record belongs to
+     * @param LSN LSN of the record
+     * @return LSN of the next record of the transaction to undo (0 if none)
+     */
+    private long undoRecord(TransactionTableEntry transactionEntry, long LSN) {
+        long transNum = transactionEntry.transaction.getTransNum();
+        LogRecord clr = transactionEntry.undoChain.removeAndUndo(LSN, transNum, transactionEntry.lastLSN);
+        if (clr != null) {
+            applyCLR(transactionEntry, clr, false);
+            return clr.getUndoNextLSN().orElseThrow(NoSuchElementException::new);
+        }
+        LogRecord record = logManager.fetchLogRecord(LSN);
+        if (record.isUndoable()) {
+            Pair<LogRecord, Boolean> undo = record.undo(transactionEntry.lastLSN);
+            applyCLR(transactionEntry, undo.getFirst(), undo.getSecond());
+        }
+        return record.getUndoNextLSN().orElse(record.getPrevLSN().orElse(0L));
+    }
+
+    /**
+     * Appends a CLR for a transaction, updates the transaction table and DPT, flushes
+     * the log if needed, and performs the undo.
+     */
+    private void applyCLR(TransactionTableEntry transactionEntry, LogRecord clr, boolean flush) {
+        long LSN = logManager.appendToLog(clr);
+        transactionEntry.lastLSN = LSN;
+        ++transactionEntry.numLogRecords;
+        if (flush) {
+            logManager.flushToLSN(LSN);
+        }
+        // the CLR is the log record for this change; the write must not be logged again
+        TransactionContext.setTransaction(null);
+        try {
+            clr.redo(diskSpaceManager, bufferManager);
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+        // after the change, so that a flush of the page before it cannot forget the recLSN
+        if (isBufferedPageChange(clr.getType())) {
+            markDirty(clr.getPageNum().get(), LSN);
+        }
     }
 
     // TODO(proj5): add any helper methods needed
 
     @Override
     public void close() {
+        InstantRedo redo = instantRedo;
+        if (redo != null) {
+            redo.close();
+        }
+        this.disableBackgroundCheckpoints();
+        this.stopLogFlusher();
         this.checkpoint();
         this.logManager.close();
     }
@@ -473,12 +1009,148 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *
      * This method should return right before undo is performed.
      *
+     * In instant restart mode, this method returns right after analysis instead. Each
+     * page in the DPT is redone when it is first fetched, and a background thread redoes
+     * any pages that have not been fetched (see awaitRestartRedo). The DPT is not cleaned
+     * in this mode, since new transactions may be dirtying pages concurrently; stale
+     * entries only make a later redo start earlier than it needs to.
+     *
      * @return Runnable to run to finish restart recovery
      */
     @Override
     public Runnable restart() {
-        // TODO(proj5): implement
-        return () -> {};
+        restartAnalysis();
+        if (instantRestart) {
+            InstantRedo redo = new InstantRedo(logManager, buildPageRedoChains(), this::redoPageRecord);
+            instantRedo = redo;
+            redo.start();
+        } else {
+            restartRedo();
+            cleanDirtyPageTable();
+        }
+        return () -> {
+            restartUndo();
+            checkpoint();
+            metrics.restartDone();
+        };
+    }
+
+    /**
+     * Sets whether restart() admits new transactions right after analysis, redoing
+     * pages on demand instead of in a redo pass.
+     * @param instantRestart true to use instant restart
+     */
+    public void setInstantRestart(boolean instantRestart) {
+        this.instantRestart = instantRestart;
+    }
+
+    /**
+     * Blocks until all pages left to redo by an instant restart have been redone.
+     * Returns immediately if restart did not use instant restart.
+     */
+    public void awaitRestartRedo() {
+        InstantRedo redo = instantRedo;
+        if (redo != null) {
+            redo.awaitCompletion();
+        }
+    }
+
+    /**
+     * @return redo state of the last instant restart, or null if there was none
+     */
+    InstantRedo getInstantRedo() {
+        return instantRedo;
+    }
+
+    /**
+     * Builds the per-page redo chains for instant restart, from the redoable records seen
+     * by analysis (plus any records between the start of redo and the checkpoint analysis
+     * started at, which analysis does not see). Each chain holds the LSNs of the records
+     * the redo pass would consider for the page, in order. Partition-level records are
+     * redone here, and records for pages in a partition that is later freed are dropped.
+     * @return page number -> LSNs of records to redo on the page, in LSN order
+     */
+    private Map<Long, List<Long>> buildPageRedoChains() {
+        Map<Long, List<Long>> pageLSNs = analysisPageLSNs;
+        List<Long> partLSNs = analysisPartLSNs;
+        analysisPageLSNs = null;
+        analysisPartLSNs = null;
+
+        Map<Long, List<Long>> chains = new HashMap<>();
+        if (dirtyPageTable.isEmpty()) {
+            return chains;
+        }
+        long startLSN = Collections.min(dirtyPageTable.values());
+
+        // records before the checkpoint analysis started from
+        if (startLSN < lastCheckpointLSN) {
+            Iterator<LogRecord> iter = logManager.scanFrom(startLSN);
+            while (iter.hasNext()) {
+                LogRecord record = iter.next();
+                if (record.getLSN() >= lastCheckpointLSN) {
+                    break;
+                }
+                if (!record.isRedoable()) {
+                    continue;
+                }
+                if (record.getPageNum().isPresent()) {
+                    chains.computeIfAbsent(record.getPageNum().get(), pageNum -> new ArrayList<>())
+                    .add(record.getLSN());
+                } else if (record.getPartNum().isPresent()) {
+                    redoPartitionRecord(record, chains);
+                }
+            }
+        }
+
+        // records seen by analysis
+        for (Map.Entry<Long, List<Long>> e : pageLSNs.entrySet()) {
+            chains.computeIfAbsent(e.getKey(), pageNum -> new ArrayList<>()).addAll(e.getValue());
+        }
+        for (long LSN : partLSNs) {
+            redoPartitionRecord(logManager.fetchLogRecord(LSN), chains);
+        }
+
+        // keep only what the redo pass would redo
+        Iterator<Map.Entry<Long, List<Long>>> iter = chains.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Long, List<Long>> e = iter.next();
+            Long recLSN = dirtyPageTable.get(e.getKey());
+            if (recLSN == null) {
+                iter.remove();
+            } else {
+                e.getValue().removeIf(LSN -> LSN < recLSN);
+            }
+        }
+        return chains;
+    }
+
+    /**
+     * Redoes a partition-level record while building redo chains. If the record frees
+     * the partition, records before it for pages in the partition are dropped.
+     */
+    private void redoPartitionRecord(LogRecord record, Map<Long, List<Long>> chains) {
+        record.redo(diskSpaceManager, bufferManager);
+        if (record.getType() == LogType.FREE_PART || record.getType() == LogType.UNDO_ALLOC_PART) {
+            int partNum = record.getPartNum().get();
+            for (Map.Entry<Long, List<Long>> e : chains.entrySet()) {
+                if (DiskSpaceManager.getPartNum(e.getKey()) == partNum) {
+                    e.getValue().removeIf(LSN -> LSN < record.getLSN());
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes pages that are not dirty in the buffer manager from the DPT.
+     */
+    private void cleanDirtyPageTable() {
+        Set<Long> dirtyPages = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> {
+            if (dirty) {
+                dirtyPages.add(pageNum);
+            }
+        });
+        dirtyPageTable.keySet().retainAll(dirtyPages);
     }
 
     /**
@@ -521,11 +1193,177 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // Type casting
         assert (record.getType() == LogType.MASTER);
         MasterLogRecord masterRecord = (MasterLogRecord) record;
+        if (masterRecord.logFormatVersion != MasterLogRecord.LOG_FORMAT_VERSION) {
+            throw new IllegalStateException("log is not in log format version " +
+                                            MasterLogRecord.LOG_FORMAT_VERSION +
+                                            "; recover it with the release that wrote it first");
+        }
         // Get start checkpoint LSN
         long LSN = masterRecord.lastCheckpointLSN;
+        lastCheckpointLSN = LSN;
+
+        // Transactions that ended during the scan, and should not be resurrected by a
+        // checkpoint record written before they ended.
+        Set<Long> endedTransactions = new HashSet<>();
+
+        if (instantRestart) {
+            analysisPageLSNs = new HashMap<>();
+            analysisPartLSNs = new ArrayList<>();
+        }
+
+        metrics.startScan(RecoveryMetrics.Phase.ANALYSIS, LSN, logManager.getLastLSN());
+        Iterator<LogRecord> iter = logManager.scanFrom(LSN);
+        while (iter.hasNext()) {
+            record = iter.next();
+            metrics.recordScanned(RecoveryMetrics.Phase.ANALYSIS, record.getLSN());
+            if (instantRestart && record.isRedoable()) {
+                if (record.getPageNum().isPresent()) {
+                    analysisPageLSNs.computeIfAbsent(record.getPageNum().get(), pageNum -> new ArrayList<>())
+                    .add(record.getLSN());
+                } else if (record.getPartNum().isPresent()) {
+                    analysisPartLSNs.add(record.getLSN());
+                }
+            }
+
+            if (record.getTransNum().isPresent()) {
+                long transNum = record.getTransNum().get();
+                TransactionTableEntry entry = getOrCreateRecoveryEntry(transNum);
+                entry.lastLSN = record.getLSN();
+                if (record.getPrevLSN().orElse(0L) == 0L) {
+                    entry.beginLSN = record.getLSN();
+                }
+
+                if (record.getType() == LogType.UPDATE_PAGE && record.isUndoable()) {
+                    UpdatePageLogRecord update = (UpdatePageLogRecord) record;
+                    entry.undoChain.add(record.getLSN(), record.getPrevLSN().orElse(0L),
+                                        record.getPageNum().get(), update.offset, update.before);
+                }
+                if (record.getPageNum().isPresent()) {
+                    long pageNum = record.getPageNum().get();
+                    entry.touchedPages.add(pageNum);
+                    acquireTransactionLock(entry.transaction, getPageLockContext(pageNum), LockType.X);
 
-        // TODO(proj5): implement
-        return;
+                    switch (record.getType()) {
+                    case UPDATE_PAGE:
+                    case UNDO_UPDATE_PAGE:
+                    case INSERT_SLOT:
+                    case DELETE_SLOT:
+                    case UNDO_INSERT_SLOT:
+                    case UNDO_DELETE_SLOT:
+                    case UPDATE_PAGE_DELTA:
+                    case UNDO_UPDATE_PAGE_DELTA:
+                    case UPDATE_PAGE_RANGES:
+                    case UNDO_UPDATE_PAGE_RANGES:
+                        dirtyPageTable.putIfAbsent(pageNum, record.getLSN());
+                        break;
+                    case ALLOC_PAGE:
+                    case FREE_PAGE:
+                    case UNDO_ALLOC_PAGE:
+                    case UNDO_FREE_PAGE:
+                        // changes flushed to disk immediately
+                        dirtyPageTable.remove(pageNum);
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            }
+
+            switch (record.getType()) {
+            case COMMIT_TRANSACTION:
+                transactionTable.get(record.getTransNum().get()).transaction.setStatus(
+                    Transaction.Status.COMMITTING);
+                break;
+            case ABORT_TRANSACTION:
+                transactionTable.get(record.getTransNum().get()).transaction.setStatus(
+                    Transaction.Status.RECOVERY_ABORTING);
+                break;
+            case END_TRANSACTION: {
+                long transNum = record.getTransNum().get();
+                Transaction transaction = transactionTable.remove(transNum).transaction;
+                transaction.cleanup();
+                transaction.setStatus(Transaction.Status.COMPLETE);
+                endedTransactions.add(transNum);
+                break;
+            }
+            case BEGIN_CHECKPOINT:
+                updateTransactionCounter.accept(Math.max(getTransactionCounter.get(),
+                                                record.getMaxTransactionNum().orElse(0L)));
+                break;
+            case END_CHECKPOINT:
+                dirtyPageTable.putAll(record.getDirtyPageTable());
+                for (Map.Entry<Long, Pair<Transaction.Status, Long>> e :
+                        record.getTransactionTable().entrySet()) {
+                    long transNum = e.getKey();
+                    if (endedTransactions.contains(transNum)) {
+                        continue;
+                    }
+                    TransactionTableEntry entry = getOrCreateRecoveryEntry(transNum);
+                    entry.lastLSN = Math.max(entry.lastLSN, e.getValue().getSecond());
+                    Transaction.Status status = e.getValue().getFirst();
+                    if (entry.transaction.getStatus() == Transaction.Status.RUNNING) {
+                        if (status == Transaction.Status.COMMITTING) {
+                            entry.transaction.setStatus(Transaction.Status.COMMITTING);
+                        } else if (status == Transaction.Status.ABORTING
+                                   || status == Transaction.Status.RECOVERY_ABORTING) {
+                            entry.transaction.setStatus(Transaction.Status.RECOVERY_ABORTING);
+                        }
+                    }
+                }
+                for (Map.Entry<Long, List<Long>> e : record.getTransactionTouchedPages().entrySet()) {
+                    long transNum = e.getKey();
+                    if (endedTransactions.contains(transNum)) {
+                        continue;
+                    }
+                    TransactionTableEntry entry = getOrCreateRecoveryEntry(transNum);
+                    for (long pageNum : e.getValue()) {
+                        entry.touchedPages.add(pageNum);
+                        acquireTransactionLock(entry.transaction, getPageLockContext(pageNum), LockType.X);
+                    }
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+        // Finish committing transactions, and abort the rest.
+        for (Map.Entry<Long, TransactionTableEntry> e : new ArrayList<>(transactionTable.entrySet())) {
+            long transNum = e.getKey();
+            TransactionTableEntry entry = e.getValue();
+            switch (entry.transaction.getStatus()) {
+            case COMMITTING:
+                entry.transaction.cleanup();
+                entry.transaction.setStatus(Transaction.Status.COMPLETE);
+                logManager.appendToLog(new EndTransactionLogRecord(transNum, entry.lastLSN));
+                transactionTable.remove(transNum);
+                break;
+            case RUNNING:
+                entry.transaction.setStatus(Transaction.Status.RECOVERY_ABORTING);
+                entry.lastLSN = logManager.appendToLog(new AbortTransactionLogRecord(transNum,
+                                                       entry.lastLSN));
+                break;
+            default:
+                break;
+            }
+        }
+        metrics.endPhase(RecoveryMetrics.Phase.ANALYSIS);
+    }
+
+    /**
+     * Gets the transaction table entry for transNum during analysis, creating the
+     * transaction (and entry) if it is not already in the table.
+     */
+    private TransactionTableEntry getOrCreateRecoveryEntry(long transNum) {
+        TransactionTableEntry entry = transactionTable.get(transNum);
+        if (entry == null) {
+            Transaction transaction = newTransaction.apply(transNum);
+            startTransaction(transaction);
+            entry = transactionTable.get(transNum);
+            // its first record may be anywhere before the checkpoint
+            entry.beginLSN = 0L;
+        }
+        return entry;
     }
 
     /**
@@ -537,14 +1375,186 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * - about a page (Update/Alloc/Free/Undo..Page) in the DPT with LSN >= recLSN,
      *   the page is fetched from disk and the pageLSN is checked, and the record is redone.
      * - about a partition (Alloc/Free/Undo..Part), redo it.
+     *
+     * If redo parallelism is greater than 1, page-level records are handed to worker threads
+     * partitioned by page number (so records for a page are still redone in LSN order), and
+     * partition-level records act as barriers: all earlier page-level records are redone
+     * before the partition-level record is.
+     *
+     * Unless disabled, pages in the DPT are also loaded into the buffer on a background
+     * thread ahead of the log cursor, in recLSN order, using at most the free frames
+     * available when redo starts.
      */
     void restartRedo() {
-        // TODO(proj5): implement
-        return;
+        if (dirtyPageTable.isEmpty()) {
+            metrics.startScan(RecoveryMetrics.Phase.REDO, 0L, 0L);
+            metrics.endPhase(RecoveryMetrics.Phase.REDO);
+            return;
+        }
+        long startLSN = Collections.min(dirtyPageTable.values());
+        metrics.startScan(RecoveryMetrics.Phase.REDO, startLSN, logManager.getLastLSN());
+        Iterator<LogRecord> iter = logManager.scanFrom(startLSN);
+
+        RedoPrefetcher prefetcher = null;
+        if (redoPrefetching) {
+            int capacity = bufferManager.getNumFreeFrames() - REDO_RESERVED_FRAMES;
+            if (capacity > 0) {
+                prefetcher = new RedoPrefetcher(bufferManager, dirtyPageTable, capacity,
+                                                REDO_PREFETCH_THREADS);
+                prefetcher.start();
+            }
+        }
+        try {
+            if (redoParallelism <= 1) {
+                while (iter.hasNext()) {
+                    LogRecord record = iter.next();
+                    metrics.recordScanned(RecoveryMetrics.Phase.REDO, record.getLSN());
+                    if (!record.isRedoable()) {
+                        continue;
+                    }
+                    beforeRedo(prefetcher, record);
+                    if (record.getPartNum().isPresent()) {
+                        record.redo(diskSpaceManager, bufferManager);
+                    } else if (isPageRedoCandidate(record)) {
+                        redoPageRecord(record);
+                    }
+                }
+                return;
+            }
+
+            try (ParallelRedoDispatcher dispatcher = new ParallelRedoDispatcher(redoParallelism,
+                        this::redoPageRecord)) {
+                while (iter.hasNext()) {
+                    LogRecord record = iter.next();
+                    metrics.recordScanned(RecoveryMetrics.Phase.REDO, record.getLSN());
+                    if (!record.isRedoable()) {
+                        continue;
+                    }
+                    beforeRedo(prefetcher, record);
+                    if (record.getPartNum().isPresent()) {
+                        dispatcher.barrier();
+                        record.redo(diskSpaceManager, bufferManager);
+                    } else if (isPageRedoCandidate(record)) {
+                        dispatcher.dispatch(record);
+                    }
+                }
+            }
+        } finally {
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
+            metrics.endPhase(RecoveryMetrics.Phase.REDO);
+        }
     }
 
     /**
-     * This method performs the redo pass of restart recovery.
+     * Reports the redo cursor position to the prefetcher (if any), and makes sure no
+     * prefetch overlaps with a record that allocates or frees the page it is fetching.
+     */
+    private void beforeRedo(RedoPrefetcher prefetcher, LogRecord record) {
+        if (prefetcher == null) {
+            return;
+        }
+        prefetcher.advance(record.getLSN());
+        if (record.getPageNum().isPresent() && !isBufferedPageChange(record.getType())) {
+            prefetcher.awaitNotInFlight(record.getPageNum().get());
+        }
+    }
+
+    /**
+     * @return whether records of this type change a page through the buffer manager (so
+     * that the change only reaches disk when the page is flushed), as opposed to
+     * allocating or freeing it
+     */
+    private static boolean isBufferedPageChange(LogType type) {
+        switch (type) {
+        case UPDATE_PAGE:
+        case UNDO_UPDATE_PAGE:
+        case INSERT_SLOT:
+        case DELETE_SLOT:
+        case UNDO_INSERT_SLOT:
+        case UNDO_DELETE_SLOT:
+        case UPDATE_PAGE_DELTA:
+        case UNDO_UPDATE_PAGE_DELTA:
+        case UPDATE_PAGE_RANGES:
+        case UNDO_UPDATE_PAGE_RANGES:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Sets whether restart redo loads dirty pages into the buffer ahead of the log cursor.
+     * @param redoPrefetching true to prefetch DPT pages during redo
+     */
+    public void setRedoPrefetching(boolean redoPrefetching) {
+        this.redoPrefetching = redoPrefetching;
+    }
+
+    /**
+     * Sets the number of threads used to redo page-level records during restart recovery.
+     * @param redoParallelism number of redo threads; 1 redoes everything on the calling thread
+     */
+    public void setRedoParallelism(int redoParallelism) {
+        if (redoParallelism < 1) {
+            throw new IllegalArgumentException("redo parallelism must be at least 1");
+        }
+        this.redoParallelism = redoParallelism;
+    }
+
+    /**
+     * @return whether a redoable page-level record may need to be redone: its page must
+     * be in the DPT, with a recLSN no later than the record
+     */
+    private boolean isPageRedoCandidate(LogRecord record) {
+        if (!record.getPageNum().isPresent()) {
+            return false;
+        }
+        Long recLSN = dirtyPageTable.get(record.getPageNum().get());
+        return recLSN != null && record.getLSN() >= recLSN;
+    }
+
+    /**
+     * Redoes a page-level record if the page on disk does not already reflect it.
+     */
+    private void redoPageRecord(LogRecord record) {
+        // on an instant restart, this runs on the thread fetching the page, which may be in
+        // a transaction; the record is the log of this change, which must not be logged again
+        TransactionContext.setTransaction(null);
+        try {
+            redoPageRecord(record, diskSpaceManager, bufferManager);
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+    }
+
+    /**
+     * Redoes a page-level record if the page on disk does not already reflect it (also
+     * used by a hot standby applying its primary's log).
+     */
+    static void redoPageRecord(LogRecord record, DiskSpaceManager diskSpaceManager,
+                               BufferManager bufferManager) {
+        long pageNum = record.getPageNum().orElseThrow(NoSuchElementException::new);
+        boolean redo;
+        try {
+            Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum, false);
+            try {
+                redo = page.getPageLSN() < record.getLSN();
+            } finally {
+                page.unpin();
+            }
+        } catch (PageException e) {
+            // page is not allocated: only a record that allocates it can apply
+            redo = record.getType() == LogType.ALLOC_PAGE || record.getType() == LogType.UNDO_FREE_PAGE;
+        }
+        if (redo) {
+            record.redo(diskSpaceManager, bufferManager);
+        }
+    }
+
+    /**
+     * This method performs the undo pass of restart recovery.
 
      * First, a priority queue is created sorted on lastLSN of all aborting transactions.
      *
@@ -553,10 +1563,105 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * - replace the entry in the set should be replaced with a new one, using the undoNextLSN
      *   (or prevLSN if none) of the record; and
      * - if the new LSN is 0, end the transaction and remove it from the queue and transaction table.
+     *
+     * If undo parallelism is greater than 1, aborting transactions that change disjoint
+     * pages are rolled back concurrently instead (see ParallelUndo), and each page lock is
+     * released as soon as the last record of the transaction on the page has been undone,
+     * so that new transactions can use pages whose undo is finished.
      */
     void restartUndo() {
-        // TODO(proj5): implement
-        return;
+        List<Long> losers = new ArrayList<>();
+        for (Map.Entry<Long, TransactionTableEntry> e : transactionTable.entrySet()) {
+            if (e.getValue().transaction.getStatus() == Transaction.Status.RECOVERY_ABORTING) {
+                losers.add(e.getKey());
+            }
+        }
+        metrics.startUndo(losers.size());
+        if (undoParallelism > 1 && losers.size() > 1) {
+            ParallelUndo.run(losers, undoParallelism, this::getUndoFootprint, this::undoTransactions);
+        } else {
+            undoTransactions(losers, null);
+        }
+        metrics.endPhase(RecoveryMetrics.Phase.UNDO);
+    }
+
+    /**
+     * Rolls back aborting transactions, always undoing the record with the largest LSN
+     * among them next, and ends each one when it is rolled back.
+     * @param transNums transactions to roll back
+     * @param footprints footprints of the transactions' rollbacks, used to release each
+     *                   page lock after the last record on the page is undone; null to
+     *                   keep locks until the transaction ends
+     */
+    private void undoTransactions(List<Long> transNums, Map<Long, ParallelUndo.Footprint> footprints) {
+        PriorityQueue<Pair<Long, Long>> toUndo = new PriorityQueue<>(new PairFirstReverseComparator<>());
+        for (long transNum : transNums) {
+            toUndo.add(new Pair<>(transactionTable.get(transNum).lastLSN, transNum));
+        }
+        while (!toUndo.isEmpty()) {
+            Pair<Long, Long> next = toUndo.poll();
+            long transNum = next.getSecond();
+            TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+
+            long nextLSN = undoRecord(transactionEntry, next.getFirst());
+            metrics.recordUndone();
+            if (footprints != null) {
+                Long pageNum = footprints.get(transNum).lastPageUndos.get(next.getFirst());
+                if (pageNum != null) {
+                    releaseTransactionLock(transactionEntry.transaction, getPageLockContext(pageNum));
+                }
+            }
+            if (nextLSN == 0L) {
+                transactionEntry.transaction.cleanup();
+                transactionEntry.transaction.setStatus(Transaction.Status.COMPLETE);
+                logManager.appendToLog(new EndTransactionLogRecord(transNum, transactionEntry.lastLSN));
+                transactionTable.remove(transNum);
+                metrics.recordLoserEnded();
+            } else {
+                toUndo.add(new Pair<>(nextLSN, transNum));
+            }
+        }
+    }
+
+    /**
+     * Walks the undo chain of an aborting transaction (as undoTransactions would, without
+     * undoing anything) to find what its rollback will change. Cached updates are not
+     * read from the log.
+     */
+    private ParallelUndo.Footprint getUndoFootprint(long transNum) {
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        ParallelUndo.Footprint footprint = new ParallelUndo.Footprint();
+        long LSN = transactionEntry.lastLSN;
+        while (LSN != 0L) {
+            Pair<Long, Long> cached = transactionEntry.undoChain.peek(LSN);
+            if (cached != null) {
+                footprint.addPageRecord(LSN, cached.getFirst());
+                LSN = cached.getSecond();
+                continue;
+            }
+            LogRecord record = logManager.fetchLogRecord(LSN);
+            if (record.isUndoable()) {
+                if (record.getPageNum().isPresent()) {
+                    footprint.addPageRecord(LSN, record.getPageNum().get());
+                } else if (record.getPartNum().isPresent()) {
+                    footprint.addPartRecord(record.getPartNum().get());
+                }
+            }
+            LSN = record.getUndoNextLSN().orElse(record.getPrevLSN().orElse(0L));
+        }
+        return footprint;
+    }
+
+    /**
+     * Sets the number of threads used to roll back aborting transactions during restart
+     * recovery.
+     * @param undoParallelism number of undo threads; 1 rolls back everything on the calling thread
+     */
+    public void setUndoParallelism(int undoParallelism) {
+        if (undoParallelism < 1) {
+            throw new IllegalArgumentException("undo parallelism must be at least 1");
+        }
+        this.undoParallelism = undoParallelism;
     }
 
     // TODO(proj5): add any helper methods needed
@@ -607,6 +1712,26 @@ public class ARIESRecoveryManager implements RecoveryManager {
         }
     }
 
+    /**
+     * Releases the lock the given transaction holds on the given lock context, if any.
+     * @param transaction transaction to release the lock of
+     * @param lockContext lock context to release
+     */
+    private void releaseTransactionLock(Transaction transaction, LockContext lockContext) {
+        TransactionContext transactionContext = transaction.getTransactionContext();
+        if (lockRequests == null) {
+            if (lockContext.getExplicitLockType(transactionContext) != LockType.NL) {
+                lockContext.release(transactionContext);
+            }
+        } else {
+            // undo may release locks on several threads
+            synchronized (lockRequests) {
+                lockRequests.add("release " + transactionContext.getTransNum() + " " +
+                                 lockContext.getResourceName());
+            }
+        }
+    }
+
     /**
      * Comparator for Pair<A, B> comparing only on the first element (type A), in reverse order.
      */
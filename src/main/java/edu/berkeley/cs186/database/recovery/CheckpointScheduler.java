@@ -0,0 +1,118 @@
+package edu.berkeley.cs186.database.recovery;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Background checkpointer. Wakes up periodically and takes a (fuzzy) checkpoint
+ * whenever the amount of log written since the last checkpoint, or the time elapsed
+ * since the last checkpoint, crosses a configured threshold. A threshold of 0 disables
+ * that trigger.
+ *
+ * The scheduler only decides *when* to checkpoint; the checkpoint itself is taken by
+ * the recovery manager, which only blocks forward processing while it snapshots the
+ * transaction table and dirty page table.
+ */
+class CheckpointScheduler implements AutoCloseable {
+    // How often (in milliseconds) the triggers are checked, at most.
+    static final long POLL_INTERVAL_MILLIS = 50L;
+
+    // Takes a checkpoint.
+    private final Runnable checkpoint;
+    // Number of bytes of log written since the last checkpoint began.
+    private final LongSupplier logBytesSinceCheckpoint;
+    // Checkpoint once this many bytes of log have been written (0 to disable).
+    private final long maxLogBytes;
+    // Checkpoint once this many milliseconds have elapsed (0 to disable).
+    private final long maxIntervalMillis;
+
+    private final Thread thread;
+    private final Object monitor = new Object();
+    private volatile boolean running = true;
+    private long lastCheckpointMillis;
+    private volatile long numCheckpoints = 0L;
+
+    CheckpointScheduler(Runnable checkpoint, LongSupplier logBytesSinceCheckpoint, long maxLogBytes,
+                        long maxIntervalMillis) {
+        if (maxLogBytes < 0 || maxIntervalMillis < 0) {
+            throw new IllegalArgumentException("checkpoint thresholds must be non-negative");
+        }
+        if (maxLogBytes == 0 && maxIntervalMillis == 0) {
+            throw new IllegalArgumentException("at least one checkpoint trigger must be enabled");
+        }
+        this.checkpoint = checkpoint;
+        this.logBytesSinceCheckpoint = logBytesSinceCheckpoint;
+        this.maxLogBytes = maxLogBytes;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.lastCheckpointMillis = System.currentTimeMillis();
+        this.thread = new Thread(this::run, "checkpointer");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the background thread.
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * @return number of checkpoints taken by this scheduler
+     */
+    long getNumCheckpoints() {
+        return numCheckpoints;
+    }
+
+    /**
+     * @return whether a checkpoint should be taken now
+     */
+    private boolean shouldCheckpoint() {
+        if (maxLogBytes > 0 && logBytesSinceCheckpoint.getAsLong() >= maxLogBytes) {
+            return true;
+        }
+        return maxIntervalMillis > 0 && System.currentTimeMillis() - lastCheckpointMillis >= maxIntervalMillis;
+    }
+
+    private void run() {
+        while (running) {
+            if (shouldCheckpoint()) {
+                checkpoint.run();
+                lastCheckpointMillis = System.currentTimeMillis();
+                ++numCheckpoints;
+            }
+            long sleepMillis = POLL_INTERVAL_MILLIS;
+            if (maxIntervalMillis > 0) {
+                long untilDue = lastCheckpointMillis + maxIntervalMillis - System.currentTimeMillis();
+                sleepMillis = Math.max(1L, Math.min(sleepMillis, untilDue));
+            }
+            synchronized (monitor) {
+                if (!running) {
+                    break;
+                }
+                try {
+                    monitor.wait(sleepMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread, waiting for any in-progress checkpoint to finish.
+     */
+    @Override
+    public void close() {
+        synchronized (monitor) {
+            running = false;
+            monitor.notifyAll();
+        }
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -42,6 +42,9 @@ public class DummyRecoveryManager implements RecoveryManager {
     @Override
     public void pageFlushHook(long pageLSN) {}
 
+    @Override
+    public void pageFetchHook(long pageNum) {}
+
     @Override
     public void diskIOHook(long pageNum) {}
 
@@ -51,6 +54,24 @@ public class DummyRecoveryManager implements RecoveryManager {
         return 0L;
     }
 
+    @Override
+    public long logPageWrites(long transNum, long pageNum, short[] pageOffsets, byte[][] before,
+                              byte[][] after) {
+        return 0L;
+    }
+
+    @Override
+    public long logSlotInsert(long transNum, long pageNum, short bitIndex, short offset,
+                              byte[] data) {
+        return 0L;
+    }
+
+    @Override
+    public long logSlotDelete(long transNum, long pageNum, short bitIndex, short offset,
+                              byte[] data) {
+        return 0L;
+    }
+
     @Override
     public long logAllocPart(long transNum, int partNum) {
         return 0L;
@@ -0,0 +1,605 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Recovery manager of a hot standby: a database that keeps a copy of a primary database's
+ * log, shipped from a LogSource, and redoes it in the background while serving read-only
+ * transactions.
+ *
+ * Shipped log pages are written to the standby's log partition at the same page numbers,
+ * so the copy has the primary's LSNs. Records are redone as in the redo pass of restart
+ * recovery, from the start of the log, skipping changes a page already reflects, so a
+ * standby may be opened on an empty directory or on a copy of the primary's files.
+ *
+ * Every shipped record is applied, whether or not the primary has transactions in
+ * progress. Transactions on the standby read the changes of the primary's transactions
+ * committed as of the last record applied: the changes of the ones still in progress are
+ * rolled back on the standby's pages after applying, as in the undo pass of restart
+ * recovery but without logging, and the pages are put back as they were before applying
+ * more. As with restart recovery, this relies on the primary's transactions holding locks
+ * on what they change until they end.
+ *
+ * A transaction on the standby reads the same state throughout, so records are not
+ * applied while one runs. Applying waits at most APPLY_WAIT_MILLIS for the running ones to
+ * end, and otherwise tries again later, so that new transactions on the standby are never
+ * held up behind it for longer; the standby falls behind while its transactions keep
+ * overlapping, and the replication lag metrics show by how much.
+ *
+ * To fail over, call promote(), which applies the rest of the shipped log, then close the
+ * standby and reopen its directory as a database with the recovery manager enabled:
+ * restart recovery rolls back the transactions the primary had in progress.
+ *
+ * Nothing done on the standby is logged, so transactions on it may not write (including
+ * to temporary tables), and tables created on the primary after the standby is opened are
+ * only visible once it is reopened.
+ */
+public class HotStandby implements RecoveryManager {
+    // Longest wait for the transactions on the standby to end before applying records, in
+    // milliseconds.
+    static final long APPLY_WAIT_MILLIS = 10L;
+
+    private final LogSource source;
+    // Ship and apply the primary's log this often, in milliseconds (0 to only do so
+    // when catchUp is called).
+    private final long pollMillis;
+
+    private DiskSpaceManager diskSpaceManager;
+    private BufferManager bufferManager;
+    private LogManagerImpl logManager;
+
+    // Transactions on the standby hold a read stamp until they end; applying records
+    // takes the write lock.
+    private final StampedLock applyLock = new StampedLock();
+    private final Map<Long, Long> readStamps = new ConcurrentHashMap<>();
+    private final Map<Long, Transaction> transactions = new ConcurrentHashMap<>();
+
+    // Next log page to ship; the first page is shipped every time, since the master
+    // record on it is rewritten.
+    private long nextShipPage = 1L;
+    // Flushed LSN of the primary when last shipped from, LSN of the last record applied,
+    // and LSN of the first shipped record not yet applied (or just past the shipped log).
+    private volatile long shippedLSN = -1L;
+    private volatile long appliedLSN = -1L;
+    private volatile long unappliedLSN = 0L;
+    // Records of the transactions of the primary with changes in progress as of
+    // appliedLSN, by transaction, in LSN order.
+    private final Map<Long, List<LogRecord>> inProgress = new HashMap<>();
+    // Records of those transactions rolled back on the standby's pages, latest first, and
+    // the pages they changed as they were before.
+    private final List<LogRecord> hidden = new ArrayList<>();
+    private final Map<Long, PageImage> hiddenPages = new HashMap<>();
+    // Time since which the standby has not been caught up with the log shipped (-1 if
+    // it is).
+    private volatile long laggingSinceMillis = -1L;
+    private volatile long numRecordsApplied = 0L;
+    private volatile long numPagesShipped = 0L;
+
+    private Thread applier;
+    private final Object monitor = new Object();
+    private volatile boolean running = false;
+    private volatile boolean promoted = false;
+
+    /**
+     * @param source source of the primary's log
+     * @param pollMillis ship and apply the primary's log this often, in milliseconds, in the
+     *                   background; 0 to only do so when catchUp is called
+     */
+    public HotStandby(LogSource source, long pollMillis) {
+        if (pollMillis < 0) {
+            throw new IllegalArgumentException("poll interval must not be negative");
+        }
+        this.source = source;
+        this.pollMillis = pollMillis;
+    }
+
+    /**
+     * The standby's log is copied from the primary's.
+     */
+    @Override
+    public void initialize() {
+        throw new UnsupportedOperationException("a hot standby's log is shipped from its primary");
+    }
+
+    @Override
+    public void setManagers(DiskSpaceManager diskSpaceManager, BufferManager bufferManager) {
+        this.diskSpaceManager = diskSpaceManager;
+        this.bufferManager = bufferManager;
+        this.logManager = LogManagerImpl.openReadOnly(bufferManager);
+    }
+
+    @Override
+    public void startTransaction(Transaction transaction) {
+        transactions.put(transaction.getTransNum(), transaction);
+        readStamps.put(transaction.getTransNum(), applyLock.readLock());
+    }
+
+    @Override
+    public long commit(long transNum) {
+        transactions.get(transNum).setStatus(Transaction.Status.COMMITTING);
+        return 0L;
+    }
+
+    @Override
+    public long abort(long transNum) {
+        // nothing to roll back
+        transactions.get(transNum).setStatus(Transaction.Status.ABORTING);
+        return 0L;
+    }
+
+    @Override
+    public long end(long transNum) {
+        Transaction transaction = transactions.remove(transNum);
+        transaction.setStatus(Transaction.Status.COMPLETE);
+        Long stamp = readStamps.remove(transNum);
+        if (stamp != null) {
+            applyLock.unlockRead(stamp);
+        }
+        return 0L;
+    }
+
+    @Override
+    public void pageFlushHook(long pageLSN) {}
+
+    @Override
+    public void pageFetchHook(long pageNum) {}
+
+    @Override
+    public void diskIOHook(long pageNum) {}
+
+    @Override
+    public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
+                             byte[] after) {
+        throw readOnly();
+    }
+
+    @Override
+    public long logPageWrites(long transNum, long pageNum, short[] pageOffsets, byte[][] before,
+                              byte[][] after) {
+        throw readOnly();
+    }
+
+    @Override
+    public long logSlotInsert(long transNum, long pageNum, short bitIndex, short offset,
+                              byte[] data) {
+        throw readOnly();
+    }
+
+    @Override
+    public long logSlotDelete(long transNum, long pageNum, short bitIndex, short offset,
+                              byte[] data) {
+        throw readOnly();
+    }
+
+    @Override
+    public long logAllocPart(long transNum, int partNum) {
+        throw readOnly();
+    }
+
+    @Override
+    public long logFreePart(long transNum, int partNum) {
+        throw readOnly();
+    }
+
+    @Override
+    public long logAllocPage(long transNum, long pageNum) {
+        throw readOnly();
+    }
+
+    @Override
+    public long logFreePage(long transNum, long pageNum) {
+        throw readOnly();
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("a hot standby is read-only");
+    }
+
+    @Override
+    public void savepoint(long transNum, String name) {
+        throw readOnly();
+    }
+
+    @Override
+    public void releaseSavepoint(long transNum, String name) {
+        throw readOnly();
+    }
+
+    @Override
+    public void rollbackToSavepoint(long transNum, String name) {
+        throw readOnly();
+    }
+
+    /**
+     * Checkpoints are taken by the primary, and shipped with its log.
+     */
+    @Override
+    public void checkpoint() {}
+
+    /**
+     * Catches up with the log the primary has made durable before the database loads its
+     * tables, and returns a Runnable that starts applying the log in the background.
+     */
+    @Override
+    public Runnable restart() {
+        catchUp();
+        return this::startApplying;
+    }
+
+    private void startApplying() {
+        if (pollMillis == 0) {
+            return;
+        }
+        synchronized (monitor) {
+            if (running || promoted) {
+                return;
+            }
+            running = true;
+            applier = new Thread(this::run, "hot-standby-applier");
+            applier.setDaemon(true);
+            applier.start();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            catchUp();
+            synchronized (monitor) {
+                if (!running) {
+                    return;
+                }
+                try {
+                    monitor.wait(pollMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void stopApplying() {
+        Thread thread;
+        synchronized (monitor) {
+            running = false;
+            monitor.notifyAll();
+            thread = applier;
+            applier = null;
+        }
+        if (thread != null && Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Ships the log the primary has made durable, and applies it, unless the transactions
+     * on the standby do not end within APPLY_WAIT_MILLIS.
+     * @return LSN of the last record applied
+     */
+    public synchronized long catchUp() {
+        if (promoted) {
+            return appliedLSN;
+        }
+        ship();
+        apply(false);
+        return appliedLSN;
+    }
+
+    /**
+     * Stops applying the log in the background, and applies all of the log shipped so
+     * far, including the changes of transactions the primary had in progress. The standby
+     * must then be closed and reopened with the recovery manager enabled to roll those
+     * transactions back and to accept writes.
+     * @return LSN of the last record applied
+     */
+    public long promote() {
+        stopApplying();
+        synchronized (this) {
+            if (!promoted) {
+                apply(true);
+                promoted = true;
+            }
+            return appliedLSN;
+        }
+    }
+
+    /**
+     * Copies the log pages the primary has flushed since the last time into the standby's
+     * log. The master record is copied before the flushed LSN is read, so that the
+     * checkpoint it points to is always in the copy.
+     */
+    private void ship() {
+        copyLogPage(0L, source.readLogPage(0L));
+        long flushedLSN = source.getFlushedLSN();
+        if (flushedLSN <= shippedLSN) {
+            return;
+        }
+        long lastPage = LogManagerImpl.getLSNPage(flushedLSN);
+        for (long pageNum = nextShipPage; pageNum <= lastPage; ++pageNum) {
+            copyLogPage(pageNum, source.readLogPage(pageNum));
+        }
+        nextShipPage = Math.max(nextShipPage, lastPage + 1);
+        shippedLSN = flushedLSN;
+        logManager.advanceTo(flushedLSN);
+        if (laggingSinceMillis < 0) {
+            laggingSinceMillis = System.currentTimeMillis();
+        }
+    }
+
+    private void copyLogPage(long pageNum, byte[] bytes) {
+        try {
+            diskSpaceManager.allocPage(pageNum);
+        } catch (IllegalStateException e) {
+            /* do nothing - page already exists */
+        }
+        Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum, true);
+        try {
+            page.getBuffer().put(bytes);
+            // on disk before any change it logs is applied
+            page.flush();
+        } finally {
+            page.unpin();
+        }
+        ++numPagesShipped;
+    }
+
+    /**
+     * Applies the shipped records after appliedLSN, and rolls back the changes of the
+     * primary's transactions in progress on the standby's pages, unless all is true.
+     * Gives up if the transactions on the standby do not end within APPLY_WAIT_MILLIS,
+     * unless all is true.
+     */
+    private void apply(boolean all) {
+        List<LogRecord> records = new ArrayList<>();
+        Iterator<LogRecord> iter = logManager.scanFrom(Math.max(appliedLSN, 0L));
+        if (appliedLSN >= 0 && iter.hasNext()) {
+            iter.next(); // already applied
+        }
+        iter.forEachRemaining(records::add);
+        if (records.isEmpty() && (!all || hidden.isEmpty())) {
+            unappliedLSN = shippedLSN + 1;
+            laggingSinceMillis = -1L;
+            return;
+        }
+
+        long stamp;
+        if (all) {
+            stamp = applyLock.writeLock();
+        } else {
+            try {
+                stamp = applyLock.tryWriteLock(APPLY_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stamp = 0L;
+            }
+            if (stamp == 0L) {
+                unappliedLSN = records.get(0).getLSN();
+                return;
+            }
+        }
+        // the records are the log of these changes; they must not be logged again
+        TransactionContext.setTransaction(null);
+        try {
+            unhide();
+            for (LogRecord record : records) {
+                applyRecord(record);
+                track(record);
+                appliedLSN = record.getLSN();
+            }
+            if (!all) {
+                hide();
+            }
+        } finally {
+            TransactionContext.unsetTransaction();
+            applyLock.unlockWrite(stamp);
+        }
+        numRecordsApplied += records.size();
+        unappliedLSN = shippedLSN + 1;
+        laggingSinceMillis = -1L;
+    }
+
+    /**
+     * Updates the records of the primary's transactions with changes in progress after a
+     * record. A transaction's changes are final once it commits, and once its rollback ends.
+     */
+    private void track(LogRecord record) {
+        if (!record.getTransNum().isPresent()) {
+            return;
+        }
+        long transNum = record.getTransNum().get();
+        switch (record.getType()) {
+        case COMMIT_TRANSACTION:
+        case END_TRANSACTION:
+            inProgress.remove(transNum);
+            break;
+        default:
+            inProgress.computeIfAbsent(transNum, t -> new ArrayList<>()).add(record);
+        }
+    }
+
+    /**
+     * Rolls back the changes of the primary's transactions in progress on the standby's
+     * pages, latest first, as the undo pass of restart recovery would but without logging
+     * the CLRs, saving each page changed beforehand. A page undone is given an LSN just
+     * before the earliest record undone on it, so that if the standby is reopened, the
+     * records are applied again.
+     */
+    private void hide() {
+        for (List<LogRecord> transactionRecords : inProgress.values()) {
+            Map<Long, LogRecord> byLSN = new HashMap<>();
+            for (LogRecord record : transactionRecords) {
+                byLSN.put(record.getLSN(), record);
+            }
+            LogRecord record = transactionRecords.get(transactionRecords.size() - 1);
+            while (record != null) {
+                if (record.isUndoable()) {
+                    hidden.add(record);
+                }
+                long nextLSN = record.getUndoNextLSN().orElse(record.getPrevLSN().orElse(0L));
+                record = byLSN.get(nextLSN);
+            }
+        }
+        hidden.sort(Comparator.comparingLong(LogRecord::getLSN).reversed());
+        for (LogRecord record : hidden) {
+            record.getPageNum().ifPresent(this::savePage);
+            LogRecord clr = record.undo(0L).getFirst();
+            clr.setLSN(record.getLSN() - 1);
+            clr.redo(diskSpaceManager, bufferManager);
+        }
+    }
+
+    /**
+     * Puts the pages rolled back by hide() back as they were: allocates and frees again
+     * what was freed and allocated, earliest first, and then restores the pages saved.
+     */
+    private void unhide() {
+        for (int i = hidden.size() - 1; i >= 0; --i) {
+            LogRecord record = hidden.get(i);
+            LogType type = record.getType();
+            if (record.getPartNum().isPresent() || type == LogType.ALLOC_PAGE ||
+                    type == LogType.FREE_PAGE) {
+                record.redo(diskSpaceManager, bufferManager);
+            }
+        }
+        hiddenPages.forEach((pageNum, image) -> {
+            Page page;
+            try {
+                page = bufferManager.fetchPage(new DummyLockContext(), pageNum, false);
+            } catch (PageException e) {
+                return; // freed again
+            }
+            try {
+                page.getBuffer().put(image.bytes);
+                page.setPageLSN(image.pageLSN);
+            } finally {
+                page.unpin();
+            }
+        });
+        hidden.clear();
+        hiddenPages.clear();
+    }
+
+    private void savePage(long pageNum) {
+        if (hiddenPages.containsKey(pageNum)) {
+            return;
+        }
+        Page page;
+        try {
+            page = bufferManager.fetchPage(new DummyLockContext(), pageNum, false);
+        } catch (PageException e) {
+            return; // not allocated: undoing a free allocates it
+        }
+        try {
+            byte[] bytes = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+            page.getBuffer().get(bytes);
+            hiddenPages.put(pageNum, new PageImage(bytes, page.getPageLSN()));
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * The contents of a page, and its LSN.
+     */
+    private static class PageImage {
+        final byte[] bytes;
+        final long pageLSN;
+
+        PageImage(byte[] bytes, long pageLSN) {
+            this.bytes = bytes;
+            this.pageLSN = pageLSN;
+        }
+    }
+
+    private void applyRecord(LogRecord record) {
+        if (!record.isRedoable()) {
+            return;
+        }
+        if (record.getPartNum().isPresent()) {
+            record.redo(diskSpaceManager, bufferManager);
+        } else {
+            ARIESRecoveryManager.redoPageRecord(record, diskSpaceManager, bufferManager);
+        }
+    }
+
+    /**
+     * @return LSN up to which the primary's log is durable
+     */
+    public long getPrimaryFlushedLSN() {
+        return source.getFlushedLSN();
+    }
+
+    /**
+     * @return LSN up to which the primary's log has been shipped to the standby
+     */
+    public long getShippedLSN() {
+        return shippedLSN;
+    }
+
+    /**
+     * @return LSN of the last record applied: transactions on the standby read the
+     * changes committed as of this LSN
+     */
+    public long getAppliedLSN() {
+        return appliedLSN;
+    }
+
+    /**
+     * @return bytes of the primary's durable log not yet applied on the standby, shipped
+     * or not
+     */
+    public long getReplicationLagBytes() {
+        return Math.max(0L, LogManagerImpl.getLogBytesBetween(unappliedLSN,
+                        getPrimaryFlushedLSN() + 1));
+    }
+
+    /**
+     * @return bytes of log shipped to the standby but not yet applied
+     */
+    public long getApplyLagBytes() {
+        return Math.max(0L, LogManagerImpl.getLogBytesBetween(unappliedLSN, shippedLSN + 1));
+    }
+
+    /**
+     * @return milliseconds since the standby had applied all of the log shipped to it,
+     * or 0 if it has
+     */
+    public long getReplicationLagMillis() {
+        long since = laggingSinceMillis;
+        return since < 0 ? 0L : System.currentTimeMillis() - since;
+    }
+
+    /**
+     * @return number of log records applied (including ones that needed no change)
+     */
+    public long getNumRecordsApplied() {
+        return numRecordsApplied;
+    }
+
+    /**
+     * @return number of log pages copied from the primary
+     */
+    public long getNumPagesShipped() {
+        return numPagesShipped;
+    }
+
+    @Override
+    public void close() {
+        stopApplying();
+    }
+}
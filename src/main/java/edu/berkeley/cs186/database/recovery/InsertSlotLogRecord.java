@@ -0,0 +1,142 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Log record for filling a slot of a page (e.g. inserting a record into a heap page):
+ * writes data at offset and sets the slot's bit. Logs only the slot's new contents,
+ * since undoing the insert only needs to clear the bit.
+ */
+class InsertSlotLogRecord extends LogRecord {
+    private long transNum;
+    private long pageNum;
+    private long prevLSN;
+    short bitIndex;
+    short offset;
+    byte[] data;
+
+    InsertSlotLogRecord(long transNum, long pageNum, long prevLSN, short bitIndex, short offset,
+                        byte[] data) {
+        super(LogType.INSERT_SLOT);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.bitIndex = bitIndex;
+        this.offset = offset;
+        this.data = data;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public boolean isUndoable() {
+        return true;
+    }
+
+    @Override
+    public boolean isRedoable() {
+        return true;
+    }
+
+    @Override
+    public Pair<LogRecord, Boolean> undo(long lastLSN) {
+        return new Pair<>(new UndoInsertSlotLogRecord(transNum, pageNum, lastLSN, prevLSN, bitIndex,
+                          offset), false);
+    }
+
+    @Override
+    public void redo(DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            page.insertSlot(bitIndex, offset, data);
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[31 + data.length];
+        ByteBuffer.wrap(b)
+        .put((byte) getType().getValue())
+        .putLong(transNum)
+        .putLong(pageNum)
+        .putLong(prevLSN)
+        .putShort(bitIndex)
+        .putShort(offset)
+        .putShort((short) data.length)
+        .put(data);
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        short bitIndex = buf.getShort();
+        short offset = buf.getShort();
+        byte[] data = new byte[buf.getShort()];
+        buf.get(data);
+        return Optional.of(new InsertSlotLogRecord(transNum, pageNum, prevLSN, bitIndex, offset, data));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        InsertSlotLogRecord that = (InsertSlotLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               bitIndex == that.bitIndex &&
+               offset == that.offset &&
+               Arrays.equals(data, that.data);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, prevLSN, bitIndex, offset);
+        result = 31 * result + Arrays.hashCode(data);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "InsertSlotLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", bitIndex=" + bitIndex +
+               ", offset=" + offset +
+               ", data=" + Arrays.toString(data) +
+               ", prevLSN=" + prevLSN +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
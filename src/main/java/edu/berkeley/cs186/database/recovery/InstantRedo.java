@@ -0,0 +1,162 @@
+package edu.berkeley.cs186.database.recovery;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Redo for instant restart: instead of a redo pass that must finish before the database
+ * is usable, each page still needing redo has a chain of the LSNs of the records to redo
+ * on it, and the chain is replayed the first time the page is fetched (recoverPage). A
+ * background thread replays the remaining chains, in order of their first LSN, so that
+ * every page is eventually recovered even if it is never fetched.
+ *
+ * Chains are replayed under a per-page monitor, so a thread fetching a page that another
+ * thread is recovering waits for it to finish. The recovering thread itself may fetch the
+ * page again (redo fetches the page it applies to); those nested calls return immediately.
+ */
+class InstantRedo implements AutoCloseable {
+    private final LogManager logManager;
+    private final Consumer<LogRecord> redoPage;
+    private final Map<Long, PageChain> chains = new ConcurrentHashMap<>();
+    private final List<Long> backgroundOrder;
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    private final AtomicLong numRecoveredOnDemand = new AtomicLong();
+    private final AtomicLong numRecoveredInBackground = new AtomicLong();
+
+    private static class PageChain {
+        final List<Long> LSNs;
+        // thread replaying this chain, or null
+        Thread recovering = null;
+        boolean done = false;
+
+        PageChain(List<Long> LSNs) {
+            this.LSNs = LSNs;
+        }
+    }
+
+    /**
+     * @param logManager log manager to read records from
+     * @param pageChains page number -> LSNs of records to redo on that page, in LSN order
+     * @param redoPage redoes a single page-level record (if the page needs it)
+     */
+    InstantRedo(LogManager logManager, Map<Long, List<Long>> pageChains,
+                Consumer<LogRecord> redoPage) {
+        this.logManager = logManager;
+        this.redoPage = redoPage;
+        for (Map.Entry<Long, List<Long>> e : pageChains.entrySet()) {
+            if (!e.getValue().isEmpty()) {
+                chains.put(e.getKey(), new PageChain(e.getValue()));
+            }
+        }
+        this.backgroundOrder = new ArrayList<>(chains.keySet());
+        this.backgroundOrder.sort(Comparator.comparingLong((Long pageNum) ->
+                                  chains.get(pageNum).LSNs.get(0)).thenComparingLong(pageNum -> pageNum));
+        this.thread = new Thread(this::run, "instant-redo");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Replays the redo chain of a page if it has not been replayed yet, and waits for
+     * another thread's replay of it if one is in progress.
+     * @param pageNum page about to be fetched
+     */
+    void recoverPage(long pageNum) {
+        if (recover(pageNum)) {
+            numRecoveredOnDemand.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return whether every page has been recovered
+     */
+    boolean isComplete() {
+        return chains.isEmpty();
+    }
+
+    /**
+     * Blocks until the background thread has finished (normally, when every page
+     * has been recovered).
+     */
+    void awaitCompletion() {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return number of pages recovered because they were fetched
+     */
+    long getNumRecoveredOnDemand() {
+        return numRecoveredOnDemand.get();
+    }
+
+    /**
+     * @return number of pages recovered by the background thread
+     */
+    long getNumRecoveredInBackground() {
+        return numRecoveredInBackground.get();
+    }
+
+    /**
+     * Stops the background thread. Pages not yet recovered keep their DPT entries, so
+     * they will be redone by the next restart.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        awaitCompletion();
+    }
+
+    private void run() {
+        for (long pageNum : backgroundOrder) {
+            if (closed) {
+                return;
+            }
+            if (recover(pageNum)) {
+                numRecoveredInBackground.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return whether this call replayed the chain
+     */
+    private boolean recover(long pageNum) {
+        PageChain chain = chains.get(pageNum);
+        if (chain == null) {
+            return false;
+        }
+        synchronized (chain) {
+            if (chain.done || chain.recovering == Thread.currentThread()) {
+                return false;
+            }
+            chain.recovering = Thread.currentThread();
+            try {
+                for (long LSN : chain.LSNs) {
+                    redoPage.accept(logManager.fetchLogRecord(LSN));
+                }
+                chain.done = true;
+            } finally {
+                chain.recovering = null;
+            }
+        }
+        chains.remove(pageNum);
+        return true;
+    }
+}
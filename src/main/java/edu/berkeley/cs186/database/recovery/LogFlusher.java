@@ -0,0 +1,108 @@
+package edu.berkeley.cs186.database.recovery;
+
+/**
+ * Background log flusher, bounding how far durability lags behind asynchronous commits.
+ * Every maxDelayMillis milliseconds, the log is flushed up to the last record appended
+ * so far, so that a commit record appended at time t is on disk by t + maxDelayMillis
+ * (plus the time of one flush). Committing transactions can also ask for a flush ahead of
+ * schedule with requestFlush().
+ *
+ * Only the log is flushed; pages are still flushed by the buffer manager, which flushes
+ * the log up to a page's pageLSN first, so the WAL rule holds whether or not any commit
+ * has been made durable.
+ */
+class LogFlusher implements AutoCloseable {
+    private final LogManager logManager;
+    // Flush the log at least this often, in milliseconds.
+    private final long maxDelayMillis;
+
+    private final Thread thread;
+    private final Object monitor = new Object();
+    private volatile boolean running = true;
+    private boolean flushRequested = false;
+    private volatile long numFlushes = 0L;
+
+    LogFlusher(LogManager logManager, long maxDelayMillis) {
+        if (maxDelayMillis <= 0) {
+            throw new IllegalArgumentException("flush delay must be positive");
+        }
+        this.logManager = logManager;
+        this.maxDelayMillis = maxDelayMillis;
+        this.thread = new Thread(this::run, "log-flusher");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the background thread.
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Wakes the flusher to flush the log now rather than at the next interval.
+     */
+    void requestFlush() {
+        synchronized (monitor) {
+            flushRequested = true;
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * @return number of times the flusher has flushed the log
+     */
+    long getNumFlushes() {
+        return numFlushes;
+    }
+
+    private void run() {
+        long nextFlushMillis = System.currentTimeMillis() + maxDelayMillis;
+        while (running) {
+            synchronized (monitor) {
+                long waitMillis = nextFlushMillis - System.currentTimeMillis();
+                while (running && !flushRequested && waitMillis > 0) {
+                    try {
+                        monitor.wait(waitMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    waitMillis = nextFlushMillis - System.currentTimeMillis();
+                }
+                flushRequested = false;
+            }
+            // schedule from the start of the flush, so that records appended during it
+            // are flushed within maxDelayMillis of it starting
+            nextFlushMillis = System.currentTimeMillis() + maxDelayMillis;
+            flush();
+        }
+    }
+
+    private void flush() {
+        long lastLSN = logManager.getLastLSN();
+        if (logManager.getFlushedLSN() < lastLSN) {
+            logManager.flushToLSN(lastLSN);
+            ++numFlushes;
+        }
+    }
+
+    /**
+     * Stops the background thread, and flushes the log one last time.
+     */
+    @Override
+    public void close() {
+        synchronized (monitor) {
+            running = false;
+            monitor.notifyAll();
+        }
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+}
@@ -36,6 +36,16 @@ public interface LogManager extends Iterable<LogRecord>, AutoCloseable {
      */
     long getFlushedLSN();
 
+    /**
+     * @return LSN of the last record appended to the log
+     */
+    long getLastLSN();
+
+    /**
+     * @return counters of the records appended to and flushes of the log
+     */
+    LogMetrics getMetrics();
+
     /**
      * Scan forward in the log from LSN.
      * @param LSN LSN to start scanning from
@@ -1,10 +1,7 @@
 package edu.berkeley.cs186.database.recovery;
 
+import edu.berkeley.cs186.database.common.AbstractBuffer;
 import edu.berkeley.cs186.database.common.Buffer;
-import edu.berkeley.cs186.database.common.iterator.BacktrackingIterable;
-import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
-import edu.berkeley.cs186.database.common.iterator.ConcatBacktrackingIterator;
-import edu.berkeley.cs186.database.common.iterator.IndexBacktrackingIterator;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
@@ -15,17 +12,27 @@ import java.util.*;
 
 /**
  * The LogManager is responsible for interfacing with the log itself. The log is stored
- * on its own partition (partition 0). Since log pages are never deleted, the page number
- * is always increasing, so we assign LSNs as follow:
- * - page 1: [ LSN 10000, LSN 10040, LSN 10080, ...]
- * - page 2: [ LSN 20000, LSN 20030, LSN 20055, ...]
- * - page 3: [ LSN 30000, LSN 30047, LSN 30090, ...]
- * allowing for up to 10,000 log entries per page. The index (last 4 digits) is the offset
- * within the page where the log record starts. Log entries are not fixed width,
- * so backwards iteration is not as easy as forward iteration. Page 0 is reserved for the
- * master record, which only contains a few log entries: the master record, with LSN 0, followed
- * by an empty begin and end checkpoint record. The master record is the only record in the
- * entire log that may be rewritten.
+ * on its own partition (partition 0), as a stream of bytes laid over the log pages. Since
+ * log pages are never deleted, the page number is always increasing, and LSNs are byte
+ * offsets into the log: the record with LSN pageNum * PAGE_SIZE + index starts at byte
+ * index of log page pageNum.
+ *
+ * Records are packed densely. A record that does not fit in the rest of a log page
+ * continues at the start of the next one, so no space is left unused at the end of a page,
+ * and records may be larger than a page. The last LOG_PAGE_TRAILER_SIZE bytes of each log
+ * page hold the number of bytes at the start of the page that continue a record from the
+ * previous page; the first record starting on the page follows them. The trailer lets a scan
+ * find the first record of any page, and lets a record whose later pages never reached disk
+ * (the database crashed after only the start of the record was written out) be recognized
+ * and skipped. A zero byte where a record's type would be marks the rest of a page as unused.
+ *
+ * The master record, with LSN 0, is the first record of the log, followed by an empty begin
+ * and end checkpoint record. The master record is the only record in the entire log that may
+ * be rewritten, and holds the version of the log format the log is written in.
+ *
+ * Flushing the log tail seals it: records appended after the flush start on a new page, so
+ * a log page other than the first is never rewritten once flushed (a torn rewrite would
+ * otherwise damage records that were already durable).
  *
  * The LogManager also is responsible for writing pageLSNs onto pages and flushing the log
  * when pages are flushed, and therefore has a few methods that must be called by the buffer
@@ -34,25 +41,69 @@ import java.util.*;
  * that flushedLSN >= any pageLSN on disk.
  */
 class LogManagerImpl implements LogManager {
+    // bytes at the end of each log page holding the length of the continued record at its start
+    static final int LOG_PAGE_TRAILER_SIZE = Short.BYTES;
+    // bytes of each log page available for records
+    static final int LOG_PAGE_DATA_SIZE = DiskSpaceManager.PAGE_SIZE - LOG_PAGE_TRAILER_SIZE;
+
     private BufferManager bufferManager;
     private Deque<Page> unflushedLogTail;
+    // LSN of the record continuing from the end of each log page onto the next, for log
+    // pages whose continued record is not yet entirely flushed
+    private NavigableMap<Long, Long> continuedRecords;
     private Page logTail;
     private Buffer logTailBuffer;
-    private boolean logTailPinned = false;
-    private long flushedLSN;
+    private volatile long flushedLSN;
+    private volatile long lastLSN;
+    // whether this is a copy of another database's log, which is only read
+    private final boolean readOnly;
+    private final LogMetrics metrics = new LogMetrics(this);
 
-    private static final int LOG_PARTITION = 0;
+    static final int LOG_PARTITION = 0;
 
     LogManagerImpl(BufferManager bufferManager) {
-        this.bufferManager = bufferManager;
-        this.unflushedLogTail = new ArrayDeque<>();
-
+        this(bufferManager, false);
         this.logTail = bufferManager.fetchNewPage(new DummyLockContext(), LOG_PARTITION, true);
         this.unflushedLogTail.add(this.logTail);
         this.logTailBuffer = this.logTail.getBuffer();
         this.logTail.unpin();
 
         this.flushedLSN = maxLSN(this.logTail.getPageNum() - 1L);
+        this.lastLSN = makeLSN(this.logTail.getPageNum(), 0);
+    }
+
+    private LogManagerImpl(BufferManager bufferManager, boolean readOnly) {
+        this.bufferManager = bufferManager;
+        this.unflushedLogTail = new ArrayDeque<>();
+        this.continuedRecords = new TreeMap<>();
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Opens a copy of a log for reading only, such as a hot standby's copy of its
+     * primary's log. No log tail is allocated and nothing may be appended; scans see the
+     * records up to the LSN last passed to advanceTo.
+     * @param bufferManager buffer manager of the database holding the copy
+     * @return log manager reading the copy
+     */
+    static LogManagerImpl openReadOnly(BufferManager bufferManager) {
+        LogManagerImpl logManager = new LogManagerImpl(bufferManager, true);
+        logManager.flushedLSN = -1L;
+        logManager.lastLSN = -1L;
+        return logManager;
+    }
+
+    /**
+     * Makes the records of a read-only log up to LSN visible to scans. Every record
+     * starting at or before LSN must have been copied in full.
+     * @param LSN LSN of the last record to make visible
+     */
+    void advanceTo(long LSN) {
+        if (!readOnly) {
+            throw new IllegalStateException("only a read-only log can be advanced");
+        }
+        this.flushedLSN = Math.max(flushedLSN, LSN);
+        this.lastLSN = Math.max(lastLSN, LSN);
     }
 
     /**
@@ -61,6 +112,7 @@ class LogManagerImpl implements LogManager {
      */
     @Override
     public synchronized void rewriteMasterRecord(MasterLogRecord record) {
+        checkWritable();
         Page firstPage = bufferManager.fetchPage(new DummyLockContext(), 0L, true);
         try {
             firstPage.getBuffer().put(record.toBytes());
@@ -77,31 +129,66 @@ class LogManagerImpl implements LogManager {
      */
     @Override
     public synchronized long appendToLog(LogRecord record) {
+        checkWritable();
         byte[] bytes = record.toBytes();
-        // loop in case accessing log tail requires flushing the log in order to evict dirty page to load log tail
-        do {
-            if (logTailBuffer == null || bytes.length > DiskSpaceManager.PAGE_SIZE - logTailBuffer.position()) {
-                logTailPinned = true;
-                logTail = bufferManager.fetchNewPage(new DummyLockContext(), LOG_PARTITION, true);
-                unflushedLogTail.add(logTail);
-                logTailBuffer = logTail.getBuffer();
-            } else {
-                logTailPinned = true;
-                logTail.pin();
-                if (logTailBuffer == null) {
-                    logTail.unpin();
+        Page pinnedTail = null;
+        // pages after the log tail that the record is written to
+        List<Page> newPages = new ArrayList<>();
+        try {
+            // Every page the record is written to is pinned before any of it is written, so
+            // that the log is never flushed with part of the record. Loop in case accessing
+            // a page requires flushing the log in order to evict a dirty page, which seals
+            // the log tail.
+            boolean onTail;
+            while (true) {
+                onTail = logTailBuffer != null && logTailBuffer.position() < LOG_PAGE_DATA_SIZE;
+                if (onTail && pinnedTail == null) {
+                    pinnedTail = logTail;
+                    pinnedTail.pin();
+                    continue;
+                }
+                int room = onTail ? LOG_PAGE_DATA_SIZE - logTailBuffer.position() : 0;
+                int pagesNeeded = (Math.max(0, bytes.length - room) + LOG_PAGE_DATA_SIZE - 1) /
+                                  LOG_PAGE_DATA_SIZE;
+                if (newPages.size() >= pagesNeeded) {
+                    break;
                 }
+                newPages.add(bufferManager.fetchNewPage(new DummyLockContext(), LOG_PARTITION, true));
             }
-        } while (logTailBuffer == null);
-        try {
-            int pos = logTailBuffer.position();
-            logTailBuffer.put(bytes);
-            long LSN = makeLSN(unflushedLogTail.getLast().getPageNum(), pos);
+
+            Page page = onTail ? logTail : newPages.get(0);
+            Buffer buf = onTail ? logTailBuffer : page.getBuffer();
+            long LSN = makeLSN(page.getPageNum(), buf.position());
+            int nextPage = onTail ? 0 : 1;
+            int written = 0;
+            while (true) {
+                int length = Math.min(bytes.length - written, LOG_PAGE_DATA_SIZE - buf.position());
+                buf.put(Arrays.copyOfRange(bytes, written, written + length));
+                written += length;
+                if (written == bytes.length) {
+                    break;
+                }
+                continuedRecords.put(page.getPageNum(), LSN);
+                page = newPages.get(nextPage++);
+                buf = page.getBuffer();
+                buf.putShort(LOG_PAGE_DATA_SIZE,
+                             (short) Math.min(bytes.length - written, LOG_PAGE_DATA_SIZE));
+            }
+            unflushedLogTail.addAll(newPages);
+            logTail = page;
+            logTailBuffer = buf;
+
             record.LSN = LSN;
+            lastLSN = LSN;
+            metrics.recordAppend(bytes.length);
             return LSN;
         } finally {
-            logTail.unpin();
-            logTailPinned = false;
+            if (pinnedTail != null) {
+                pinnedTail.unpin();
+            }
+            for (Page page : newPages) {
+                page.unpin();
+            }
         }
     }
 
@@ -112,32 +199,35 @@ class LogManagerImpl implements LogManager {
      */
     @Override
     public LogRecord fetchLogRecord(long LSN) {
+        RecordReader reader = new RecordReader(LSN);
         try {
-            Page logPage = bufferManager.fetchPage(new DummyLockContext(), getLSNPage(LSN), true);
-            try {
-                Buffer buf = logPage.getBuffer();
-                buf.position(getLSNIndex(LSN));
-                Optional<LogRecord> record = LogRecord.fromBytes(buf);
-                record.ifPresent((LogRecord e) -> e.setLSN(LSN));
-                return record.orElse(null);
-            } finally {
-                logPage.unpin();
-            }
-        } catch (PageException e) {
-            return null;
+            return reader.read().orElse(null);
+        } finally {
+            reader.release();
         }
     }
 
     /**
      * Flushes the log to at least the specified record,
      * essentially flushing up to and including the page
-     * that contains the record specified by the LSN.
+     * that contains the record specified by the LSN, and
+     * the pages the record continues on. flushedLSN is
+     * set to the end of the last page flushed, or to just
+     * before a record continuing from it onto the next.
      * @param LSN LSN up to which the log should be flushed
      */
     @Override
     public synchronized void flushToLSN(long LSN) {
-        Iterator<Page> iter = unflushedLogTail.iterator();
         long pageNum = getLSNPage(LSN);
+        Long continuedLSN = continuedRecords.get(pageNum);
+        if (continuedLSN != null && LSN >= continuedLSN) {
+            while (continuedLSN.equals(continuedRecords.get(pageNum))) {
+                ++pageNum;
+            }
+        }
+        long start = System.nanoTime();
+        int flushedPages = 0;
+        Iterator<Page> iter = unflushedLogTail.iterator();
         while (iter.hasNext()) {
             Page page = iter.next();
             if (page.getPageNum() > pageNum) {
@@ -145,12 +235,16 @@ class LogManagerImpl implements LogManager {
             }
             page.flush();
             iter.remove();
+            ++flushedPages;
         }
-        flushedLSN = Math.max(flushedLSN, maxLSN(pageNum));
+        if (flushedPages > 0) {
+            metrics.recordFlush(flushedPages, System.nanoTime() - start);
+        }
+        Long unflushedLSN = continuedRecords.get(pageNum);
+        continuedRecords.headMap(pageNum).values().removeIf(l -> !l.equals(unflushedLSN));
+        flushedLSN = Math.max(flushedLSN, unflushedLSN == null ? maxLSN(pageNum) : unflushedLSN - 1);
         if (unflushedLogTail.size() == 0) {
-            if (!logTailPinned) {
-                logTail = null;
-            }
+            logTail = null;
             logTailBuffer = null;
         }
     }
@@ -163,6 +257,19 @@ class LogManagerImpl implements LogManager {
         return flushedLSN;
     }
 
+    /**
+     * @return LSN of the last record appended to the log
+     */
+    @Override
+    public long getLastLSN() {
+        return lastLSN;
+    }
+
+    @Override
+    public LogMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Generates LSN from log page number and index
      * @param pageNum page number of log page
@@ -170,7 +277,7 @@ class LogManagerImpl implements LogManager {
      * @return LSN
      */
     static long makeLSN(long pageNum, int index) {
-        return DiskSpaceManager.getPageNum(pageNum) * 10000L + index;
+        return (long) DiskSpaceManager.getPageNum(pageNum) * DiskSpaceManager.PAGE_SIZE + index;
     }
 
     /**
@@ -179,7 +286,7 @@ class LogManagerImpl implements LogManager {
      * @return max possible LSN on the log page
      */
     static long maxLSN(long pageNum) {
-        return makeLSN(pageNum, 9999);
+        return makeLSN(pageNum, DiskSpaceManager.PAGE_SIZE - 1);
     }
 
     /**
@@ -188,7 +295,7 @@ class LogManagerImpl implements LogManager {
      * @return page that LSN resides on
      */
     static long getLSNPage(long LSN) {
-        return LSN / 10000L;
+        return LSN / DiskSpaceManager.PAGE_SIZE;
     }
 
     /**
@@ -197,7 +304,17 @@ class LogManagerImpl implements LogManager {
      * @return index in page that LSN resides on
      */
     static int getLSNIndex(long LSN) {
-        return (int) (LSN % 10000L);
+        return (int) (LSN % DiskSpaceManager.PAGE_SIZE);
+    }
+
+    /**
+     * Get the number of bytes of log between two LSNs
+     * @param fromLSN LSN of the earlier record
+     * @param toLSN LSN of the later record
+     * @return number of bytes of log from fromLSN up to toLSN
+     */
+    static long getLogBytesBetween(long fromLSN, long toLSN) {
+        return toLSN - fromLSN;
     }
 
     /**
@@ -207,7 +324,7 @@ class LogManagerImpl implements LogManager {
      */
     @Override
     public Iterator<LogRecord> scanFrom(long LSN) {
-        return new ConcatBacktrackingIterator<>(new LogPagesIterator(LSN));
+        return new LogIterator(LSN);
     }
 
     @Override
@@ -233,110 +350,216 @@ class LogManagerImpl implements LogManager {
         }
     }
 
-    private class LogPageIterator extends IndexBacktrackingIterator<LogRecord> {
-        private Page logPage;
-        private int startIndex;
+    private void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("log is read-only");
+        }
+    }
 
-        private LogPageIterator(Page logPage, int startIndex) {
-            super(DiskSpaceManager.PAGE_SIZE);
-            this.logPage = logPage;
-            this.startIndex = startIndex;
-            this.logPage.unpin();
+    /**
+     * @param pageNum page number of log page
+     * @return LSN of the first record starting on the log page, after the bytes continuing
+     * a record from the previous page
+     * @throws PageException if the log page does not exist
+     */
+    private long getFirstLSN(long pageNum) {
+        Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum, true);
+        try {
+            return makeLSN(pageNum, page.getBuffer().getShort(LOG_PAGE_DATA_SIZE));
+        } finally {
+            page.unpin();
         }
+    }
 
-        @Override
-        protected int getNextNonempty(int currentIndex) {
-            logPage.pin();
+    /**
+     * Reads the log as a stream of bytes starting at the LSN of a record, across log pages,
+     * checking that every page the record continues on holds its continuation. The page
+     * being read is kept pinned until the next page is needed or the reader is released.
+     */
+    private class RecordReader extends AbstractBuffer {
+        private final long startPage;
+        private final int startIndex;
+        private Page page;
+        private int pageIndex = -1;
+        // continuation lengths in the trailers of the pages after the first
+        private final List<Integer> continuations = new ArrayList<>();
+
+        private RecordReader(long LSN) {
+            super(0);
+            this.startPage = getLSNPage(LSN);
+            this.startIndex = getLSNIndex(LSN);
+        }
+
+        /**
+         * @return the record starting at the reader's LSN, or empty if there is no record
+         * there or the record was only partially written
+         */
+        private Optional<LogRecord> read() {
+            if (startIndex >= LOG_PAGE_DATA_SIZE) {
+                return Optional.empty();
+            }
+            Optional<LogRecord> record;
             try {
-                Buffer buf = logPage.getBuffer();
-                if (currentIndex == -1) {
-                    currentIndex = startIndex;
-                    buf.position(currentIndex);
-                } else {
-                    buf.position(currentIndex);
-                    LogRecord.fromBytes(buf);
-                    currentIndex = buf.position();
-                }
+                record = LogRecord.fromBytes(this);
+            } catch (PageException e) {
+                return Optional.empty();
+            }
+            if (!record.isPresent() || !isComplete()) {
+                return Optional.empty();
+            }
+            record.get().setLSN(makeLSN(startPage, startIndex));
+            return record;
+        }
 
-                if (LogRecord.fromBytes(buf).isPresent()) {
-                    return currentIndex;
-                } else {
-                    return DiskSpaceManager.PAGE_SIZE;
+        /**
+         * @return LSN just past the bytes read
+         */
+        private long getEndLSN() {
+            long end = startIndex + position();
+            return makeLSN(startPage + end / LOG_PAGE_DATA_SIZE, (int) (end % LOG_PAGE_DATA_SIZE));
+        }
+
+        /**
+         * @return whether the trailer of every page after the first that the bytes read
+         * span says that the page continues them by exactly that many bytes
+         */
+        private boolean isComplete() {
+            long end = startIndex + position();
+            for (int i = 1; i <= (end - 1) / LOG_PAGE_DATA_SIZE; ++i) {
+                long expected = Math.min(end - (long) i * LOG_PAGE_DATA_SIZE, LOG_PAGE_DATA_SIZE);
+                if (continuations.get(i - 1) != expected) {
+                    return false;
                 }
-            } finally {
-                logPage.unpin();
             }
+            return true;
         }
 
-        @Override
-        protected LogRecord getValue(int index) {
-            logPage.pin();
-            try {
-                Buffer buf = logPage.getBuffer();
-                buf.position(index);
-                LogRecord record = LogRecord.fromBytes(buf).orElseThrow(NoSuchElementException::new);
-                record.setLSN(makeLSN(logPage.getPageNum(), index));
-                return record;
-            } finally {
-                logPage.unpin();
+        private void release() {
+            if (page != null) {
+                page.unpin();
+                page = null;
             }
         }
-    }
 
-    private class LogPagesIterator implements BacktrackingIterator<BacktrackingIterable<LogRecord>> {
-        private BacktrackingIterator<LogRecord> nextIter;
-        private long nextIndex;
+        private Page getPage(int index) {
+            if (index != pageIndex) {
+                release();
+                pageIndex = index;
+                page = bufferManager.fetchPage(new DummyLockContext(), startPage + index, true);
+                if (index > continuations.size()) {
+                    int continuation = page.getBuffer().getShort(LOG_PAGE_DATA_SIZE);
+                    if (continuation <= 0) {
+                        throw new PageException("log page " + (startPage + index) +
+                                                " does not continue the record before it");
+                    }
+                    continuations.add(continuation);
+                }
+            }
+            return page;
+        }
 
-        private LogPagesIterator(long startLSN) {
-            nextIndex = getLSNPage(startLSN);
-            try {
-                Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex, true);
-                nextIter = new LogPageIterator(page, getLSNIndex(startLSN));
-            } catch (PageException e) {
-                nextIter = null;
+        @Override
+        public Buffer get(byte[] dst, int offset, int length) {
+            int copied = 0;
+            while (copied < length) {
+                long position = (long) startIndex + offset + copied;
+                int index = (int) (position % LOG_PAGE_DATA_SIZE);
+                int n = Math.min(length - copied, LOG_PAGE_DATA_SIZE - index);
+                Buffer buf = getPage((int) (position / LOG_PAGE_DATA_SIZE)).getBuffer();
+                if (n == length) {
+                    buf.get(dst, index, n);
+                } else {
+                    byte[] bytes = new byte[n];
+                    buf.get(bytes, index, n);
+                    System.arraycopy(bytes, 0, dst, copied, n);
+                }
+                copied += n;
             }
+            return this;
         }
 
         @Override
-        public void markPrev() {
+        public Buffer put(byte[] src, int offset, int length) {
             throw new UnsupportedOperationException();
         }
 
         @Override
-        public void markNext() {
+        public Buffer slice() {
             throw new UnsupportedOperationException();
         }
 
         @Override
-        public void reset() {
+        public Buffer duplicate() {
             throw new UnsupportedOperationException();
         }
+    }
 
-        @Override
-        public boolean hasNext() {
-            return nextIter != null;
+    /**
+     * Iterates over the records of the log from an LSN, up to the last record appended when
+     * the iterator reaches it (a record after it may still be being written). Unused space at
+     * the end of a page, and a record whose later pages never reached disk, are skipped.
+     */
+    private class LogIterator implements Iterator<LogRecord> {
+        private long nextLSN;
+        private LogRecord next;
+        private boolean started = false;
+        private boolean done = false;
+
+        private LogIterator(long startLSN) {
+            this.nextLSN = startLSN;
         }
 
         @Override
-        public BacktrackingIterable<LogRecord> next() {
-            if (hasNext()) {
-                final BacktrackingIterator<LogRecord> iter = nextIter;
-                BacktrackingIterable<LogRecord> iterable = () -> iter;
-
-                nextIter = null;
-                do {
-                    ++nextIndex;
+        public boolean hasNext() {
+            if (!started) {
+                // an LSN within the bytes continuing a record onto a page (such as the
+                // start of the page) scans from the first record starting on the page
+                started = true;
+                try {
+                    nextLSN = Math.max(nextLSN, getFirstLSN(getLSNPage(nextLSN)));
+                } catch (PageException e) {
+                    done = true;
+                }
+            }
+            while (next == null && !done) {
+                if (nextLSN > lastLSN) {
+                    done = true;
+                } else if (getLSNIndex(nextLSN) >= LOG_PAGE_DATA_SIZE) {
+                    skipToNextPage();
+                } else {
+                    RecordReader reader = new RecordReader(nextLSN);
                     try {
-                        Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex, true);
-                        nextIter = new LogPageIterator(page, 0);
-                    } catch (PageException e) {
-                        break;
+                        Optional<LogRecord> record = reader.read();
+                        if (record.isPresent()) {
+                            next = record.get();
+                            nextLSN = reader.getEndLSN();
+                        } else {
+                            skipToNextPage();
+                        }
+                    } finally {
+                        reader.release();
                     }
-                } while (!nextIter.hasNext());
+                }
+            }
+            return next != null;
+        }
 
-                return iterable;
+        private void skipToNextPage() {
+            try {
+                nextLSN = getFirstLSN(getLSNPage(nextLSN) + 1);
+            } catch (PageException e) {
+                done = true;
+            }
+        }
+
+        @Override
+        public LogRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
-            throw new NoSuchElementException();
+            LogRecord record = next;
+            next = null;
+            return record;
         }
     }
 }
@@ -0,0 +1,167 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.LatencyHistogram;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a log manager's appends and flushes. The log manager calls recordAppend and
+ * recordFlush while holding its lock, so those are never called concurrently; the getters
+ * may be called from any thread.
+ */
+public class LogMetrics implements LogMetricsMXBean {
+    // length of the window append rates are measured over
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LogManager logManager;
+
+    private final LongAdder appendedRecords = new LongAdder();
+    private final LongAdder appendedBytes = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushedPages = new LongAdder();
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+    // records appended as of the last flush, and the sum of the records appended between flushes
+    private long recordsAtLastFlush = 0;
+    private final LongAdder flushGroupRecords = new LongAdder();
+
+    // start of the current rate window, and the counts at its start; the rates of the
+    // last full window
+    private volatile long windowStartNanos = System.nanoTime();
+    private volatile long windowStartRecords = 0;
+    private volatile long windowStartBytes = 0;
+    private volatile double recordsPerSecond = 0.0;
+    private volatile double bytesPerSecond = 0.0;
+    private volatile boolean windowClosed = false;
+
+    LogMetrics(LogManager logManager) {
+        this.logManager = logManager;
+    }
+
+    /**
+     * Counts a record appended to the log.
+     * @param numBytes size of the record
+     */
+    void recordAppend(int numBytes) {
+        appendedRecords.increment();
+        appendedBytes.add(numBytes);
+        long now = System.nanoTime();
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= RATE_WINDOW_NANOS) {
+            long records = appendedRecords.sum();
+            long bytes = appendedBytes.sum();
+            double seconds = elapsed / 1e9;
+            recordsPerSecond = (records - windowStartRecords) / seconds;
+            bytesPerSecond = (bytes - windowStartBytes) / seconds;
+            windowStartRecords = records;
+            windowStartBytes = bytes;
+            windowStartNanos = now;
+            windowClosed = true;
+        }
+    }
+
+    /**
+     * Counts a flush that wrote log pages.
+     * @param numPages number of log pages written
+     * @param nanos time taken by the flush
+     */
+    void recordFlush(int numPages, long nanos) {
+        long records = appendedRecords.sum();
+        flushGroupRecords.add(records - recordsAtLastFlush);
+        recordsAtLastFlush = records;
+        flushes.increment();
+        flushedPages.add(numPages);
+        flushLatency.record(nanos);
+    }
+
+    @Override
+    public long getAppendedRecords() {
+        return appendedRecords.sum();
+    }
+
+    @Override
+    public long getAppendedBytes() {
+        return appendedBytes.sum();
+    }
+
+    @Override
+    public double getAppendRecordsPerSecond() {
+        return getRate(recordsPerSecond, appendedRecords.sum(), windowStartRecords);
+    }
+
+    @Override
+    public double getAppendBytesPerSecond() {
+        return getRate(bytesPerSecond, appendedBytes.sum(), windowStartBytes);
+    }
+
+    /**
+     * Rates are only updated by appends, so until the first window is closed, and for a
+     * window that ended without being closed by an append, the rate is measured over the
+     * window so far instead.
+     */
+    private double getRate(double lastWindowRate, long count, long windowStartCount) {
+        long elapsed = System.nanoTime() - windowStartNanos;
+        if (elapsed < RATE_WINDOW_NANOS && windowClosed) {
+            return lastWindowRate;
+        }
+        return elapsed <= 0 ? 0.0 : (count - windowStartCount) / (elapsed / 1e9);
+    }
+
+    @Override
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    @Override
+    public long getFlushedPages() {
+        return flushedPages.sum();
+    }
+
+    @Override
+    public double getMeanFlushGroupSize() {
+        long count = flushes.sum();
+        return count == 0 ? 0.0 : (double) flushGroupRecords.sum() / count;
+    }
+
+    @Override
+    public double getFlushLatencyMeanMicros() {
+        return flushLatency.getMeanMicros();
+    }
+
+    @Override
+    public long getFlushLatencyP50Micros() {
+        return flushLatency.getPercentileMicros(50);
+    }
+
+    @Override
+    public long getFlushLatencyP99Micros() {
+        return flushLatency.getPercentileMicros(99);
+    }
+
+    @Override
+    public long getFlushLatencyMaxMicros() {
+        return flushLatency.getMaxMicros();
+    }
+
+    @Override
+    public long[] getFlushLatencyHistogram() {
+        return flushLatency.getCounts();
+    }
+
+    @Override
+    public long getLogSizeBytes() {
+        return (LogManagerImpl.getLSNPage(Math.max(0L, logManager.getLastLSN())) + 1) *
+               DiskSpaceManager.PAGE_SIZE;
+    }
+
+    @Override
+    public long getFlushedLSN() {
+        return logManager.getFlushedLSN();
+    }
+
+    @Override
+    public long getLastLSN() {
+        return logManager.getLastLSN();
+    }
+}
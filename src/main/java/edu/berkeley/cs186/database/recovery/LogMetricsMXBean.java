@@ -0,0 +1,82 @@
+package edu.berkeley.cs186.database.recovery;
+
+/**
+ * Write-ahead log activity, as exposed over JMX. Counts are since the log was opened.
+ */
+public interface LogMetricsMXBean {
+    /**
+     * @return number of records appended
+     */
+    long getAppendedRecords();
+
+    /**
+     * @return number of bytes of records appended
+     */
+    long getAppendedBytes();
+
+    /**
+     * @return records appended per second, over the last full second
+     */
+    double getAppendRecordsPerSecond();
+
+    /**
+     * @return bytes of records appended per second, over the last full second
+     */
+    double getAppendBytesPerSecond();
+
+    /**
+     * @return number of flushes that wrote at least one log page
+     */
+    long getFlushes();
+
+    /**
+     * @return number of log pages written by flushes
+     */
+    long getFlushedPages();
+
+    /**
+     * @return mean number of records appended between one flush and the next (the number
+     * of records each flush makes durable, if flushes reach the end of the log, as commits do)
+     */
+    double getMeanFlushGroupSize();
+
+    /**
+     * @return mean flush latency in microseconds
+     */
+    double getFlushLatencyMeanMicros();
+
+    /**
+     * @return median flush latency in microseconds (see LatencyHistogram#getPercentileMicros)
+     */
+    long getFlushLatencyP50Micros();
+
+    /**
+     * @return 99th percentile flush latency in microseconds
+     */
+    long getFlushLatencyP99Micros();
+
+    /**
+     * @return longest flush, in microseconds
+     */
+    long getFlushLatencyMaxMicros();
+
+    /**
+     * @return number of flushes in each bucket of LatencyHistogram
+     */
+    long[] getFlushLatencyHistogram();
+
+    /**
+     * @return size of the log in bytes, up to the end of the last log page
+     */
+    long getLogSizeBytes();
+
+    /**
+     * @return flushedLSN
+     */
+    long getFlushedLSN();
+
+    /**
+     * @return LSN of the last record appended
+     */
+    long getLastLSN();
+}
@@ -216,6 +216,22 @@ abstract class LogRecord {
             return UndoAllocPartLogRecord.fromBytes(buf);
         case UNDO_FREE_PART:
             return UndoFreePartLogRecord.fromBytes(buf);
+        case INSERT_SLOT:
+            return InsertSlotLogRecord.fromBytes(buf);
+        case DELETE_SLOT:
+            return DeleteSlotLogRecord.fromBytes(buf);
+        case UNDO_INSERT_SLOT:
+            return UndoInsertSlotLogRecord.fromBytes(buf);
+        case UNDO_DELETE_SLOT:
+            return UndoDeleteSlotLogRecord.fromBytes(buf);
+        case UPDATE_PAGE_DELTA:
+            return UpdatePageDeltaLogRecord.fromBytes(buf);
+        case UNDO_UPDATE_PAGE_DELTA:
+            return UndoUpdatePageDeltaLogRecord.fromBytes(buf);
+        case UPDATE_PAGE_RANGES:
+            return UpdatePageRangesLogRecord.fromBytes(buf);
+        case UNDO_UPDATE_PAGE_RANGES:
+            return UndoUpdatePageRangesLogRecord.fromBytes(buf);
         default:
             throw new UnsupportedOperationException("bad log type");
         }
@@ -0,0 +1,21 @@
+package edu.berkeley.cs186.database.recovery;
+
+/**
+ * Source of a primary database's log, as shipped to a hot standby. Log pages are shipped
+ * whole, so the standby's copy of the log has the same LSNs as the primary's.
+ */
+public interface LogSource {
+    /**
+     * @return LSN up to which the primary's log is durable: every record starting at or
+     * before it can be read in full from the pages up to the one it is on
+     */
+    long getFlushedLSN();
+
+    /**
+     * Reads a log page. Pages up to the one holding the flushed LSN never change once
+     * flushed, except the first, which holds the master record.
+     * @param pageNum page number of the log page
+     * @return the PAGE_SIZE bytes of the log page
+     */
+    byte[] readLogPage(long pageNum);
+}
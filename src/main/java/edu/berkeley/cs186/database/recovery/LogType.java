@@ -33,7 +33,23 @@ enum LogType {
     // compensation log record for undoing a partition alloc
     UNDO_ALLOC_PART,
     // compensation log record for undoing a partition free
-    UNDO_FREE_PART;
+    UNDO_FREE_PART,
+    // log record for filling a slot of a page
+    INSERT_SLOT,
+    // log record for emptying a slot of a page
+    DELETE_SLOT,
+    // compensation log record for undoing a slot insert
+    UNDO_INSERT_SLOT,
+    // compensation log record for undoing a slot delete
+    UNDO_DELETE_SLOT,
+    // log record for updating part of a page, stored as an XOR delta
+    UPDATE_PAGE_DELTA,
+    // compensation log record for undoing a page update stored as an XOR delta
+    UNDO_UPDATE_PAGE_DELTA,
+    // log record for updating several ranges of a page at once
+    UPDATE_PAGE_RANGES,
+    // compensation log record for undoing an update of several ranges of a page
+    UNDO_UPDATE_PAGE_RANGES;
 
     private static LogType[] values = LogType.values();
 
@@ -0,0 +1,40 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+/**
+ * Ships the log of a primary database in the same process, standing in for a network
+ * stream. Flushed log pages are read from the primary's disk, where they are written when
+ * the log is flushed.
+ */
+public class LoopbackLogSource implements LogSource {
+    private final ARIESRecoveryManager primary;
+    private volatile long bytesShipped = 0L;
+
+    /**
+     * @param primary recovery manager of the primary database
+     */
+    public LoopbackLogSource(ARIESRecoveryManager primary) {
+        this.primary = primary;
+    }
+
+    @Override
+    public long getFlushedLSN() {
+        return primary.logManager.getFlushedLSN();
+    }
+
+    @Override
+    public byte[] readLogPage(long pageNum) {
+        byte[] bytes = new byte[DiskSpaceManager.PAGE_SIZE];
+        primary.diskSpaceManager.readPage(pageNum, bytes);
+        bytesShipped += bytes.length;
+        return bytes;
+    }
+
+    /**
+     * @return number of bytes of log pages shipped so far
+     */
+    public long getBytesShipped() {
+        return bytesShipped;
+    }
+}
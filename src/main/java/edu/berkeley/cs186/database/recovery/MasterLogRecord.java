@@ -7,22 +7,38 @@ import java.util.Objects;
 import java.util.Optional;
 
 class MasterLogRecord extends LogRecord {
+    // Version of the log format written by LogManagerImpl. Version 1, which did not record
+    // its version, numbered LSNs as page * 10000 + index and did not let records span pages;
+    // its master record is followed directly by a begin checkpoint record, whose first bytes
+    // never read as a supported version.
+    static final int LOG_FORMAT_VERSION = 2;
+
     long lastCheckpointLSN;
+    int logFormatVersion;
 
     MasterLogRecord(long lastCheckpointLSN) {
+        this(lastCheckpointLSN, LOG_FORMAT_VERSION);
+    }
+
+    MasterLogRecord(long lastCheckpointLSN, int logFormatVersion) {
         super(LogType.MASTER);
         this.lastCheckpointLSN = lastCheckpointLSN;
+        this.logFormatVersion = logFormatVersion;
     }
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[1 + Long.BYTES];
-        ByteBuffer.wrap(b).put((byte) getType().getValue()).putLong(lastCheckpointLSN);
+        byte[] b = new byte[1 + Long.BYTES + Integer.BYTES];
+        ByteBuffer.wrap(b)
+        .put((byte) getType().getValue())
+        .putLong(lastCheckpointLSN)
+        .putInt(logFormatVersion);
         return b;
     }
 
     public static Optional<LogRecord> fromBytes(Buffer buf) {
-        return Optional.of(new MasterLogRecord(buf.getLong()));
+        long lastCheckpointLSN = buf.getLong();
+        return Optional.of(new MasterLogRecord(lastCheckpointLSN, buf.getInt()));
     }
 
     @Override
@@ -31,18 +47,20 @@ class MasterLogRecord extends LogRecord {
         if (o == null || getClass() != o.getClass()) { return false; }
         if (!super.equals(o)) { return false; }
         MasterLogRecord that = (MasterLogRecord) o;
-        return lastCheckpointLSN == that.lastCheckpointLSN;
+        return lastCheckpointLSN == that.lastCheckpointLSN &&
+               logFormatVersion == that.logFormatVersion;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), lastCheckpointLSN);
+        return Objects.hash(super.hashCode(), lastCheckpointLSN, logFormatVersion);
     }
 
     @Override
     public String toString() {
         return "MasterLogRecord{" +
                "lastCheckpointLSN=" + lastCheckpointLSN +
+               ", logFormatVersion=" + logFormatVersion +
                ", LSN=" + LSN +
                '}';
     }
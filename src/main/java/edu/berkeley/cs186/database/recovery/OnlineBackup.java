@@ -0,0 +1,235 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.io.PageException;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Copies a database running ARIES into another directory while transactions run on it.
+ *
+ * A checkpoint is taken first. The files of the data partitions are then copied page by
+ * page (see DiskSpaceManagerImpl#copyPart), so the copy of each page may be from any time
+ * during the backup, and some changes may only be in memory. Finally the log is flushed,
+ * and the log pages up to the end of the log are copied, with the master record of the
+ * copy pointing to the checkpoint taken first.
+ *
+ * Restart recovery on the backup directory then brings it to a consistent state as of the
+ * end of the copied log: a page's changes that were only in memory when the checkpoint
+ * was taken are in its dirty page table, and later changes are logged after it, so redo
+ * from the checkpoint repeats every change missing from the copy, and undo rolls back the
+ * transactions in progress when the log was copied. The only changes restart does not
+ * redo are page and partition allocations (taken to be on disk as soon as they are
+ * logged), so the backup redoes those logged after the checkpoint itself.
+ *
+ * Pages are copied at no more than a set rate, so that a backup does not starve
+ * foreground queries of disk bandwidth; the rate may be changed while the backup runs.
+ */
+public class OnlineBackup {
+    private final ARIESRecoveryManager recoveryManager;
+    private final DiskSpaceManagerImpl diskSpaceManager;
+    private final String backupDir;
+
+    // maximum bytes to copy per second, or 0 for no limit
+    private volatile long maxBytesPerSecond = 0L;
+    // time at which the next page may be copied
+    private long nextPageNanos = 0L;
+
+    private volatile long pagesCopied = 0L;
+    private volatile long throttledNanos = 0L;
+    private volatile long checkpointLSN = -1L;
+    private volatile long endLSN = -1L;
+
+    /**
+     * @param recoveryManager recovery manager of the database to back up
+     * @param backupDir directory to copy the database into; must not exist, or be empty
+     */
+    public OnlineBackup(ARIESRecoveryManager recoveryManager, String backupDir) {
+        if (!(recoveryManager.diskSpaceManager instanceof DiskSpaceManagerImpl)) {
+            throw new UnsupportedOperationException("only a database stored in files can be backed up");
+        }
+        this.recoveryManager = recoveryManager;
+        this.diskSpaceManager = (DiskSpaceManagerImpl) recoveryManager.diskSpaceManager;
+        this.backupDir = backupDir;
+    }
+
+    /**
+     * Limits how fast pages are copied. May be called while the backup runs.
+     * @param maxBytesPerSecond maximum bytes to copy per second, or 0 for no limit
+     */
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        if (maxBytesPerSecond < 0) {
+            throw new IllegalArgumentException("backup rate must not be negative");
+        }
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Takes the backup.
+     * @return LSN of the last record in the backup
+     */
+    public long run() {
+        File dir = new File(backupDir);
+        String[] existing = dir.list();
+        if (existing != null && existing.length > 0) {
+            throw new IllegalArgumentException("backup directory " + backupDir + " is not empty");
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new PageException("could not create backup directory " + backupDir);
+        }
+
+        recoveryManager.checkpoint();
+        // any checkpoint that began before the first page is copied will do
+        checkpointLSN = recoveryManager.getLastCheckpointLSN();
+
+        for (int partNum : diskSpaceManager.getPartNums()) {
+            if (partNum == LogManagerImpl.LOG_PARTITION) {
+                continue;
+            }
+            try {
+                pagesCopied += diskSpaceManager.copyPart(partNum, backupDir, this::throttle);
+            } catch (NoSuchElementException e) {
+                // freed since it was listed
+                new File(backupDir, Integer.toString(partNum)).delete();
+            }
+        }
+
+        LogManager logManager = recoveryManager.logManager;
+        logManager.flushToLSN(logManager.getLastLSN());
+        long flushedLSN = logManager.getFlushedLSN();
+        DiskSpaceManager backup = new DiskSpaceManagerImpl(backupDir, new DummyRecoveryManager());
+        try {
+            copyLog(backup, LogManagerImpl.getLSNPage(flushedLSN));
+            replayAllocations(backup, flushedLSN);
+        } finally {
+            backup.close();
+        }
+        endLSN = flushedLSN;
+        return endLSN;
+    }
+
+    /**
+     * Copies log pages 0 through lastPage into the backup, pointing the master record of
+     * the copy at checkpointLSN.
+     */
+    private void copyLog(DiskSpaceManager backup, long lastPage) {
+        backup.allocPart(LogManagerImpl.LOG_PARTITION);
+        byte[] bytes = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (long pageNum = 0; pageNum <= lastPage; ++pageNum) {
+            throttle();
+            diskSpaceManager.readPage(pageNum, bytes);
+            if (pageNum == 0L) {
+                byte[] master = new MasterLogRecord(checkpointLSN).toBytes();
+                System.arraycopy(master, 0, bytes, 0, master.length);
+            }
+            backup.allocPage(pageNum);
+            backup.writePage(pageNum, bytes);
+            ++pagesCopied;
+        }
+    }
+
+    /**
+     * Restart recovery takes a page allocation or free to be on disk as soon as it is
+     * logged, and never redoes one for a page not in the dirty page table, but the header
+     * pages of the backup may have been copied before (or after) some of those logged
+     * between the checkpoint and the end of the backup. Redoing each of them on the
+     * backup in log order (so the last one for a page wins) makes the allocated pages of
+     * the backup those as of the end of its log.
+     */
+    private void replayAllocations(DiskSpaceManager backup, long endLSN) {
+        Iterator<LogRecord> iter = recoveryManager.logManager.scanFrom(checkpointLSN);
+        while (iter.hasNext()) {
+            LogRecord record = iter.next();
+            if (record.getLSN() > endLSN) {
+                break;
+            }
+            try {
+                switch (record.getType()) {
+                case ALLOC_PART:
+                case UNDO_FREE_PART:
+                    backup.allocPart(record.getPartNum().get());
+                    break;
+                case FREE_PART:
+                case UNDO_ALLOC_PART:
+                    backup.freePart(record.getPartNum().get());
+                    break;
+                case ALLOC_PAGE:
+                case UNDO_FREE_PAGE:
+                    backup.allocPage(record.getPageNum().get());
+                    break;
+                case FREE_PAGE:
+                case UNDO_ALLOC_PAGE:
+                    backup.freePage(record.getPageNum().get());
+                    break;
+                default:
+                    break;
+                }
+            } catch (IllegalStateException | NoSuchElementException e) {
+                /* do nothing - already allocated or freed */
+            }
+        }
+    }
+
+    /**
+     * Waits until the next page may be copied, if the rate is limited.
+     */
+    private void throttle() {
+        long maxRate = maxBytesPerSecond;
+        long now = System.nanoTime();
+        if (maxRate == 0L) {
+            nextPageNanos = now;
+            return;
+        }
+        long interval = TimeUnit.SECONDS.toNanos(1) * DiskSpaceManager.PAGE_SIZE / maxRate;
+        // a backup that fell behind its rate does not get to burst to catch up
+        long start = Math.max(nextPageNanos, now - interval);
+        while (now < start) {
+            LockSupport.parkNanos(start - now);
+            long waited = System.nanoTime() - now;
+            throttledNanos += waited;
+            now += waited;
+        }
+        nextPageNanos = start + interval;
+    }
+
+    /**
+     * @return number of pages copied so far
+     */
+    public long getPagesCopied() {
+        return pagesCopied;
+    }
+
+    /**
+     * @return number of bytes copied so far
+     */
+    public long getBytesCopied() {
+        return pagesCopied * DiskSpaceManager.PAGE_SIZE;
+    }
+
+    /**
+     * @return time spent waiting to keep to the rate limit, in milliseconds
+     */
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos);
+    }
+
+    /**
+     * @return LSN of the begin checkpoint record restart recovery of the backup starts
+     * from, or -1 if the backup has not started
+     */
+    public long getCheckpointLSN() {
+        return checkpointLSN;
+    }
+
+    /**
+     * @return LSN up to which the backup holds the log, or -1 if the backup is not done
+     */
+    public long getEndLSN() {
+        return endLSN;
+    }
+}
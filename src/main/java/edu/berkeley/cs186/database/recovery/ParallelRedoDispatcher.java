@@ -0,0 +1,123 @@
+package edu.berkeley.cs186.database.recovery;
+
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Applies page-level redo on a fixed set of worker threads. Records are assigned to
+ * a worker by a hash of their page number, and each worker applies its records in the
+ * order they were dispatched, so all records for a page are redone in LSN order (as
+ * long as they are dispatched in LSN order). Records for different pages may be redone
+ * in any order relative to each other.
+ *
+ * Anything that must not be reordered with page-level redo (e.g. partition-level records)
+ * should be preceded by a call to barrier(), which waits until every record dispatched so
+ * far has been redone.
+ */
+class ParallelRedoDispatcher implements AutoCloseable {
+    // Maximum number of records queued per worker before dispatch blocks.
+    static final int WORKER_QUEUE_CAPACITY = 1024;
+
+    private final ThreadPoolExecutor[] workers;
+    private final Consumer<LogRecord> redoPage;
+    private volatile Throwable error = null;
+    // whether error has already been thrown to the caller
+    private boolean errorThrown = false;
+
+    /**
+     * @param numWorkers number of worker threads
+     * @param redoPage redoes a single page-level log record; called on a worker thread
+     */
+    ParallelRedoDispatcher(int numWorkers, Consumer<LogRecord> redoPage) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("need at least one redo worker");
+        }
+        this.redoPage = redoPage;
+        this.workers = new ThreadPoolExecutor[numWorkers];
+        for (int i = 0; i < numWorkers; ++i) {
+            final int workerNum = i;
+            // a full queue blocks the reader rather than letting it run ahead unboundedly
+            workers[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                                                new ArrayBlockingQueue<>(WORKER_QUEUE_CAPACITY),
+            r -> {
+                Thread t = new Thread(r, "redo-" + workerNum);
+                t.setDaemon(true);
+                return t;
+            }, (r, executor) -> {
+                try {
+                    executor.getQueue().put(r);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+            });
+            workers[i].prestartCoreThread();
+        }
+    }
+
+    /**
+     * Queues a page-level record to be redone by the worker responsible for its page.
+     * @param record log record about a page
+     */
+    void dispatch(LogRecord record) {
+        checkError();
+        long pageNum = record.getPageNum().orElseThrow(() -> new IllegalArgumentException(
+                           "not a page-level record: " + record));
+        workers[Math.floorMod(Long.hashCode(pageNum), workers.length)].execute(() -> {
+            if (error != null) {
+                return;
+            }
+            try {
+                redoPage.accept(record);
+            } catch (Throwable t) {
+                error = t;
+            }
+        });
+    }
+
+    /**
+     * Blocks until every record dispatched so far has been redone.
+     */
+    void barrier() {
+        CountDownLatch done = new CountDownLatch(workers.length);
+        for (ThreadPoolExecutor worker : workers) {
+            worker.execute(done::countDown);
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for redo workers", e);
+        }
+        checkError();
+    }
+
+    /**
+     * Waits for all dispatched records to be redone, and stops the workers.
+     */
+    @Override
+    public void close() {
+        try {
+            barrier();
+        } finally {
+            for (ThreadPoolExecutor worker : workers) {
+                worker.shutdownNow();
+            }
+        }
+    }
+
+    private void checkError() {
+        Throwable t = error;
+        if (t == null || errorThrown) {
+            return;
+        }
+        errorThrown = true;
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else {
+            throw new IllegalStateException(t);
+        }
+    }
+}
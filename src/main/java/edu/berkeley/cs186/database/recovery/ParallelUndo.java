@@ -0,0 +1,180 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Rolls back the loser transactions of restart recovery on several threads.
+ *
+ * The undo chain of each loser is first walked (without undoing anything) to find the
+ * pages and partitions its rollback will change. Losers are then split into groups, so
+ * that no two groups change the same page, or a page in a partition that either of them
+ * allocates or frees. The losers of a group are rolled back as the serial undo pass
+ * would (always undoing the largest LSN next), so the CLRs for any one page are still
+ * written in reverse LSN order, and groups are rolled back concurrently.
+ */
+class ParallelUndo {
+    /**
+     * What rolling back one loser will change.
+     */
+    static class Footprint {
+        // pages changed by the undoable records of the chain
+        final Set<Long> pages = new HashSet<>();
+        // partitions allocated or freed by the undoable records of the chain
+        final Set<Integer> partitions = new HashSet<>();
+        // LSN of the last record undone on a page -> the page, and the reverse
+        final Map<Long, Long> lastPageUndos = new HashMap<>();
+        private final Map<Long, Long> lastUndoLSNs = new HashMap<>();
+        // number of records to undo
+        int numRecords = 0;
+
+        /**
+         * Adds an undoable record about a page. Records must be added in descending LSN order.
+         */
+        void addPageRecord(long LSN, long pageNum) {
+            pages.add(pageNum);
+            Long laterLSN = lastUndoLSNs.put(pageNum, LSN);
+            if (laterLSN != null) {
+                lastPageUndos.remove(laterLSN);
+            }
+            lastPageUndos.put(LSN, pageNum);
+            ++numRecords;
+        }
+
+        /**
+         * Adds an undoable record about a partition.
+         */
+        void addPartRecord(int partNum) {
+            partitions.add(partNum);
+            ++numRecords;
+        }
+    }
+
+    private ParallelUndo() {}
+
+    /**
+     * Rolls back losers on numThreads threads.
+     * @param losers transaction numbers of the losers
+     * @param numThreads number of threads to walk undo chains and roll back groups on
+     * @param walk finds the footprint of a loser's rollback
+     * @param undoGroup rolls back a group of losers, given the footprints of all losers
+     */
+    static void run(Collection<Long> losers, int numThreads, Function<Long, Footprint> walk,
+                    BiConsumer<List<Long>, Map<Long, Footprint>> undoGroup) {
+        AtomicInteger threadNum = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread t = new Thread(r, "undo-" + threadNum.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            Map<Long, Future<Footprint>> walks = new HashMap<>();
+            for (long transNum : losers) {
+                walks.put(transNum, pool.submit(() -> walk.apply(transNum)));
+            }
+            Map<Long, Footprint> footprints = new HashMap<>();
+            for (Map.Entry<Long, Future<Footprint>> entry : walks.entrySet()) {
+                footprints.put(entry.getKey(), await(entry.getValue()));
+            }
+
+            List<Future<?>> undos = new ArrayList<>();
+            for (List<Long> group : groupIndependent(footprints)) {
+                undos.add(pool.submit(() -> undoGroup.accept(group, footprints)));
+            }
+            for (Future<?> undo : undos) {
+                await(undo);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Splits losers into groups that change disjoint sets of pages, where every page of
+     * a partition allocated or freed by a loser counts as that partition.
+     * @param footprints transaction number -> footprint of the loser's rollback
+     * @return groups of transaction numbers, largest (by records to undo) first
+     */
+    static List<List<Long>> groupIndependent(Map<Long, Footprint> footprints) {
+        List<Long> transNums = new ArrayList<>(footprints.keySet());
+        Set<Integer> changedPartitions = new HashSet<>();
+        for (Footprint footprint : footprints.values()) {
+            changedPartitions.addAll(footprint.partitions);
+        }
+
+        int[] parents = new int[transNums.size()];
+        for (int i = 0; i < parents.length; ++i) {
+            parents[i] = i;
+        }
+        Map<Long, Integer> pageOwners = new HashMap<>();
+        Map<Integer, Integer> partOwners = new HashMap<>();
+        for (int i = 0; i < transNums.size(); ++i) {
+            int loser = i;
+            Footprint footprint = footprints.get(transNums.get(i));
+            for (long pageNum : footprint.pages) {
+                int partNum = DiskSpaceManager.getPartNum(pageNum);
+                if (changedPartitions.contains(partNum)) {
+                    union(parents, i, partOwners.computeIfAbsent(partNum, p -> loser));
+                } else {
+                    union(parents, i, pageOwners.computeIfAbsent(pageNum, p -> loser));
+                }
+            }
+            for (int partNum : footprint.partitions) {
+                union(parents, i, partOwners.computeIfAbsent(partNum, p -> loser));
+            }
+        }
+
+        Map<Integer, List<Long>> groups = new HashMap<>();
+        Map<Integer, Integer> groupRecords = new HashMap<>();
+        for (int i = 0; i < transNums.size(); ++i) {
+            int root = find(parents, i);
+            groups.computeIfAbsent(root, r -> new ArrayList<>()).add(transNums.get(i));
+            groupRecords.merge(root, footprints.get(transNums.get(i)).numRecords, Integer::sum);
+        }
+        List<Integer> roots = new ArrayList<>(groups.keySet());
+        roots.sort((r0, r1) -> Integer.compare(groupRecords.get(r1), groupRecords.get(r0)));
+        List<List<Long>> result = new ArrayList<>();
+        for (int root : roots) {
+            result.add(groups.get(root));
+        }
+        return result;
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parents, int i, int j) {
+        parents[find(parents, i)] = find(parents, j);
+    }
+
+    /**
+     * Waits for a task, rethrowing what it threw.
+     */
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -59,6 +59,14 @@ public interface RecoveryManager extends AutoCloseable {
      */
     void pageFlushHook(long pageLSN);
 
+    /**
+     * Called before a page is fetched from the buffer cache. This
+     * method is never called on a log page.
+     *
+     * @param pageNum page number of page about to be fetched
+     */
+    void pageFetchHook(long pageNum);
+
     /**
      * Called when a page has been updated on disk.
      * @param pageNum page number of page updated on disk
@@ -81,6 +89,53 @@ public interface RecoveryManager extends AutoCloseable {
     long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
                       byte[] after);
 
+    /**
+     * Called when several disjoint ranges of a page were written by one operation (while
+     * the page was pinned once), in place of calling logPageWrite for each range.
+     *
+     * This method is never called on a log page. before[i] and after[i] must be the same
+     * length.
+     *
+     * @param transNum transaction performing the writes
+     * @param pageNum page number of page being written
+     * @param pageOffsets offset into page where each range begins
+     * @param before bytes of each range before the writes
+     * @param after bytes of each range after the writes
+     * @return LSN of last record written to log
+     */
+    long logPageWrites(long transNum, long pageNum, short[] pageOffsets, byte[][] before,
+                       byte[][] after);
+
+    /**
+     * Called when a slot of a page is filled (see Page#insertSlot), in place of logging
+     * the individual writes to the slot and its bit.
+     *
+     * This method is never called on a log page.
+     *
+     * @param transNum transaction performing the insert
+     * @param pageNum page number of page being written
+     * @param bitIndex index of the slot's bit in the page
+     * @param offset offset into page of the slot's contents
+     * @param data new contents of the slot
+     * @return LSN of record written to log
+     */
+    long logSlotInsert(long transNum, long pageNum, short bitIndex, short offset, byte[] data);
+
+    /**
+     * Called when a slot of a page is emptied (see Page#deleteSlot), in place of logging
+     * the write to the slot's bit.
+     *
+     * This method is never called on a log page.
+     *
+     * @param transNum transaction performing the delete
+     * @param pageNum page number of page being written
+     * @param bitIndex index of the slot's bit in the page
+     * @param offset offset into page of the slot's contents
+     * @param data contents of the slot at the time of the delete
+     * @return LSN of record written to log
+     */
+    long logSlotDelete(long transNum, long pageNum, short bitIndex, short offset, byte[] data);
+
     /**
      * Called when a new partition is allocated. A log flush is necessary,
      * since changes are visible on disk immediately after this returns.
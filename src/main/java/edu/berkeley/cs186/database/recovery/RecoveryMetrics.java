@@ -0,0 +1,252 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checkpoint counters and restart progress of an ARIES recovery manager. The recovery
+ * manager reports checkpoints and restart progress through the package-private methods;
+ * the getters may be called from any thread.
+ */
+public class RecoveryMetrics implements RecoveryMetricsMXBean {
+    enum Phase { NOT_STARTED, ANALYSIS, REDO, UNDO, DONE }
+
+    /**
+     * Progress of one phase of restart recovery.
+     */
+    private static class PhaseProgress {
+        final LongAdder records = new LongAdder();
+        volatile long startNanos = 0L;
+        volatile long endNanos = 0L;
+        volatile boolean started = false;
+        volatile boolean ended = false;
+        // log scanned by the phase, and the LSN of the last record scanned
+        volatile long fromLSN = 0L;
+        volatile long toLSN = 0L;
+        volatile long cursorLSN = 0L;
+        // loser transactions to roll back, and rolled back
+        volatile int total = 0;
+        final LongAdder done = new LongAdder();
+
+        void start() {
+            startNanos = System.nanoTime();
+            started = true;
+        }
+
+        void end() {
+            endNanos = System.nanoTime();
+            ended = true;
+        }
+
+        long getMillis() {
+            if (!started) {
+                return 0L;
+            }
+            long end = ended ? endNanos : System.nanoTime();
+            return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+        }
+
+        double getScanProgress() {
+            if (ended) {
+                return 1.0;
+            }
+            if (!started || toLSN <= fromLSN) {
+                return 0.0;
+            }
+            return Math.max(0.0, Math.min(1.0, (double) (cursorLSN - fromLSN) / (toLSN - fromLSN)));
+        }
+
+        double getRollbackProgress() {
+            if (ended) {
+                return 1.0;
+            }
+            return total == 0 ? 0.0 : (double) done.sum() / total;
+        }
+    }
+
+    private final ARIESRecoveryManager recoveryManager;
+    private final LatencyHistogram checkpointLatency = new LatencyHistogram();
+    private volatile Phase phase = Phase.NOT_STARTED;
+    private final PhaseProgress analysis = new PhaseProgress();
+    private final PhaseProgress redo = new PhaseProgress();
+    private final PhaseProgress undo = new PhaseProgress();
+
+    RecoveryMetrics(ARIESRecoveryManager recoveryManager) {
+        this.recoveryManager = recoveryManager;
+    }
+
+    /**
+     * Counts a checkpoint.
+     * @param nanos time taken by the checkpoint
+     */
+    void recordCheckpoint(long nanos) {
+        checkpointLatency.record(nanos);
+    }
+
+    /**
+     * Starts a phase of restart recovery that scans the log (analysis or redo).
+     * @param phase phase started
+     * @param fromLSN LSN the scan starts at
+     * @param toLSN LSN of the end of the log
+     */
+    void startScan(Phase phase, long fromLSN, long toLSN) {
+        PhaseProgress progress = getProgress(phase);
+        progress.fromLSN = fromLSN;
+        progress.toLSN = toLSN;
+        progress.cursorLSN = fromLSN;
+        progress.start();
+        this.phase = phase;
+    }
+
+    /**
+     * Counts a record scanned by analysis or redo. Only called by the thread scanning.
+     */
+    void recordScanned(Phase phase, long LSN) {
+        PhaseProgress progress = getProgress(phase);
+        progress.records.increment();
+        progress.cursorLSN = LSN;
+    }
+
+    /**
+     * Starts restart undo.
+     * @param numLosers number of loser transactions to roll back
+     */
+    void startUndo(int numLosers) {
+        undo.total = numLosers;
+        undo.start();
+        this.phase = Phase.UNDO;
+    }
+
+    /**
+     * Counts a record processed by restart undo. May be called from several threads.
+     */
+    void recordUndone() {
+        undo.records.increment();
+    }
+
+    /**
+     * Counts a loser transaction rolled back by restart undo. May be called from several
+     * threads.
+     */
+    void recordLoserEnded() {
+        undo.done.increment();
+    }
+
+    void endPhase(Phase phase) {
+        getProgress(phase).end();
+    }
+
+    void restartDone() {
+        this.phase = Phase.DONE;
+    }
+
+    private PhaseProgress getProgress(Phase phase) {
+        switch (phase) {
+        case ANALYSIS:
+            return analysis;
+        case REDO:
+            return redo;
+        case UNDO:
+            return undo;
+        default:
+            throw new IllegalArgumentException("no progress is kept for " + phase);
+        }
+    }
+
+    @Override
+    public long getCheckpoints() {
+        return checkpointLatency.getCount();
+    }
+
+    @Override
+    public double getCheckpointMeanMicros() {
+        return checkpointLatency.getMeanMicros();
+    }
+
+    @Override
+    public long getCheckpointMaxMicros() {
+        return checkpointLatency.getMaxMicros();
+    }
+
+    @Override
+    public long[] getCheckpointLatencyHistogram() {
+        return checkpointLatency.getCounts();
+    }
+
+    @Override
+    public long getLastCheckpointLSN() {
+        return recoveryManager.getLastCheckpointLSN();
+    }
+
+    @Override
+    public long getLogBytesSinceCheckpoint() {
+        return recoveryManager.getLogBytesSinceCheckpoint();
+    }
+
+    @Override
+    public long getOldestActiveLSN() {
+        return recoveryManager.getOldestActiveLSN();
+    }
+
+    @Override
+    public int getActiveTransactions() {
+        return recoveryManager.transactionTable.size();
+    }
+
+    @Override
+    public int getDirtyPages() {
+        return recoveryManager.getNumDirtyPages();
+    }
+
+    @Override
+    public String getRestartPhase() {
+        return phase.name();
+    }
+
+    @Override
+    public long getAnalysisRecords() {
+        return analysis.records.sum();
+    }
+
+    @Override
+    public long getAnalysisMillis() {
+        return analysis.getMillis();
+    }
+
+    @Override
+    public double getAnalysisProgress() {
+        return analysis.getScanProgress();
+    }
+
+    @Override
+    public long getRedoRecords() {
+        return redo.records.sum();
+    }
+
+    @Override
+    public long getRedoMillis() {
+        return redo.getMillis();
+    }
+
+    @Override
+    public double getRedoProgress() {
+        return redo.getScanProgress();
+    }
+
+    @Override
+    public long getUndoRecords() {
+        return undo.records.sum();
+    }
+
+    @Override
+    public long getUndoMillis() {
+        return undo.getMillis();
+    }
+
+    @Override
+    public double getUndoProgress() {
+        return undo.getRollbackProgress();
+    }
+}
@@ -0,0 +1,106 @@
+package edu.berkeley.cs186.database.recovery;
+
+/**
+ * Checkpoint, recovery state, and restart progress of a recovery manager, as exposed
+ * over JMX.
+ */
+public interface RecoveryMetricsMXBean {
+    /**
+     * @return number of checkpoints taken since the database was opened
+     */
+    long getCheckpoints();
+
+    /**
+     * @return mean time to take a checkpoint, in microseconds
+     */
+    double getCheckpointMeanMicros();
+
+    /**
+     * @return longest checkpoint, in microseconds
+     */
+    long getCheckpointMaxMicros();
+
+    /**
+     * @return number of checkpoints in each bucket of LatencyHistogram
+     */
+    long[] getCheckpointLatencyHistogram();
+
+    /**
+     * @return LSN of the begin checkpoint record of the last checkpoint
+     */
+    long getLastCheckpointLSN();
+
+    /**
+     * @return bytes of log written since the last checkpoint
+     */
+    long getLogBytesSinceCheckpoint();
+
+    /**
+     * @return the oldest LSN an active transaction or dirty page still depends on: the
+     * smallest recLSN of a dirty page, or LSN that no record of an active transaction comes
+     * before; the last LSN of the log if there are neither
+     */
+    long getOldestActiveLSN();
+
+    /**
+     * @return number of transactions in the transaction table
+     */
+    int getActiveTransactions();
+
+    /**
+     * @return number of pages with logged changes that have not been flushed
+     */
+    int getDirtyPages();
+
+    /**
+     * @return phase of restart recovery in progress: NOT_STARTED, ANALYSIS, REDO, UNDO,
+     * or DONE
+     */
+    String getRestartPhase();
+
+    /**
+     * @return number of log records scanned by restart analysis
+     */
+    long getAnalysisRecords();
+
+    /**
+     * @return time spent in restart analysis (so far, if in progress), in milliseconds
+     */
+    long getAnalysisMillis();
+
+    /**
+     * @return fraction of the log from the last checkpoint that analysis has scanned
+     */
+    double getAnalysisProgress();
+
+    /**
+     * @return number of log records scanned by the restart redo pass (not counting pages
+     * redone on demand by an instant restart)
+     */
+    long getRedoRecords();
+
+    /**
+     * @return time spent in the restart redo pass (so far, if in progress), in milliseconds
+     */
+    long getRedoMillis();
+
+    /**
+     * @return fraction of the log from the start of redo that the redo pass has scanned
+     */
+    double getRedoProgress();
+
+    /**
+     * @return number of records of loser transactions processed by restart undo
+     */
+    long getUndoRecords();
+
+    /**
+     * @return time spent in restart undo (so far, if in progress), in milliseconds
+     */
+    long getUndoMillis();
+
+    /**
+     * @return fraction of loser transactions restart undo has rolled back
+     */
+    double getUndoProgress();
+}
@@ -0,0 +1,205 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Loads the pages in the dirty page table into the buffer ahead of the redo pass.
+ *
+ * Pages are prefetched by a few background threads in order of recLSN (then page
+ * number), which is the order in which the redo log cursor first reaches them; using
+ * more than one thread keeps several reads outstanding at once. The redo pass
+ * reports its position with advance(); a page counts as consumed once the cursor has
+ * reached its recLSN. At most `capacity` pages are prefetched but not yet consumed at
+ * any time, so that prefetching does not evict pages that redo has yet to use.
+ */
+class RedoPrefetcher implements AutoCloseable {
+    private final BufferManager bufferManager;
+    // (recLSN, page number) pairs in the order pages are prefetched
+    private final long[] recLSNs;
+    private final long[] pageNums;
+    private final int capacity;
+    private final Thread[] threads;
+
+    // number of pages whose recLSN the redo cursor has reached
+    private int consumed = 0;
+    // recLSN of the next page to be consumed, so advance() can skip taking the lock
+    private volatile long nextRecLSN;
+    // index of the next page to prefetch
+    private int next = 0;
+    // indices of the pages being fetched
+    private final BitSet inFlight = new BitSet();
+    private int numPrefetched = 0;
+    private boolean closed = false;
+
+    /**
+     * @param bufferManager buffer manager to load pages into
+     * @param dirtyPageTable DPT at the start of redo
+     * @param capacity maximum number of pages to have prefetched ahead of the redo cursor
+     * @param numThreads number of prefetch threads
+     */
+    RedoPrefetcher(BufferManager bufferManager, Map<Long, Long> dirtyPageTable, int capacity,
+                   int numThreads) {
+        this.bufferManager = bufferManager;
+        this.capacity = capacity;
+
+        List<Map.Entry<Long, Long>> entries = new ArrayList<>(dirtyPageTable.entrySet());
+        entries.sort((a, b) -> {
+            int c = Long.compare(a.getValue(), b.getValue());
+            return c != 0 ? c : Long.compare(a.getKey(), b.getKey());
+        });
+        this.recLSNs = new long[entries.size()];
+        this.pageNums = new long[entries.size()];
+        for (int i = 0; i < entries.size(); ++i) {
+            pageNums[i] = entries.get(i).getKey();
+            recLSNs[i] = entries.get(i).getValue();
+        }
+        this.nextRecLSN = recLSNs.length > 0 ? recLSNs[0] : Long.MAX_VALUE;
+
+        this.threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; ++i) {
+            threads[i] = new Thread(this::run, "redo-prefetch-" + i);
+            threads[i].setDaemon(true);
+        }
+    }
+
+    void start() {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Called by the redo pass before it processes the record at LSN. Marks every page with
+     * recLSN <= LSN as consumed, and waits for any in-progress prefetch of such a page.
+     * @param LSN LSN of the record about to be redone
+     */
+    void advance(long LSN) {
+        if (LSN < nextRecLSN) {
+            return;
+        }
+        synchronized (this) {
+            while (consumed < recLSNs.length && recLSNs[consumed] <= LSN) {
+                ++consumed;
+            }
+            nextRecLSN = consumed < recLSNs.length ? recLSNs[consumed] : Long.MAX_VALUE;
+            notifyAll();
+            boolean interrupted = false;
+            while (!inFlight.isEmpty() && inFlight.nextSetBit(0) < consumed) {
+                interrupted |= waitForChange();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits until no prefetch of pageNum is in progress. Redo of records that allocate
+     * or free pages must not overlap with a prefetch of the same page.
+     * @param pageNum page about to be allocated or freed
+     */
+    synchronized void awaitNotInFlight(long pageNum) {
+        boolean interrupted = false;
+        while (isInFlight(pageNum)) {
+            interrupted |= waitForChange();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return number of pages successfully loaded so far
+     */
+    synchronized int getNumPrefetched() {
+        return numPrefetched;
+    }
+
+    /**
+     * Stops prefetching, waiting for any in-progress prefetch to finish.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            int index;
+            synchronized (this) {
+                // skip pages the cursor has already reached, and wait for room in the window
+                while (!closed && next < recLSNs.length && next >= consumed + capacity) {
+                    waitForChange();
+                }
+                next = Math.max(next, consumed);
+                if (closed || next >= recLSNs.length) {
+                    return;
+                }
+                index = next++;
+                inFlight.set(index);
+            }
+            boolean loaded = false;
+            try {
+                Page page = bufferManager.fetchPage(new DummyLockContext(), pageNums[index], false);
+                page.unpin();
+                loaded = true;
+            } catch (PageException | NoSuchElementException e) {
+                // page or partition not allocated (yet); redo will allocate it if needed
+            }
+            synchronized (this) {
+                inFlight.clear(index);
+                if (loaded) {
+                    ++numPrefetched;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private boolean isInFlight(long pageNum) {
+        for (int i = inFlight.nextSetBit(0); i >= 0; i = inFlight.nextSetBit(i + 1)) {
+            if (pageNums[i] == pageNum) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits on this object's monitor (which must be held).
+     * @return whether the wait was interrupted
+     */
+    private boolean waitForChange() {
+        try {
+            wait();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+}
@@ -3,19 +3,36 @@ package edu.berkeley.cs186.database.recovery;
 import edu.berkeley.cs186.database.Transaction;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 class TransactionTableEntry {
     // Transaction object for the transaction.
     Transaction transaction;
     // lastLSN of transaction, or 0 if no log entries for the transaction exist.
     long lastLSN = 0;
-    // Set of page numbers of all pages this transaction has modified in some way.
-    Set<Long> touchedPages = new HashSet<>();
+    // Number of log records written for the transaction. Only changed by the transaction
+    // itself (and by restart undo), but read by the deadlock detector.
+    volatile long numLogRecords = 0;
+    // LSN that no record of the transaction comes before: the last LSN of the log when the
+    // transaction started, or its first record if restart analysis saw it; 0 if unknown.
+    volatile long beginLSN = 0;
+    // Set of page numbers of all pages this transaction has modified in some way. Concurrent,
+    // since checkpoints may copy it while the transaction is running.
+    Set<Long> touchedPages = ConcurrentHashMap.newKeySet();
     // map of transaction's savepoints
     private Map<String, Long> savepoints = new HashMap<>();
+    // Cached undo information for the transaction's page updates.
+    UndoChainCache undoChain;
+    // Whether commit returns without waiting for the commit record to be flushed.
+    volatile boolean asyncCommit = false;
 
     TransactionTableEntry(Transaction transaction) {
+        this(transaction, ARIESRecoveryManager.DEFAULT_UNDO_CACHE_BYTES);
+    }
+
+    TransactionTableEntry(Transaction transaction, long undoCacheBytes) {
         this.transaction = transaction;
+        this.undoChain = new UndoChainCache(undoCacheBytes);
     }
 
     void addSavepoint(String name) {
@@ -0,0 +1,142 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Pair;
+
+import java.util.Arrays;
+
+/**
+ * Bounded in-memory copy of the undo information of one transaction's page updates, so
+ * that rolling back does not have to fetch (and re-parse) each update record from the log.
+ *
+ * For each cached update, the LSN, prevLSN, page number, offset, and before-image are
+ * stored in parallel primitive arrays, with before-images packed into a single byte array.
+ * Updates are added in LSN order, so lookups are a binary search. Once the cache reaches
+ * its size limit further updates are not cached, and rollback reads them from the log;
+ * rolling back removes undone entries, making room again.
+ */
+class UndoChainCache {
+    // Bytes charged per entry, not counting the before-image.
+    static final int ENTRY_OVERHEAD = 8 + 8 + 8 + 2 + 4;
+    private static final int INITIAL_ENTRIES = 16;
+
+    private final long maxBytes;
+
+    private long[] LSNs = new long[0];
+    private long[] prevLSNs = new long[0];
+    private long[] pageNums = new long[0];
+    private short[] offsets = new short[0];
+    // start of each entry's before-image in images; an entry's image ends where the next starts
+    private int[] imageStarts = new int[0];
+    private byte[] images = new byte[0];
+
+    private int numEntries = 0;
+    private int imageBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxBytes maximum number of bytes of undo information to cache
+     */
+    UndoChainCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Caches the undo information of an update record. Not cached if the cache is full.
+     * @param LSN LSN of the update record; must be greater than any LSN already cached
+     * @param prevLSN prevLSN of the update record
+     * @param pageNum page updated
+     * @param offset offset of the update in the page
+     * @param before before-image of the update
+     * @return whether the update was cached
+     */
+    synchronized boolean add(long LSN, long prevLSN, long pageNum, short offset, byte[] before) {
+        if (getSizeBytes() + ENTRY_OVERHEAD + before.length > maxBytes) {
+            return false;
+        }
+        assert (numEntries == 0 || LSN > LSNs[numEntries - 1]);
+        if (numEntries == LSNs.length) {
+            int capacity = Math.max(INITIAL_ENTRIES, LSNs.length * 2);
+            LSNs = Arrays.copyOf(LSNs, capacity);
+            prevLSNs = Arrays.copyOf(prevLSNs, capacity);
+            pageNums = Arrays.copyOf(pageNums, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            imageStarts = Arrays.copyOf(imageStarts, capacity);
+        }
+        if (imageBytes + before.length > images.length) {
+            images = Arrays.copyOf(images, Math.max(imageBytes + before.length, images.length * 2));
+        }
+        LSNs[numEntries] = LSN;
+        prevLSNs[numEntries] = prevLSN;
+        pageNums[numEntries] = pageNum;
+        offsets[numEntries] = offset;
+        imageStarts[numEntries] = imageBytes;
+        System.arraycopy(before, 0, images, imageBytes, before.length);
+        imageBytes += before.length;
+        ++numEntries;
+        return true;
+    }
+
+    /**
+     * Removes the entry for LSN, along with every entry after it, and returns the CLR
+     * undoing the update at LSN.
+     * @param LSN LSN of the update record to undo
+     * @param transNum transaction the update belongs to
+     * @param lastLSN lastLSN of the transaction, to be the CLR's prevLSN
+     * @return CLR for the update, or null if the update is not cached
+     */
+    synchronized LogRecord removeAndUndo(long LSN, long transNum, long lastLSN) {
+        int i = Arrays.binarySearch(LSNs, 0, numEntries, LSN);
+        if (i < 0) {
+            ++misses;
+            return null;
+        }
+        ++hits;
+        int end = i + 1 < numEntries ? imageStarts[i + 1] : imageBytes;
+        byte[] before = Arrays.copyOfRange(images, imageStarts[i], end);
+        LogRecord clr = new UndoUpdatePageLogRecord(transNum, pageNums[i], lastLSN, prevLSNs[i],
+                offsets[i], before);
+        numEntries = i;
+        imageBytes = imageStarts[i];
+        return clr;
+    }
+
+    /**
+     * Looks up a cached update without removing it or counting the lookup.
+     * @param LSN LSN of the update record
+     * @return page number and prevLSN of the update, or null if the update is not cached
+     */
+    synchronized Pair<Long, Long> peek(long LSN) {
+        int i = Arrays.binarySearch(LSNs, 0, numEntries, LSN);
+        return i < 0 ? null : new Pair<>(pageNums[i], prevLSNs[i]);
+    }
+
+    /**
+     * @return number of bytes of undo information cached
+     */
+    synchronized long getSizeBytes() {
+        return (long) numEntries * ENTRY_OVERHEAD + imageBytes;
+    }
+
+    /**
+     * @return number of cached updates
+     */
+    synchronized int size() {
+        return numEntries;
+    }
+
+    /**
+     * @return number of lookups that found their update in the cache
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of lookups that had to fall back to the log
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,126 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+
+import java.util.Objects;
+import java.util.Optional;
+
+class UndoInsertSlotLogRecord extends LogRecord {
+    private long transNum;
+    private long pageNum;
+    private long prevLSN;
+    private long undoNextLSN;
+    short bitIndex;
+    short offset;
+
+    UndoInsertSlotLogRecord(long transNum, long pageNum, long prevLSN, long undoNextLSN, short bitIndex,
+                            short offset) {
+        super(LogType.UNDO_INSERT_SLOT);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.undoNextLSN = undoNextLSN;
+        this.bitIndex = bitIndex;
+        this.offset = offset;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public Optional<Long> getUndoNextLSN() {
+        return Optional.of(undoNextLSN);
+    }
+
+    @Override
+    public boolean isRedoable() {
+        return true;
+    }
+
+    @Override
+    public void redo(DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            page.deleteSlot(bitIndex, offset, 0);
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[37];
+        ByteBuffer.wrap(b)
+        .put((byte) getType().getValue())
+        .putLong(transNum)
+        .putLong(pageNum)
+        .putLong(prevLSN)
+        .putLong(undoNextLSN)
+        .putShort(bitIndex)
+        .putShort(offset);
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        long undoNextLSN = buf.getLong();
+        short bitIndex = buf.getShort();
+        short offset = buf.getShort();
+        return Optional.of(new UndoInsertSlotLogRecord(transNum, pageNum, prevLSN, undoNextLSN, bitIndex,
+                           offset));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        UndoInsertSlotLogRecord that = (UndoInsertSlotLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               undoNextLSN == that.undoNextLSN &&
+               bitIndex == that.bitIndex &&
+               offset == that.offset;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), transNum, pageNum, prevLSN, undoNextLSN, bitIndex, offset);
+    }
+
+    @Override
+    public String toString() {
+        return "UndoInsertSlotLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", prevLSN=" + prevLSN +
+               ", undoNextLSN=" + undoNextLSN +
+               ", bitIndex=" + bitIndex +
+               ", offset=" + offset +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
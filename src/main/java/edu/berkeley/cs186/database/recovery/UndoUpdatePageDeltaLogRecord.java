@@ -0,0 +1,138 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+class UndoUpdatePageDeltaLogRecord extends LogRecord {
+    private long transNum;
+    private long pageNum;
+    private long prevLSN;
+    private long undoNextLSN;
+    short offset;
+    short length;
+    byte[] delta;
+
+    UndoUpdatePageDeltaLogRecord(long transNum, long pageNum, long prevLSN, long undoNextLSN,
+                                 short offset, short length, byte[] delta) {
+        super(LogType.UNDO_UPDATE_PAGE_DELTA);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.undoNextLSN = undoNextLSN;
+        this.offset = offset;
+        this.length = length;
+        this.delta = delta;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public Optional<Long> getUndoNextLSN() {
+        return Optional.of(undoNextLSN);
+    }
+
+    @Override
+    public boolean isRedoable() {
+        return true;
+    }
+
+    @Override
+    public void redo(DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            XorDelta.apply(page, offset, length, delta);
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[39 + delta.length];
+        ByteBuffer.wrap(b)
+        .put((byte) getType().getValue())
+        .putLong(transNum)
+        .putLong(pageNum)
+        .putLong(prevLSN)
+        .putLong(undoNextLSN)
+        .putShort(offset)
+        .putShort(length)
+        .putShort((short) delta.length)
+        .put(delta);
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        long undoNextLSN = buf.getLong();
+        short offset = buf.getShort();
+        short length = buf.getShort();
+        byte[] delta = new byte[buf.getShort()];
+        buf.get(delta);
+        return Optional.of(new UndoUpdatePageDeltaLogRecord(transNum, pageNum, prevLSN, undoNextLSN,
+                           offset, length, delta));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        UndoUpdatePageDeltaLogRecord that = (UndoUpdatePageDeltaLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               offset == that.offset &&
+               length == that.length &&
+               prevLSN == that.prevLSN &&
+               undoNextLSN == that.undoNextLSN &&
+               Arrays.equals(delta, that.delta);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, offset, length, prevLSN,
+                                  undoNextLSN);
+        result = 31 * result + Arrays.hashCode(delta);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "UndoUpdatePageDeltaLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", prevLSN=" + prevLSN +
+               ", undoNextLSN=" + undoNextLSN +
+               ", offset=" + offset +
+               ", length=" + length +
+               ", delta=" + Arrays.toString(delta) +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
@@ -0,0 +1,144 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+class UndoUpdatePageRangesLogRecord extends LogRecord {
+    private long transNum;
+    private long pageNum;
+    private long prevLSN;
+    private long undoNextLSN;
+    short[] offsets;
+    byte[][] after;
+
+    UndoUpdatePageRangesLogRecord(long transNum, long pageNum, long prevLSN, long undoNextLSN,
+                                  short[] offsets, byte[][] after) {
+        super(LogType.UNDO_UPDATE_PAGE_RANGES);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.undoNextLSN = undoNextLSN;
+        this.offsets = offsets;
+        this.after = after;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public Optional<Long> getUndoNextLSN() {
+        return Optional.of(undoNextLSN);
+    }
+
+    @Override
+    public boolean isRedoable() {
+        return true;
+    }
+
+    @Override
+    public void redo(DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            for (int i = 0; i < offsets.length; ++i) {
+                page.getBuffer().position(offsets[i]).put(after[i]);
+            }
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Override
+    public byte[] toBytes() {
+        int size = 35;
+        for (byte[] range : after) {
+            size += 4 + range.length;
+        }
+        byte[] b = new byte[size];
+        Buffer buf = ByteBuffer.wrap(b)
+                     .put((byte) getType().getValue())
+                     .putLong(transNum)
+                     .putLong(pageNum)
+                     .putLong(prevLSN)
+                     .putLong(undoNextLSN)
+                     .putShort((short) offsets.length);
+        for (int i = 0; i < offsets.length; ++i) {
+            buf.putShort(offsets[i]).putShort((short) after[i].length).put(after[i]);
+        }
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        long undoNextLSN = buf.getLong();
+        int numRanges = buf.getShort();
+        short[] offsets = new short[numRanges];
+        byte[][] after = new byte[numRanges][];
+        for (int i = 0; i < numRanges; ++i) {
+            offsets[i] = buf.getShort();
+            after[i] = new byte[buf.getShort()];
+            buf.get(after[i]);
+        }
+        return Optional.of(new UndoUpdatePageRangesLogRecord(transNum, pageNum, prevLSN, undoNextLSN,
+                           offsets, after));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        UndoUpdatePageRangesLogRecord that = (UndoUpdatePageRangesLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               undoNextLSN == that.undoNextLSN &&
+               Arrays.equals(offsets, that.offsets) &&
+               Arrays.deepEquals(after, that.after);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, prevLSN, undoNextLSN);
+        result = 31 * result + Arrays.hashCode(offsets);
+        result = 31 * result + Arrays.deepHashCode(after);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "UndoUpdatePageRangesLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", prevLSN=" + prevLSN +
+               ", undoNextLSN=" + undoNextLSN +
+               ", offsets=" + Arrays.toString(offsets) +
+               ", after=" + Arrays.deepToString(after) +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
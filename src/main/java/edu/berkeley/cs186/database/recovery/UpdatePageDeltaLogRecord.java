@@ -0,0 +1,143 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Page update logged as the compressed XOR of its before and after images (see XorDelta)
+ * rather than as both images. Both redo and undo XOR the delta into the page, so neither
+ * is idempotent on its own: redo relies on the pageLSN check to be applied exactly once.
+ */
+class UpdatePageDeltaLogRecord extends LogRecord {
+    private long transNum;
+    private long pageNum;
+    private long prevLSN;
+    short offset;
+    short length;
+    byte[] delta;
+
+    UpdatePageDeltaLogRecord(long transNum, long pageNum, long prevLSN, short offset, short length,
+                             byte[] delta) {
+        super(LogType.UPDATE_PAGE_DELTA);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.offset = offset;
+        this.length = length;
+        this.delta = delta;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public boolean isUndoable() {
+        return true;
+    }
+
+    @Override
+    public boolean isRedoable() {
+        return true;
+    }
+
+    @Override
+    public Pair<LogRecord, Boolean> undo(long lastLSN) {
+        return new Pair<>(new UndoUpdatePageDeltaLogRecord(transNum, pageNum, lastLSN, prevLSN, offset,
+                          length, delta), false);
+    }
+
+    @Override
+    public void redo(DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            XorDelta.apply(page, offset, length, delta);
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[31 + delta.length];
+        ByteBuffer.wrap(b)
+        .put((byte) getType().getValue())
+        .putLong(transNum)
+        .putLong(pageNum)
+        .putLong(prevLSN)
+        .putShort(offset)
+        .putShort(length)
+        .putShort((short) delta.length)
+        .put(delta);
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        short offset = buf.getShort();
+        short length = buf.getShort();
+        byte[] delta = new byte[buf.getShort()];
+        buf.get(delta);
+        return Optional.of(new UpdatePageDeltaLogRecord(transNum, pageNum, prevLSN, offset, length,
+                           delta));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        UpdatePageDeltaLogRecord that = (UpdatePageDeltaLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               offset == that.offset &&
+               length == that.length &&
+               prevLSN == that.prevLSN &&
+               Arrays.equals(delta, that.delta);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, offset, length, prevLSN);
+        result = 31 * result + Arrays.hashCode(delta);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdatePageDeltaLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", offset=" + offset +
+               ", length=" + length +
+               ", delta=" + Arrays.toString(delta) +
+               ", prevLSN=" + prevLSN +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
@@ -0,0 +1,164 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Update of several disjoint ranges of a page, made by one operation. Equivalent to an
+ * UpdatePageLogRecord per range, but with a single record header.
+ */
+class UpdatePageRangesLogRecord extends LogRecord {
+    private long transNum;
+    private long pageNum;
+    private long prevLSN;
+    short[] offsets;
+    byte[][] before;
+    byte[][] after;
+
+    UpdatePageRangesLogRecord(long transNum, long pageNum, long prevLSN, short[] offsets,
+                              byte[][] before, byte[][] after) {
+        super(LogType.UPDATE_PAGE_RANGES);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * @return size in bytes of a record for ranges of these lengths
+     */
+    static int getSize(byte[][] after) {
+        int size = 27;
+        for (byte[] range : after) {
+            size += 4 + 2 * range.length;
+        }
+        return size;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public boolean isUndoable() {
+        return true;
+    }
+
+    @Override
+    public boolean isRedoable() {
+        return true;
+    }
+
+    @Override
+    public Pair<LogRecord, Boolean> undo(long lastLSN) {
+        return new Pair<>(new UndoUpdatePageRangesLogRecord(transNum, pageNum, lastLSN, prevLSN, offsets,
+                          before), false);
+    }
+
+    @Override
+    public void redo(DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            for (int i = 0; i < offsets.length; ++i) {
+                page.getBuffer().position(offsets[i]).put(after[i]);
+            }
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[getSize(after)];
+        Buffer buf = ByteBuffer.wrap(b)
+                     .put((byte) getType().getValue())
+                     .putLong(transNum)
+                     .putLong(pageNum)
+                     .putLong(prevLSN)
+                     .putShort((short) offsets.length);
+        for (int i = 0; i < offsets.length; ++i) {
+            buf.putShort(offsets[i]).putShort((short) after[i].length).put(before[i]).put(after[i]);
+        }
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        int numRanges = buf.getShort();
+        short[] offsets = new short[numRanges];
+        byte[][] before = new byte[numRanges][];
+        byte[][] after = new byte[numRanges][];
+        for (int i = 0; i < numRanges; ++i) {
+            offsets[i] = buf.getShort();
+            short length = buf.getShort();
+            before[i] = new byte[length];
+            after[i] = new byte[length];
+            buf.get(before[i]).get(after[i]);
+        }
+        return Optional.of(new UpdatePageRangesLogRecord(transNum, pageNum, prevLSN, offsets, before,
+                           after));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        UpdatePageRangesLogRecord that = (UpdatePageRangesLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               Arrays.equals(offsets, that.offsets) &&
+               Arrays.deepEquals(before, that.before) &&
+               Arrays.deepEquals(after, that.after);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, prevLSN);
+        result = 31 * result + Arrays.hashCode(offsets);
+        result = 31 * result + Arrays.deepHashCode(before);
+        result = 31 * result + Arrays.deepHashCode(after);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdatePageRangesLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", offsets=" + Arrays.toString(offsets) +
+               ", before=" + Arrays.deepToString(before) +
+               ", after=" + Arrays.deepToString(after) +
+               ", prevLSN=" + prevLSN +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
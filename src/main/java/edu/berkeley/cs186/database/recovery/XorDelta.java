@@ -0,0 +1,109 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.memory.Page;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encoding of a page update as the XOR of its before and after images, run-length
+ * compressed. Since (before ^ after) ^ after == before and (before ^ after) ^ before ==
+ * after, the one delta serves for both undo and redo, given the current contents of the
+ * page: redo applies it to the before image on the page, and undo to the after image.
+ *
+ * The run-length encoding is a sequence of runs, each starting with a control byte c:
+ * for c >= 0, the next c + 1 bytes are copied verbatim; for c < 0, the next byte is
+ * repeated 1 - c times. Unchanged bytes within an update XOR to 0, so they compress well.
+ */
+final class XorDelta {
+    // Longest run of either kind.
+    private static final int MAX_RUN = 128;
+    // Shortest repeat worth encoding as a repeat run.
+    private static final int MIN_REPEAT = 3;
+
+    private XorDelta() {}
+
+    /**
+     * @param before before image
+     * @param after after image, of the same length
+     * @return run-length compressed XOR of before and after
+     */
+    static byte[] encode(byte[] before, byte[] after) {
+        if (before.length != after.length) {
+            throw new IllegalArgumentException("before and after images differ in length");
+        }
+        byte[] xor = new byte[before.length];
+        for (int i = 0; i < xor.length; ++i) {
+            xor[i] = (byte) (before[i] ^ after[i]);
+        }
+        return compress(xor);
+    }
+
+    /**
+     * XORs a delta into the length bytes of a page starting at offset.
+     * @param page page to update (must be pinned)
+     * @param offset offset of the update in the page
+     * @param length length of the update
+     * @param delta encoded delta
+     */
+    static void apply(Page page, short offset, int length, byte[] delta) {
+        byte[] bytes = new byte[length];
+        page.getBuffer().position(offset).get(bytes);
+        byte[] xor = decompress(delta, length);
+        for (int i = 0; i < length; ++i) {
+            bytes[i] ^= xor[i];
+        }
+        page.getBuffer().position(offset).put(bytes);
+    }
+
+    static byte[] compress(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 2);
+        int i = 0;
+        while (i < data.length) {
+            int repeat = repeatLength(data, i);
+            if (repeat >= MIN_REPEAT) {
+                out.write(1 - repeat);
+                out.write(data[i]);
+                i += repeat;
+                continue;
+            }
+            int start = i;
+            while (i < data.length && i - start < MAX_RUN && repeatLength(data, i) < MIN_REPEAT) {
+                ++i;
+            }
+            out.write(i - start - 1);
+            out.write(data, start, i - start);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] decompress(byte[] encoded, int length) {
+        byte[] data = new byte[length];
+        int pos = 0;
+        int i = 0;
+        while (i < encoded.length) {
+            int control = encoded[i++];
+            if (control >= 0) {
+                System.arraycopy(encoded, i, data, pos, control + 1);
+                i += control + 1;
+                pos += control + 1;
+            } else {
+                byte b = encoded[i++];
+                for (int j = 0; j < 1 - control; ++j) {
+                    data[pos++] = b;
+                }
+            }
+        }
+        if (pos != length) {
+            throw new IllegalArgumentException("delta decodes to " + pos + " bytes, expected " + length);
+        }
+        return data;
+    }
+
+    private static int repeatLength(byte[] data, int start) {
+        int end = start + 1;
+        while (end < data.length && end - start < MAX_RUN && data[end] == data[start]) {
+            ++end;
+        }
+        return end - start;
+    }
+}
@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.table;
 
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterable;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.memory.Page;
 
 /**
@@ -28,6 +29,15 @@ public interface HeapFile extends BacktrackingIterable<Page> {
      */
     Page getPage(long pageNum);
 
+    /**
+     * Fetches a specific pinned page, whose reads and writes lock lockContext instead of
+     * the page (see Page#setLockContext).
+     * @param pageNum page number
+     * @param lockContext lock context to lock on reads and writes of the page
+     * @return the pinned page
+     */
+    Page getPage(long pageNum, LockContext lockContext);
+
     /**
      * Fetches a data page with a certain amount of unused space. New data and
      * header pages may be allocated as necessary.
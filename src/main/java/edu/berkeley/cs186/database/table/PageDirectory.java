@@ -85,12 +85,12 @@ public class PageDirectory implements HeapFile {
      */
     public PageDirectory(BufferManager bufferManager, int partNum, long pageNum,
                          short emptyPageMetadataSize, LockContext lockContext) {
-        // TODO(proj4_part2): update table capacity
         this.bufferManager = bufferManager;
         this.partNum = partNum;
         this.emptyPageMetadataSize = emptyPageMetadataSize;
         this.lockContext = lockContext;
         this.firstHeader = new HeaderPage(pageNum, 0, true);
+        this.lockContext.capacity(this.getNumDataPages());
     }
 
     @Override
@@ -109,9 +109,14 @@ public class PageDirectory implements HeapFile {
     }
 
     @Override
-    public Page getPageWithSpace(short requiredSpace) {
-        // TODO(proj4_part2): modify for smarter locking
+    public Page getPage(long pageNum, LockContext lockContext) {
+        Page page = this.bufferManager.fetchPage(this.lockContext, pageNum, false);
+        page.setLockContext(lockContext);
+        return new DataPage(pageDirectoryId, page);
+    }
 
+    @Override
+    public Page getPageWithSpace(short requiredSpace) {
         if (requiredSpace <= 0) {
             throw new IllegalArgumentException("cannot request nonpositive amount of space");
         }
@@ -119,9 +124,12 @@ public class PageDirectory implements HeapFile {
             throw new IllegalArgumentException("requesting page with more space than the size of the page");
         }
 
-        Page page = this.firstHeader.loadPageWithSpace(requiredSpace);
+        long pageNum = this.firstHeader.loadPageWithSpace(requiredSpace);
+        // lock the page before fetching it: waiting for the lock while holding a pin would
+        // block the transaction holding the lock as soon as it touches the page
+        LockUtil.ensureSufficientLockHeld(lockContext.childContext(pageNum), LockType.X);
 
-        return new DataPage(pageDirectoryId, page);
+        return new DataPage(pageDirectoryId, this.bufferManager.fetchPage(lockContext, pageNum, false));
     }
 
     @Override
@@ -190,6 +198,16 @@ public class PageDirectory implements HeapFile {
             return super.getBuffer().position(DATA_HEADER_SIZE).slice();
         }
 
+        @Override
+        public void insertSlot(int bitIndex, int offset, byte[] data) {
+            super.insertSlot(bitIndex + 8 * DATA_HEADER_SIZE, offset + DATA_HEADER_SIZE, data);
+        }
+
+        @Override
+        public void deleteSlot(int bitIndex, int offset, int length) {
+            super.deleteSlot(bitIndex + 8 * DATA_HEADER_SIZE, offset + DATA_HEADER_SIZE, length);
+        }
+
         // get the full buffer (without skipping header) for internal use
         private Buffer getFullBuffer() {
             return super.getBuffer();
@@ -317,10 +335,9 @@ public class PageDirectory implements HeapFile {
             }
         }
 
-        // gets and loads a page with the required free space
-        private Page loadPageWithSpace(short requiredSpace) {
-            // TODO(proj4_part2): update table capacity
-
+        // finds a page with the required free space, allocating one if needed, and returns
+        // its page number
+        private long loadPageWithSpace(short requiredSpace) {
             this.page.pin();
             try {
                 Buffer b = this.page.getBuffer();
@@ -341,7 +358,7 @@ public class PageDirectory implements HeapFile {
                         b.position(b.position() - DataPageEntry.SIZE);
                         dpe.toBytes(b);
 
-                        return bufferManager.fetchPage(lockContext, dpe.pageNum, false);
+                        return dpe.pageNum;
                     }
                 }
 
@@ -354,11 +371,18 @@ public class PageDirectory implements HeapFile {
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * unusedSlot);
                     dpe.toBytes(b);
 
-                    page.getBuffer().putInt(pageDirectoryId).putInt(headerOffset).putShort(unusedSlot);
+                    // the page is not locked until the caller has unpinned it
+                    page.disableLocking();
+                    try {
+                        page.getBuffer().putInt(pageDirectoryId).putInt(headerOffset).putShort(unusedSlot);
+                    } finally {
+                        page.unpin();
+                    }
 
                     ++this.numDataPages;
+                    lockContext.capacity(getNumDataPages());
 
-                    return page;
+                    return page.getPageNum();
                 }
 
                 // if we have no next header page, make one
@@ -391,6 +415,8 @@ public class PageDirectory implements HeapFile {
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     (new DataPageEntry()).toBytes(b);
                     bufferManager.freePage(dataPage);
+                    --this.numDataPages;
+                    lockContext.capacity(getNumDataPages());
                 }
             } finally {
                 this.page.unpin();
@@ -428,15 +454,19 @@ public class PageDirectory implements HeapFile {
 
             @Override
             protected Page getValue(int index) {
+                DataPageEntry dpe;
                 HeaderPage.this.page.pin();
                 try {
                     Buffer b = HeaderPage.this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
-                    DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum, false));
+                    dpe = DataPageEntry.fromBytes(b);
                 } finally {
                     HeaderPage.this.page.unpin();
                 }
+                // fetch the data page after unpinning the header page: fetching it while the
+                // header page is pinned could wait on the buffer manager behind a thread that
+                // waits for the header page
+                return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum, false));
             }
         }
     }
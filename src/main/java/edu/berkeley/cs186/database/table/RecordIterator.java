@@ -18,10 +18,19 @@ import edu.berkeley.cs186.database.DatabaseException;
 public class RecordIterator implements BacktrackingIterator<Record> {
     private Iterator<RecordId> ridIter;
     private Table table;
+    private VersionStore.Snapshot snapshot;
 
     public RecordIterator(Table table, Iterator<RecordId> ridIter) {
+        this(table, ridIter, null);
+    }
+
+    /**
+     * Reads the records as of SNAPSHOT (see Table#getRecord).
+     */
+    public RecordIterator(Table table, Iterator<RecordId> ridIter, VersionStore.Snapshot snapshot) {
         this.ridIter = ridIter;
         this.table = table;
+        this.snapshot = snapshot;
     }
 
     @Override
@@ -32,7 +41,7 @@ public class RecordIterator implements BacktrackingIterator<Record> {
     @Override
     public Record next() {
         try {
-            return table.getRecord(ridIter.next());
+            return table.getRecord(ridIter.next(), snapshot);
         } catch (DatabaseException e) {
             throw new IllegalStateException(e);
         }
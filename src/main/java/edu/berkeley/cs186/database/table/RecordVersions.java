@@ -0,0 +1,177 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.*;
+
+/**
+ * The versions of the records of a table kept by a VersionStore. For each record written
+ * by a transaction whose write some snapshot may not read, the versions are the record's
+ * value before that write, followed by the value of each write since, oldest first.
+ *
+ * A value read from a record's page by a snapshot must be checked against the record's
+ * versions afterwards, never before: a transaction records its write here before writing
+ * the page, and the versions of a record are only discarded once its page holds the value
+ * every snapshot reads, so whichever value the page held, the versions found afterwards
+ * (if any) give the value the snapshot reads.
+ */
+class RecordVersions {
+    final Table table;
+    private final VersionStore store;
+
+    // versions of the records with writes kept, by page number then entry number
+    private final Map<Long, Map<Integer, List<Version>>> pages = new HashMap<>();
+
+    /**
+     * A value written to a record.
+     */
+    static class Version {
+        // the transaction that wrote the value, or null if every snapshot may read it
+        final VersionStore.Writer writer;
+
+        // the value, or null if the record did not exist
+        final Record record;
+
+        private Version(VersionStore.Writer writer, Record record) {
+            this.writer = writer;
+            this.record = record;
+        }
+
+        private boolean isVisibleTo(VersionStore.Snapshot snapshot) {
+            return writer == null || writer.isVisibleTo(snapshot);
+        }
+    }
+
+    RecordVersions(Table table, VersionStore store) {
+        this.table = table;
+        this.store = store;
+    }
+
+    VersionStore store() {
+        return store;
+    }
+
+    /**
+     * Records that WRITER is changing the record RID from BEFORE to AFTER (either of which
+     * is null if the record does not exist). Must be called before the page is written.
+     */
+    synchronized void written(VersionStore.Writer writer, RecordId rid, Record before, Record after) {
+        List<Version> versions = pages.computeIfAbsent(rid.getPageNum(), pageNum -> new HashMap<>())
+                                 .computeIfAbsent((int) rid.getEntryNum(), entryNum -> {
+                                     store.versionedRecordsChanged(1);
+                                     return new ArrayList<>(Collections.singletonList(new Version(null, before)));
+                                 });
+        versions.add(new Version(writer, after));
+        writer.written.computeIfAbsent(this, versionsOf -> new HashSet<>()).add(rid);
+    }
+
+    /**
+     * Records that WRITER deleted the last record on page PAGENUM.
+     */
+    void emptied(VersionStore.Writer writer, long pageNum) {
+        writer.emptied.computeIfAbsent(this, versionsOf -> new HashSet<>()).add(pageNum);
+    }
+
+    /**
+     * @return the version of record RID read by SNAPSHOT, or null if the record's page
+     * holds the value every snapshot reads
+     */
+    synchronized Version visible(RecordId rid, VersionStore.Snapshot snapshot) {
+        Map<Integer, List<Version>> entries = pages.get(rid.getPageNum());
+        if (entries == null) {
+            return null;
+        }
+        List<Version> versions = entries.get((int) rid.getEntryNum());
+        return versions == null ? null : visible(versions, snapshot);
+    }
+
+    /**
+     * @return the versions read by SNAPSHOT of the records on page PAGENUM whose page does
+     * not hold the value every snapshot reads, by entry number
+     */
+    synchronized Map<Integer, Version> visible(long pageNum, VersionStore.Snapshot snapshot) {
+        Map<Integer, List<Version>> entries = pages.get(pageNum);
+        if (entries == null) {
+            return Collections.emptyMap();
+        }
+        Map<Integer, Version> visible = new HashMap<>();
+        entries.forEach((entryNum, versions) -> visible.put(entryNum, visible(versions, snapshot)));
+        return visible;
+    }
+
+    /**
+     * @return whether versions of records on page PAGENUM are kept
+     */
+    synchronized boolean hasVersions(long pageNum) {
+        return pages.containsKey(pageNum);
+    }
+
+    /**
+     * @return number of records with versions kept
+     */
+    synchronized int size() {
+        int size = 0;
+        for (Map<Integer, List<Version>> entries : pages.values()) {
+            size += entries.size();
+        }
+        return size;
+    }
+
+    /**
+     * Discards the versions of record RID older than the last one written by a transaction
+     * committed at or before HORIZON, and all of them if that is the last one.
+     */
+    synchronized void prune(RecordId rid, long horizon) {
+        List<Version> versions = get(rid);
+        if (versions == null) {
+            return;
+        }
+        int last = versions.size() - 1;
+        while (last > 0 && !versions.get(last).writer.isCommittedBy(horizon)) {
+            --last;
+        }
+        if (last == 0) {
+            return;
+        }
+        versions.subList(0, last).clear();
+        versions.set(0, new Version(null, versions.get(0).record));
+        removeIfUnneeded(rid, versions);
+    }
+
+    /**
+     * Discards the versions of record RID written by WRITER, which has been rolled back.
+     */
+    synchronized void discard(RecordId rid, VersionStore.Writer writer) {
+        List<Version> versions = get(rid);
+        if (versions == null) {
+            return;
+        }
+        versions.removeIf(version -> version.writer == writer);
+        removeIfUnneeded(rid, versions);
+    }
+
+    private List<Version> get(RecordId rid) {
+        Map<Integer, List<Version>> entries = pages.get(rid.getPageNum());
+        return entries == null ? null : entries.get((int) rid.getEntryNum());
+    }
+
+    // the page holds the only version left, which every snapshot reads
+    private void removeIfUnneeded(RecordId rid, List<Version> versions) {
+        if (versions.size() > 1) {
+            return;
+        }
+        Map<Integer, List<Version>> entries = pages.get(rid.getPageNum());
+        entries.remove((int) rid.getEntryNum());
+        if (entries.isEmpty()) {
+            pages.remove(rid.getPageNum());
+        }
+        store.versionedRecordsChanged(-1);
+    }
+
+    private static Version visible(List<Version> versions, VersionStore.Snapshot snapshot) {
+        for (int i = versions.size() - 1; i > 0; --i) {
+            if (versions.get(i).isVisibleTo(snapshot)) {
+                return versions.get(i);
+            }
+        }
+        return versions.get(0);
+    }
+}
@@ -3,9 +3,12 @@ package edu.berkeley.cs186.database.table;
 import java.util.*;
 
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.*;
 import edu.berkeley.cs186.database.common.Bits;
 import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.EscalationPolicy;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
@@ -81,10 +84,32 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
  * Instead, each allocated page is a single record, and we indicate that a page does
  * not contain a record by simply freeing the page.
  *
- * In some cases, this behavior may be desirable even for small records (our database
- * only supports locking at the page level, so in cases where tuple-level locks are
- * necessary even at the cost of an I/O per tuple, a full page record may be desirable),
- * and may be explicitly toggled on with the setFullPageRecords method.
+ * In some cases, this behavior may be desirable even for small records (tables lock
+ * whole pages by default, so in cases where tuple-level locks are necessary even at the
+ * cost of an I/O per tuple, a full page record may be desirable), and may be explicitly
+ * toggled on with the setFullPageRecords method. Tables with a bitmap may instead lock
+ * their records individually: see Record Locks.
+ *
+ * # Snapshot Reads
+ * A table given a VersionStore (see setVersionStore) records the writes of transactions
+ * in it, and can then be read as of a snapshot of the store without locks, by passing
+ * the snapshot to getRecord and the iterators. Tables with full page records are never
+ * versioned, and are read under locks even with a snapshot.
+ *
+ * # Record Locks
+ * By default, getRecord, updateRecord and deleteRecord lock the page of the record, so
+ * that transactions writing different records of a page wait for each other. With record
+ * locks enabled (see enableRecordLocks, or Database#enableRecordLocks), they lock the
+ * record instead, with an intent lock on its page: the lock context of a record is the
+ * child of its page's context named by the record's entry number. The page is still read and written as a whole, under this
+ * table's monitor, and each change to it is logged as a change to a single slot, so that
+ * rolling back one transaction does not undo the writes of another to the same page.
+ *
+ * Locks on the records of a page escalate to a lock on the page as set by the escalation
+ * policy given to enableRecordLocks. Inserts still lock the page they insert into, so
+ * that a slot is never reused while the delete that emptied it may be rolled back; and a
+ * delete only frees the page it empties if the deleting transaction holds an X lock on
+ * the whole page, since other transactions may hold locks on records deleted from it.
  */
 public class Table implements BacktrackingIterable<Record> {
     // The name of the table.
@@ -111,6 +136,16 @@ public class Table implements BacktrackingIterable<Record> {
     // The lock context of the table.
     private LockContext lockContext;
 
+    // Versions of the records of the table kept for snapshot reads, or null if none are kept.
+    private RecordVersions versions;
+
+    // Whether records are locked individually, rather than with their page.
+    private volatile boolean recordLocks;
+
+    // When locks on the records of a page escalate to a lock on the page, or null to never
+    // escalate them.
+    private volatile EscalationPolicy recordEscalationPolicy;
+
     // Constructors //////////////////////////////////////////////////////////////
     /**
      * Load a table named `name` with schema `schema` from `heapFile`. `lockContext`
@@ -118,7 +153,8 @@ public class Table implements BacktrackingIterable<Record> {
      * new table will be created if none exists on the heapfile.
      */
     public Table(String name, Schema schema, HeapFile heapFile, LockContext lockContext) {
-        // TODO(proj4_part2): table locking code
+        // the whole table is read below to count its records
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
 
         this.name = name;
         this.heapFile = heapFile;
@@ -137,17 +173,25 @@ public class Table implements BacktrackingIterable<Record> {
             Page page = iter.next();
             byte[] bitmap = getBitMap(page);
 
-            for (short i = 0; i < numRecordsPerPage; ++i) {
-                if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
-                    Record r = getRecord(new RecordId(page.getPageNum(), i));
-                    stats.addRecord(r);
-                    numRecords++;
+            try {
+                for (short i = 0; i < numRecordsPerPage; ++i) {
+                    if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
+                        // read from the page already pinned: fetching it again while it is
+                        // pinned could wait on the buffer manager behind a thread that
+                        // waits for this page
+                        Buffer buf = page.getBuffer();
+                        buf.position(bitmapSizeInBytes + i * schema.getSizeInBytes());
+                        stats.addRecord(Record.fromBytes(buf, schema));
+                        numRecords++;
+                    }
                 }
+            } finally {
+                page.unpin();
             }
-            page.unpin();
         }
 
         this.lockContext = lockContext;
+        this.enableAutoEscalate();
     }
 
     // Accessors /////////////////////////////////////////////////////////////////
@@ -168,6 +212,18 @@ public class Table implements BacktrackingIterable<Record> {
         bitmapSizeInBytes = 0;
         heapFile.setEmptyPageMetadataSize((short) (heapFile.getEffectivePageSize() -
                                           schema.getSizeInBytes()));
+        // a deleted record's page is freed, so snapshots could not find it
+        versions = null;
+    }
+
+    /**
+     * Records the writes of transactions to this table in VERSIONSTORE from now on, so that
+     * the table can be read as of its snapshots, or stops recording them if VERSIONSTORE is
+     * null. Must be set before transactions write to the table.
+     */
+    public void setVersionStore(VersionStore versionStore) {
+        boolean versioned = versionStore != null && bitmapSizeInBytes > 0;
+        versions = versioned ? new RecordVersions(this, versionStore) : null;
     }
 
     public TableStats getStats() {
@@ -196,12 +252,6 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
-    private void writeBitMap(Page page, byte[] bitmap) {
-        if (bitmapSizeInBytes > 0) {
-            page.getBuffer().put(bitmap, 0, bitmapSizeInBytes);
-        }
-    }
-
     private static int computeBitmapSizeInBytes(int pageSize, Schema schema) {
         int unroundedRecords = computeUnroundedNumRecordsPerPage(pageSize, schema);
         if (unroundedRecords >= 8) {
@@ -249,9 +299,14 @@ public class Table implements BacktrackingIterable<Record> {
      * first free page has bitmap 0b11101000, then the record is inserted into
      * the page with index 3 and the bitmap is updated to 0b11111000.
      */
-    public synchronized RecordId addRecord(List<DataBox> values) {
+    public RecordId addRecord(List<DataBox> values) {
         Record record = schema.verify(values);
+        // may wait for a lock on the page, so not synchronized
         Page page = heapFile.getPageWithSpace(schema.getSizeInBytes());
+        return addRecord(page, record);
+    }
+
+    private synchronized RecordId addRecord(Page page, Record record) {
         try {
             // Find the first empty slot in the bitmap.
             // entry number of the first free slot and store it in entryNum; and (2) we
@@ -267,11 +322,16 @@ public class Table implements BacktrackingIterable<Record> {
                 entryNum = 0;
             }
             assert (entryNum < numRecordsPerPage);
-
-            // Insert the record and update the bitmap.
-            insertRecord(page, entryNum, record);
-            Bits.setBit(bitmap, entryNum, Bits.Bit.ONE);
-            writeBitMap(page, bitmap);
+            recordWrite(new RecordId(page.getPageNum(), (short) entryNum), null, record);
+
+            // Insert the record and update the bitmap. With a bitmap, this is a single
+            // slot insert, so it is logged as one record carrying only the new record.
+            if (bitmapSizeInBytes > 0) {
+                int offset = bitmapSizeInBytes + (entryNum * schema.getSizeInBytes());
+                page.insertSlot(entryNum, offset, record.toBytes(schema));
+            } else {
+                insertRecord(page, entryNum, record);
+            }
 
             // Update the metadata.
             stats.addRecord(record);
@@ -287,9 +347,48 @@ public class Table implements BacktrackingIterable<Record> {
      * Retrieves a record from the table, throwing an exception if no such record
      * exists.
      */
-    public synchronized Record getRecord(RecordId rid) {
+    public Record getRecord(RecordId rid) {
+        return getRecord(rid, null);
+    }
+
+    /**
+     * Retrieves a record from the table as of SNAPSHOT, without locking it, throwing an
+     * exception if no such record exists in the snapshot. If SNAPSHOT is null, or the table
+     * has no versions, retrieves the record's current value under a lock.
+     */
+    public Record getRecord(RecordId rid, VersionStore.Snapshot snapshot) {
         validateRecordId(rid);
-        Page page = fetchPage(rid.getPageNum());
+        if (snapshot == null || versions == null) {
+            lockRecord(rid, LockType.S);
+            return readRecord(rid);
+        }
+
+        // the page is read before the versions (see RecordVersions), and is not read at
+        // all if it has been freed since the snapshot read a record deleted from it
+        RecordVersions.Version version = versions.visible(rid, snapshot);
+        if (version == null) {
+            Record record = null;
+            try {
+                record = readRecord(rid);
+            } catch (DatabaseException e) {
+                // no such record, or page: the versions tell whether it is in the snapshot
+            }
+            version = versions.visible(rid, snapshot);
+            if (version == null) {
+                if (record == null) {
+                    throw new DatabaseException(String.format("Record %s does not exist.", rid));
+                }
+                return record;
+            }
+        }
+        if (version.record == null) {
+            throw new DatabaseException(String.format("Record %s does not exist.", rid));
+        }
+        return version.record;
+    }
+
+    private synchronized Record readRecord(RecordId rid) {
+        Page page = fetchPage(rid);
         try {
             byte[] bitmap = getBitMap(page);
             if (Bits.getBit(bitmap, rid.getEntryNum()) == Bits.Bit.ZERO) {
@@ -311,15 +410,18 @@ public class Table implements BacktrackingIterable<Record> {
      * record. stats is updated accordingly. An exception is thrown if rid does
      * not correspond to an existing record in the table.
      */
-    public synchronized Record updateRecord(List<DataBox> values, RecordId rid) {
-        // TODO(proj4_part2): modify for smarter locking
-
+    public Record updateRecord(List<DataBox> values, RecordId rid) {
         validateRecordId(rid);
-
         Record newRecord = schema.verify(values);
-        Record oldRecord = getRecord(rid);
+        lockRecord(rid, LockType.X);
+        return writeRecord(newRecord, rid);
+    }
+
+    private synchronized Record writeRecord(Record newRecord, RecordId rid) {
+        Record oldRecord = readRecord(rid);
+        recordWrite(rid, oldRecord, newRecord);
 
-        Page page = fetchPage(rid.getPageNum());
+        Page page = fetchPage(rid);
         try {
             insertRecord(page, rid.getEntryNum(), newRecord);
 
@@ -336,21 +438,33 @@ public class Table implements BacktrackingIterable<Record> {
      * stats, freePageNums, and numRecords as necessary. An exception is thrown
      * if rid does not correspond to an existing record in the table.
      */
-    public synchronized Record deleteRecord(RecordId rid) {
-        // TODO(proj4_part2): modify for smarter locking
-
+    public Record deleteRecord(RecordId rid) {
         validateRecordId(rid);
+        lockRecord(rid, LockType.X);
+        return removeRecord(rid);
+    }
 
-        Page page = fetchPage(rid.getPageNum());
+    private synchronized Record removeRecord(RecordId rid) {
+        Page page = fetchPage(rid);
         try {
-            Record record = getRecord(rid);
+            Record record = readRecord(rid);
+            VersionStore.Writer writer = recordWrite(rid, record, null);
 
-            byte[] bitmap = getBitMap(page);
-            Bits.setBit(bitmap, rid.getEntryNum(), Bits.Bit.ZERO);
-            writeBitMap(page, bitmap);
+            if (bitmapSizeInBytes > 0) {
+                int offset = bitmapSizeInBytes + (rid.getEntryNum() * schema.getSizeInBytes());
+                page.deleteSlot(rid.getEntryNum(), offset, schema.getSizeInBytes());
+            }
 
             stats.removeRecord(record);
             int numRecords = numRecordsPerPage == 1 ? 0 : numRecordsOnPage(page);
+            if (numRecords == 0 && !mayFreePage(page.getPageNum())) {
+                numRecords = 1;
+            } else if (numRecords == 0 && writer != null) {
+                // snapshots may read the records deleted from the page: keep it until the
+                // transaction commits (see VersionStore#commit), as if it held a record
+                versions.emptied(writer, page.getPageNum());
+                numRecords = 1;
+            }
             heapFile.updateFreeSpace(page,
                                      (short) ((numRecordsPerPage - numRecords) * schema.getSizeInBytes()));
             this.numRecords--;
@@ -361,12 +475,117 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
+    /**
+     * Frees page PAGENUM if it holds no records, and no snapshot may read records deleted
+     * from it. Called by the VersionStore of the table once the transaction that emptied
+     * the page commits.
+     */
+    synchronized void freePageIfEmpty(long pageNum) {
+        if (versions == null || versions.hasVersions(pageNum)) {
+            return;
+        }
+        Page page;
+        try {
+            page = fetchPage(pageNum);
+        } catch (DatabaseException e) {
+            return; // freed since
+        }
+        try {
+            if (numRecordsOnPage(page) == 0) {
+                heapFile.updateFreeSpace(page, (short) (numRecordsPerPage * schema.getSizeInBytes()));
+            }
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Records the current value of record RID (null if it does not exist) as written by
+     * WRITER, whose last write to it may have been undone.
+     */
+    synchronized void rereadVersion(RecordId rid, VersionStore.Writer writer) {
+        Record record;
+        try {
+            record = readRecord(rid);
+        } catch (DatabaseException e) {
+            record = null;
+        }
+        versions.written(writer, rid, null, record);
+    }
+
+    /**
+     * @return versions of the records of this table kept for snapshot reads, or null if
+     * none are kept
+     */
+    RecordVersions getVersions() {
+        return versions;
+    }
+
     @Override
     public String toString() {
         return "Table " + name;
     }
 
     // Helpers ///////////////////////////////////////////////////////////////////
+    /**
+     * Locks a page of the table before it is fetched: waiting for the lock while holding
+     * the page pinned, or while holding this table's monitor, would block the transaction
+     * holding the lock as soon as it touches the page or the table.
+     */
+    private void lockPage(long pageNum, LockType lockType) {
+        LockUtil.ensureSufficientLockHeld(lockContext.childContext(pageNum), lockType);
+    }
+
+    /**
+     * Locks record RID, or its page if records are not locked individually, before its
+     * page is fetched (see lockPage).
+     */
+    private void lockRecord(RecordId rid, LockType lockType) {
+        if (hasRecordLocks()) {
+            LockUtil.ensureSufficientLockHeld(recordContext(rid), lockType);
+        } else {
+            lockPage(rid.getPageNum(), lockType);
+        }
+    }
+
+    // the lock context of record RID, under the context of its page
+    private LockContext recordContext(RecordId rid) {
+        LockContext pageContext = lockContext.childContext(rid.getPageNum());
+        pageContext.capacity(numRecordsPerPage);
+        pageContext.setEscalationPolicy(recordEscalationPolicy);
+        return pageContext.childContext(rid.getEntryNum());
+    }
+
+    /**
+     * @return whether the current transaction may free page PAGENUM: with record locks,
+     * other transactions may hold locks on records deleted from it (whose deletes may yet
+     * be rolled back), unless the transaction holds an X lock on the whole page
+     */
+    private boolean mayFreePage(long pageNum) {
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (!hasRecordLocks() || transaction == null) {
+            return true;
+        }
+        LockContext pageContext = lockContext.childContext(pageNum);
+        return pageContext instanceof DummyLockContext ||
+               pageContext.getEffectiveLockType(transaction) == LockType.X;
+    }
+
+    /**
+     * Records a write of record RID from BEFORE to AFTER by the current transaction, if the
+     * table has versions, before the page is written.
+     * @return the writes of the current transaction, or null if the write is not recorded
+     */
+    private VersionStore.Writer recordWrite(RecordId rid, Record before, Record after) {
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (versions == null || transaction == null) {
+            return null;
+        }
+        VersionStore.Writer writer = versions.store().writer(transaction.getTransNum());
+        versions.written(writer, rid, before, after);
+        return writer;
+    }
+
     private Page fetchPage(long pageNum) {
         try {
             return heapFile.getPage(pageNum);
@@ -375,6 +594,19 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
+    // fetches the page of record RID, to be read and written under the record's lock if
+    // records are locked individually
+    private Page fetchPage(RecordId rid) {
+        if (!hasRecordLocks()) {
+            return fetchPage(rid.getPageNum());
+        }
+        try {
+            return heapFile.getPage(rid.getPageNum(), recordContext(rid));
+        } catch (PageException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
     /**
      * Recall that every data page contains an m-byte bitmap followed by n
      * records. The following three functions computes m and n such that n is
@@ -435,9 +667,11 @@ public class Table implements BacktrackingIterable<Record> {
      * Enables auto-escalation. All future requests for pages of this table by transactions
      * that hold locks on at least 20% of the locks on the table's pages when this table
      * has at least 10 pages should escalate to a table-level lock before any locks are requested.
+     * (Transactions holding locks on 1000 pages or more of a smaller table escalate too: see
+     * EscalationPolicy.DEFAULT.)
      */
     public void enableAutoEscalate() {
-        // TODO(proj4_part2): implement
+        setEscalationPolicy(EscalationPolicy.DEFAULT);
     }
 
     /**
@@ -445,23 +679,86 @@ public class Table implements BacktrackingIterable<Record> {
      * an automatic escalation to a table-level lock.
      */
     public void disableAutoEscalate() {
-        // TODO(proj4_part2): implement
+        setEscalationPolicy(null);
+    }
+
+    /**
+     * Sets when requests for pages of this table escalate to a table-level lock, or disables
+     * auto-escalation if POLICY is null.
+     */
+    public void setEscalationPolicy(EscalationPolicy policy) {
+        lockContext.setEscalationPolicy(policy);
+    }
+
+    /**
+     * Enables record locks (see Record Locks above), with locks on the records of a page
+     * escalating to a page-level lock as set by EscalationPolicy.DEFAULT.
+     */
+    public void enableRecordLocks() {
+        enableRecordLocks(EscalationPolicy.DEFAULT);
+    }
+
+    /**
+     * Enables record locks (see Record Locks above): getRecord, updateRecord and
+     * deleteRecord lock the record instead of its page. Requests for records of a page
+     * escalate to a page-level lock as set by POLICY, or never if POLICY is null. Tables
+     * with full page records keep locking pages, which hold one record each.
+     */
+    public void enableRecordLocks(EscalationPolicy policy) {
+        recordEscalationPolicy = policy;
+        recordLocks = true;
+    }
+
+    /**
+     * Disables record locks: future requests for records lock their page. Transactions
+     * already holding locks on records keep them until they end.
+     */
+    public void disableRecordLocks() {
+        recordLocks = false;
+    }
+
+    /**
+     * @return whether getRecord, updateRecord and deleteRecord lock the record rather than
+     * its page
+     */
+    public boolean hasRecordLocks() {
+        return recordLocks && bitmapSizeInBytes > 0;
     }
 
     // Iterators /////////////////////////////////////////////////////////////////
     public BacktrackingIterator<RecordId> ridIterator() {
-        // TODO(proj4_part2): reduce locking overhead for table scans
+        return ridIterator(null);
+    }
+
+    /**
+     * @return iterator over the ids of the records of the table as of SNAPSHOT, taking no
+     * locks, or over the ids of its current records if SNAPSHOT is null or the table has no
+     * versions
+     */
+    public BacktrackingIterator<RecordId> ridIterator(VersionStore.Snapshot snapshot) {
+        if (snapshot == null || versions == null) {
+            // a scan reads every page: one table lock instead of a lock per page
+            LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+        }
 
         BacktrackingIterator<Page> iter = heapFile.iterator();
-        return new ConcatBacktrackingIterator<>(new PageIterator(iter, false));
+        return new ConcatBacktrackingIterator<>(new PageIterator(iter, false, snapshot));
     }
 
     @Override
     public BacktrackingIterator<Record> iterator() {
-        return new RecordIterator(this, ridIterator());
+        return iterator(null);
+    }
+
+    /**
+     * @return iterator over the records of the table as of SNAPSHOT (see ridIterator)
+     */
+    public BacktrackingIterator<Record> iterator(VersionStore.Snapshot snapshot) {
+        return new RecordIterator(this, ridIterator(snapshot), snapshot);
     }
 
-    private BacktrackingIterator<RecordId> blockRidIterator(Iterator<Page> pageIter, int maxPages) {
+    private BacktrackingIterator<RecordId> blockRidIterator(Iterator<Page> pageIter, int maxPages,
+            VersionStore.Snapshot snapshot) {
         Page[] block = new Page[maxPages];
         int numPages;
         for (numPages = 0; numPages < maxPages && pageIter.hasNext(); ++numPages) {
@@ -474,12 +771,21 @@ public class Table implements BacktrackingIterable<Record> {
             block = temp;
         }
         return new ConcatBacktrackingIterator<>(new PageIterator(new ArrayBacktrackingIterator<>(block),
-                                                true));
+                                                true, snapshot));
     }
 
     public BacktrackingIterator<Record> blockIterator(Iterator<Page> block,
             int maxPages) {
-        return new RecordIterator(this, blockRidIterator(block, maxPages));
+        return blockIterator(block, maxPages, null);
+    }
+
+    /**
+     * @return iterator over the records of the table as of SNAPSHOT (see ridIterator) on the
+     * next MAXPAGES pages of BLOCK
+     */
+    public BacktrackingIterator<Record> blockIterator(Iterator<Page> block, int maxPages,
+            VersionStore.Snapshot snapshot) {
+        return new RecordIterator(this, blockRidIterator(block, maxPages, snapshot), snapshot);
     }
 
     public BacktrackingIterator<Page> pageIterator() {
@@ -498,10 +804,19 @@ public class Table implements BacktrackingIterable<Record> {
         private byte[] bitmap;
 
         RIDPageIterator(Page page) {
+            this(page, null);
+        }
+
+        RIDPageIterator(Page page, VersionStore.Snapshot snapshot) {
             super(numRecordsPerPage);
             this.page = page;
             this.bitmap = getBitMap(page);
             page.unpin();
+            if (snapshot != null && versions != null) {
+                // the page is read before the versions: see RecordVersions
+                versions.visible(page.getPageNum(), snapshot).forEach((entryNum, version) ->
+                        Bits.setBit(bitmap, entryNum, version.record == null ? Bits.Bit.ZERO : Bits.Bit.ONE));
+            }
         }
 
         @Override
@@ -523,10 +838,13 @@ public class Table implements BacktrackingIterable<Record> {
     private class PageIterator implements BacktrackingIterator<BacktrackingIterable<RecordId>> {
         private BacktrackingIterator<Page> sourceIterator;
         private boolean pinOnFetch;
+        private VersionStore.Snapshot snapshot;
 
-        private PageIterator(BacktrackingIterator<Page> sourceIterator, boolean pinOnFetch) {
+        private PageIterator(BacktrackingIterator<Page> sourceIterator, boolean pinOnFetch,
+                             VersionStore.Snapshot snapshot) {
             this.sourceIterator = sourceIterator;
             this.pinOnFetch = pinOnFetch;
+            this.snapshot = snapshot;
         }
 
         @Override
@@ -567,7 +885,7 @@ public class Table implements BacktrackingIterable<Record> {
             @Override
             public BacktrackingIterator<RecordId> iterator() {
                 baseObject.pin();
-                return new RIDPageIterator(baseObject);
+                return new RIDPageIterator(baseObject, snapshot);
             }
         }
     }
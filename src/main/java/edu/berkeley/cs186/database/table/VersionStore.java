@@ -0,0 +1,229 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the values of records written by transactions for as long as snapshots may read
+ * them, so that read-only transactions can read the database as of the moment they
+ * started without taking locks: they neither wait for transactions writing what they
+ * read, nor make them wait.
+ *
+ * Every write to a table with versions (see Table#setVersionStore) made by a transaction
+ * is recorded, with the value written, against the record written. When the transaction
+ * commits, it takes the next commit timestamp, which makes all of its writes visible at
+ * once to the snapshots taken from then on. A snapshot taken at timestamp S reads, for
+ * each record, the last value written by a transaction committed at or before S (or the
+ * value the record had before any of the writes kept). The writes of a transaction that
+ * aborts are discarded once it has been rolled back.
+ *
+ * The writes to a record are discarded once every snapshot would read the same value:
+ * when all of them are by transactions committed before the oldest active snapshot, each
+ * snapshot reads the record's current value, on its page.
+ *
+ * A page emptied by deletes is not freed until the deleting transaction commits, and then
+ * only if no snapshot may still read the deleted records, so that snapshot scans find the
+ * page; a page kept this way stays in the table, and is reused by later inserts.
+ */
+public class VersionStore {
+    // commit timestamp of the last transaction committed
+    private long clock = 0;
+
+    // number of active snapshots taken at each timestamp
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+
+    // committed transactions whose writes are still kept, in commit order
+    private final Deque<Writer> committed = new ArrayDeque<>();
+
+    // transactions that have written to tables with versions and have not ended
+    private final Map<Long, Writer> writers = new ConcurrentHashMap<>();
+
+    // number of records with writes kept
+    private final LongAdder numVersionedRecords = new LongAdder();
+
+    /**
+     * The point in the history of the database read by a read-only transaction.
+     */
+    public static final class Snapshot {
+        private final long timestamp;
+
+        private Snapshot(long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * @return commit timestamp of the last transaction whose writes are in the snapshot
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot(" + timestamp + ")";
+        }
+    }
+
+    /**
+     * The writes of one transaction. Only the transaction's thread records writes, and
+     * only until the transaction commits.
+     */
+    static class Writer {
+        static final long UNCOMMITTED = Long.MAX_VALUE;
+
+        final long transNum;
+        volatile long commitTimestamp = UNCOMMITTED;
+
+        // whether some of the writes may have been undone by a rollback to a savepoint
+        volatile boolean rolledBack = false;
+
+        // records written, by table
+        final Map<RecordVersions, Set<RecordId>> written = new HashMap<>();
+
+        // pages emptied by deletes, by table
+        final Map<RecordVersions, Set<Long>> emptied = new HashMap<>();
+
+        private Writer(long transNum) {
+            this.transNum = transNum;
+        }
+
+        boolean isVisibleTo(Snapshot snapshot) {
+            return commitTimestamp <= snapshot.timestamp;
+        }
+
+        boolean isCommittedBy(long timestamp) {
+            return commitTimestamp <= timestamp;
+        }
+    }
+
+    /**
+     * Takes a snapshot of the writes of the transactions committed so far. Their versions
+     * are kept until the snapshot is ended with endSnapshot.
+     */
+    public synchronized Snapshot beginSnapshot() {
+        snapshots.merge(clock, 1, Integer::sum);
+        return new Snapshot(clock);
+    }
+
+    /**
+     * Ends SNAPSHOT, discarding the versions that no other snapshot may read.
+     */
+    public void endSnapshot(Snapshot snapshot) {
+        synchronized (this) {
+            snapshots.computeIfPresent(snapshot.timestamp, (timestamp, count) -> count == 1 ? null : count - 1);
+        }
+        prune();
+    }
+
+    /**
+     * Commits the writes of transaction TRANSNUM: makes them visible to the snapshots
+     * taken from now on, and frees the pages the transaction emptied if no snapshot may
+     * read the records deleted from them. The transaction must still hold its locks, and be
+     * the current transaction of this thread, so that the pages freed are logged as part
+     * of it.
+     */
+    public void commit(long transNum) {
+        Writer writer = writers.get(transNum);
+        if (writer == null) {
+            return;
+        }
+        if (writer.rolledBack) {
+            // the values last written may have been undone: the pages have the right ones
+            writer.written.forEach((versions, rids) -> {
+                for (RecordId rid : rids) {
+                    versions.table.rereadVersion(rid, writer);
+                }
+            });
+        }
+        synchronized (this) {
+            writer.commitTimestamp = ++clock;
+            committed.addLast(writer);
+        }
+        prune();
+        writer.emptied.forEach((versions, pageNums) -> {
+            for (long pageNum : pageNums) {
+                versions.table.freePageIfEmpty(pageNum);
+            }
+        });
+    }
+
+    /**
+     * Records that transaction TRANSNUM rolled back to a savepoint, undoing some of its
+     * writes: the values it wrote are read again from the pages when it commits.
+     */
+    public void rolledBack(long transNum) {
+        Writer writer = writers.get(transNum);
+        if (writer != null) {
+            writer.rolledBack = true;
+        }
+    }
+
+    /**
+     * Ends transaction TRANSNUM. If it did not commit, it must have been rolled back, and
+     * its writes are discarded.
+     */
+    public void end(long transNum) {
+        Writer writer = writers.remove(transNum);
+        if (writer == null || writer.commitTimestamp != Writer.UNCOMMITTED) {
+            return;
+        }
+        writer.written.forEach((versions, rids) -> {
+            for (RecordId rid : rids) {
+                versions.discard(rid, writer);
+            }
+        });
+    }
+
+    /**
+     * @return number of snapshots that have not ended
+     */
+    public synchronized int getNumSnapshots() {
+        int numSnapshots = 0;
+        for (int count : snapshots.values()) {
+            numSnapshots += count;
+        }
+        return numSnapshots;
+    }
+
+    /**
+     * @return number of records whose writes are kept
+     */
+    public long getNumVersionedRecords() {
+        return numVersionedRecords.sum();
+    }
+
+    /**
+     * @return the writes of transaction TRANSNUM, which must not have committed
+     */
+    Writer writer(long transNum) {
+        return writers.computeIfAbsent(transNum, Writer::new);
+    }
+
+    void versionedRecordsChanged(int delta) {
+        numVersionedRecords.add(delta);
+    }
+
+    /**
+     * Discards the writes that every active snapshot (and every snapshot taken from now
+     * on) reads: the writes of transactions committed before the oldest active snapshot,
+     * other than the last such write to each record.
+     */
+    private void prune() {
+        List<Writer> prunable = new ArrayList<>();
+        long horizon;
+        synchronized (this) {
+            horizon = snapshots.isEmpty() ? clock : snapshots.firstKey();
+            while (!committed.isEmpty() && committed.peekFirst().isCommittedBy(horizon)) {
+                prunable.add(committed.pollFirst());
+            }
+        }
+        for (Writer writer : prunable) {
+            writer.written.forEach((versions, rids) -> {
+                for (RecordId rid : rids) {
+                    versions.prune(rid, horizon);
+                }
+            });
+        }
+    }
+}
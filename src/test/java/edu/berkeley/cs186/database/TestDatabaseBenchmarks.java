@@ -0,0 +1,135 @@
+package edu.berkeley.cs186.database;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.concurrency.LockManager;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.table.RecordId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Database throughput benchmarks. These print their measurements rather than asserting
+ * on them; sizes can be changed with the system properties documented on each test.
+ */
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestDatabaseBenchmarks {
+    private static final String TABLE_NAME = "hot";
+
+    // 10 minutes per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                600000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /**
+     * Committed transactions per second by number of threads, with page locks and with
+     * record locks, where every transaction updates 2 of the benchmark.hotRecords (default
+     * 100) records of a single page, in record order so that transactions do not deadlock.
+     * With page locks, these transactions run one at a time, holding the page's X lock
+     * until their commit record is flushed; with record locks, only transactions updating
+     * the same record wait for each other. Each thread runs benchmark.hotPageTxns (default
+     * 500) transactions.
+     */
+    @Test
+    public void testHotPageUpdateThroughputByThreads() throws Exception {
+        int numTransactions = Integer.getInteger("benchmark.hotPageTxns", 500);
+        int numRecords = Integer.getInteger("benchmark.hotRecords", 100);
+
+        System.out.println("transactions per thread: " + numTransactions + ", hot records: " + numRecords);
+        System.out.println("threads\tpage locks (txn/s)\trecord locks (txn/s)");
+        for (int threads : new int[] {1, 2, 4, 8}) {
+            long page = measureHotPageUpdates(false, numRecords, threads, numTransactions);
+            long record = measureHotPageUpdates(true, numRecords, threads, numTransactions);
+            System.out.println(threads + "\t" + page + "\t" + record);
+        }
+    }
+
+    /**
+     * @return transactions per second over all threads, for transactions updating 2 of
+     * NUMRECORDS records of one page
+     */
+    private long measureHotPageUpdates(boolean recordLocks, int numRecords, int numThreads,
+                                       int numTransactions) throws Exception {
+        Database db = new Database(tempFolder.newFolder().getAbsolutePath(), 128, new LockManager(),
+                                   new ClockEvictionPolicy(), true);
+        try {
+            db.waitSetupFinished();
+            List<RecordId> rids = new ArrayList<>();
+            try (Transaction t = db.beginTransaction()) {
+                t.createTable(TestUtils.createSchemaWithTwoInts(), TABLE_NAME);
+                TransactionContext.setTransaction(t.getTransactionContext());
+                try {
+                    for (int i = 0; i < numRecords; ++i) {
+                        rids.add(t.getTransactionContext().addRecord(TABLE_NAME, values(i, 0)));
+                    }
+                } finally {
+                    TransactionContext.unsetTransaction();
+                }
+            }
+            db.waitAllTransactions();
+            if (recordLocks) {
+                db.enableRecordLocks(TABLE_NAME);
+            }
+
+            CyclicBarrier barrier = new CyclicBarrier(numThreads + 1);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < numThreads; ++i) {
+                Thread thread = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    try {
+                        barrier.await();
+                        for (int j = 0; j < numTransactions; ++j) {
+                            int first = random.nextInt(rids.size() - 1);
+                            int second = first + 1 + random.nextInt(rids.size() - first - 1);
+                            try (Transaction t = db.beginTransaction()) {
+                                TransactionContext transaction = t.getTransactionContext();
+                                TransactionContext.setTransaction(transaction);
+                                try {
+                                    transaction.updateRecord(TABLE_NAME, values(first, j), rids.get(first));
+                                    transaction.updateRecord(TABLE_NAME, values(second, j), rids.get(second));
+                                } finally {
+                                    TransactionContext.unsetTransaction();
+                                }
+                            }
+                        }
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            barrier.await();
+            long start = System.nanoTime();
+            barrier.await();
+            long elapsed = System.nanoTime() - start;
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return (long) ((double) numThreads * numTransactions * 1e9 / elapsed);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static List<DataBox> values(int key, int value) {
+        return Arrays.asList(new IntDataBox(key), new IntDataBox(value));
+    }
+}
@@ -0,0 +1,127 @@
+package edu.berkeley.cs186.database;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.OptimisticLockManager;
+import edu.berkeley.cs186.database.concurrency.ValidationException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestOptimisticConcurrency {
+    private Database db;
+    private OptimisticLockManager lockManager;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 10 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                10000 * TimeoutScaling.factor)));
+
+    @Before
+    public void beforeEach() throws IOException {
+        File testDir = tempFolder.newFolder("optimisticTest");
+        lockManager = new OptimisticLockManager();
+        db = new Database(testDir.getAbsolutePath(), 32, lockManager, new ClockEvictionPolicy(), true);
+        db.waitSetupFinished();
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(TestUtils.createSchemaWithTwoInts(), "table1");
+            t.createTable(TestUtils.createSchemaWithTwoInts(), "table2");
+            for (int i = 0; i < 10; ++i) {
+                t.insert("table1", values(i));
+                t.insert("table2", values(i));
+            }
+        }
+        db.waitAllTransactions();
+    }
+
+    @After
+    public void afterEach() {
+        while (TransactionContext.getTransaction() != null) {
+            TransactionContext.unsetTransaction();
+        }
+        db.close();
+    }
+
+    private static List<DataBox> values(int i) {
+        return Arrays.asList(new IntDataBox(i), new IntDataBox(i));
+    }
+
+    private static int count(Transaction t, String tableName) {
+        TransactionContext.setTransaction(t.getTransactionContext());
+        try {
+            int count = 0;
+            Iterator<?> records = t.getTransactionContext().getRecordIterator(tableName);
+            while (records.hasNext()) {
+                records.next();
+                ++count;
+            }
+            return count;
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+    }
+
+    @Test
+    public void testConflictingCommitRolledBack() {
+        Transaction reader = db.beginTransaction();
+        assertEquals(10, count(reader, "table1"));
+
+        // the reader holds no lock on the table, so the writer does not wait for it
+        try (Transaction writer = db.beginTransaction()) {
+            writer.insert("table1", values(10));
+        }
+
+        reader.insert("table2", values(10));
+        try {
+            reader.commit();
+            fail("reader should fail validation");
+        } catch (ValidationException e) {
+            // expected
+        }
+        db.waitAllTransactions();
+
+        try (Transaction t = db.beginTransaction()) {
+            assertEquals(11, count(t, "table1"));
+            assertEquals(10, count(t, "table2"));
+        }
+        assertEquals(1, lockManager.getValidationFailures());
+    }
+
+    @Test
+    public void testDisjointTransactionsCommit() {
+        Transaction t1 = db.beginTransaction();
+        Transaction t2 = db.beginTransaction();
+        assertEquals(10, count(t1, "table2"));
+        t1.insert("table2", values(10));
+        t2.insert("table1", values(10));
+        t2.commit();
+        t1.commit();
+        db.waitAllTransactions();
+
+        try (Transaction t = db.beginTransaction()) {
+            assertEquals(11, count(t, "table1"));
+            assertEquals(11, count(t, "table2"));
+        }
+        assertEquals(0, lockManager.getValidationFailures());
+    }
+}
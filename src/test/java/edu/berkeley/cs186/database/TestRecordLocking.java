@@ -0,0 +1,279 @@
+package edu.berkeley.cs186.database;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.EscalationPolicy;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.concurrency.LockManager;
+import edu.berkeley.cs186.database.concurrency.LockType;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestRecordLocking {
+    private static final String TABLE_NAME = "table1";
+
+    private String dbDir;
+    private Database db;
+    private LockManager lockManager;
+    private List<RecordId> rids;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 10 seconds per test: a transaction waiting for a lock on another's page would hang
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                10000 * TimeoutScaling.factor)));
+
+    @Before
+    public void beforeEach() throws IOException {
+        File testDir = tempFolder.newFolder("recordLockingTest");
+        dbDir = testDir.getAbsolutePath();
+        lockManager = new LockManager();
+        db = new Database(dbDir, 32, lockManager, new ClockEvictionPolicy(), true);
+        db.waitSetupFinished();
+        rids = new ArrayList<>();
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(TestUtils.createSchemaWithTwoInts(), TABLE_NAME);
+            for (int i = 0; i < 10; ++i) {
+                List<DataBox> row = values(i);
+                rids.add(run(t, () -> t.getTransactionContext().addRecord(TABLE_NAME, row)));
+            }
+        }
+        db.waitAllTransactions();
+        db.enableRecordLocks(TABLE_NAME);
+        for (RecordId rid : rids) {
+            assertEquals("records should share a page", rids.get(0).getPageNum(), rid.getPageNum());
+        }
+    }
+
+    @After
+    public void afterEach() {
+        while (TransactionContext.getTransaction() != null) {
+            TransactionContext.unsetTransaction();
+        }
+        db.close();
+    }
+
+    private static List<DataBox> values(int i) {
+        return Arrays.asList(new IntDataBox(i), new IntDataBox(i));
+    }
+
+    private interface Action<T> {
+        T run();
+    }
+
+    // runs ACTION as transaction T
+    private static <T> T run(Transaction t, Action<T> action) {
+        TransactionContext.setTransaction(t.getTransactionContext());
+        try {
+            return action.run();
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+    }
+
+    private static void update(Transaction t, RecordId rid, int value) {
+        run(t, () -> t.getTransactionContext().updateRecord(TABLE_NAME, values(value), rid));
+    }
+
+    private static void delete(Transaction t, RecordId rid) {
+        run(t, () -> t.getTransactionContext().deleteRecord(TABLE_NAME, rid));
+    }
+
+    private static int read(Transaction t, RecordId rid) {
+        return run(t, () -> t.getTransactionContext().getRecord(TABLE_NAME, rid).getValues().get(1).getInt());
+    }
+
+    private static int count(Transaction t) {
+        return run(t, () -> {
+            int count = 0;
+            Iterator<Record> records = t.getTransactionContext().getRecordIterator(TABLE_NAME);
+            while (records.hasNext()) {
+                records.next();
+                ++count;
+            }
+            return count;
+        });
+    }
+
+    private LockContext pageContext() {
+        long pageNum = rids.get(0).getPageNum();
+        int partNum = DiskSpaceManager.getPartNum(pageNum);
+        return lockManager.databaseContext().childContext("tables." + TABLE_NAME, partNum).childContext(pageNum);
+    }
+
+    private LockType pageLock(Transaction t) {
+        return pageContext().getExplicitLockType(t.getTransactionContext());
+    }
+
+    private LockType recordLock(Transaction t, RecordId rid) {
+        return pageContext().childContext(rid.getEntryNum()).getExplicitLockType(t.getTransactionContext());
+    }
+
+    @Test
+    public void testWritersOfOnePageDoNotWait() {
+        Transaction t1 = db.beginTransaction();
+        Transaction t2 = db.beginTransaction();
+        update(t1, rids.get(0), 100);
+        // with page locks, both would need X on the page
+        update(t2, rids.get(1), 101);
+        delete(t2, rids.get(2));
+        assertEquals(3, read(t1, rids.get(3)));
+
+        assertEquals(LockType.IX, pageLock(t1));
+        assertEquals(LockType.X, recordLock(t1, rids.get(0)));
+        assertEquals(LockType.S, recordLock(t1, rids.get(3)));
+        assertEquals(LockType.IX, pageLock(t2));
+        assertEquals(LockType.X, recordLock(t2, rids.get(1)));
+        assertEquals(LockType.X, recordLock(t2, rids.get(2)));
+
+        t2.commit();
+        t1.commit();
+        try (Transaction t = db.beginTransaction()) {
+            assertEquals(100, read(t, rids.get(0)));
+            assertEquals(101, read(t, rids.get(1)));
+            assertEquals(3, read(t, rids.get(3)));
+        }
+    }
+
+    @Test
+    public void testRollbackKeepsOtherWritesToPage() {
+        Transaction t1 = db.beginTransaction();
+        Transaction t2 = db.beginTransaction();
+        update(t1, rids.get(0), 100);
+        update(t2, rids.get(1), 101);
+        delete(t2, rids.get(2));
+        update(t1, rids.get(3), 103);
+
+        t2.rollback();
+        t1.commit();
+        db.waitAllTransactions();
+        try (Transaction t = db.beginTransaction()) {
+            assertEquals(100, read(t, rids.get(0)));
+            assertEquals(1, read(t, rids.get(1)));
+            assertEquals(2, read(t, rids.get(2)));
+            assertEquals(103, read(t, rids.get(3)));
+        }
+    }
+
+    @Test
+    public void testEmptiedPageKeptWhileDeletesMayRollBack() {
+        Transaction t1 = db.beginTransaction();
+        Transaction t2 = db.beginTransaction();
+        for (int i = 0; i < 5; ++i) {
+            delete(t1, rids.get(i));
+        }
+        for (int i = 5; i < 10; ++i) {
+            delete(t2, rids.get(i));
+        }
+        // t2 emptied the page, but must not free it: t1 may roll back
+        t2.commit();
+        t1.rollback();
+        db.waitAllTransactions();
+
+        try (Transaction t = db.beginTransaction()) {
+            // the page is still part of the table
+            assertEquals(5, count(t));
+            for (int i = 0; i < 5; ++i) {
+                assertEquals(i, read(t, rids.get(i)));
+            }
+            run(t, () -> t.getTransactionContext().addRecord(TABLE_NAME, values(10)));
+            assertEquals(6, count(t));
+        }
+    }
+
+    @Test
+    public void testEscalateToPageLock() {
+        db.enableRecordLocks(TABLE_NAME, new EscalationPolicy(1.0, Integer.MAX_VALUE, 4));
+        try (Transaction t = db.beginTransaction()) {
+            for (int i = 0; i < 4; ++i) {
+                update(t, rids.get(i), 100 + i);
+            }
+            assertEquals(LockType.IX, pageLock(t));
+            assertEquals(4, pageContext().getNumChildLocks(t.getTransactionContext()));
+
+            update(t, rids.get(4), 104);
+            assertEquals(LockType.X, pageLock(t));
+            assertEquals(0, pageContext().getNumChildLocks(t.getTransactionContext()));
+
+            // covered by the page lock
+            update(t, rids.get(5), 105);
+            assertEquals(0, pageContext().getNumChildLocks(t.getTransactionContext()));
+        }
+        try (Transaction t = db.beginTransaction()) {
+            for (int i = 0; i < 6; ++i) {
+                assertEquals(100 + i, read(t, rids.get(i)));
+            }
+        }
+    }
+
+    /**
+     * A wait for a record lock shows up in the lock wait metrics registered with the
+     * platform MBean server.
+     */
+    @Test
+    public void testRecordWaitsReported() throws Exception {
+        ObjectName name = new ObjectName("edu.berkeley.cs186.database:type=LockWaits,directory=" +
+                                         ObjectName.quote(dbDir));
+        Transaction t1 = db.beginTransaction();
+        Transaction t2 = db.beginTransaction();
+        update(t1, rids.get(0), 100);
+        Thread waiter = new Thread(() -> update(t2, rids.get(0), 101));
+        waiter.start();
+        while (lockManager.getWaitMetrics().getWaiting() == 0) {
+            Thread.sleep(1);
+        }
+        t1.commit();
+        waiter.join();
+        t2.commit();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, server.getAttribute(name, "Waits"));
+        CompositeData[] top = (CompositeData[]) server.getAttribute(name, "TopContendedResources");
+        assertEquals(1, top.length);
+        assertEquals(pageContext().childContext(rids.get(0).getEntryNum()).getResourceName().toString(),
+                     top[0].get("name"));
+    }
+
+    @Test(expected = DatabaseException.class)
+    public void testEnableRecordLocksOnMissingTable() {
+        db.enableRecordLocks("missing");
+    }
+
+    @Test
+    public void testDisabledRecordLocksLockPages() {
+        db.disableRecordLocks(TABLE_NAME);
+        try (Transaction t = db.beginTransaction()) {
+            update(t, rids.get(0), 100);
+            assertEquals(LockType.X, pageLock(t));
+            assertEquals(LockType.NL, recordLock(t, rids.get(0)));
+        }
+    }
+}
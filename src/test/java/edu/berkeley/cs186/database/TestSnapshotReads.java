@@ -0,0 +1,255 @@
+package edu.berkeley.cs186.database;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.concurrency.LockManager;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestSnapshotReads {
+    private static final String TABLE_NAME = "snapshotTable";
+
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 5 seconds per test: a snapshot read waiting for a lock would hang
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                5000 * TimeoutScaling.factor)));
+
+    @Before
+    public void beforeEach() throws IOException {
+        File testDir = tempFolder.newFolder("snapshotReadsTest");
+        db = new Database(testDir.getAbsolutePath(), 32, new LockManager());
+        db.setWorkMem(4);
+        db.waitSetupFinished();
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(TestUtils.createSchemaWithTwoInts(), TABLE_NAME);
+            for (int i = 0; i < 10; ++i) {
+                t.insert(TABLE_NAME, values(i, i));
+            }
+        }
+        db.waitAllTransactions();
+    }
+
+    @After
+    public void afterEach() {
+        while (TransactionContext.getTransaction() != null) {
+            TransactionContext.unsetTransaction();
+        }
+        db.close();
+    }
+
+    private static List<DataBox> values(int key, int value) {
+        return Arrays.asList(new IntDataBox(key), new IntDataBox(value));
+    }
+
+    // the (key, value) pairs of the table, as read by transaction T
+    private static Map<Integer, Integer> read(Transaction t) {
+        Map<Integer, Integer> rows = new TreeMap<>();
+        TransactionContext.setTransaction(t.getTransactionContext());
+        try {
+            Iterator<Record> records = t.getTransactionContext().getRecordIterator(TABLE_NAME);
+            while (records.hasNext()) {
+                List<DataBox> row = records.next().getValues();
+                assertNull("key read twice", rows.put(row.get(0).getInt(), row.get(1).getInt()));
+            }
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+        return rows;
+    }
+
+    private static Map<Integer, Integer> identity(int from, int to) {
+        Map<Integer, Integer> rows = new TreeMap<>();
+        for (int i = from; i < to; ++i) {
+            rows.put(i, i);
+        }
+        return rows;
+    }
+
+    @Test
+    public void testSnapshotIgnoresUncommittedWrites() {
+        Transaction writer = db.beginTransaction();
+        writer.insert(TABLE_NAME, values(10, 10));
+        writer.update(TABLE_NAME, "int2", x -> new IntDataBox(-1), "int1",
+                      PredicateOperator.EQUALS, new IntDataBox(3));
+        writer.delete(TABLE_NAME, "int1", PredicateOperator.EQUALS, new IntDataBox(5));
+
+        // the writer holds X locks on the table's pages: the snapshot must not wait for them
+        Transaction reader = db.beginReadOnlyTransaction();
+        assertEquals(identity(0, 10), read(reader));
+
+        writer.commit();
+        assertEquals(identity(0, 10), read(reader));
+        reader.commit();
+    }
+
+    @Test
+    public void testSnapshotSeesEarlierCommits() {
+        try (Transaction writer = db.beginTransaction()) {
+            writer.insert(TABLE_NAME, values(10, 10));
+            writer.delete(TABLE_NAME, "int1", PredicateOperator.EQUALS, new IntDataBox(0));
+        }
+
+        Map<Integer, Integer> expected = identity(1, 11);
+        try (Transaction reader = db.beginReadOnlyTransaction()) {
+            assertEquals(expected, read(reader));
+        }
+    }
+
+    @Test
+    public void testSnapshotIgnoresLaterCommits() {
+        Transaction reader = db.beginReadOnlyTransaction();
+        for (int i = 0; i < 3; ++i) {
+            int key = i;
+            try (Transaction writer = db.beginTransaction()) {
+                writer.update(TABLE_NAME, "int1", x -> new IntDataBox(100 + key), "int1",
+                              PredicateOperator.EQUALS, new IntDataBox(key));
+            }
+        }
+        assertEquals(identity(0, 10), read(reader));
+        reader.commit();
+
+        try (Transaction later = db.beginReadOnlyTransaction()) {
+            Map<Integer, Integer> expected = identity(0, 10);
+            for (int i = 0; i < 3; ++i) {
+                expected.put(100 + i, i);
+                expected.remove(i);
+            }
+            assertEquals(expected, read(later));
+        }
+    }
+
+    @Test
+    public void testSnapshotReadsEmptiedPage() {
+        Transaction reader = db.beginReadOnlyTransaction();
+        try (Transaction writer = db.beginTransaction()) {
+            writer.delete(TABLE_NAME, "int1", PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(0));
+        }
+        try (Transaction t = db.beginReadOnlyTransaction()) {
+            assertEquals(Collections.emptyMap(), read(t));
+        }
+        assertEquals(identity(0, 10), read(reader));
+        reader.commit();
+
+        // the page is reused by later inserts
+        try (Transaction writer = db.beginTransaction()) {
+            writer.insert(TABLE_NAME, values(20, 20));
+        }
+        try (Transaction t = db.beginReadOnlyTransaction()) {
+            assertEquals(identity(20, 21), read(t));
+        }
+    }
+
+    @Test
+    public void testQueryUnderSnapshot() {
+        Transaction writer = db.beginTransaction();
+        writer.delete(TABLE_NAME, "int1", PredicateOperator.LESS_THAN, new IntDataBox(5));
+
+        try (Transaction reader = db.beginReadOnlyTransaction()) {
+            QueryPlan query = reader.query(TABLE_NAME);
+            query.select("int1", PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(3));
+            Iterator<Record> records = query.execute();
+            int count = 0;
+            while (records.hasNext()) {
+                records.next();
+                ++count;
+            }
+            assertEquals(7, count);
+
+            TransactionContext.setTransaction(reader.getTransactionContext());
+            try {
+                assertTrue(reader.getTransactionContext().contains(TABLE_NAME, "int1", new IntDataBox(1)));
+            } finally {
+                TransactionContext.unsetTransaction();
+            }
+        }
+        writer.commit();
+    }
+
+    @Test
+    public void testSnapshotIsReadOnly() {
+        try (Transaction reader = db.beginReadOnlyTransaction()) {
+            try {
+                reader.insert(TABLE_NAME, values(10, 10));
+                fail("read-only transaction should not insert");
+            } catch (DatabaseException e) {
+                // expected
+            }
+            try {
+                reader.createTable(new Schema(Collections.singletonList("x"),
+                                              Collections.singletonList(Type.intType())), "t2");
+                fail("read-only transaction should not create tables");
+            } catch (DatabaseException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testVersionsPruned() {
+        Transaction reader = db.beginReadOnlyTransaction();
+        try (Transaction writer = db.beginTransaction()) {
+            writer.update(TABLE_NAME, "int2", x -> new IntDataBox(-1), "int1",
+                          PredicateOperator.LESS_THAN, new IntDataBox(4));
+        }
+        assertEquals(4, db.getVersionStore().getNumVersionedRecords());
+        reader.commit();
+        assertEquals(0, db.getVersionStore().getNumVersionedRecords());
+        assertEquals(0, db.getVersionStore().getNumSnapshots());
+
+        // writes with no snapshot active keep no versions once committed
+        try (Transaction writer = db.beginTransaction()) {
+            writer.insert(TABLE_NAME, values(10, 10));
+        }
+        assertEquals(0, db.getVersionStore().getNumVersionedRecords());
+    }
+
+    @Test
+    public void testTableCreatedAfterSnapshotIsEmpty() {
+        Transaction reader = db.beginReadOnlyTransaction();
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(TestUtils.createSchemaWithTwoInts(), "newTable");
+            t.insert("newTable", values(1, 1));
+        }
+        TransactionContext.setTransaction(reader.getTransactionContext());
+        try {
+            assertFalse(reader.getTransactionContext().getRecordIterator("newTable").hasNext());
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+        reader.commit();
+
+        try (Transaction later = db.beginReadOnlyTransaction()) {
+            TransactionContext.setTransaction(later.getTransactionContext());
+            try {
+                assertTrue(later.getTransactionContext().getRecordIterator("newTable").hasNext());
+            } finally {
+                TransactionContext.unsetTransaction();
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package edu.berkeley.cs186.database.common;
+
+import edu.berkeley.cs186.database.categories.*;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestLatencyHistogram {
+    @Test
+    public void testBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500L);
+        histogram.record(1000L);
+        histogram.record(3999L);
+        histogram.record(4000L);
+        histogram.record(Long.MAX_VALUE);
+
+        long[] counts = histogram.getCounts();
+        assertEquals(1L, counts[0]);
+        assertEquals(1L, counts[1]);
+        assertEquals(1L, counts[2]);
+        assertEquals(1L, counts[3]);
+        assertEquals(1L, counts[LatencyHistogram.NUM_BUCKETS - 1]);
+        assertEquals(5L, histogram.getCount());
+        assertEquals(Long.MAX_VALUE / 1000L, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.getPercentileMicros(50));
+        for (int i = 0; i < 99; ++i) {
+            histogram.record(10000L);
+        }
+        histogram.record(1000000L);
+
+        assertEquals(16L, histogram.getPercentileMicros(50));
+        assertEquals(16L, histogram.getPercentileMicros(99));
+        assertEquals(1024L, histogram.getPercentileMicros(100));
+        assertEquals(19.9, histogram.getMeanMicros(), 1e-9);
+    }
+}
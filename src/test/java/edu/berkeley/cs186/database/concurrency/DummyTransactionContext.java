@@ -22,10 +22,14 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
  */
 public class DummyTransactionContext extends AbstractTransactionContext {
     private long tNum;
-    private LoggingLockManager lockManager;
+    private LockManager lockManager;
     private boolean active = true;
 
-    public DummyTransactionContext(LoggingLockManager lockManager, long tNum) {
+    /**
+     * @param lockManager the lock manager the transaction takes locks from; blocking and
+     *                    unblocking are logged if it is a LoggingLockManager
+     */
+    public DummyTransactionContext(LockManager lockManager, long tNum) {
         this.lockManager = lockManager;
         this.tNum = tNum;
     }
@@ -214,15 +218,21 @@ public class DummyTransactionContext extends AbstractTransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    private void emit(String s) {
+        if (lockManager instanceof LoggingLockManager) {
+            ((LoggingLockManager) lockManager).emit(s);
+        }
+    }
+
     @Override
     public void block() {
-        lockManager.emit("block " + tNum);
+        emit("block " + tNum);
         super.block();
     }
 
     @Override
     public void unblock() {
-        lockManager.emit("unblock " + tNum);
+        emit("unblock " + tNum);
         super.unblock();
         Thread.yield();
     }
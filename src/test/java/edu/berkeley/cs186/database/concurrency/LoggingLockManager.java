@@ -14,6 +14,14 @@ public class LoggingLockManager extends LockManager {
     private Map<Long, LockContext> contexts = new HashMap<>();
     private Map<Long, Boolean> loggingOverride = new ConcurrentHashMap<>();
 
+    public LoggingLockManager() {
+        super();
+    }
+
+    public LoggingLockManager(int numStripes) {
+        super(numStripes);
+    }
+
     @Override
     public synchronized LockContext context(String readable, long name) {
         if (!contexts.containsKey(name)) {
@@ -0,0 +1,186 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.common.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestAsyncLockManager {
+    private LoggingLockManager lockman;
+    private ResourceName table;
+    private ResourceName page;
+    private DeadlockDetector detector;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setUp() {
+        lockman = new LoggingLockManager();
+        table = new ResourceName(new ResourceName(new Pair<>("database", 0L)),
+                                 new Pair<>("table", 1L));
+        page = new ResourceName(table, new Pair<>("page", 2L));
+    }
+
+    @After
+    public void cleanup() {
+        if (detector != null) {
+            detector.close();
+        }
+    }
+
+    @Test
+    public void testGrantedImmediately() {
+        TransactionContext t0 = new DummyTransactionContext(lockman, 0);
+        CompletableFuture<Void> future = lockman.acquireAsync(t0, table, LockType.S);
+        assertTrue(future.isDone());
+        assertFalse(future.isCompletedExceptionally());
+        assertEquals(LockType.S, lockman.getLockType(t0, table));
+
+        assertTrue(lockman.promoteAsync(t0, table, LockType.X).isDone());
+        assertEquals(LockType.X, lockman.getLockType(t0, table));
+    }
+
+    @Test
+    public void testErrorsAreThrown() {
+        TransactionContext t0 = new DummyTransactionContext(lockman, 0);
+        lockman.acquire(t0, table, LockType.S);
+        try {
+            lockman.acquireAsync(t0, table, LockType.X);
+            fail("acquiring a lock twice should fail");
+        } catch (DuplicateLockRequestException e) {
+            // expected
+        }
+        try {
+            lockman.promoteAsync(t0, page, LockType.X);
+            fail("promoting a lock that is not held should fail");
+        } catch (NoLockHeldException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Many transactions wait for a lock from one thread, without any of them blocking it.
+     */
+    @Test
+    public void testManyWaitersOneThread() {
+        int numWaiters = 1000;
+        TransactionContext writer = new DummyTransactionContext(lockman, 0);
+        lockman.acquire(writer, table, LockType.X);
+
+        List<TransactionContext> readers = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        AtomicInteger resumed = new AtomicInteger(0);
+        for (int i = 1; i <= numWaiters; ++i) {
+            TransactionContext reader = new DummyTransactionContext(lockman, i);
+            CompletableFuture<Void> future = lockman.acquireAsync(reader, table, LockType.S);
+            future.thenRun(resumed::incrementAndGet);
+            readers.add(reader);
+            futures.add(future);
+        }
+        for (int i = 0; i < numWaiters; ++i) {
+            assertFalse(futures.get(i).isDone());
+            assertFalse(readers.get(i).getBlocked());
+        }
+        assertEquals(0, resumed.get());
+
+        lockman.release(writer, table);
+        for (int i = 0; i < numWaiters; ++i) {
+            assertTrue(futures.get(i).isDone());
+            assertEquals(LockType.S, lockman.getLockType(readers.get(i), table));
+        }
+        assertEquals(numWaiters, resumed.get());
+    }
+
+    @Test
+    public void testPromoteAsyncWaitsForReaders() {
+        TransactionContext t0 = new DummyTransactionContext(lockman, 0);
+        TransactionContext t1 = new DummyTransactionContext(lockman, 1);
+        lockman.acquire(t0, table, LockType.S);
+        lockman.acquire(t1, table, LockType.S);
+
+        CompletableFuture<Void> future = lockman.promoteAsync(t0, table, LockType.X);
+        assertFalse(future.isDone());
+        lockman.release(t1, table);
+        assertTrue(future.isDone());
+        assertEquals(LockType.X, lockman.getLockType(t0, table));
+    }
+
+    @Test
+    public void testAcquireAndReleaseAsync() {
+        TransactionContext t0 = new DummyTransactionContext(lockman, 0);
+        TransactionContext t1 = new DummyTransactionContext(lockman, 1);
+        lockman.acquire(t0, page, LockType.S);
+        lockman.acquire(t1, table, LockType.IX);
+
+        CompletableFuture<Void> future = lockman.acquireAndReleaseAsync(t0, table, LockType.S,
+                                         Collections.singletonList(page));
+        assertFalse(future.isDone());
+        assertEquals(LockType.S, lockman.getLockType(t0, page));
+
+        lockman.release(t1, table);
+        assertTrue(future.isDone());
+        assertEquals(LockType.S, lockman.getLockType(t0, table));
+        assertEquals(LockType.NL, lockman.getLockType(t0, page));
+    }
+
+    /**
+     * A request made asynchronously can still be picked as a deadlock victim, and its future
+     * then completes exceptionally.
+     */
+    @Test
+    public void testDeadlockVictim() {
+        DeterministicRunner runner = new DeterministicRunner(1);
+        detector = new DeadlockDetector(lockman, t -> 0L, Long.MAX_VALUE / 2, Long.MAX_VALUE / 2);
+        TransactionContext t0 = new DummyTransactionContext(lockman, 0);
+        TransactionContext t1 = new DummyTransactionContext(lockman, 1);
+        lockman.acquire(t0, table, LockType.X);
+        lockman.acquire(t1, page, LockType.X);
+        runner.run(0, () -> lockman.acquire(t0, page, LockType.X));
+        assertTrue(t0.getBlocked());
+
+        CompletableFuture<Void> future = lockman.acquireAsync(t1, table, LockType.X);
+        assertFalse(future.isDone());
+        assertEquals(Collections.singletonList(1L), detector.detect());
+        assertTrue(future.isCompletedExceptionally());
+        try {
+            future.join();
+            fail("future of a deadlock victim should complete exceptionally");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof DeadlockException);
+        }
+        assertEquals(LockType.NL, lockman.getLockType(t1, table));
+
+        // the victim rolls back, letting the other transaction through
+        lockman.release(t1, page);
+        runner.joinAll();
+        assertEquals(LockType.X, lockman.getLockType(t0, page));
+    }
+
+    @Test
+    public void testDummyLockManager() {
+        DummyLockManager dummy = new DummyLockManager();
+        TransactionContext t0 = new DummyTransactionContext(lockman, 0);
+        assertTrue(dummy.acquireAsync(t0, table, LockType.X).isDone());
+        assertTrue(dummy.promoteAsync(t0, table, LockType.X).isDone());
+        assertTrue(dummy.acquireAndReleaseAsync(t0, table, LockType.X,
+                                                Collections.singletonList(page)).isDone());
+    }
+}
@@ -0,0 +1,251 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.common.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestDeadlockDetector {
+    private LoggingLockManager lockman;
+    private TransactionContext[] transactions;
+    private ResourceName[] pages;
+    private DeadlockDetector detector;
+
+    // 5 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                5000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setUp() {
+        lockman = new LoggingLockManager();
+        transactions = new TransactionContext[8];
+        ResourceName table = new ResourceName(new ResourceName(new Pair<>("database", 0L)),
+                                              new Pair<>("table", 1L));
+        pages = new ResourceName[transactions.length];
+        for (int i = 0; i < transactions.length; ++i) {
+            transactions[i] = new DummyTransactionContext(lockman, i);
+            pages[i] = new ResourceName(table, new Pair<>("page" + i, (long) i));
+        }
+    }
+
+    @After
+    public void cleanup() {
+        if (detector != null) {
+            detector.close();
+        }
+    }
+
+    /**
+     * Starts a detector that only runs when detect() is called.
+     */
+    private void startManualDetector(Map<Long, Long> costs) {
+        detector = new DeadlockDetector(lockman, t -> costs.getOrDefault(t, 0L),
+                                        Long.MAX_VALUE / 2, Long.MAX_VALUE / 2);
+    }
+
+    @Test
+    public void testTwoTransactionCycle() {
+        DeterministicRunner runner = new DeterministicRunner(2);
+        startManualDetector(Collections.emptyMap());
+        AtomicBoolean aborted = new AtomicBoolean(false);
+
+        runner.run(0, () -> lockman.acquire(transactions[0], pages[0], LockType.X));
+        runner.run(1, () -> lockman.acquire(transactions[1], pages[1], LockType.X));
+        runner.run(0, () -> lockman.acquire(transactions[0], pages[1], LockType.X));
+        runner.run(1, () -> {
+            try {
+                lockman.acquire(transactions[1], pages[0], LockType.X);
+            } catch (DeadlockException e) {
+                aborted.set(true);
+            }
+        });
+        assertTrue(transactions[0].getBlocked());
+        assertTrue(transactions[1].getBlocked());
+
+        // equal costs: the younger transaction is the victim
+        assertEquals(Collections.singletonList(1L), detector.detect());
+        runner.run(1, () -> {});
+        assertTrue(aborted.get());
+        assertFalse(transactions[1].getBlocked());
+        assertEquals(LockType.NL, lockman.getLockType(transactions[1], pages[0]));
+        assertEquals(1L, detector.getCyclesDetected());
+
+        // rolling back the victim lets the other transaction through
+        runner.run(1, () -> lockman.release(transactions[1], pages[1]));
+        assertFalse(transactions[0].getBlocked());
+        assertEquals(LockType.X, lockman.getLockType(transactions[0], pages[1]));
+
+        runner.joinAll();
+    }
+
+    @Test
+    public void testVictimIsCheapest() {
+        DeterministicRunner runner = new DeterministicRunner(3);
+        Map<Long, Long> costs = new HashMap<>();
+        costs.put(0L, 100L);
+        costs.put(1L, 5L);
+        costs.put(2L, 50L);
+        startManualDetector(costs);
+
+        // 0 -> 1 -> 2 -> 0
+        for (int i = 0; i < 3; ++i) {
+            int t = i;
+            runner.run(t, () -> lockman.acquire(transactions[t], pages[t], LockType.X));
+        }
+        Set<Integer> aborted = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 3; ++i) {
+            int t = i;
+            runner.run(t, () -> {
+                try {
+                    lockman.acquire(transactions[t], pages[(t + 1) % 3], LockType.S);
+                } catch (DeadlockException e) {
+                    aborted.add(t);
+                }
+            });
+        }
+
+        assertEquals(Collections.singletonList(1L), detector.detect());
+        runner.run(1, () -> {});
+        assertEquals(Collections.singleton(1), aborted);
+        assertTrue(transactions[0].getBlocked());
+        assertTrue(transactions[2].getBlocked());
+        // no cycle left
+        assertEquals(Collections.emptyList(), detector.detect());
+
+        runner.run(1, () -> lockman.release(transactions[1], pages[1]));
+        assertFalse(transactions[0].getBlocked());
+        runner.run(0, () -> {
+            lockman.release(transactions[0], pages[1]);
+            lockman.release(transactions[0], pages[0]);
+        });
+        assertFalse(transactions[2].getBlocked());
+
+        runner.joinAll();
+    }
+
+    /**
+     * Transactions waiting behind a lock that is not part of a cycle are left alone.
+     */
+    @Test
+    public void testNoCycle() {
+        DeterministicRunner runner = new DeterministicRunner(3);
+        startManualDetector(Collections.emptyMap());
+
+        runner.run(0, () -> lockman.acquire(transactions[0], pages[0], LockType.S));
+        runner.run(1, () -> lockman.acquire(transactions[1], pages[0], LockType.X));
+        runner.run(2, () -> lockman.acquire(transactions[2], pages[0], LockType.S));
+        assertTrue(transactions[1].getBlocked());
+        assertTrue(transactions[2].getBlocked());
+
+        assertEquals(Collections.emptyList(), detector.detect());
+        assertEquals(0L, detector.getCyclesDetected());
+
+        runner.run(0, () -> lockman.release(transactions[0], pages[0]));
+        runner.run(1, () -> lockman.release(transactions[1], pages[0]));
+        assertFalse(transactions[2].getBlocked());
+
+        runner.joinAll();
+    }
+
+    /**
+     * A transaction that starts waiting makes the detector run soon after, well before
+     * the next periodic check.
+     */
+    @Test
+    public void testLongWaitTriggersDetection() throws Exception {
+        DeterministicRunner runner = new DeterministicRunner(2);
+        detector = new DeadlockDetector(lockman, t -> 0L, Long.MAX_VALUE / 2, 10L);
+        AtomicInteger aborted = new AtomicInteger(0);
+
+        runner.run(0, () -> lockman.acquire(transactions[0], pages[0], LockType.X));
+        runner.run(1, () -> lockman.acquire(transactions[1], pages[1], LockType.X));
+        for (int i = 0; i < 2; ++i) {
+            int t = i;
+            runner.run(t, () -> {
+                try {
+                    lockman.acquire(transactions[t], pages[1 - t], LockType.X);
+                } catch (DeadlockException e) {
+                    aborted.incrementAndGet();
+                    lockman.release(transactions[t], pages[t]);
+                }
+            });
+        }
+
+        while (detector.getCyclesDetected() == 0) {
+            Thread.sleep(1);
+        }
+        runner.run(1, () -> {});
+        assertEquals(1, aborted.get());
+        assertFalse(transactions[0].getBlocked());
+        assertEquals(LockType.X, lockman.getLockType(transactions[0], pages[1]));
+
+        runner.joinAll();
+    }
+
+    /**
+     * Transactions locking two of a few pages each, in random order, deadlock often; every
+     * deadlock is broken, and every transaction eventually finishes.
+     */
+    @Test
+    public void testHighConflictWorkload() throws Exception {
+        detector = new DeadlockDetector(lockman, lockman::getNumLocks, 50L, 2L);
+        int numThreads = 8;
+        int transactionsPerThread = 50;
+        AtomicInteger retries = new AtomicInteger(0);
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        List<Future<?>> futures = new ArrayList<>();
+        AtomicInteger nextTransNum = new AtomicInteger(0);
+        for (int i = 0; i < numThreads; ++i) {
+            futures.add(pool.submit(() -> {
+                Random random = new Random(nextTransNum.get());
+                for (int j = 0; j < transactionsPerThread; ) {
+                    TransactionContext transaction = new DummyTransactionContext(lockman,
+                            nextTransNum.getAndIncrement());
+                    int first = random.nextInt(4);
+                    int second = (first + 1 + random.nextInt(3)) % 4;
+                    try {
+                        lockman.acquire(transaction, pages[first], LockType.X);
+                        Thread.yield();
+                        lockman.acquire(transaction, pages[second], LockType.X);
+                        ++j;
+                    } catch (DeadlockException e) {
+                        retries.incrementAndGet();
+                    }
+                    // commit or roll back
+                    List<Lock> locks = lockman.getLocks(transaction);
+                    Collections.reverse(locks);
+                    for (Lock lock : locks) {
+                        lockman.release(transaction, lock.name);
+                    }
+                }
+            }));
+        }
+        pool.shutdown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        assertTrue(detector.getCyclesDetected() > 0);
+        assertEquals(retries.get(), detector.getCyclesDetected());
+        for (ResourceName page : pages) {
+            assertEquals(Collections.emptyList(), lockman.getLocks(page));
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.common.Pair;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestDeadlockPrevention {
+    private LoggingLockManager lockman;
+    private TransactionContext[] transactions;
+    private ResourceName[] pages;
+    // transactions that got a DeadlockException
+    private Set<Integer> aborted;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setUp() {
+        lockman = new LoggingLockManager();
+        transactions = new TransactionContext[4];
+        ResourceName table = new ResourceName(new ResourceName(new Pair<>("database", 0L)),
+                                              new Pair<>("table", 1L));
+        pages = new ResourceName[transactions.length];
+        for (int i = 0; i < transactions.length; ++i) {
+            transactions[i] = new DummyTransactionContext(lockman, i);
+            pages[i] = new ResourceName(table, new Pair<>("page" + i, (long) i));
+        }
+        aborted = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Has transaction T acquire a LOCKTYPE lock on NAME on its thread of RUNNER, recording
+     * whether it is aborted.
+     */
+    private void acquire(DeterministicRunner runner, int t, ResourceName name, LockType lockType) {
+        runner.run(t, () -> {
+            try {
+                lockman.acquire(transactions[t], name, lockType);
+            } catch (DeadlockException e) {
+                aborted.add(t);
+            }
+        });
+    }
+
+    @Test
+    public void testWaitDieOlderWaits() {
+        lockman.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        DeterministicRunner runner = new DeterministicRunner(2);
+
+        acquire(runner, 1, pages[0], LockType.X);
+        acquire(runner, 0, pages[0], LockType.X);
+        assertTrue(transactions[0].getBlocked());
+
+        runner.run(1, () -> lockman.release(transactions[1], pages[0]));
+        assertFalse(transactions[0].getBlocked());
+        assertEquals(LockType.X, lockman.getLockType(transactions[0], pages[0]));
+        assertTrue(aborted.isEmpty());
+
+        runner.joinAll();
+    }
+
+    @Test
+    public void testWaitDieYoungerDies() {
+        lockman.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        DeterministicRunner runner = new DeterministicRunner(2);
+
+        acquire(runner, 0, pages[0], LockType.S);
+        acquire(runner, 1, pages[0], LockType.X);
+        assertEquals(Collections.singleton(1), aborted);
+        assertFalse(transactions[1].getBlocked());
+        assertEquals(LockType.NL, lockman.getLockType(transactions[1], pages[0]));
+        assertEquals(0, lockman.getWaitMetrics().getWaits());
+        assertEquals(1, lockman.getWaitMetrics().getPreventionAborts());
+
+        // compatible requests do not wait, so never die
+        acquire(runner, 1, pages[0], LockType.S);
+        assertEquals(LockType.S, lockman.getLockType(transactions[1], pages[0]));
+
+        runner.joinAll();
+    }
+
+    /**
+     * Of two transactions that would deadlock, the younger one dies when it would wait for
+     * the older, and the older one gets its lock once the younger is rolled back.
+     */
+    @Test
+    public void testWaitDieBreaksCycle() {
+        lockman.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        DeterministicRunner runner = new DeterministicRunner(2);
+
+        acquire(runner, 0, pages[0], LockType.X);
+        acquire(runner, 1, pages[1], LockType.X);
+        acquire(runner, 0, pages[1], LockType.X);
+        assertTrue(transactions[0].getBlocked());
+        acquire(runner, 1, pages[0], LockType.X);
+        assertEquals(Collections.singleton(1), aborted);
+        assertTrue(transactions[0].getBlocked());
+
+        runner.run(1, () -> lockman.release(transactions[1], pages[1]));
+        assertFalse(transactions[0].getBlocked());
+        assertEquals(LockType.X, lockman.getLockType(transactions[0], pages[1]));
+
+        runner.joinAll();
+    }
+
+    /**
+     * A lock granted ahead of the queue to an older transaction kills the younger ones
+     * waiting behind it.
+     */
+    @Test
+    public void testWaitDieGrantAheadOfQueue() {
+        lockman.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        DeterministicRunner runner = new DeterministicRunner(3);
+
+        acquire(runner, 0, pages[0], LockType.IS);
+        acquire(runner, 2, pages[0], LockType.S);
+        // waits for 2 only: IX is compatible with IS
+        acquire(runner, 1, pages[0], LockType.IX);
+        assertTrue(transactions[1].getBlocked());
+        assertTrue(aborted.isEmpty());
+
+        // S is compatible with the locks held, but not with the request of 1
+        runner.run(0, () -> lockman.promote(transactions[0], pages[0], LockType.S));
+        assertEquals(LockType.S, lockman.getLockType(transactions[0], pages[0]));
+        runner.run(1, () -> {});
+        assertEquals(Collections.singleton(1), aborted);
+        assertFalse(transactions[1].getBlocked());
+        assertEquals(1, lockman.getWaitMetrics().getCancelledWaits());
+
+        runner.joinAll();
+    }
+
+    @Test
+    public void testWoundWaitYoungerWaits() {
+        lockman.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        DeterministicRunner runner = new DeterministicRunner(2);
+
+        acquire(runner, 0, pages[0], LockType.X);
+        acquire(runner, 1, pages[0], LockType.X);
+        assertTrue(transactions[1].getBlocked());
+
+        runner.run(0, () -> lockman.release(transactions[0], pages[0]));
+        assertFalse(transactions[1].getBlocked());
+        assertEquals(LockType.X, lockman.getLockType(transactions[1], pages[0]));
+        assertTrue(aborted.isEmpty());
+
+        runner.joinAll();
+    }
+
+    /**
+     * Of two transactions that would deadlock, the older one wounds the younger, which is
+     * waiting, and so is aborted at once.
+     */
+    @Test
+    public void testWoundWaitBreaksCycle() {
+        lockman.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        DeterministicRunner runner = new DeterministicRunner(2);
+
+        acquire(runner, 0, pages[0], LockType.X);
+        acquire(runner, 1, pages[1], LockType.X);
+        acquire(runner, 1, pages[0], LockType.X);
+        assertTrue(transactions[1].getBlocked());
+        acquire(runner, 0, pages[1], LockType.X);
+        assertTrue(transactions[0].getBlocked());
+        runner.run(1, () -> {});
+        assertEquals(Collections.singleton(1), aborted);
+        assertFalse(transactions[1].getBlocked());
+        assertEquals(LockType.NL, lockman.getLockType(transactions[1], pages[0]));
+
+        runner.run(1, () -> lockman.release(transactions[1], pages[1]));
+        assertFalse(transactions[0].getBlocked());
+        assertEquals(LockType.X, lockman.getLockType(transactions[0], pages[1]));
+        assertEquals(1, lockman.getWaitMetrics().getPreventionAborts());
+
+        runner.joinAll();
+    }
+
+    /**
+     * A wounded transaction that is running goes on until it would wait for a lock, and is
+     * aborted then.
+     */
+    @Test
+    public void testWoundWaitRunningVictimAbortedAtNextWait() {
+        lockman.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        DeterministicRunner runner = new DeterministicRunner(3);
+
+        acquire(runner, 2, pages[2], LockType.X);
+        acquire(runner, 1, pages[1], LockType.X);
+        acquire(runner, 0, pages[1], LockType.X);
+        assertTrue(transactions[0].getBlocked());
+        assertTrue(aborted.isEmpty());
+
+        // locks granted at once are not affected
+        acquire(runner, 1, pages[0], LockType.X);
+        assertEquals(LockType.X, lockman.getLockType(transactions[1], pages[0]));
+        // 1 would wait for 2, which is younger, but is wounded
+        acquire(runner, 1, pages[2], LockType.S);
+        assertEquals(Collections.singleton(1), aborted);
+        assertFalse(transactions[1].getBlocked());
+
+        runner.run(1, () -> {
+            lockman.release(transactions[1], pages[1]);
+            lockman.release(transactions[1], pages[0]);
+        });
+        assertFalse(transactions[0].getBlocked());
+
+        runner.joinAll();
+    }
+
+    /**
+     * A wound lasts until the transaction ends.
+     */
+    @Test
+    public void testWoundClearedAtEnd() {
+        lockman.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        lockman.acquire(transactions[3], pages[3], LockType.X);
+        lockman.acquire(transactions[1], pages[1], LockType.X);
+        CompletableFuture<Void> older = lockman.acquireAsync(transactions[0], pages[1], LockType.X);
+        assertFalse(older.isDone());
+
+        CompletableFuture<Void> wounded = lockman.acquireAsync(transactions[1], pages[3], LockType.X);
+        assertTrue(wounded.isCompletedExceptionally());
+        lockman.release(transactions[1], pages[1]);
+        assertTrue(older.isDone());
+        lockman.end(transactions[1]);
+
+        assertFalse(lockman.acquireAsync(transactions[1], pages[3], LockType.X).isDone());
+    }
+
+    @Test
+    public void testDetectLetsAnyTransactionWait() {
+        assertEquals(DeadlockPolicy.DETECT, lockman.getDeadlockPolicy());
+        DeterministicRunner runner = new DeterministicRunner(2);
+
+        acquire(runner, 0, pages[0], LockType.X);
+        acquire(runner, 1, pages[1], LockType.X);
+        acquire(runner, 0, pages[1], LockType.X);
+        acquire(runner, 1, pages[0], LockType.X);
+        assertTrue(transactions[0].getBlocked());
+        assertTrue(transactions[1].getBlocked());
+        assertTrue(aborted.isEmpty());
+
+        // left to the deadlock detector
+        DeadlockDetector detector = new DeadlockDetector(lockman, t -> 0L, Long.MAX_VALUE / 2,
+                                                         Long.MAX_VALUE / 2);
+        try {
+            assertEquals(Collections.singletonList(1L), detector.detect());
+        } finally {
+            detector.close();
+        }
+        runner.run(1, () -> lockman.release(transactions[1], pages[1]));
+        assertEquals(Collections.singleton(1), aborted);
+        assertFalse(transactions[0].getBlocked());
+
+        runner.joinAll();
+    }
+}
@@ -0,0 +1,148 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestEscalationPolicy {
+    private LoggingLockManager lockManager;
+    private TransactionContext transaction;
+    private LockContext tableContext;
+    private LockContext[] pageContexts;
+
+    // 1 second per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                1000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setUp() {
+        lockManager = new LoggingLockManager();
+        transaction = new DummyTransactionContext(lockManager, 0);
+        tableContext = lockManager.databaseContext().childContext("table1", 1);
+        pageContexts = new LockContext[8];
+        for (int i = 0; i < pageContexts.length; ++i) {
+            pageContexts[i] = tableContext.childContext((long) i);
+        }
+        TransactionContext.setTransaction(transaction);
+    }
+
+    @After
+    public void cleanup() {
+        TransactionContext.unsetTransaction();
+    }
+
+    @Test
+    public void testNoPolicy() {
+        for (LockContext pageContext : pageContexts) {
+            LockUtil.ensureSufficientLockHeld(pageContext, LockType.S);
+        }
+        assertEquals(pageContexts.length, tableContext.getNumChildLocks(transaction));
+        assertEquals(0, lockManager.getEscalationMetrics().getEscalations());
+    }
+
+    @Test
+    public void testEscalateOnSaturation() {
+        tableContext.setEscalationPolicy(new EscalationPolicy(0.25, 8, 1000));
+        LockUtil.ensureSufficientLockHeld(pageContexts[0], LockType.S);
+        LockUtil.ensureSufficientLockHeld(pageContexts[1], LockType.S);
+
+        lockManager.startLog();
+        LockUtil.ensureSufficientLockHeld(pageContexts[2], LockType.S);
+        assertEquals(Collections.singletonList(
+                         "acquire-and-release 0 database/table1 S [database/table1, database/table1/0, database/table1/1]"
+                     ), lockManager.log);
+        assertEquals(0, tableContext.getNumChildLocks(transaction));
+
+        EscalationMetrics metrics = lockManager.getEscalationMetrics();
+        assertEquals(1, metrics.getEscalations());
+        assertEquals(1, metrics.getAutomaticEscalations());
+        assertEquals(2, metrics.getLocksReleased());
+    }
+
+    @Test
+    public void testNoSaturationBelowMinCapacity() {
+        tableContext.setEscalationPolicy(EscalationPolicy.DEFAULT);
+        for (LockContext pageContext : pageContexts) {
+            LockUtil.ensureSufficientLockHeld(pageContext, LockType.S);
+        }
+        assertEquals(pageContexts.length, tableContext.getNumChildLocks(transaction));
+        assertEquals(0, lockManager.getEscalationMetrics().getEscalations());
+    }
+
+    @Test
+    public void testEscalateOnMaxChildLocks() {
+        tableContext.capacity(1000);
+        tableContext.setEscalationPolicy(new EscalationPolicy(0.5, 10, 3));
+        LockUtil.ensureSufficientLockHeld(pageContexts[0], LockType.S);
+        LockUtil.ensureSufficientLockHeld(pageContexts[1], LockType.X);
+        LockUtil.ensureSufficientLockHeld(pageContexts[2], LockType.S);
+
+        lockManager.startLog();
+        LockUtil.ensureSufficientLockHeld(pageContexts[3], LockType.S);
+        assertEquals(Collections.singletonList(
+                         "acquire-and-release 0 database/table1 X [database/table1, database/table1/0, " +
+                         "database/table1/1, database/table1/2]"
+                     ), lockManager.log);
+        assertEquals(LockType.X, pageContexts[3].getEffectiveLockType(transaction));
+        assertEquals(3, lockManager.getEscalationMetrics().getLocksReleased());
+    }
+
+    @Test
+    public void testEscalateThenAcquire() {
+        tableContext.setEscalationPolicy(new EscalationPolicy(0.25, 8, 1000));
+        LockUtil.ensureSufficientLockHeld(pageContexts[0], LockType.S);
+        LockUtil.ensureSufficientLockHeld(pageContexts[1], LockType.S);
+
+        // the table is escalated to S, which is not enough to write the page
+        lockManager.startLog();
+        LockUtil.ensureSufficientLockHeld(pageContexts[2], LockType.X);
+        assertEquals(Arrays.asList(
+                         "acquire-and-release 0 database/table1 S [database/table1, database/table1/0, database/table1/1]",
+                         "promote 0 database IX",
+                         "acquire-and-release 0 database/table1 SIX [database/table1]",
+                         "acquire 0 database/table1/2 X"
+                     ), lockManager.log);
+        assertEquals(1, tableContext.getNumChildLocks(transaction));
+    }
+
+    @Test
+    public void testExplicitEscalation() {
+        LockUtil.ensureSufficientLockHeld(pageContexts[0], LockType.S);
+        tableContext.escalate(transaction);
+        EscalationMetrics metrics = lockManager.getEscalationMetrics();
+        assertEquals(1, metrics.getEscalations());
+        assertEquals(0, metrics.getAutomaticEscalations());
+        assertEquals(1.0, metrics.getMeanLocksReleased(), 1e-9);
+    }
+
+    @Test
+    public void testInvalidThresholds() {
+        try {
+            new EscalationPolicy(0.0, 10, 1000);
+            fail("saturation threshold of 0 should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new EscalationPolicy(0.2, 10, 0);
+            fail("lock threshold of 0 should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
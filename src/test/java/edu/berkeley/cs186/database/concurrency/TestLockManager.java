@@ -475,5 +475,108 @@ public class TestLockManager {
         runner.joinAll();
     }
 
-}
+    /**
+     * Intent locks on the database granted on the fast path are seen by a later S request,
+     * which waits for the IX lock to be released.
+     */
+    @Test
+    @Category(Proj99Tests.class)
+    public void testFastPathIntentLocksBlockStrongRequest() {
+        DeterministicRunner runner = new DeterministicRunner(3);
+
+        runner.run(0, () -> lockman.acquire(transactions[0], dbResource, LockType.IX));
+        runner.run(1, () -> lockman.acquire(transactions[1], dbResource, LockType.IS));
+        assertEquals(new HashSet<>(Arrays.asList(new Lock(dbResource, LockType.IX, 0L),
+                                   new Lock(dbResource, LockType.IS, 1L))),
+                     new HashSet<>(lockman.getLocks(dbResource)));
+
+        runner.run(2, () -> lockman.acquire(transactions[2], dbResource, LockType.S));
+        assertTrue(transactions[2].getBlocked());
+
+        runner.run(0, () -> lockman.release(transactions[0], dbResource));
+        assertFalse(transactions[2].getBlocked());
+        assertEquals(LockType.S, lockman.getLockType(transactions[2], dbResource));
+        assertEquals(LockType.IS, lockman.getLockType(transactions[1], dbResource));
+
+        runner.joinAll();
+    }
+
+    /**
+     * While an X request on a table waits, intent locks on it queue behind the X request
+     * instead of being granted on the fast path, and are granted on the fast path again
+     * once the X lock is released.
+     */
+    @Test
+    @Category(Proj99Tests.class)
+    public void testFastPathResumesAfterStrongLock() {
+        DeterministicRunner runner = new DeterministicRunner(4);
+
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.IS));
+        runner.run(1, () -> lockman.acquire(transactions[1], tables[0], LockType.X));
+        runner.run(2, () -> lockman.acquire(transactions[2], tables[0], LockType.IX));
+        assertTrue(transactions[1].getBlocked());
+        assertTrue(transactions[2].getBlocked());
+        assertEquals(Collections.singletonList(new Lock(tables[0], LockType.IS, 0L)),
+                     lockman.getLocks(tables[0]));
+
+        runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+        assertFalse(transactions[1].getBlocked());
+        assertTrue(transactions[2].getBlocked());
+
+        runner.run(1, () -> lockman.release(transactions[1], tables[0]));
+        assertFalse(transactions[2].getBlocked());
+        runner.run(3, () -> lockman.acquire(transactions[3], tables[0], LockType.IS));
+        runner.run(3, () -> lockman.promote(transactions[3], tables[0], LockType.IX));
+        assertEquals(LockType.IX, lockman.getLockType(transactions[3], tables[0]));
+        assertEquals(new HashSet<>(Arrays.asList(new Lock(tables[0], LockType.IX, 2L),
+                                   new Lock(tables[0], LockType.IX, 3L))),
+                     new HashSet<>(lockman.getLocks(tables[0])));
+
+        runner.run(2, () -> lockman.release(transactions[2], tables[0]));
+        runner.run(3, () -> lockman.release(transactions[3], tables[0]));
+        assertEquals(Collections.emptyList(), lockman.getLocks(tables[0]));
+
+        runner.joinAll();
+    }
 
+    /**
+     * Transactions moving shared locks between resources in different stripes, while
+     * contending for an exclusive lock on one resource, never deadlock on the stripes and
+     * leave the lock table empty.
+     */
+    @Test
+    @Category(Proj99Tests.class)
+    public void testConcurrentAcquireReleaseAcrossStripes() throws Exception {
+        lockman = new LoggingLockManager(4);
+        ResourceName hot = new ResourceName(dbResource, new Pair<>("hot", 100L));
+        ExecutorService pool = Executors.newFixedThreadPool(transactions.length);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < transactions.length; ++i) {
+            TransactionContext transaction = new DummyTransactionContext(lockman, i);
+            int first = i;
+            futures.add(pool.submit(() -> {
+                ResourceName held = tables[first];
+                lockman.acquire(transaction, held, LockType.S);
+                for (int j = 1; j <= 200; ++j) {
+                    ResourceName next = tables[(first + j) % tables.length];
+                    lockman.acquireAndRelease(transaction, next, LockType.S,
+                                              new ArrayList<>(Collections.singletonList(held)));
+                    held = next;
+                    lockman.acquire(transaction, hot, LockType.X);
+                    assertEquals(LockType.X, lockman.getLockType(transaction, hot));
+                    lockman.release(transaction, hot);
+                }
+                lockman.release(transaction, held);
+                assertEquals(Collections.emptyList(), lockman.getLocks(transaction));
+            }));
+        }
+        pool.shutdown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        assertEquals(Collections.emptyList(), lockman.getLocks(hot));
+        for (ResourceName table : tables) {
+            assertEquals(Collections.emptyList(), lockman.getLocks(table));
+        }
+    }
+}
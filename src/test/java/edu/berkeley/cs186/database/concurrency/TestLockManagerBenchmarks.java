@@ -0,0 +1,287 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.LatencyHistogram;
+import edu.berkeley.cs186.database.common.Pair;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Lock manager throughput benchmarks. These print their measurements rather than
+ * asserting on them; sizes can be changed with the system properties documented on each
+ * test.
+ */
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestLockManagerBenchmarks {
+    private static final int[] THREAD_COUNTS = new int[] {1, 2, 4, 8, 16, 32, 64};
+
+    // 10 minutes per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                600000 * TimeoutScaling.factor)));
+
+    /**
+     * Lock acquire/release pairs per second by number of threads, with one stripe (a
+     * single lock table lock) and the default number of stripes. Each thread runs
+     * benchmark.lockOps (default 20,000) pairs, taking S locks on resources picked at
+     * random from benchmark.lockResources (default 1024) pages, so requests rarely wait
+     * on each other, only on the lock table.
+     */
+    @Test
+    public void testThroughputByThreads() throws Exception {
+        int numOps = Integer.getInteger("benchmark.lockOps", 20000);
+        int numResources = Integer.getInteger("benchmark.lockResources", 1024);
+        ResourceName database = new ResourceName(new Pair<>("database", 0L));
+        ResourceName table = new ResourceName(database, new Pair<>("table", 1L));
+        ResourceName[] pages = new ResourceName[numResources];
+        for (int i = 0; i < numResources; ++i) {
+            pages[i] = new ResourceName(table, new Pair<>(Integer.toString(i), (long) i));
+        }
+
+        System.out.println("ops per thread: " + numOps + ", resources: " + numResources);
+        System.out.println("threads\t1 stripe (ops/s)\t" + LockManager.DEFAULT_NUM_STRIPES + " stripes (ops/s)");
+        for (int threads : THREAD_COUNTS) {
+            long single = measure(new LoggingLockManager(1), pages, threads, numOps);
+            long striped = measure(new LoggingLockManager(), pages, threads, numOps);
+            System.out.println(threads + "\t" + single + "\t" + striped);
+        }
+    }
+
+    /**
+     * Transactions per second by number of threads, with and without the intent lock fast
+     * path, where each transaction takes IX on the database, IX on one of 8 tables, and X
+     * on one of benchmark.lockResources (default 1024) pages of the table, then releases
+     * them. Each thread runs benchmark.lockOps (default 20,000) transactions.
+     */
+    @Test
+    public void testIntentLockThroughputByThreads() throws Exception {
+        int numOps = Integer.getInteger("benchmark.lockOps", 20000);
+        int numResources = Integer.getInteger("benchmark.lockResources", 1024);
+        ResourceName database = new ResourceName(new Pair<>("database", 0L));
+        ResourceName[] tables = new ResourceName[8];
+        ResourceName[][] pages = new ResourceName[tables.length][numResources];
+        for (int i = 0; i < tables.length; ++i) {
+            tables[i] = new ResourceName(database, new Pair<>("table" + i, (long) i + 1));
+            for (int j = 0; j < numResources; ++j) {
+                pages[i][j] = new ResourceName(tables[i], new Pair<>(Integer.toString(j), (long) j));
+            }
+        }
+
+        System.out.println("transactions per thread: " + numOps + ", pages per table: " + numResources);
+        System.out.println("threads\tqueued (txn/s)\tfast path (txn/s)");
+        for (int threads : THREAD_COUNTS) {
+            long[] results = new long[2];
+            for (int i = 0; i < 2; ++i) {
+                LoggingLockManager lockManager = new LoggingLockManager();
+                lockManager.setFastPathEnabled(i == 1);
+                results[i] = measure(lockManager, threads, numOps, (transaction, random) -> {
+                    int table = random.nextInt(tables.length);
+                    ResourceName page = pages[table][random.nextInt(numResources)];
+                    lockManager.acquire(transaction, database, LockType.IX);
+                    lockManager.acquire(transaction, tables[table], LockType.IX);
+                    lockManager.acquire(transaction, page, LockType.X);
+                    lockManager.release(transaction, page);
+                    lockManager.release(transaction, tables[table]);
+                    lockManager.release(transaction, database);
+                });
+            }
+            System.out.println(threads + "\t" + results[0] + "\t" + results[1]);
+        }
+    }
+
+    /**
+     * Committed transactions per second with two-phase locking and with an
+     * OptimisticLockManager, by the number of hot pages the transactions touch: the fewer
+     * pages, the more transactions conflict. Each transaction reads 4 pages and writes 1,
+     * picked at random from the hot pages of one table, through LockUtil as the database
+     * does. Under two-phase locking, pages are locked in page order, so that transactions
+     * do not deadlock; under optimistic concurrency control, only the written page is
+     * locked, and transactions that fail validation are counted as aborted (and not
+     * retried). Each of benchmark.occThreads (default 4) threads runs benchmark.lockOps
+     * (default 20,000) transactions.
+     */
+    @Test
+    public void testOptimisticThroughputByConflictRate() throws Exception {
+        int numOps = Integer.getInteger("benchmark.lockOps", 20000);
+        int numThreads = Integer.getInteger("benchmark.occThreads", 4);
+        int[] hotPageCounts = new int[] {4096, 256, 32, 8};
+
+        System.out.println("transactions per thread: " + numOps + ", threads: " + numThreads);
+        System.out.println("hot pages\t2PL (txn/s)\tOCC (txn/s)\tOCC aborted (%)");
+        for (int hotPages : hotPageCounts) {
+            long locking = measureTransactions(new LockManager(), hotPages, numThreads, numOps);
+            OptimisticLockManager optimistic = new OptimisticLockManager();
+            long occ = measureTransactions(optimistic, hotPages, numThreads, numOps);
+            double aborted = 100.0 * optimistic.getValidationFailures() / optimistic.getValidations();
+            System.out.println(hotPages + "\t" + locking + "\t" + occ + "\t" + String.format("%.1f", aborted));
+        }
+    }
+
+    /**
+     * Committed transactions per second, the share of transactions aborted, and the 99th
+     * percentile time to run a transaction (until it commits or aborts), by number of
+     * threads, with deadlocks detected (by a DeadlockDetector with its default intervals)
+     * and prevented by wait-die and by wound-wait. Each transaction takes X locks on 2 of
+     * benchmark.deadlockPages (default 8) pages, in random order, so that transactions
+     * often deadlock; aborted transactions are counted and not retried. Each transaction
+     * gets a new transaction number, so the oldest running transactions win conflicts.
+     * Each thread runs benchmark.deadlockTxns (default 1,000) transactions.
+     */
+    @Test
+    public void testDeadlockPolicyByThreads() throws Exception {
+        int numOps = Integer.getInteger("benchmark.deadlockTxns", 1000);
+        int numPages = Integer.getInteger("benchmark.deadlockPages", 8);
+        ResourceName table = new ResourceName(new ResourceName(new Pair<>("database", 0L)),
+                                              new Pair<>("table", 1L));
+        ResourceName[] pages = new ResourceName[numPages];
+        for (int i = 0; i < numPages; ++i) {
+            pages[i] = new ResourceName(table, new Pair<>(Integer.toString(i), (long) i));
+        }
+
+        System.out.println("transactions per thread: " + numOps + ", pages: " + numPages);
+        System.out.println("threads\tpolicy\tcommitted (txn/s)\taborted (%)\tp99 latency (us)");
+        for (int threads : new int[] {2, 4, 8}) {
+            for (DeadlockPolicy policy : DeadlockPolicy.values()) {
+                LockManager lockManager = new LockManager();
+                lockManager.setDeadlockPolicy(policy);
+                DeadlockDetector detector = new DeadlockDetector(lockManager);
+                LatencyHistogram latency = new LatencyHistogram();
+                LongAdder aborted = new LongAdder();
+                AtomicLong nextTransNum = new AtomicLong();
+                long perSecond;
+                try {
+                    perSecond = measure(lockManager, threads, numOps, (thread, random) -> {
+                        TransactionContext transaction = new DummyTransactionContext(
+                            lockManager, nextTransNum.incrementAndGet());
+                        int first = random.nextInt(numPages);
+                        int second = (first + 1 + random.nextInt(numPages - 1)) % numPages;
+                        long start = System.nanoTime();
+                        try {
+                            lockManager.acquire(transaction, pages[first], LockType.X);
+                            // let others take locks in between
+                            Thread.yield();
+                            lockManager.acquire(transaction, pages[second], LockType.X);
+                        } catch (DeadlockException e) {
+                            aborted.increment();
+                        } finally {
+                            for (Lock lock : new ArrayList<>(lockManager.getLocks(transaction))) {
+                                lockManager.release(transaction, lock.name);
+                            }
+                            lockManager.end(transaction);
+                        }
+                        latency.record(System.nanoTime() - start);
+                    });
+                } finally {
+                    detector.close();
+                }
+                double abortRate = (double) aborted.sum() / (threads * (long) numOps);
+                System.out.println(threads + "\t" + policy + "\t" + (long) (perSecond * (1.0 - abortRate)) +
+                                   "\t" + String.format("%.1f", 100.0 * abortRate) + "\t" +
+                                   latency.getPercentileMicros(99.0));
+            }
+        }
+    }
+
+    /**
+     * @return transactions per second over all threads, counting only those that commit,
+     * for transactions reading 4 and writing 1 of HOTPAGES pages
+     */
+    private static long measureTransactions(LockManager lockManager, int hotPages, int numThreads,
+                                            int numOps) throws Exception {
+        LockContext tableContext = lockManager.databaseContext().childContext("table", 1L);
+        LockContext[] pageContexts = new LockContext[hotPages];
+        for (int i = 0; i < hotPages; ++i) {
+            pageContexts[i] = tableContext.childContext((long) i);
+        }
+        OptimisticLockManager optimistic = lockManager instanceof OptimisticLockManager ?
+                                           (OptimisticLockManager) lockManager : null;
+        LongAdder aborted = new LongAdder();
+        long perSecond = measure(lockManager, numThreads, numOps, (transaction, random) -> {
+            TreeMap<Integer, LockType> pages = new TreeMap<>();
+            while (pages.size() < 4) {
+                pages.put(random.nextInt(hotPages), LockType.S);
+            }
+            pages.put(random.nextInt(hotPages), LockType.X);
+            TransactionContext.setTransaction(transaction);
+            try {
+                for (Map.Entry<Integer, LockType> page : pages.entrySet()) {
+                    LockUtil.ensureSufficientLockHeld(pageContexts[page.getKey()], page.getValue());
+                }
+                if (optimistic != null) {
+                    optimistic.validate(transaction);
+                }
+            } catch (ValidationException e) {
+                aborted.increment();
+            } finally {
+                TransactionContext.unsetTransaction();
+                List<Lock> locks = new ArrayList<>(lockManager.getLocks(transaction));
+                Collections.reverse(locks);
+                for (Lock lock : locks) {
+                    LockContext.fromResourceName(lockManager, lock.name).release(transaction);
+                }
+            }
+        });
+        return perSecond - (long) ((double) perSecond * aborted.sum() / (numThreads * (long) numOps));
+    }
+
+    /**
+     * @return acquire/release pairs per second over all threads
+     */
+    private static long measure(LoggingLockManager lockManager, ResourceName[] resources,
+                                int numThreads, int numOps) throws Exception {
+        return measure(lockManager, numThreads, numOps, (transaction, random) -> {
+            ResourceName name = resources[random.nextInt(resources.length)];
+            lockManager.acquire(transaction, name, LockType.S);
+            lockManager.release(transaction, name);
+        });
+    }
+
+    /**
+     * @return operations per second over all threads
+     */
+    private static long measure(LockManager lockManager, int numThreads, int numOps,
+                                BiConsumer<TransactionContext, ThreadLocalRandom> operation)
+    throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(numThreads + 1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; ++i) {
+            TransactionContext transaction = new DummyTransactionContext(lockManager, i);
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    barrier.await();
+                    for (int j = 0; j < numOps; ++j) {
+                        operation.accept(transaction, random);
+                    }
+                    barrier.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        barrier.await();
+        long start = System.nanoTime();
+        barrier.await();
+        long elapsed = System.nanoTime() - start;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return (long) ((double) numThreads * numOps * 1e9 / elapsed);
+    }
+}
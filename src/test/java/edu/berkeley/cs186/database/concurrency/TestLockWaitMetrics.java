@@ -0,0 +1,163 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.common.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestLockWaitMetrics {
+    private LockManager lockman;
+    private LockWaitMetrics metrics;
+    private ResourceName table;
+    private TransactionContext[] transactions;
+    private DeadlockDetector detector;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setUp() {
+        lockman = new LockManager();
+        metrics = lockman.getWaitMetrics();
+        table = new ResourceName(new ResourceName(new Pair<>("database", 0L)),
+                                 new Pair<>("table", 1L));
+        transactions = new TransactionContext[5];
+        for (int i = 0; i < transactions.length; ++i) {
+            transactions[i] = new DummyTransactionContext(lockman, i);
+        }
+    }
+
+    @After
+    public void cleanup() {
+        if (detector != null) {
+            detector.close();
+        }
+    }
+
+    private ResourceName page(long i) {
+        return new ResourceName(table, new Pair<>("page" + i, i));
+    }
+
+    @Test
+    public void testGrantedRequestsNotCounted() {
+        lockman.acquire(transactions[0], table, LockType.S);
+        lockman.acquire(transactions[1], table, LockType.IS);
+        lockman.release(transactions[1], table);
+        lockman.promote(transactions[0], table, LockType.X);
+        assertEquals(0, metrics.getWaits());
+        assertEquals(0, metrics.getTrackedResources());
+        assertTrue(metrics.getTopContendedResources().isEmpty());
+    }
+
+    @Test
+    public void testWaitsCountedByResource() {
+        lockman.acquire(transactions[0], table, LockType.X);
+        lockman.acquire(transactions[0], page(1), LockType.X);
+        for (int i = 1; i <= 3; ++i) {
+            assertFalse(lockman.acquireAsync(transactions[i], table, LockType.S).isDone());
+        }
+        assertFalse(lockman.acquireAsync(transactions[4], page(1), LockType.X).isDone());
+
+        assertEquals(4, metrics.getWaits());
+        assertEquals(4, metrics.getWaiting());
+        assertEquals(2, metrics.getTrackedResources());
+        List<LockWaitMetrics.ContendedResource> top = metrics.getTopContendedResources();
+        assertEquals(2, top.size());
+        assertEquals(table.toString(), top.get(0).getName());
+        assertEquals(3, top.get(0).getWaits());
+        assertEquals(3, top.get(0).getWaiting());
+        assertEquals(2.0, top.get(0).getMeanQueueLength(), 0.0);
+        assertEquals(3, top.get(0).getMaxQueueLength());
+        assertEquals(page(1).toString(), top.get(1).getName());
+        assertEquals(1, top.get(1).getWaits());
+        assertEquals(1, metrics.getTopContendedResources(1).size());
+
+        lockman.release(transactions[0], table);
+        assertEquals(1, metrics.getWaiting());
+        assertEquals(0, metrics.getTopContendedResources(1).get(0).getWaiting());
+        assertEquals(3, Arrays.stream(metrics.getWaitTimeHistogram()).sum());
+    }
+
+    @Test
+    public void testResourcesOrderedByTimeWaited() throws InterruptedException {
+        lockman.acquire(transactions[0], page(1), LockType.X);
+        lockman.acquire(transactions[0], page(2), LockType.X);
+        lockman.acquireAsync(transactions[1], page(1), LockType.X);
+        lockman.acquireAsync(transactions[2], page(2), LockType.X);
+        lockman.acquireAsync(transactions[3], page(2), LockType.S);
+        lockman.release(transactions[0], page(2));
+        Thread.sleep(20);
+        lockman.release(transactions[0], page(1));
+
+        // page 2 had more waits, but page 1 was waited for longer
+        List<LockWaitMetrics.ContendedResource> top = metrics.getTopContendedResources();
+        assertEquals(page(1).toString(), top.get(0).getName());
+        assertTrue(top.get(0).getTotalWaitMicros() >= 20000);
+        assertEquals(page(2).toString(), top.get(1).getName());
+        assertEquals(2, top.get(1).getWaits());
+        assertTrue(metrics.getWaitTimeMaxMicros() >= 20000);
+    }
+
+    @Test
+    public void testBlockedTimeByTransaction() throws InterruptedException {
+        lockman.acquire(transactions[0], table, LockType.X);
+        CompletableFuture<Void> future = lockman.acquireAsync(transactions[1], table, LockType.X);
+        Thread.sleep(20);
+        lockman.release(transactions[0], table);
+        assertTrue(future.isDone());
+
+        long blocked = metrics.getBlockedMicros(transactions[1]);
+        assertTrue(blocked >= 20000);
+        assertEquals(0, metrics.getBlockedMicros(transactions[0]));
+
+        lockman.end(transactions[0]);
+        lockman.end(transactions[1]);
+        assertEquals(0, metrics.getBlockedMicros(transactions[1]));
+        assertEquals(blocked, metrics.getTransactionBlockedMaxMicros());
+        assertEquals(blocked / 2.0, metrics.getTransactionBlockedMeanMicros(), 1.0);
+    }
+
+    @Test
+    public void testCancelledWaitsAndDeadlocks() {
+        detector = new DeadlockDetector(lockman, t -> 0L, Long.MAX_VALUE / 2, Long.MAX_VALUE / 2);
+        lockman.acquire(transactions[0], page(0), LockType.X);
+        lockman.acquire(transactions[1], page(1), LockType.X);
+        CompletableFuture<Void> first = lockman.acquireAsync(transactions[0], page(1), LockType.X);
+        CompletableFuture<Void> second = lockman.acquireAsync(transactions[1], page(0), LockType.X);
+
+        assertEquals(1, detector.detect().size());
+        assertTrue(first.isCompletedExceptionally() ^ second.isCompletedExceptionally());
+        assertEquals(2, metrics.getWaits());
+        assertEquals(1, metrics.getWaiting());
+        assertEquals(1, metrics.getCancelledWaits());
+        assertEquals(1, metrics.getDeadlockChecks());
+        assertEquals(1, metrics.getDeadlocksBroken());
+    }
+
+    @Test
+    public void testTrackedResourcesBounded() {
+        int numPages = LockWaitMetrics.MAX_TRACKED_RESOURCES + 10;
+        for (int i = 0; i < numPages; ++i) {
+            lockman.acquire(transactions[0], page(i), LockType.X);
+            lockman.acquireAsync(transactions[1], page(i), LockType.X);
+        }
+        assertEquals(numPages, metrics.getWaits());
+        assertEquals(LockWaitMetrics.MAX_TRACKED_RESOURCES, metrics.getTrackedResources());
+    }
+}
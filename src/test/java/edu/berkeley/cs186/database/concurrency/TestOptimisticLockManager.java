@@ -0,0 +1,187 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestOptimisticLockManager {
+    private OptimisticLockManager lockManager;
+    private TransactionContext[] transactions;
+    private LockContext tableContext;
+    private LockContext[] pageContexts;
+
+    // 1 second per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                1000 * TimeoutScaling.factor)));
+
+    @Before
+    public void setUp() {
+        lockManager = new OptimisticLockManager();
+        transactions = new TransactionContext[3];
+        for (int i = 0; i < transactions.length; ++i) {
+            transactions[i] = new DummyTransactionContext(lockManager, i);
+        }
+        tableContext = lockManager.databaseContext().childContext("table1", 1);
+        pageContexts = new LockContext[4];
+        for (int i = 0; i < pageContexts.length; ++i) {
+            pageContexts[i] = tableContext.childContext((long) i);
+        }
+    }
+
+    @After
+    public void cleanup() {
+        while (TransactionContext.getTransaction() != null) {
+            TransactionContext.unsetTransaction();
+        }
+    }
+
+    // runs LockUtil.ensureSufficientLockHeld(CONTEXT, LOCKTYPE) as transaction T
+    private void lock(int t, LockContext context, LockType lockType) {
+        TransactionContext.setTransaction(transactions[t]);
+        try {
+            LockUtil.ensureSufficientLockHeld(context, lockType);
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+    }
+
+    // releases the locks of transaction T, descendants first, as a transaction ending does
+    private void releaseAll(int t) {
+        List<Lock> locks = new ArrayList<>(lockManager.getLocks(transactions[t]));
+        locks.sort((a, b) -> Integer.compare(b.name.getNames().size(), a.name.getNames().size()));
+        for (Lock lock : locks) {
+            LockContext.fromResourceName(lockManager, lock.name).release(transactions[t]);
+        }
+    }
+
+    private void assertValidationFails(int t) {
+        try {
+            lockManager.validate(transactions[t]);
+            fail("transaction " + t + " should fail validation");
+        } catch (ValidationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReadTakesNoLocks() {
+        lock(0, pageContexts[0], LockType.S);
+        lock(0, tableContext, LockType.S);
+        assertEquals(0, lockManager.getNumLocks());
+
+        lockManager.validate(transactions[0]);
+        assertEquals(1, lockManager.getValidations());
+        assertEquals(0, lockManager.getValidationFailures());
+    }
+
+    @Test
+    public void testWriteLocksAsUsual() {
+        lock(0, pageContexts[0], LockType.X);
+        assertEquals(LockType.X, lockManager.getLockType(transactions[0], pageContexts[0].getResourceName()));
+        assertEquals(LockType.IX, lockManager.getLockType(transactions[0], tableContext.getResourceName()));
+    }
+
+    @Test
+    public void testConcurrentWriterFailsValidation() {
+        lock(0, pageContexts[0], LockType.S);
+        lock(1, pageContexts[0], LockType.X);
+        assertValidationFails(0);
+        assertEquals(1, lockManager.getValidationFailures());
+    }
+
+    @Test
+    public void testCommittedWriterFailsValidation() {
+        lock(0, pageContexts[0], LockType.S);
+        lock(1, pageContexts[0], LockType.X);
+        lockManager.validate(transactions[1]);
+        releaseAll(1);
+        assertValidationFails(0);
+    }
+
+    @Test
+    public void testWriterBeforeReadPassesValidation() {
+        lock(1, pageContexts[0], LockType.X);
+        releaseAll(1);
+        lock(0, pageContexts[0], LockType.S);
+        lockManager.validate(transactions[0]);
+    }
+
+    @Test
+    public void testWriterOfOtherPagePassesValidation() {
+        lock(0, pageContexts[0], LockType.S);
+        lock(1, pageContexts[1], LockType.X);
+        lockManager.validate(transactions[0]);
+
+        lock(2, pageContexts[2], LockType.S);
+        releaseAll(1);
+        lockManager.validate(transactions[2]);
+    }
+
+    @Test
+    public void testTableReadSeesPageWrites() {
+        lock(0, tableContext, LockType.S);
+        lock(1, pageContexts[1], LockType.X);
+        assertValidationFails(0);
+
+        lock(2, tableContext, LockType.S);
+        releaseAll(1);
+        assertValidationFails(2);
+    }
+
+    @Test
+    public void testPageReadSeesTableWrites() {
+        lock(0, pageContexts[0], LockType.S);
+        lock(1, tableContext, LockType.X);
+        assertValidationFails(0);
+
+        lock(2, pageContexts[1], LockType.S);
+        releaseAll(1);
+        assertValidationFails(2);
+    }
+
+    @Test
+    public void testOwnWritesPassValidation() {
+        lock(0, pageContexts[0], LockType.S);
+        lock(0, pageContexts[0], LockType.X);
+        lock(0, pageContexts[1], LockType.X);
+        lock(0, tableContext, LockType.S);
+        // escalation releases the page locks, which counts writes to them
+        tableContext.escalate(transactions[0]);
+        assertEquals(LockType.X, lockManager.getLockType(transactions[0], tableContext.getResourceName()));
+        lockManager.validate(transactions[0]);
+    }
+
+    @Test
+    public void testOverwriteFailsValidation() {
+        // a write over another transaction's committed write made since the read
+        lock(0, pageContexts[0], LockType.S);
+        lock(1, pageContexts[0], LockType.X);
+        releaseAll(1);
+        lock(0, pageContexts[0], LockType.X);
+        assertValidationFails(0);
+    }
+
+    @Test
+    public void testEndForgetsReads() {
+        lock(0, pageContexts[0], LockType.S);
+        lockManager.end(transactions[0]);
+        lock(1, pageContexts[0], LockType.X);
+        lockManager.validate(transactions[0]);
+        assertEquals(0, lockManager.getValidations());
+    }
+}
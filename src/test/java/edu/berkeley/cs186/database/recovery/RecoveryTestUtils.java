@@ -0,0 +1,124 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferManagerImpl;
+import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.stream.Stream;
+
+/**
+ * Fixtures shared by the recovery tests: a recovery manager over a directory, with
+ * partition 1 holding the pages the tests change.
+ */
+final class RecoveryTestUtils {
+    // Pages allocated in partition 1 of a new directory, by default.
+    static final int NUM_PAGES = 10;
+
+    // Buffer frames, by default.
+    static final int BUFFER_FRAMES = 32;
+
+    private RecoveryTestUtils() {}
+
+    /**
+     * Loads the recovery manager from disk.
+     * @param dir testDir
+     * @return recovery manager, loaded from disk
+     */
+    static ARIESRecoveryManager loadRecoveryManager(String dir) {
+        return loadRecoveryManager(dir, NUM_PAGES);
+    }
+
+    /**
+     * Loads the recovery manager from disk, allocating numPages pages in partition 1 if
+     * the directory is new.
+     */
+    static ARIESRecoveryManager loadRecoveryManager(String dir, int numPages) {
+        ARIESRecoveryManager recoveryManager = newRecoveryManager();
+        return loadRecoveryManager(recoveryManager, new DiskSpaceManagerImpl(dir, recoveryManager),
+                                   BUFFER_FRAMES, numPages);
+    }
+
+    /**
+     * @return a recovery manager that takes no locks, to be loaded with loadRecoveryManager
+     */
+    static ARIESRecoveryManager newRecoveryManager() {
+        return new ARIESRecoveryManagerNoLocking(
+                   new DummyLockContext(new Pair<>("database", 0L)),
+                   DummyTransaction::create
+               );
+    }
+
+    /**
+     * Loads RECOVERYMANAGER from disk, through DISKSPACEMANAGER and a buffer of
+     * bufferFrames frames, allocating numPages pages in partition 1 if the directory is
+     * new.
+     */
+    static ARIESRecoveryManager loadRecoveryManager(ARIESRecoveryManager recoveryManager,
+            DiskSpaceManager diskSpaceManager, int bufferFrames, int numPages) {
+        BufferManager bufferManager = new BufferManagerImpl(diskSpaceManager, recoveryManager,
+                bufferFrames, new LRUEvictionPolicy());
+        boolean isLoaded = true;
+        try {
+            diskSpaceManager.allocPart(0);
+            diskSpaceManager.allocPart(1);
+            for (int i = 0; i < numPages; ++i) {
+                diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(1, i));
+            }
+            isLoaded = false;
+        } catch (IllegalStateException e) {
+            // already loaded
+        }
+        recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        if (!isLoaded) {
+            recoveryManager.initialize();
+        }
+        return recoveryManager;
+    }
+
+    /**
+     * Flushes everything to disk, but does not call RecoveryManager#shutdown. Similar
+     * to pulling the plug on the database at a time when no changes are in memory.
+     */
+    static void shutdownRecoveryManager(ARIESRecoveryManager recoveryManager) {
+        recoveryManager.logManager.close();
+        recoveryManager.bufferManager.evictAll();
+        recoveryManager.bufferManager.close();
+        recoveryManager.diskSpaceManager.close();
+        DummyTransaction.cleanupTransactions();
+    }
+
+    /**
+     * Copies the files of directory FROM into directory TO, such as to restart a copy of
+     * a database that was shut down.
+     */
+    static void copyDirectory(String from, String to) throws Exception {
+        Path source = Paths.get(from);
+        Path target = Paths.get(to);
+        try (Stream<Path> files = Files.list(source)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, target.resolve(file.getFileName()),
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * @return page number of the i-th page of partition 1
+     */
+    static long page(int i) {
+        return DiskSpaceManager.getVirtualPageNum(1, i);
+    }
+
+    /**
+     * @return the 4 bytes of VALUE
+     */
+    static byte[] intBytes(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+}
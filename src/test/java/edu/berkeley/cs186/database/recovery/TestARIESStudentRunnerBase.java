@@ -370,6 +370,11 @@ public abstract class TestARIESStudentRunnerBase {
             throw new UnsupportedOperationException("this method may not be used");
         }
 
+        @Override
+        public void pageFetchHook(long pageNum) {
+            throw new UnsupportedOperationException("this method may not be used");
+        }
+
         @Override
         public void diskIOHook(long pageNum) {
             throw new UnsupportedOperationException("this method may not be used");
@@ -381,6 +386,24 @@ public abstract class TestARIESStudentRunnerBase {
             throw new UnsupportedOperationException("this method may not be used");
         }
 
+        @Override
+        public long logPageWrites(long transNum, long pageNum, short[] pageOffsets, byte[][] before,
+                                  byte[][] after) {
+            throw new UnsupportedOperationException("this method may not be used");
+        }
+
+        @Override
+        public long logSlotInsert(long transNum, long pageNum, short bitIndex, short offset,
+                                  byte[] data) {
+            throw new UnsupportedOperationException("this method may not be used");
+        }
+
+        @Override
+        public long logSlotDelete(long transNum, long pageNum, short bitIndex, short offset,
+                                  byte[] data) {
+            throw new UnsupportedOperationException("this method may not be used");
+        }
+
         @Override
         public long logAllocPart(long transNum, int partNum) {
             throw new UnsupportedOperationException("this method may not be used");
@@ -484,6 +507,11 @@ public abstract class TestARIESStudentRunnerBase {
             inner.pageFlushHook(pageLSN);
         }
 
+        @Override
+        public void pageFetchHook(long pageNum) {
+            inner.pageFetchHook(pageNum);
+        }
+
         @Override
         public void diskIOHook(long pageNum) {
             inner.diskIOHook(pageNum);
@@ -495,6 +523,24 @@ public abstract class TestARIESStudentRunnerBase {
             return inner.logPageWrite(transNum, pageNum, pageOffset, before, after);
         }
 
+        @Override
+        public long logPageWrites(long transNum, long pageNum, short[] pageOffsets, byte[][] before,
+                                  byte[][] after) {
+            return inner.logPageWrites(transNum, pageNum, pageOffsets, before, after);
+        }
+
+        @Override
+        public long logSlotInsert(long transNum, long pageNum, short bitIndex, short offset,
+                                  byte[] data) {
+            return inner.logSlotInsert(transNum, pageNum, bitIndex, offset, data);
+        }
+
+        @Override
+        public long logSlotDelete(long transNum, long pageNum, short bitIndex, short offset,
+                                  byte[] data) {
+            return inner.logSlotDelete(transNum, pageNum, bitIndex, offset, data);
+        }
+
         @Override
         public long logAllocPart(long transNum, int partNum) {
             return inner.logAllocPart(transNum, partNum);
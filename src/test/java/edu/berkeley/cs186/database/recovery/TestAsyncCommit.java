@@ -0,0 +1,167 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.memory.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.copyDirectory;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.loadRecoveryManager;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.page;
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestAsyncCommit {
+    // long enough that the flusher never runs during a test unless asked to
+    private static final long NEVER_MILLIS = 3600L * 1000;
+
+    private String testDir;
+    private ARIESRecoveryManager recoveryManager;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        recoveryManager = loadRecoveryManager(testDir);
+        DummyTransaction.cleanupTransactions();
+        LogRecord.onRedoHandler(t -> {});
+    }
+
+    @After
+    public void cleanup() {
+        recoveryManager.close();
+    }
+
+    @Test
+    public void testCommitDoesNotFlush() {
+        recoveryManager.startLogFlusher(NEVER_MILLIS, 1024L * 1024);
+        recoveryManager.setAsyncCommit(true);
+        startTransaction(1L);
+        recoveryManager.logPageWrite(1L, page(0), (short) 0, new byte[4], new byte[] {1, 2, 3, 4});
+        long commitLSN = recoveryManager.commit(1L);
+        assertTrue(recoveryManager.logManager.getFlushedLSN() < commitLSN);
+        assertEquals(Transaction.Status.COMMITTING, DummyTransaction.create(1L).getStatus());
+
+        // stopping the flusher flushes the log
+        recoveryManager.stopLogFlusher();
+        assertTrue(recoveryManager.logManager.getFlushedLSN() >= commitLSN);
+    }
+
+    @Test
+    public void testSynchronousByDefault() {
+        // per-transaction opt in
+        recoveryManager.startLogFlusher(NEVER_MILLIS, 1024L * 1024);
+        startTransaction(1L);
+        startTransaction(2L);
+        recoveryManager.setAsyncCommit(2L, true);
+        long commitLSN2 = recoveryManager.commit(2L);
+        assertTrue(recoveryManager.logManager.getFlushedLSN() < commitLSN2);
+        long commitLSN1 = recoveryManager.commit(1L);
+        assertTrue(recoveryManager.logManager.getFlushedLSN() >= commitLSN1);
+
+        // without a flusher, async commit is synchronous
+        recoveryManager.stopLogFlusher();
+        recoveryManager.setAsyncCommit(true);
+        startTransaction(3L);
+        long commitLSN3 = recoveryManager.commit(3L);
+        assertTrue(recoveryManager.logManager.getFlushedLSN() >= commitLSN3);
+    }
+
+    @Test
+    public void testFlushedWithinDelay() throws Exception {
+        recoveryManager.startLogFlusher(20L, 1024L * 1024);
+        recoveryManager.setAsyncCommit(true);
+        startTransaction(1L);
+        long commitLSN = recoveryManager.commit(1L);
+        long start = System.currentTimeMillis();
+        while (recoveryManager.logManager.getFlushedLSN() < commitLSN) {
+            Thread.sleep(1);
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000L);
+    }
+
+    @Test
+    public void testUnflushedBytesBounded() {
+        recoveryManager.startLogFlusher(NEVER_MILLIS, 200L);
+        recoveryManager.setAsyncCommit(true);
+        startTransaction(1L);
+        startTransaction(2L);
+        long commitLSN1 = recoveryManager.commit(1L);
+        assertTrue(recoveryManager.logManager.getFlushedLSN() < commitLSN1);
+
+        for (int i = 0; i < 10; ++i) {
+            recoveryManager.logPageWrite(2L, page(0), (short) 0, new byte[20], new byte[20]);
+        }
+        assertTrue(recoveryManager.getUnflushedLogBytes() > 200L);
+        long commitLSN2 = recoveryManager.commit(2L);
+        assertTrue(recoveryManager.logManager.getFlushedLSN() >= commitLSN2);
+    }
+
+    /**
+     * Crashes (by copying the files on disk) after a synchronous and an asynchronous
+     * commit, before and after the flusher flushes the log: the asynchronous commit is
+     * lost in the first case only.
+     */
+    @Test
+    public void testCrashLosesOnlyUnflushedCommits() throws Exception {
+        recoveryManager.startLogFlusher(NEVER_MILLIS, 1024L * 1024);
+        startTransaction(1L);
+        startTransaction(2L);
+        recoveryManager.setAsyncCommit(2L, true);
+        recoveryManager.logPageWrite(1L, page(0), (short) 0, new byte[4], new byte[] {1, 1, 1, 1});
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+        recoveryManager.logPageWrite(2L, page(1), (short) 0, new byte[4], new byte[] {2, 2, 2, 2});
+        recoveryManager.commit(2L);
+        recoveryManager.end(2L);
+
+        String lostDir = tempFolder.newFolder("lost").getAbsolutePath();
+        copyDirectory(testDir, lostDir);
+        recoveryManager.stopLogFlusher();
+        String durableDir = tempFolder.newFolder("durable").getAbsolutePath();
+        copyDirectory(testDir, durableDir);
+
+        for (String dir : new String[] {lostDir, durableDir}) {
+            recoveryManager.close();
+            DummyTransaction.cleanupTransactions();
+            recoveryManager = loadRecoveryManager(dir);
+            recoveryManager.restart().run();
+            assertArrayEquals(new byte[] {1, 1, 1, 1}, read(page(0)));
+            byte[] expected = dir.equals(lostDir) ? new byte[4] : new byte[] {2, 2, 2, 2};
+            assertArrayEquals(expected, read(page(1)));
+        }
+    }
+
+    private void startTransaction(long transNum) {
+        recoveryManager.startTransaction(DummyTransaction.create(transNum));
+    }
+
+    private byte[] read(long pageNum) {
+        byte[] bytes = new byte[4];
+        Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            page.getBuffer().get(bytes);
+        } finally {
+            page.unpin();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,132 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.Iterator;
+
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.loadRecoveryManager;
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestCheckpointScheduler {
+    private String testDir;
+    private ARIESRecoveryManager recoveryManager;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        recoveryManager = loadRecoveryManager(testDir);
+        DummyTransaction.cleanupTransactions();
+        LogRecord.onRedoHandler(t -> {});
+    }
+
+    @After
+    public void cleanup() {
+        recoveryManager.close();
+    }
+
+    @Test
+    public void testCheckpointSnapshotsTables() {
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        long LSN = writeUpdate(1L, 10000000001L);
+
+        recoveryManager.checkpoint();
+
+        LogRecord masterRecord = recoveryManager.logManager.fetchLogRecord(0L);
+        long beginLSN = ((MasterLogRecord) masterRecord).lastCheckpointLSN;
+        Iterator<LogRecord> iter = recoveryManager.logManager.scanFrom(beginLSN);
+        assertEquals(LogType.BEGIN_CHECKPOINT, iter.next().getType());
+        LogRecord endRecord = iter.next();
+        assertEquals(LogType.END_CHECKPOINT, endRecord.getType());
+        assertEquals(LSN, (long) endRecord.getDirtyPageTable().get(10000000001L));
+        assertEquals(new Pair<>(Transaction.Status.RUNNING, LSN), endRecord.getTransactionTable().get(1L));
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testLogVolumeTrigger() throws Exception {
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        long initialCheckpointLSN = getMasterCheckpointLSN();
+
+        recoveryManager.enableBackgroundCheckpoints(4 * DiskSpaceManager.PAGE_SIZE, 0L);
+        while (recoveryManager.getLogBytesSinceCheckpoint() < 4 * DiskSpaceManager.PAGE_SIZE) {
+            writeUpdate(1L, 10000000001L);
+        }
+
+        while (getMasterCheckpointLSN() == initialCheckpointLSN) {
+            Thread.sleep(CheckpointScheduler.POLL_INTERVAL_MILLIS);
+        }
+        recoveryManager.disableBackgroundCheckpoints();
+        assertTrue(recoveryManager.getLogBytesSinceCheckpoint() < 4 * DiskSpaceManager.PAGE_SIZE);
+    }
+
+    @Test
+    public void testTimeTrigger() throws Exception {
+        long initialCheckpointLSN = getMasterCheckpointLSN();
+
+        recoveryManager.enableBackgroundCheckpoints(0L, 100L);
+        while (getMasterCheckpointLSN() == initialCheckpointLSN) {
+            Thread.sleep(CheckpointScheduler.POLL_INTERVAL_MILLIS);
+        }
+        recoveryManager.disableBackgroundCheckpoints();
+        assertTrue(getMasterCheckpointLSN() > initialCheckpointLSN);
+    }
+
+    @Test
+    public void testNoTriggerNoCheckpoint() throws Exception {
+        long initialCheckpointLSN = getMasterCheckpointLSN();
+
+        recoveryManager.enableBackgroundCheckpoints(1000L * DiskSpaceManager.PAGE_SIZE, 0L);
+        Thread.sleep(4 * CheckpointScheduler.POLL_INTERVAL_MILLIS);
+        recoveryManager.disableBackgroundCheckpoints();
+        assertEquals(initialCheckpointLSN, getMasterCheckpointLSN());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoTriggersEnabled() {
+        recoveryManager.enableBackgroundCheckpoints(0L, 0L);
+    }
+
+    /**
+     * Appends an update record for transNum on pageNum, updating the transaction table
+     * and DPT the way forward processing does.
+     */
+    private long writeUpdate(long transNum, long pageNum) {
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+        TransactionTableEntry entry = recoveryManager.transactionTable.get(transNum);
+        long LSN = recoveryManager.logManager.appendToLog(new UpdatePageLogRecord(transNum, pageNum,
+                   entry.lastLSN, (short) 0, before, after));
+        entry.lastLSN = LSN;
+        entry.touchedPages.add(pageNum);
+        recoveryManager.dirtyPageTable.putIfAbsent(pageNum, LSN);
+        return LSN;
+    }
+
+    private long getMasterCheckpointLSN() {
+        return ((MasterLogRecord) recoveryManager.logManager.fetchLogRecord(0L)).lastCheckpointLSN;
+    }
+}
@@ -0,0 +1,342 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.DummyLockManager;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.table.Record;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.copyDirectory;
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestHotStandby {
+    private static final String TABLE_NAME = "rows";
+
+    private String standbyDir;
+    private Database primary;
+    private Database standbyDb;
+    private HotStandby standby;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        String primaryDir = tempFolder.newFolder("primary").getAbsolutePath();
+        standbyDir = tempFolder.newFolder("standby").getAbsolutePath();
+        primary = new Database(primaryDir, 32, new DummyLockManager(), new ClockEvictionPolicy(), true);
+        primary.waitSetupFinished();
+        try (Transaction t = primary.beginTransaction()) {
+            t.createTable(TestUtils.createSchemaWithAllTypes(), TABLE_NAME);
+        }
+        standby = new HotStandby(new LoopbackLogSource(
+                                     (ARIESRecoveryManager) primary.getRecoveryManager()), 0L);
+        standbyDb = new Database(standbyDir, 32, standby);
+    }
+
+    @After
+    public void cleanup() {
+        if (standbyDb != null) {
+            standbyDb.close();
+        }
+        primary.close();
+    }
+
+    @Test
+    public void testStandbyServesCommittedRows() {
+        insert(primary, 0, 10);
+        assertEquals(Collections.emptySet(), readKeys(standbyDb));
+
+        standby.catchUp();
+        assertEquals(keys(0, 10), readKeys(standbyDb));
+        assertEquals(0L, standby.getApplyLagBytes());
+        assertEquals(0L, standby.getReplicationLagBytes());
+        assertEquals(0L, standby.getReplicationLagMillis());
+
+        insert(primary, 10, 20);
+        assertTrue(standby.getReplicationLagBytes() > 0);
+        standby.catchUp();
+        assertEquals(keys(0, 20), readKeys(standbyDb));
+        assertEquals(standby.getPrimaryFlushedLSN(), standby.getShippedLSN());
+    }
+
+    @Test
+    public void testStandbyStartsFromCopyOfPrimary() throws Exception {
+        insert(primary, 0, 10);
+        standbyDb.close();
+        standbyDb = null;
+
+        // a standby seeded from the primary's files applies the rest of the log on top
+        String copyDir = tempFolder.newFolder("copy").getAbsolutePath();
+        primary.getBufferManager().evictAll();
+        copyDirectory(getPrimaryDir(), copyDir);
+        insert(primary, 10, 20);
+
+        standby = new HotStandby(new LoopbackLogSource(
+                                     (ARIESRecoveryManager) primary.getRecoveryManager()), 0L);
+        standbyDb = new Database(copyDir, 32, standby);
+        assertEquals(keys(0, 20), readKeys(standbyDb));
+    }
+
+    /**
+     * Changes of a transaction in progress on the primary are not visible until it
+     * commits, but everything logged after them is applied.
+     */
+    @Test
+    public void testUncommittedChangesNotVisible() {
+        insert(primary, 0, 10);
+        Transaction inProgress = primary.beginTransaction();
+        insert(inProgress, 100, 110);
+        // commits flush the log, shipping the changes in progress too
+        insert(primary, 10, 20);
+
+        standby.catchUp();
+        assertEquals(keys(0, 20), readKeys(standbyDb));
+        assertEquals(0L, standby.getApplyLagBytes());
+
+        inProgress.commit();
+        standby.catchUp();
+        Set<Integer> expected = keys(0, 20);
+        expected.addAll(keys(100, 110));
+        assertEquals(expected, readKeys(standbyDb));
+        assertEquals(0L, standby.getApplyLagBytes());
+    }
+
+    /**
+     * The primary always has a transaction in progress: the standby still applies the
+     * log, showing the transactions committed, and not the ones rolled back. Each
+     * transaction writes its own table, as locking would have it on the primary.
+     */
+    @Test
+    public void testAppliesUnderOverlappingTransactions() throws Exception {
+        try (Transaction t = primary.beginTransaction()) {
+            for (int i = 1; i <= 3; ++i) {
+                t.createTable(TestUtils.createSchemaWithAllTypes(), TABLE_NAME + i);
+            }
+        }
+        standbyDb.close();
+        standby = new HotStandby(new LoopbackLogSource(
+                                     (ARIESRecoveryManager) primary.getRecoveryManager()), 0L);
+        standbyDb = new Database(tempFolder.newFolder("standby2").getAbsolutePath(), 32, standby);
+
+        Transaction t1 = primary.beginTransaction();
+        insert(t1, TABLE_NAME + 1, 100, 110);
+        Transaction t2 = primary.beginTransaction();
+        insert(t2, TABLE_NAME + 2, 200, 210);
+        insert(primary, 0, 10);
+        standby.catchUp();
+        long appliedLSN = standby.getAppliedLSN();
+        assertEquals(keys(0, 10), readKeys(standbyDb));
+        assertEquals(Collections.emptySet(), readKeys(standbyDb, TABLE_NAME + 1));
+        assertEquals(Collections.emptySet(), readKeys(standbyDb, TABLE_NAME + 2));
+
+        Transaction t3 = primary.beginTransaction();
+        insert(t3, TABLE_NAME + 3, 300, 310);
+        t1.commit();
+        standby.catchUp();
+        assertTrue(standby.getAppliedLSN() > appliedLSN);
+        appliedLSN = standby.getAppliedLSN();
+        assertEquals(keys(100, 110), readKeys(standbyDb, TABLE_NAME + 1));
+        assertEquals(Collections.emptySet(), readKeys(standbyDb, TABLE_NAME + 3));
+
+        t2.rollback();
+        insert(t3, TABLE_NAME + 3, 310, 320);
+        insert(primary, 10, 20);
+        standby.catchUp();
+        assertTrue(standby.getAppliedLSN() > appliedLSN);
+        assertEquals(keys(0, 20), readKeys(standbyDb));
+        assertEquals(Collections.emptySet(), readKeys(standbyDb, TABLE_NAME + 2));
+        assertEquals(Collections.emptySet(), readKeys(standbyDb, TABLE_NAME + 3));
+
+        t3.commit();
+        standby.catchUp();
+        assertEquals(keys(300, 320), readKeys(standbyDb, TABLE_NAME + 3));
+        assertEquals(0L, standby.getApplyLagBytes());
+    }
+
+    /**
+     * A standby reopened while changes of a transaction in progress on the primary are
+     * rolled back on its pages applies them again once the transaction commits.
+     */
+    @Test
+    public void testReopenedStandbyKeepsChangesInProgress() {
+        insert(primary, 0, 10);
+        Transaction inProgress = primary.beginTransaction();
+        insert(inProgress, 100, 110);
+        insert(primary, 10, 20);
+        standby.catchUp();
+        assertEquals(keys(0, 20), readKeys(standbyDb));
+        standbyDb.close();
+
+        inProgress.commit();
+        standby = new HotStandby(new LoopbackLogSource(
+                                     (ARIESRecoveryManager) primary.getRecoveryManager()), 0L);
+        standbyDb = new Database(standbyDir, 32, standby);
+        Set<Integer> expected = keys(0, 20);
+        expected.addAll(keys(100, 110));
+        assertEquals(expected, readKeys(standbyDb));
+    }
+
+    /**
+     * A transaction on the standby reads the same state throughout: the log is not
+     * applied while it runs, and applying gives up rather than hold up new transactions.
+     */
+    @Test
+    public void testReaderKeepsConsistentLSN() {
+        insert(primary, 0, 10);
+        standby.catchUp();
+        long appliedLSN = standby.getAppliedLSN();
+
+        Transaction reader = standbyDb.beginTransaction();
+        insert(primary, 10, 20);
+        assertEquals(appliedLSN, standby.catchUp());
+        assertTrue(standby.getApplyLagBytes() > 0);
+        assertEquals(keys(0, 10), readKeys(reader));
+        // not held up by the attempt to apply
+        assertEquals(keys(0, 10), readKeys(standbyDb));
+        reader.close();
+
+        standby.catchUp();
+        assertEquals(keys(0, 20), readKeys(standbyDb));
+        assertEquals(0L, standby.getApplyLagBytes());
+    }
+
+    @Test
+    public void testStandbyIsReadOnly() {
+        try (Transaction t = standbyDb.beginTransaction()) {
+            insert(t, 0, 1);
+            fail("a hot standby should reject writes");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBackgroundApplying() throws Exception {
+        standbyDb.close();
+        standby = new HotStandby(new LoopbackLogSource(
+                                     (ARIESRecoveryManager) primary.getRecoveryManager()), 1L);
+        standbyDb = new Database(tempFolder.newFolder("standby2").getAbsolutePath(), 32, standby);
+
+        insert(primary, 0, 10);
+        while (standby.getReplicationLagBytes() > 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(keys(0, 10), readKeys(standbyDb));
+    }
+
+    /**
+     * The primary fails with a transaction in progress. The standby is promoted, and
+     * reopened as a primary: the committed changes shipped to it are kept, the transaction
+     * in progress is rolled back, and it accepts writes.
+     */
+    @Test
+    public void testFailoverPromotesStandby() {
+        insert(primary, 0, 10);
+        Transaction inProgress = primary.beginTransaction();
+        insert(inProgress, 100, 110);
+        insert(primary, 10, 20);
+        standby.catchUp();
+        // never shipped
+        Transaction unshipped = primary.beginTransaction();
+        insert(unshipped, 200, 210);
+
+        long appliedLSN = standby.promote();
+        assertTrue(appliedLSN <= standby.getShippedLSN());
+        assertEquals(0L, standby.getApplyLagBytes());
+        standbyDb.close();
+        standbyDb = new Database(standbyDir, 32, new DummyLockManager(), new ClockEvictionPolicy(),
+                                 true);
+        standbyDb.waitSetupFinished();
+        standbyDb.waitAllTransactions();
+
+        assertEquals(keys(0, 20), readKeys(standbyDb));
+        insert(standbyDb, 20, 30);
+        assertEquals(keys(0, 30), readKeys(standbyDb));
+
+        inProgress.commit();
+        unshipped.commit();
+    }
+
+    private String getPrimaryDir() {
+        return tempFolder.getRoot().toPath().resolve("primary").toString();
+    }
+
+    private static Set<Integer> keys(int from, int to) {
+        Set<Integer> keys = new HashSet<>();
+        for (int i = from; i < to; ++i) {
+            keys.add(i);
+        }
+        return keys;
+    }
+
+    private static void insert(Database db, int from, int to) {
+        try (Transaction t = db.beginTransaction()) {
+            insert(t, from, to);
+        }
+    }
+
+    private static void insert(Transaction t, int from, int to) {
+        insert(t, TABLE_NAME, from, to);
+    }
+
+    private static void insert(Transaction t, String tableName, int from, int to) {
+        Record input = TestUtils.createRecordWithAllTypes();
+        for (int i = from; i < to; ++i) {
+            List<DataBox> values = new ArrayList<>(input.getValues());
+            values.set(1, new IntDataBox(i));
+            t.insert(tableName, values);
+        }
+    }
+
+    private static Set<Integer> readKeys(Database db) {
+        return readKeys(db, TABLE_NAME);
+    }
+
+    private static Set<Integer> readKeys(Database db, String tableName) {
+        try (Transaction t = db.beginTransaction()) {
+            return readKeys(t, tableName);
+        }
+    }
+
+    private static Set<Integer> readKeys(Transaction t) {
+        return readKeys(t, TABLE_NAME);
+    }
+
+    private static Set<Integer> readKeys(Transaction t, String tableName) {
+        Set<Integer> keys = new HashSet<>();
+        TransactionContext.setTransaction(t.getTransactionContext());
+        try {
+            Iterator<Record> iter = t.getTransactionContext().getRecordIterator(tableName);
+            while (iter.hasNext()) {
+                keys.add(iter.next().getValues().get(1).getInt());
+            }
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,223 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.intBytes;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.loadRecoveryManager;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.page;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.shutdownRecoveryManager;
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestInstantRestart {
+    private static final int NUM_PAGES = 10;
+
+    private String testDir;
+    private ARIESRecoveryManager recoveryManager;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        recoveryManager = loadRecoveryManager(testDir, NUM_PAGES);
+        DummyTransaction.cleanupTransactions();
+        LogRecord.onRedoHandler(t -> {});
+    }
+
+    @After
+    public void cleanup() {
+        LogRecord.onRedoHandler(t -> {});
+        recoveryManager.close();
+    }
+
+    @Test
+    public void testRestartReturnsBeforeRedo() throws Exception {
+        writeCommittedUpdates(100);
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir, NUM_PAGES);
+
+        List<LogRecord> redone = Collections.synchronizedList(new ArrayList<>());
+        LogRecord.onRedoHandler(redone::add);
+        recoveryManager.setInstantRestart(true);
+        Runnable undo = recoveryManager.restart();
+
+        // every page is correct when fetched, whether redone on demand or in the background
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            assertEquals(90 + i, readInt(page(i), 0));
+        }
+        recoveryManager.awaitRestartRedo();
+        undo.run();
+
+        InstantRedo redo = recoveryManager.getInstantRedo();
+        assertTrue(redo.isComplete());
+        assertEquals(NUM_PAGES, redo.getNumRecoveredOnDemand() + redo.getNumRecoveredInBackground());
+        assertEquals(100, redone.size());
+    }
+
+    @Test
+    public void testOnDemandRecovery() throws Exception {
+        Map<Long, List<Long>> chains = writeCommittedUpdates(30);
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir, NUM_PAGES);
+
+        List<Long> redone = new ArrayList<>();
+        LogRecord.onRedoHandler(record -> redone.add(record.getLSN()));
+        // not started: only on-demand recovery happens
+        InstantRedo redo = new InstantRedo(recoveryManager.logManager, chains, record -> {
+            record.redo(recoveryManager.diskSpaceManager, recoveryManager.bufferManager);
+        });
+
+        redo.recoverPage(page(3));
+        assertEquals(chains.get(page(3)), redone);
+        assertEquals(23, readInt(page(3), 0));
+        assertEquals(0, readInt(page(4), 0));
+        assertEquals(1, redo.getNumRecoveredOnDemand());
+
+        // already recovered
+        redo.recoverPage(page(3));
+        assertEquals(chains.get(page(3)).size(), redone.size());
+        assertEquals(1, redo.getNumRecoveredOnDemand());
+        assertFalse(redo.isComplete());
+
+        // page with no chain
+        redo.recoverPage(DiskSpaceManager.getVirtualPageNum(1, NUM_PAGES + 1));
+        assertEquals(1, redo.getNumRecoveredOnDemand());
+    }
+
+    @Test
+    public void testWritesAfterRestartKept() throws Exception {
+        writeCommittedUpdates(NUM_PAGES);
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir, NUM_PAGES);
+
+        recoveryManager.setInstantRestart(true);
+        Runnable undo = recoveryManager.restart();
+
+        // a write made after restart lands on top of the redone page
+        Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(), page(5), false);
+        try {
+            page.getBuffer().putInt(4, 12345);
+        } finally {
+            page.unpin();
+        }
+        recoveryManager.awaitRestartRedo();
+        undo.run();
+
+        assertEquals(5, readInt(page(5), 0));
+        assertEquals(12345, readInt(page(5), 4));
+    }
+
+    /**
+     * A page redone on demand when a transaction fetches it: the redo is not logged as a
+     * change by the transaction, so aborting the transaction keeps the committed value.
+     */
+    @Test
+    public void testOnDemandRedoNotLoggedByFetchingTransaction() throws Exception {
+        writeCommittedUpdates(NUM_PAGES);
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir, NUM_PAGES);
+
+        // hold the background thread on the first page it redoes (page 0), so that page 3
+        // is redone on demand
+        CountDownLatch backgroundHeld = new CountDownLatch(1);
+        LogRecord.onRedoHandler(record -> {
+            if (Thread.currentThread().getName().equals("instant-redo")) {
+                try {
+                    backgroundHeld.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        recoveryManager.setInstantRestart(true);
+        Runnable undo = recoveryManager.restart();
+
+        try {
+            Transaction transaction = DummyTransaction.create(42L);
+            recoveryManager.startTransaction(transaction);
+            TransactionContext.setTransaction(transaction.getTransactionContext());
+            try {
+                assertEquals(3, readInt(page(3), 0));
+            } finally {
+                TransactionContext.unsetTransaction();
+            }
+            assertEquals(1, recoveryManager.getInstantRedo().getNumRecoveredOnDemand());
+            recoveryManager.abort(42L);
+            recoveryManager.end(42L);
+            assertEquals(3, readInt(page(3), 0));
+        } finally {
+            backgroundHeld.countDown();
+        }
+        recoveryManager.awaitRestartRedo();
+        undo.run();
+        assertEquals(3, readInt(page(3), 0));
+    }
+
+    @Test
+    public void testRedoPassUnchangedByDefault() throws Exception {
+        writeCommittedUpdates(NUM_PAGES);
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir, NUM_PAGES);
+
+        List<LogRecord> redone = new ArrayList<>();
+        LogRecord.onRedoHandler(redone::add);
+        recoveryManager.restart().run();
+        assertEquals(NUM_PAGES, redone.size());
+        assertNull(recoveryManager.getInstantRedo());
+    }
+
+    /**
+     * Logs numUpdates updates (round robin over NUM_PAGES pages, each writing its index
+     * to offset 0) by transaction 1, which then commits and ends. Nothing is applied to
+     * the pages.
+     * @return page number -> LSNs of updates to the page
+     */
+    private Map<Long, List<Long>> writeCommittedUpdates(int numUpdates) {
+        LogManager logManager = recoveryManager.logManager;
+        Map<Long, List<Long>> chains = new HashMap<>();
+        long prevLSN = 0L;
+        for (int i = 0; i < numUpdates; ++i) {
+            long pageNum = page(i % NUM_PAGES);
+            prevLSN = logManager.appendToLog(new UpdatePageLogRecord(1L, pageNum, prevLSN, (short) 0,
+                                             new byte[4], intBytes(i)));
+            chains.computeIfAbsent(pageNum, p -> new ArrayList<>()).add(prevLSN);
+        }
+        prevLSN = logManager.appendToLog(new CommitTransactionLogRecord(1L, prevLSN));
+        logManager.appendToLog(new EndTransactionLogRecord(1L, prevLSN));
+        return chains;
+    }
+
+    private int readInt(long pageNum, int offset) {
+        Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            return page.getBuffer().getInt(offset);
+        } finally {
+            page.unpin();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.copyDirectory;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.loadRecoveryManager;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.page;
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestLogFormat {
+    private String testDir;
+    private ARIESRecoveryManager recoveryManager;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        recoveryManager = loadRecoveryManager(testDir);
+        DummyTransaction.cleanupTransactions();
+        LogRecord.onRedoHandler(t -> {});
+    }
+
+    @After
+    public void cleanup() {
+        recoveryManager.close();
+    }
+
+    @Test
+    public void testMasterRecordHasVersion() {
+        MasterLogRecord master = (MasterLogRecord) recoveryManager.logManager.fetchLogRecord(0L);
+        assertEquals(MasterLogRecord.LOG_FORMAT_VERSION, master.logFormatVersion);
+    }
+
+    /**
+     * Full page writes are logged as records spanning log pages, and are redone after a
+     * crash.
+     */
+    @Test
+    public void testRestartWithSpanningRecords() throws Exception {
+        recoveryManager.startTransaction(DummyTransaction.create(1L));
+        for (int i = 0; i < 3; ++i) {
+            byte[] after = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+            Arrays.fill(after, (byte) (i + 1));
+            recoveryManager.logPageWrite(1L, page(i), (short) 0,
+                                         new byte[BufferManager.EFFECTIVE_PAGE_SIZE], after);
+        }
+        recoveryManager.commit(1L);
+
+        String crashDir = tempFolder.newFolder("crash").getAbsolutePath();
+        copyDirectory(testDir, crashDir);
+        recoveryManager.close();
+        DummyTransaction.cleanupTransactions();
+        recoveryManager = loadRecoveryManager(crashDir);
+        recoveryManager.restart().run();
+
+        for (int i = 0; i < 3; ++i) {
+            byte[] expected = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+            Arrays.fill(expected, (byte) (i + 1));
+            assertArrayEquals(expected, read(page(i), BufferManager.EFFECTIVE_PAGE_SIZE));
+        }
+    }
+
+    /**
+     * A crash after only the first page of a spanning record reached disk leaves a record
+     * that is skipped when the log is read, along with the rest of its pages.
+     */
+    @Test
+    public void testPartiallyWrittenRecordSkipped() throws Exception {
+        recoveryManager.startTransaction(DummyTransaction.create(1L));
+        recoveryManager.logPageWrite(1L, page(0), (short) 0, new byte[4], new byte[] {1, 1, 1, 1});
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+
+        recoveryManager.startTransaction(DummyTransaction.create(2L));
+        byte[] after = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+        Arrays.fill(after, (byte) 2);
+        long tornLSN = recoveryManager.logPageWrite(2L, page(1), (short) 0,
+                       new byte[BufferManager.EFFECTIVE_PAGE_SIZE], after);
+        Page logPage = recoveryManager.bufferManager.fetchPage(new DummyLockContext(),
+                       LogManagerImpl.getLSNPage(tornLSN), true);
+        try {
+            logPage.flush();
+        } finally {
+            logPage.unpin();
+        }
+
+        String crashDir = tempFolder.newFolder("crash").getAbsolutePath();
+        copyDirectory(testDir, crashDir);
+        recoveryManager.close();
+        DummyTransaction.cleanupTransactions();
+        recoveryManager = loadRecoveryManager(crashDir);
+        recoveryManager.restart().run();
+
+        LogManager logManager = recoveryManager.logManager;
+        assertNull(logManager.fetchLogRecord(tornLSN));
+        assertArrayEquals(new byte[] {1, 1, 1, 1}, read(page(0), 4));
+        assertArrayEquals(new byte[4], read(page(1), 4));
+
+        // records written after the restart are found by a scan past the skipped record
+        recoveryManager.startTransaction(DummyTransaction.create(3L));
+        long LSN = recoveryManager.logPageWrite(3L, page(2), (short) 0, new byte[4],
+                                                new byte[] {3, 3, 3, 3});
+        boolean found = false;
+        for (LogRecord record : logManager) {
+            assertNotEquals(tornLSN, record.getLSN());
+            found |= record.getLSN() == LSN;
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void testOtherLogFormatRejected() throws Exception {
+        MasterLogRecord master = (MasterLogRecord) recoveryManager.logManager.fetchLogRecord(0L);
+        recoveryManager.logManager.rewriteMasterRecord(new MasterLogRecord(master.lastCheckpointLSN,
+                MasterLogRecord.LOG_FORMAT_VERSION + 1));
+
+        // closing would checkpoint, rewriting the master record
+        String crashDir = tempFolder.newFolder("crash").getAbsolutePath();
+        copyDirectory(testDir, crashDir);
+        recoveryManager.close();
+        DummyTransaction.cleanupTransactions();
+        recoveryManager = loadRecoveryManager(crashDir);
+        try {
+            recoveryManager.restart();
+            fail("restart should reject a log in another format");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private byte[] read(long pageNum, int length) {
+        byte[] bytes = new byte[length];
+        Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            page.getBuffer().get(bytes);
+        } finally {
+            page.unpin();
+        }
+        return bytes;
+    }
+}
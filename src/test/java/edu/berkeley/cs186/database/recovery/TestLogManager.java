@@ -18,6 +18,7 @@ import java.util.Iterator;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @Category(SystemTests.class)
 public class TestLogManager {
@@ -71,25 +72,86 @@ public class TestLogManager {
 
     @Test
     public void testFlushedLSN() {
-        logManager.appendToLog(new MasterLogRecord(1234));
-        logManager.flushToLSN(9999);
+        long LSN = logManager.appendToLog(new MasterLogRecord(1234));
+        logManager.flushToLSN(LSN);
 
-        assertEquals(9999, logManager.getFlushedLSN());
+        assertEquals(LogManagerImpl.maxLSN(0L), logManager.getFlushedLSN());
     }
 
     @Test
     public void testMultiPageScan() {
+        long[] LSNs = new long[10000];
+        int firstOnPage9 = -1;
         for (int i = 0; i < 10000; ++i) {
-            logManager.appendToLog(new MasterLogRecord(i));
+            LSNs[i] = logManager.appendToLog(new MasterLogRecord(i));
+            if (firstOnPage9 == -1 && LogManagerImpl.getLSNPage(LSNs[i]) == 9) {
+                firstOnPage9 = i;
+            }
         }
 
-        Iterator<LogRecord> iter = logManager.scanFrom(90000);
-        for (int i = 9 * (DiskSpaceManager.PAGE_SIZE / 9); i < 10000; ++i) {
-            assertEquals(new MasterLogRecord(i), iter.next());
+        Iterator<LogRecord> iter = logManager.scanFrom(LSNs[firstOnPage9]);
+        for (int i = firstOnPage9; i < 10000; ++i) {
+            LogRecord record = iter.next();
+            assertEquals(new MasterLogRecord(i), record);
+            assertEquals(LSNs[i], record.getLSN());
         }
         assertFalse(iter.hasNext());
     }
 
+    @Test
+    public void testRecordsSpanPages() {
+        byte[] image = new byte[3 * DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < image.length; ++i) {
+            image[i] = (byte) i;
+        }
+        LogRecord small = new MasterLogRecord(1);
+        LogRecord large = new UpdatePageLogRecord(1L, 10000000001L, 0L, (short) 0, image, image);
+
+        long firstLSN = logManager.appendToLog(small);
+        long largeLSN = logManager.appendToLog(large);
+        long lastLSN = logManager.appendToLog(small);
+
+        // packed densely: the large record starts right after the first and runs over
+        // several pages, followed directly by the last
+        assertEquals(firstLSN + small.toBytes().length, largeLSN);
+        int bytes = small.toBytes().length + large.toBytes().length;
+        int pagesSpanned = (bytes - 1) / LogManagerImpl.LOG_PAGE_DATA_SIZE;
+        assertEquals(firstLSN + bytes + pagesSpanned * LogManagerImpl.LOG_PAGE_TRAILER_SIZE, lastLSN);
+
+        assertEquals(large, logManager.fetchLogRecord(largeLSN));
+        Iterator<LogRecord> iter = logManager.iterator();
+        assertEquals(small, iter.next());
+        assertEquals(large, iter.next());
+        assertEquals(small, iter.next());
+        assertFalse(iter.hasNext());
+
+        // scanning from a page the large record continues on finds the record after it
+        iter = logManager.scanFrom(LogManagerImpl.makeLSN(LogManagerImpl.getLSNPage(lastLSN), 0));
+        assertEquals(lastLSN, iter.next().getLSN());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testFlushIncludesContinuation() {
+        byte[] image = new byte[DiskSpaceManager.PAGE_SIZE / 2];
+        long LSN = logManager.appendToLog(new UpdatePageLogRecord(1L, 10000000001L, 0L, (short) 0,
+                                          image, image));
+        long nextLSN = logManager.appendToLog(new MasterLogRecord(1));
+        long lastLSN = logManager.appendToLog(new UpdatePageLogRecord(1L, 10000000001L, 0L, (short) 0,
+                                              image, image));
+
+        // the first record continues on page 1, where the last record starts and continues
+        // on page 2, so the last record is not yet flushed
+        long prevIO = bufferManager.getNumIOs();
+        logManager.flushToLSN(LSN);
+        assertEquals(2, bufferManager.getNumIOs() - prevIO);
+        assertEquals(lastLSN - 1, logManager.getFlushedLSN());
+        assertTrue(logManager.getFlushedLSN() >= nextLSN);
+
+        logManager.flushToLSN(lastLSN);
+        assertEquals(LogManagerImpl.maxLSN(2L), logManager.getFlushedLSN());
+    }
+
     @Test
     public void testRewriteMasterRecord() {
         for (int i = 0; i < 1000; ++i) {
@@ -116,17 +178,17 @@ public class TestLogManager {
         p.unpin();
         p.flush();
         long prevIO = bufferManager.getNumIOs();
-        logManager.flushToLSN(20001);
+        logManager.flushToLSN(LogManagerImpl.makeLSN(2L, 1));
         long postIO = bufferManager.getNumIOs();
         assertEquals(3, postIO - prevIO);
 
         prevIO = bufferManager.getNumIOs();
-        logManager.flushToLSN(50001);
+        logManager.flushToLSN(LogManagerImpl.makeLSN(5L, 1));
         postIO = bufferManager.getNumIOs();
         assertEquals(2, postIO - prevIO);
 
         prevIO = bufferManager.getNumIOs();
-        logManager.flushToLSN(50055);
+        logManager.flushToLSN(LogManagerImpl.makeLSN(5L, 55));
         postIO = bufferManager.getNumIOs();
         assertEquals(0, postIO - prevIO);
     }
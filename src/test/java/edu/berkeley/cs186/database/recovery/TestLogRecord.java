@@ -103,6 +103,55 @@ public class TestLogRecord {
                        pageString));
     }
 
+    @Test
+    public void testInsertSlotSerialize() {
+        checkSerialize(new InsertSlotLogRecord(-98765L, -43210L, -12345L, (short) 17, (short) 1234,
+                                               "zxcvb".getBytes()));
+    }
+
+    @Test
+    public void testDeleteSlotSerialize() {
+        checkSerialize(new DeleteSlotLogRecord(-98765L, -43210L, -12345L, (short) 17, (short) 1234,
+                                               "asdfg".getBytes()));
+    }
+
+    @Test
+    public void testUndoInsertSlotSerialize() {
+        checkSerialize(new UndoInsertSlotLogRecord(-98765L, -43210L, -12345L, -57812L, (short) 17,
+                       (short) 1234));
+    }
+
+    @Test
+    public void testUndoDeleteSlotSerialize() {
+        checkSerialize(new UndoDeleteSlotLogRecord(-98765L, -43210L, -12345L, -57812L, (short) 17,
+                       (short) 1234, "asdfg".getBytes()));
+    }
+
+    @Test
+    public void testUpdatePageDeltaSerialize() {
+        checkSerialize(new UpdatePageDeltaLogRecord(-98765L, -43210L, -12345L, (short) 1234, (short) 5,
+                       XorDelta.encode("asdfg".getBytes(), "zxcvb".getBytes())));
+    }
+
+    @Test
+    public void testUndoUpdatePageDeltaSerialize() {
+        checkSerialize(new UndoUpdatePageDeltaLogRecord(-98765L, -43210L, -12345L, -57812L,
+                       (short) 1234, (short) 5, XorDelta.encode("asdfg".getBytes(), "zxcvb".getBytes())));
+    }
+
+    @Test
+    public void testUpdatePageRangesSerialize() {
+        checkSerialize(new UpdatePageRangesLogRecord(-98765L, -43210L, -12345L, new short[] {0, 1234},
+                       new byte[][] {"asdfg".getBytes(), "q".getBytes()},
+                       new byte[][] {"zxcvb".getBytes(), "w".getBytes()}));
+    }
+
+    @Test
+    public void testUndoUpdatePageRangesSerialize() {
+        checkSerialize(new UndoUpdatePageRangesLogRecord(-98765L, -43210L, -12345L, -57812L,
+                       new short[] {0, 1234}, new byte[][] {"asdfg".getBytes(), "q".getBytes()}));
+    }
+
     @Test
     public void testBeginCheckpointSerialize() {
         checkSerialize(new BeginCheckpointLogRecord(92587213L));
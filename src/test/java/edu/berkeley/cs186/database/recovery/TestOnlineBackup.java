@@ -0,0 +1,204 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.DummyLockManager;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.table.Record;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestOnlineBackup {
+    private static final String TABLE_NAME = "rows";
+    private static final int BATCH_SIZE = 50;
+
+    private Database db;
+
+    // 5 seconds per test: each one restarts a database from its backup
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                5000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        db = openDatabase(tempFolder.newFolder("db").getAbsolutePath());
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(TestUtils.createSchemaWithAllTypes(), TABLE_NAME);
+        }
+    }
+
+    @After
+    public void cleanup() {
+        db.close();
+    }
+
+    /**
+     * Restoring a backup keeps the changes committed before it, and rolls back those in
+     * progress during it.
+     */
+    @Test
+    public void testRestoreRollsBackInProgress() throws Exception {
+        insert(db, 0, 1000);
+        // only some of the pages are on disk
+        Transaction inProgress = db.beginTransaction();
+        insert(inProgress, 1000, 1100);
+
+        String backupDir = new File(tempFolder.getRoot(), "backup").getAbsolutePath();
+        OnlineBackup backup = db.backup(backupDir, 0L);
+        assertTrue(backup.getCheckpointLSN() > 0);
+        assertTrue(backup.getEndLSN() >= backup.getCheckpointLSN());
+        assertTrue(backup.getBytesCopied() > 0);
+        insert(db, 2000, 2010);
+        inProgress.commit();
+
+        Database restored = openDatabase(backupDir);
+        try {
+            assertEquals(keys(0, 1000), readKeys(restored));
+        } finally {
+            restored.close();
+        }
+    }
+
+    /**
+     * A backup taken while transactions commit restores every transaction committed
+     * before it started, and the ones committed after in commit order, up to some point.
+     */
+    @Test
+    public void testBackupWhileWriting() throws Exception {
+        insert(db, 0, 500);
+        AtomicInteger batchesCommitted = new AtomicInteger(0);
+        AtomicBoolean done = new AtomicBoolean(false);
+        Thread writer = new Thread(() -> {
+            for (int batch = 0; !done.get(); ++batch) {
+                int from = 1000 + batch * BATCH_SIZE;
+                insert(db, from, from + BATCH_SIZE);
+                batchesCommitted.incrementAndGet();
+            }
+        });
+        writer.start();
+        while (batchesCommitted.get() < 2) {
+            Thread.sleep(1);
+        }
+
+        int committedBefore = batchesCommitted.get();
+        String backupDir = new File(tempFolder.getRoot(), "backup").getAbsolutePath();
+        OnlineBackup backup;
+        try {
+            backup = db.backup(backupDir, 100L * 4096);
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+        assertTrue(backup.getThrottledMillis() > 0);
+
+        Database restored = openDatabase(backupDir);
+        try {
+            Set<Integer> restoredKeys = readKeys(restored);
+            assertTrue(restoredKeys.containsAll(keys(0, 500)));
+            int numBatches = (restoredKeys.size() - 500) / BATCH_SIZE;
+            assertTrue(numBatches >= committedBefore);
+            Set<Integer> expected = keys(0, 500);
+            expected.addAll(keys(1000, 1000 + numBatches * BATCH_SIZE));
+            assertEquals(expected, restoredKeys);
+        } finally {
+            restored.close();
+        }
+    }
+
+    @Test
+    public void testBackupIsThrottled() throws Exception {
+        insert(db, 0, 1000);
+        String backupDir = new File(tempFolder.getRoot(), "backup").getAbsolutePath();
+        long maxBytesPerSecond = 200L * 4096;
+        long start = System.nanoTime();
+        OnlineBackup backup = db.backup(backupDir, maxBytesPerSecond);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // the first page is not waited for
+        double minSeconds = (double) (backup.getBytesCopied() - 4096) / maxBytesPerSecond;
+        assertTrue(seconds >= minSeconds);
+        assertTrue(backup.getThrottledMillis() > 0);
+    }
+
+    @Test
+    public void testBackupDirMustBeEmpty() throws Exception {
+        File backupDir = tempFolder.newFolder("backup");
+        assertTrue(new File(backupDir, "0").createNewFile());
+        try {
+            db.backup(backupDir.getAbsolutePath(), 0L);
+            fail("backing up into a directory with files in it should fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static Database openDatabase(String dir) {
+        Database db = new Database(dir, 32, new DummyLockManager(), new ClockEvictionPolicy(), true);
+        db.waitSetupFinished();
+        db.waitAllTransactions();
+        return db;
+    }
+
+    private static Set<Integer> keys(int from, int to) {
+        Set<Integer> keys = new HashSet<>();
+        for (int i = from; i < to; ++i) {
+            keys.add(i);
+        }
+        return keys;
+    }
+
+    private static void insert(Database db, int from, int to) {
+        try (Transaction t = db.beginTransaction()) {
+            insert(t, from, to);
+        }
+    }
+
+    private static void insert(Transaction t, int from, int to) {
+        Record input = TestUtils.createRecordWithAllTypes();
+        for (int i = from; i < to; ++i) {
+            List<DataBox> values = new ArrayList<>(input.getValues());
+            values.set(1, new IntDataBox(i));
+            t.insert(TABLE_NAME, values);
+        }
+    }
+
+    private static Set<Integer> readKeys(Database db) {
+        try (Transaction t = db.beginTransaction()) {
+            Set<Integer> keys = new HashSet<>();
+            TransactionContext.setTransaction(t.getTransactionContext());
+            try {
+                Iterator<Record> iter = t.getTransactionContext().getRecordIterator(TABLE_NAME);
+                while (iter.hasNext()) {
+                    keys.add(iter.next().getValues().get(1).getInt());
+                }
+            } finally {
+                TransactionContext.unsetTransaction();
+            }
+            return keys;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.memory.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.loadRecoveryManager;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.page;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.shutdownRecoveryManager;
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestPageWriteSession {
+    private String testDir;
+    private ARIESRecoveryManager recoveryManager;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        recoveryManager = loadRecoveryManager(testDir);
+        DummyTransaction.cleanupTransactions();
+        LogRecord.onRedoHandler(t -> {});
+    }
+
+    @After
+    public void cleanup() {
+        recoveryManager.close();
+    }
+
+    @Test
+    public void testWritesLoggedAtUnpin() {
+        Transaction transaction1 = startTransaction(1L);
+        long startLSN = recoveryManager.logManager.getLastLSN();
+
+        Page page = fetch(page(0));
+        TransactionContext.setTransaction(transaction1.getTransactionContext());
+        try {
+            page.getBuffer().position(0).put(new byte[] {1, 2, 3, 4});
+            page.getBuffer().position(200).put(new byte[] {5, 6});
+            page.getBuffer().position(1000).put(new byte[] {7});
+            // nothing logged while the page is pinned
+            assertTrue(getRecordsAfter(startLSN).isEmpty());
+        } finally {
+            TransactionContext.unsetTransaction();
+            page.unpin();
+        }
+
+        List<LogRecord> records = getRecordsAfter(startLSN);
+        assertEquals(1, records.size());
+        UpdatePageRangesLogRecord record = (UpdatePageRangesLogRecord) records.get(0);
+        assertEquals(Optional.of(1L), record.getTransNum());
+        assertArrayEquals(new short[] {0, 200, 1000}, record.offsets);
+        assertArrayEquals(new byte[][] {new byte[4], new byte[2], new byte[1]}, record.before);
+        assertArrayEquals(new byte[][] {{1, 2, 3, 4}, {5, 6}, {7}}, record.after);
+        assertEquals(record.getLSN(), getPageLSN(page(0)));
+        assertEquals(record.getLSN(), (long) recoveryManager.transactionTable.get(1L).lastLSN);
+    }
+
+    @Test
+    public void testRepeatedWritesMerged() {
+        Transaction transaction1 = startTransaction(1L);
+        long startLSN = recoveryManager.logManager.getLastLSN();
+
+        Page page = fetch(page(0));
+        TransactionContext.setTransaction(transaction1.getTransactionContext());
+        try {
+            page.getBuffer().position(0).put(new byte[] {1, 1, 1, 1});
+            page.getBuffer().position(2).put(new byte[] {2, 2, 2, 2});
+            // written and changed back: not logged
+            page.getBuffer().position(500).put(new byte[] {9, 9});
+            page.getBuffer().position(500).put(new byte[] {0, 0});
+        } finally {
+            TransactionContext.unsetTransaction();
+            page.unpin();
+        }
+
+        // a single range is logged as an ordinary update
+        List<LogRecord> records = getRecordsAfter(startLSN);
+        assertEquals(1, records.size());
+        UpdatePageLogRecord record = (UpdatePageLogRecord) records.get(0);
+        assertEquals(0, record.offset);
+        assertArrayEquals(new byte[6], record.before);
+        assertArrayEquals(new byte[] {1, 1, 2, 2, 2, 2}, record.after);
+    }
+
+    @Test
+    public void testSessionEndsOnTransactionChange() {
+        Transaction transaction1 = startTransaction(1L);
+        Transaction transaction2 = startTransaction(2L);
+        long startLSN = recoveryManager.logManager.getLastLSN();
+
+        Page page = fetch(page(0));
+        try {
+            write(transaction1, page, 0, new byte[] {1});
+            write(transaction2, page, 100, new byte[] {2});
+            // unlogged writes end the session too, and are not attributed to it
+            page.getBuffer().position(200).put(new byte[] {3});
+            write(transaction1, page, 300, new byte[] {4});
+        } finally {
+            page.unpin();
+        }
+
+        List<LogRecord> records = getRecordsAfter(startLSN);
+        assertEquals(3, records.size());
+        long[] transNums = new long[] {1L, 2L, 1L};
+        short[] offsets = new short[] {0, 100, 300};
+        for (int i = 0; i < 3; ++i) {
+            UpdatePageLogRecord record = (UpdatePageLogRecord) records.get(i);
+            assertEquals(Optional.of(transNums[i]), record.getTransNum());
+            assertEquals(offsets[i], record.offset);
+        }
+    }
+
+    @Test
+    public void testRollback() {
+        recoveryManager.setUndoCacheBytes(0L);
+        Transaction transaction1 = startTransaction(1L);
+        writeRanges(transaction1, page(0), (byte) 1);
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+
+        Transaction transaction2 = startTransaction(2L);
+        writeRanges(transaction2, page(0), (byte) 2);
+        long lastLSN = recoveryManager.transactionTable.get(2L).lastLSN;
+        recoveryManager.abort(2L);
+        recoveryManager.end(2L);
+
+        Iterator<LogRecord> iter = recoveryManager.logManager.scanFrom(lastLSN);
+        iter.next();
+        iter.next(); // abort
+        assertEquals(LogType.UNDO_UPDATE_PAGE_RANGES, iter.next().getType());
+        checkRanges(page(0), (byte) 1);
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        Transaction transaction1 = startTransaction(1L);
+        Transaction transaction2 = startTransaction(2L);
+        writeRanges(transaction1, page(0), (byte) 1);
+        writeRanges(transaction2, page(1), (byte) 2);
+        writeRanges(transaction1, page(2), (byte) 3);
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir);
+        recoveryManager.restart().run();
+
+        checkRanges(page(0), (byte) 1);
+        checkRanges(page(1), (byte) 0);
+        checkRanges(page(2), (byte) 3);
+    }
+
+    private static final int[] RANGE_OFFSETS = new int[] {0, 400, 800, 1200};
+
+    /**
+     * Writes value to 4 bytes at each of RANGE_OFFSETS, in one session.
+     */
+    private void writeRanges(Transaction transaction, long pageNum, byte value) {
+        Page page = fetch(pageNum);
+        try {
+            for (int offset : RANGE_OFFSETS) {
+                write(transaction, page, offset, new byte[] {value, value, value, value});
+            }
+        } finally {
+            page.unpin();
+        }
+    }
+
+    private void checkRanges(long pageNum, byte value) {
+        Page page = fetch(pageNum);
+        try {
+            for (int offset : RANGE_OFFSETS) {
+                byte[] bytes = new byte[4];
+                page.getBuffer().position(offset).get(bytes);
+                assertArrayEquals(new byte[] {value, value, value, value}, bytes);
+            }
+        } finally {
+            page.unpin();
+        }
+    }
+
+    private void write(Transaction transaction, Page page, int offset, byte[] bytes) {
+        TransactionContext.setTransaction(transaction.getTransactionContext());
+        try {
+            page.getBuffer().position(offset).put(bytes);
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+    }
+
+    private Transaction startTransaction(long transNum) {
+        Transaction transaction = DummyTransaction.create(transNum);
+        recoveryManager.startTransaction(transaction);
+        return transaction;
+    }
+
+    private Page fetch(long pageNum) {
+        return recoveryManager.bufferManager.fetchPage(new DummyLockContext(), pageNum, false);
+    }
+
+    private long getPageLSN(long pageNum) {
+        Page page = fetch(pageNum);
+        try {
+            return page.getPageLSN();
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * @return the log records after startLSN
+     */
+    private List<LogRecord> getRecordsAfter(long startLSN) {
+        List<LogRecord> records = new ArrayList<>();
+        Iterator<LogRecord> iter = recoveryManager.logManager.scanFrom(startLSN);
+        iter.next();
+        iter.forEachRemaining(records::add);
+        return records;
+    }
+}
@@ -0,0 +1,168 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.intBytes;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.loadRecoveryManager;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.shutdownRecoveryManager;
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestParallelRedo {
+    private static final int NUM_PAGES = 10;
+
+    private String testDir;
+    private ARIESRecoveryManager recoveryManager;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        recoveryManager = loadRecoveryManager(testDir, NUM_PAGES);
+        DummyTransaction.cleanupTransactions();
+        LogRecord.onRedoHandler(t -> {});
+    }
+
+    @After
+    public void cleanup() {
+        LogRecord.onRedoHandler(t -> {});
+        recoveryManager.close();
+    }
+
+    @Test
+    public void testParallelRedoMatchesSerial() throws Exception {
+        byte[][] serial = redoUpdates(1);
+        byte[][] parallel = redoUpdates(4);
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            assertArrayEquals(serial[i], parallel[i]);
+        }
+    }
+
+    @Test
+    public void testParallelRedoSkipsApplied() throws Exception {
+        LogManager logManager = recoveryManager.logManager;
+        long pageNum = DiskSpaceManager.getVirtualPageNum(1, 0);
+        long LSN1 = logManager.appendToLog(new UpdatePageLogRecord(1L, pageNum, 0L, (short) 0,
+                                           intBytes(0), intBytes(1)));
+        long LSN2 = logManager.appendToLog(new UpdatePageLogRecord(1L, pageNum, LSN1, (short) 0,
+                                           intBytes(1), intBytes(2)));
+
+        // first write reaches disk
+        logManager.fetchLogRecord(LSN1).redo(recoveryManager.diskSpaceManager,
+                                             recoveryManager.bufferManager);
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir, NUM_PAGES);
+
+        List<Long> redone = Collections.synchronizedList(new ArrayList<>());
+        LogRecord.onRedoHandler(record -> redone.add(record.getLSN()));
+        recoveryManager.dirtyPageTable.put(pageNum, LSN1);
+        recoveryManager.setRedoParallelism(4);
+        recoveryManager.restartRedo();
+
+        assertEquals(Collections.singletonList(LSN2), redone);
+        assertEquals(2, readInt(pageNum, 0));
+    }
+
+    @Test
+    public void testPartitionRecordIsBarrier() throws Exception {
+        LogManager logManager = recoveryManager.logManager;
+        List<Long> pageLSNs = new ArrayList<>();
+        long prevLSN = 0L;
+        for (int i = 0; i < 100; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, i % NUM_PAGES);
+            prevLSN = logManager.appendToLog(new UpdatePageLogRecord(1L, pageNum, prevLSN,
+                                             (short) 0, intBytes(i), intBytes(i + 1)));
+            pageLSNs.add(prevLSN);
+            recoveryManager.dirtyPageTable.putIfAbsent(pageNum, prevLSN);
+        }
+        long allocLSN = logManager.appendToLog(new AllocPartLogRecord(1L, 10, prevLSN));
+        shutdownRecoveryManager(recoveryManager);
+        Map<Long, Long> dirtyPageTable = new HashMap<>(recoveryManager.dirtyPageTable);
+        recoveryManager = loadRecoveryManager(testDir, NUM_PAGES);
+        recoveryManager.dirtyPageTable.putAll(dirtyPageTable);
+
+        List<Long> redone = Collections.synchronizedList(new ArrayList<>());
+        LogRecord.onRedoHandler(record -> redone.add(record.getLSN()));
+        recoveryManager.setRedoParallelism(4);
+        recoveryManager.restartRedo();
+
+        assertEquals(pageLSNs.size() + 1, redone.size());
+        assertEquals(allocLSN, (long) redone.get(redone.size() - 1));
+        assertEquals(new HashSet<>(pageLSNs), new HashSet<>(redone.subList(0, pageLSNs.size())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParallelism() {
+        recoveryManager.setRedoParallelism(0);
+    }
+
+    /**
+     * Writes a batch of updates over NUM_PAGES pages without applying them, then reloads
+     * and runs redo with the given parallelism.
+     * @return contents of the first 1000 bytes of each page after redo
+     */
+    private byte[][] redoUpdates(int parallelism) throws Exception {
+        recoveryManager.close();
+        testDir = tempFolder.newFolder().getAbsolutePath();
+        recoveryManager = loadRecoveryManager(testDir, NUM_PAGES);
+
+        LogManager logManager = recoveryManager.logManager;
+        long prevLSN = 0L;
+        Map<Long, Long> dirtyPageTable = new HashMap<>();
+        for (int i = 0; i < 2000; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, i % NUM_PAGES);
+            short offset = (short) (((i * 7) % 250) * 4);
+            prevLSN = logManager.appendToLog(new UpdatePageLogRecord(1L, pageNum, prevLSN, offset,
+                                             intBytes(0), intBytes(i)));
+            dirtyPageTable.putIfAbsent(pageNum, prevLSN);
+        }
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir, NUM_PAGES);
+        recoveryManager.dirtyPageTable.putAll(dirtyPageTable);
+        recoveryManager.setRedoParallelism(parallelism);
+        recoveryManager.restartRedo();
+
+        byte[][] contents = new byte[NUM_PAGES][1000];
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(),
+                        DiskSpaceManager.getVirtualPageNum(1, i), false);
+            try {
+                page.getBuffer().get(contents[i]);
+            } finally {
+                page.unpin();
+            }
+        }
+        return contents;
+    }
+
+    private int readInt(long pageNum, int offset) {
+        Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            return page.getBuffer().getInt(offset);
+        } finally {
+            page.unpin();
+        }
+    }
+}
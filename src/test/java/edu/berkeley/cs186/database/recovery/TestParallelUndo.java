@@ -0,0 +1,221 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.copyDirectory;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.loadRecoveryManager;
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestParallelUndo {
+    private static final int NUM_LOSERS = 40;
+
+    private String testDir;
+    private ARIESRecoveryManager recoveryManager;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        recoveryManager = loadRecoveryManager(testDir);
+        DummyTransaction.cleanupTransactions();
+        LogRecord.onRedoHandler(t -> {});
+    }
+
+    @After
+    public void cleanup() {
+        recoveryManager.close();
+    }
+
+    /**
+     * Losers writing to shared and separate pages, and one allocating a partition that
+     * another writes to, are rolled back to the same pages as by serial undo, and all end.
+     */
+    @Test
+    public void testParallelUndoMatchesSerialUndo() throws Exception {
+        writeLosers();
+
+        byte[][] serial = restartAndReadPages(1);
+        byte[][] parallel = restartAndReadPages(4);
+        for (int i = 0; i < serial.length; ++i) {
+            assertArrayEquals(serial[i], parallel[i]);
+        }
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(1, parallel[i][0]);
+            assertArrayEquals(new byte[4 * NUM_LOSERS], Arrays.copyOfRange(parallel[i], 4, 4 + 4 * NUM_LOSERS));
+        }
+    }
+
+    /**
+     * Each page lock of a loser is released once the loser's last record on the page is
+     * undone, before the loser ends.
+     */
+    @Test
+    public void testPageLocksReleasedAfterPageUndo() throws Exception {
+        Transaction loser = DummyTransaction.create(2L);
+        recoveryManager.startTransaction(loser);
+        recoveryManager.logPageWrite(2L, page(1, 0), (short) 0, new byte[4], new byte[] {1, 1, 1, 1});
+        recoveryManager.logPageWrite(2L, page(1, 1), (short) 0, new byte[4], new byte[] {2, 2, 2, 2});
+        recoveryManager.logPageWrite(2L, page(1, 1), (short) 4, new byte[4], new byte[] {3, 3, 3, 3});
+        Transaction other = DummyTransaction.create(3L);
+        recoveryManager.startTransaction(other);
+        recoveryManager.logPageWrite(3L, page(1, 2), (short) 0, new byte[4], new byte[] {4, 4, 4, 4});
+        recoveryManager.logManager.flushToLSN(recoveryManager.logManager.getLastLSN());
+
+        String crashDir = tempFolder.newFolder("crash").getAbsolutePath();
+        copyDirectory(testDir, crashDir);
+        recoveryManager.close();
+        DummyTransaction.cleanupTransactions();
+        recoveryManager = loadRecoveryManager(crashDir);
+        recoveryManager.setUndoParallelism(2);
+        Runnable undo = recoveryManager.restart();
+        recoveryManager.lockRequests.clear();
+        undo.run();
+
+        List<String> releases = new ArrayList<>(recoveryManager.lockRequests);
+        Collections.sort(releases);
+        assertEquals(Arrays.asList(
+                         "release 2 database/1/" + page(1, 0),
+                         "release 2 database/1/" + page(1, 1),
+                         "release 3 database/1/" + page(1, 2)
+                     ), releases);
+        assertTrue(recoveryManager.transactionTable.isEmpty());
+    }
+
+    @Test
+    public void testGroupIndependent() {
+        Map<Long, ParallelUndo.Footprint> footprints = new HashMap<>();
+        footprints.put(1L, footprint(page(1, 0), page(1, 1)));
+        footprints.put(2L, footprint(page(1, 1)));
+        footprints.put(3L, footprint(page(1, 2)));
+        footprints.put(4L, footprint(page(2, 0)));
+        footprints.put(5L, footprint(page(2, 1)));
+        footprints.put(6L, footprint(page(2, 1)));
+        assertEquals(4, ParallelUndo.groupIndependent(footprints).size());
+
+        // freeing or allocating partition 2 orders it with every page in it
+        ParallelUndo.Footprint alloc = footprint();
+        alloc.addPartRecord(2);
+        footprints.put(7L, alloc);
+        List<Set<Long>> groups = new ArrayList<>();
+        for (List<Long> group : ParallelUndo.groupIndependent(footprints)) {
+            groups.add(new HashSet<>(group));
+        }
+        assertEquals(3, groups.size());
+        assertTrue(groups.contains(new HashSet<>(Arrays.asList(1L, 2L))));
+        assertTrue(groups.contains(new HashSet<>(Collections.singletonList(3L))));
+        assertTrue(groups.contains(new HashSet<>(Arrays.asList(4L, 5L, 6L, 7L))));
+        // largest group first
+        assertEquals(4, groups.get(0).size());
+    }
+
+    /**
+     * Commits a write of 1 to byte 0 of pages 0-9 of partition 1, then leaves NUM_LOSERS
+     * transactions in progress, loser i writing its own 4 bytes of page i % 10 (so that
+     * losers share pages). One more loser allocates partition 2 and a page in it, which
+     * another loser then writes to.
+     */
+    private void writeLosers() {
+        recoveryManager.startTransaction(DummyTransaction.create(1L));
+        for (int i = 0; i < 10; ++i) {
+            recoveryManager.logPageWrite(1L, page(1, i), (short) 0, new byte[1], new byte[] {1});
+        }
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+
+        for (int i = 0; i < NUM_LOSERS; ++i) {
+            long transNum = 10L + i;
+            recoveryManager.startTransaction(DummyTransaction.create(transNum));
+            byte[] after = new byte[] {(byte) (i + 1), (byte) (i + 1), (byte) (i + 1), (byte) (i + 1)};
+            recoveryManager.logPageWrite(transNum, page(1, i % 10), (short) (4 + 4 * i), new byte[4], after);
+        }
+        Transaction allocator = DummyTransaction.create(100L);
+        recoveryManager.startTransaction(allocator);
+        TransactionContext.setTransaction(allocator.getTransactionContext());
+        try {
+            recoveryManager.diskSpaceManager.allocPart(2);
+            recoveryManager.diskSpaceManager.allocPage(page(2, 0));
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+        recoveryManager.startTransaction(DummyTransaction.create(101L));
+        recoveryManager.logPageWrite(101L, page(2, 0), (short) 0, new byte[4], new byte[] {5, 5, 5, 5});
+        for (int i = 0; i < NUM_LOSERS; ++i) {
+            long transNum = 10L + i;
+            recoveryManager.logPageWrite(transNum, page(1, (i + 3) % 10), (short) (4 + 4 * i), new byte[4],
+                                         new byte[] {7, 7, 7, 7});
+        }
+        recoveryManager.logManager.flushToLSN(recoveryManager.logManager.getLastLSN());
+    }
+
+    /**
+     * Restarts a copy of the crashed database in testDir with the given undo parallelism.
+     * @return contents of pages 0-9 of partition 1 after restart
+     */
+    private byte[][] restartAndReadPages(int undoParallelism) throws Exception {
+        String runDir = tempFolder.newFolder().getAbsolutePath();
+        copyDirectory(testDir, runDir);
+        DummyTransaction.cleanupTransactions();
+        ARIESRecoveryManager restarted = loadRecoveryManager(runDir);
+        restarted.setUndoParallelism(undoParallelism);
+        restarted.restart().run();
+
+        assertTrue(restarted.transactionTable.isEmpty());
+        try {
+            restarted.diskSpaceManager.pageAllocated(page(2, 0));
+            fail("partition 2 should have been freed");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        byte[][] pages = new byte[10][];
+        for (int i = 0; i < 10; ++i) {
+            pages[i] = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+            Page page = restarted.bufferManager.fetchPage(new DummyLockContext(), page(1, i), false);
+            try {
+                page.getBuffer().get(pages[i]);
+            } finally {
+                page.unpin();
+            }
+        }
+        restarted.close();
+        return pages;
+    }
+
+    private static ParallelUndo.Footprint footprint(long... pageNums) {
+        ParallelUndo.Footprint footprint = new ParallelUndo.Footprint();
+        long LSN = 1000L;
+        for (long pageNum : pageNums) {
+            footprint.addPageRecord(LSN--, pageNum);
+        }
+        return footprint;
+    }
+
+    private static long page(int partNum, int i) {
+        return DiskSpaceManager.getVirtualPageNum(partNum, i);
+    }
+}
@@ -0,0 +1,550 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.copyDirectory;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.shutdownRecoveryManager;
+
+/**
+ * Recovery timing benchmarks. These print their measurements rather than asserting
+ * on them; sizes can be changed with the system properties documented on each test.
+ */
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestRecoveryBenchmarks {
+    private static final int NUM_PAGES = 1000;
+    private static final int BUFFER_FRAMES = 1024;
+    private static final int UNDO_BUFFER_FRAMES = 64;
+
+    private String testDir;
+    private ARIESRecoveryManager recoveryManager;
+
+    // 10 minutes per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                600000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        recoveryManager = loadRecoveryManager(testDir);
+        DummyTransaction.cleanupTransactions();
+        LogRecord.onRedoHandler(t -> {});
+    }
+
+    @After
+    public void cleanup() {
+        recoveryManager.close();
+    }
+
+    /**
+     * Redo time by number of redo threads, over a log of benchmark.redoRecords
+     * (default 2,000,000) update records spread across NUM_PAGES pages.
+     */
+    @Test
+    public void testRedoTimeByParallelism() throws Exception {
+        int numRecords = Integer.getInteger("benchmark.redoRecords", 2000000);
+        Map<Long, Long> dirtyPageTable = writeUpdates(numRecords, 1);
+
+        System.out.println("update records: " + numRecords);
+        System.out.println("redo threads\tredo (ms)");
+        for (int threads : new int[] {1, 2, 4, 8}) {
+            System.out.println(threads + "\t" + timeRedo(dirtyPageTable, threads, false, 0L));
+        }
+    }
+
+    /**
+     * Redo time with and without DPT prefetching. Each of the NUM_PAGES pages gets a run of
+     * 20 consecutive update records, so pages are first reached throughout the log. Every
+     * page read is delayed by benchmark.readLatencyMicros (default 500) to stand in for a
+     * spinning disk or network volume.
+     */
+    @Test
+    public void testRedoTimeWithPrefetch() throws Exception {
+        long readLatencyMicros = Long.getLong("benchmark.readLatencyMicros", 500L);
+        Map<Long, Long> dirtyPageTable = writeUpdates(20 * NUM_PAGES, 20);
+
+        System.out.println("read latency (us): " + readLatencyMicros);
+        System.out.println("prefetch\tredo (ms)");
+        for (boolean prefetch : new boolean[] {false, true, false, true}) {
+            System.out.println(prefetch + "\t" + timeRedo(dirtyPageTable, 1, prefetch,
+                               readLatencyMicros));
+        }
+    }
+
+    /**
+     * Undo time by number of undo threads, with benchmark.undoLosers (default 400) loser
+     * transactions in progress at the crash, each having made 10 updates to 2 pages of its
+     * own. Every page read is delayed by benchmark.readLatencyMicros (default 500), and the
+     * buffer only has UNDO_BUFFER_FRAMES frames, so that rolling back a loser reads its
+     * pages back in.
+     */
+    @Test
+    public void testUndoTimeByParallelism() throws Exception {
+        int numLosers = Integer.getInteger("benchmark.undoLosers", 400);
+        long readLatencyMicros = Long.getLong("benchmark.readLatencyMicros", 500L);
+        LogManager logManager = recoveryManager.logManager;
+        for (int i = 0; i < numLosers; ++i) {
+            long transNum = i + 1;
+            long prevLSN = 0L;
+            for (int j = 0; j < 10; ++j) {
+                long pageNum = DiskSpaceManager.getVirtualPageNum(1, (2 * i + j % 2) % NUM_PAGES);
+                byte[] after = ByteBuffer.allocate(4).putInt(j).array();
+                prevLSN = logManager.appendToLog(new UpdatePageLogRecord(transNum, pageNum, prevLSN,
+                                                 (short) (j * 4), new byte[4], after));
+            }
+        }
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir);
+
+        System.out.println("losers: " + numLosers + ", read latency (us): " + readLatencyMicros);
+        System.out.println("undo threads\tundo (ms)");
+        for (int threads : new int[] {1, 2, 4, 8}) {
+            String runDir = tempFolder.newFolder().getAbsolutePath();
+            copyDirectory(testDir, runDir);
+            ARIESRecoveryManager runRecoveryManager = loadRecoveryManager(runDir, readLatencyMicros,
+                    UNDO_BUFFER_FRAMES);
+            runRecoveryManager.setUndoParallelism(threads);
+            runRecoveryManager.restart();
+
+            long start = System.nanoTime();
+            runRecoveryManager.restartUndo();
+            long elapsed = (System.nanoTime() - start) / 1000000L;
+            System.out.println(threads + "\t" + elapsed);
+            shutdownRecoveryManager(runRecoveryManager);
+        }
+    }
+
+    /**
+     * Time until restart() returns (when new transactions are admitted), and until all
+     * redo is finished, with and without instant restart, over a log of
+     * benchmark.instantRecords (default 100,000) update records.
+     */
+    @Test
+    public void testInstantRestartTime() throws Exception {
+        int numRecords = Integer.getInteger("benchmark.instantRecords", 100000);
+        writeUpdates(numRecords, 1);
+
+        System.out.println("update records: " + numRecords);
+        System.out.println("instant\tadmitted (ms)\tredo done (ms)");
+        for (boolean instant : new boolean[] {false, true}) {
+            String runDir = tempFolder.newFolder().getAbsolutePath();
+            copyDirectory(testDir, runDir);
+            ARIESRecoveryManager runRecoveryManager = loadRecoveryManager(runDir);
+            runRecoveryManager.setInstantRestart(instant);
+
+            long start = System.nanoTime();
+            runRecoveryManager.restart();
+            long admitted = (System.nanoTime() - start) / 1000000L;
+            runRecoveryManager.awaitRestartRedo();
+            long done = (System.nanoTime() - start) / 1000000L;
+            System.out.println(instant + "\t" + admitted + "\t" + done);
+            shutdownRecoveryManager(runRecoveryManager);
+        }
+    }
+
+    /**
+     * Restart time by checkpoint interval: benchmark.checkpointUpdates (default 100,000)
+     * updates by one transaction, with background checkpoints every so many bytes of log
+     * (or none), followed by a crash and a full restart.
+     */
+    @Test
+    public void testRestartTimeByCheckpointInterval() throws Exception {
+        int numUpdates = Integer.getInteger("benchmark.checkpointUpdates", 100000);
+
+        System.out.println("updates: " + numUpdates);
+        System.out.println("checkpoint interval (bytes)\tlog to replay (bytes)\trestart (ms)");
+        for (long interval : new long[] {0L, 256L * 1024, 1024L * 1024, 4L * 1024 * 1024}) {
+            recoveryManager.close();
+            testDir = tempFolder.newFolder().getAbsolutePath();
+            recoveryManager = loadRecoveryManager(testDir);
+            DummyTransaction.cleanupTransactions();
+
+            recoveryManager.startTransaction(DummyTransaction.create(1L));
+            if (interval > 0) {
+                recoveryManager.enableBackgroundCheckpoints(interval, 0L);
+            }
+            for (int j = 0; j < numUpdates; ++j) {
+                long pageNum = DiskSpaceManager.getVirtualPageNum(1, j % NUM_PAGES);
+                recoveryManager.logPageWrite(1L, pageNum, (short) 0, new byte[4],
+                                             ByteBuffer.allocate(4).putInt(j).array());
+            }
+            recoveryManager.disableBackgroundCheckpoints();
+            long replayBytes = recoveryManager.getLogBytesSinceCheckpoint();
+            shutdownRecoveryManager(recoveryManager);
+
+            recoveryManager = loadRecoveryManager(testDir);
+            long start = System.nanoTime();
+            recoveryManager.restart().run();
+            long elapsed = (System.nanoTime() - start) / 1000000L;
+            System.out.println(interval + "\t" + replayBytes + "\t" + elapsed);
+        }
+    }
+
+    /**
+     * Abort latency (abort() through end(), which rolls back) of a transaction with
+     * benchmark.abortUpdates (default 100,000) updates, by per-transaction undo cache size.
+     */
+    @Test
+    public void testAbortLatencyByUndoCacheSize() throws Exception {
+        int numUpdates = Integer.getInteger("benchmark.abortUpdates", 100000);
+
+        System.out.println("updates: " + numUpdates);
+        System.out.println("undo cache (bytes)	cached updates	abort (ms)");
+        long defaultSize = ARIESRecoveryManager.DEFAULT_UNDO_CACHE_BYTES;
+        long[] cacheSizes = new long[] {0L, defaultSize, 16L * 1024 * 1024};
+        for (int i = 0; i < cacheSizes.length; ++i) {
+            recoveryManager.setUndoCacheBytes(cacheSizes[i]);
+            DummyTransaction transaction = DummyTransaction.create(i + 1L);
+            recoveryManager.startTransaction(transaction);
+            for (int j = 0; j < numUpdates; ++j) {
+                long pageNum = DiskSpaceManager.getVirtualPageNum(1, j % NUM_PAGES);
+                short offset = (short) ((j / NUM_PAGES % 1000) * 4);
+                recoveryManager.logPageWrite(i + 1L, pageNum, offset, new byte[4],
+                                             ByteBuffer.allocate(4).putInt(j).array());
+            }
+            int cached = recoveryManager.transactionTable.get(i + 1L).undoChain.size();
+
+            long start = System.nanoTime();
+            recoveryManager.abort(i + 1L);
+            recoveryManager.end(i + 1L);
+            long elapsed = (System.nanoTime() - start) / 1000000L;
+            System.out.println(cacheSizes[i] + "\t" + cached + "\t" + elapsed);
+        }
+    }
+
+    /**
+     * Log bytes and logging time per update, with and without XOR delta encoding, for
+     * benchmark.deltaUpdates (default 5,000) updates of each of several sizes, each
+     * changing one 4-byte field of the range written (as a row update does).
+     */
+    @Test
+    public void testLogBytesPerUpdateWithDeltaEncoding() throws Exception {
+        int numUpdates = Integer.getInteger("benchmark.deltaUpdates", 5000);
+
+        System.out.println("updates: " + numUpdates);
+        System.out.println("update size (bytes)\tencoding\tlog bytes/update\tlogging (ms)");
+        long transNum = 1L;
+        for (int size : new int[] {16, 128, 1024}) {
+            byte[] before = new byte[size];
+            for (boolean deltaEncoding : new boolean[] {false, true}) {
+                recoveryManager.setDeltaEncoding(deltaEncoding);
+                recoveryManager.startTransaction(DummyTransaction.create(transNum));
+                long startLSN = recoveryManager.logManager.getLastLSN();
+                long start = System.nanoTime();
+                for (int j = 0; j < numUpdates; ++j) {
+                    long pageNum = DiskSpaceManager.getVirtualPageNum(1, j % NUM_PAGES);
+                    byte[] after = before.clone();
+                    ByteBuffer.wrap(after).putInt(j % (size / 4) * 4, j);
+                    recoveryManager.logPageWrite(transNum, pageNum, (short) 0, before, after);
+                }
+                long elapsed = (System.nanoTime() - start) / 1000000L;
+                long bytes = 0;
+                Iterator<LogRecord> iter = recoveryManager.logManager.scanFrom(startLSN);
+                iter.next();
+                while (iter.hasNext()) {
+                    bytes += iter.next().toBytes().length;
+                }
+                System.out.println(size + "\t" + (deltaEncoding ? "xor delta" : "plain") + "\t" +
+                                   (double) bytes / numUpdates + "\t" + elapsed);
+                recoveryManager.commit(transNum);
+                recoveryManager.end(transNum);
+                ++transNum;
+            }
+        }
+    }
+
+    /**
+     * Log records and bytes per operation for benchmark.sessionOperations (default 10,000)
+     * operations that each write 4 fields, 100 bytes apart, of one page: with the page
+     * pinned once for the whole operation (so that the writes are logged together at
+     * unpin), and pinned separately for each write.
+     */
+    @Test
+    public void testLogRecordsPerOperationWithWriteSessions() throws Exception {
+        int numOperations = Integer.getInteger("benchmark.sessionOperations", 10000);
+
+        System.out.println("operations: " + numOperations);
+        System.out.println("pinned\tlog records/operation\tlog bytes/operation");
+        long transNum = 1L;
+        for (boolean pinnedPerOperation : new boolean[] {false, true}) {
+            Transaction transaction = DummyTransaction.create(transNum);
+            recoveryManager.startTransaction(transaction);
+            long startLSN = recoveryManager.logManager.getLastLSN();
+            TransactionContext.setTransaction(transaction.getTransactionContext());
+            try {
+                for (int j = 0; j < numOperations; ++j) {
+                    long pageNum = DiskSpaceManager.getVirtualPageNum(1, j % NUM_PAGES);
+                    Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(), pageNum,
+                                false);
+                    try {
+                        for (int field = 0; field < 4; ++field) {
+                            if (!pinnedPerOperation) {
+                                page.unpin();
+                                page.pin();
+                            }
+                            page.getBuffer().putInt(field * 100, j);
+                        }
+                    } finally {
+                        page.unpin();
+                    }
+                }
+            } finally {
+                TransactionContext.unsetTransaction();
+            }
+            long records = 0;
+            long bytes = 0;
+            Iterator<LogRecord> iter = recoveryManager.logManager.scanFrom(startLSN);
+            iter.next();
+            while (iter.hasNext()) {
+                ++records;
+                bytes += iter.next().toBytes().length;
+            }
+            System.out.println((pinnedPerOperation ? "per operation" : "per write") + "\t" +
+                               (double) records / numOperations + "\t" + (double) bytes / numOperations);
+            recoveryManager.commit(transNum);
+            recoveryManager.end(transNum);
+            ++transNum;
+        }
+    }
+
+    /**
+     * Commit throughput of benchmark.commitTransactions (default 20,000) transactions of
+     * one update each, run one after another, with synchronous commits, and with
+     * asynchronous commits flushed every 10 ms.
+     */
+    @Test
+    public void testCommitThroughputWithAsyncCommit() throws Exception {
+        int numTransactions = Integer.getInteger("benchmark.commitTransactions", 20000);
+
+        System.out.println("transactions: " + numTransactions);
+        System.out.println("commit\tcommits/s\tI/Os");
+        long transNum = 1L;
+        for (boolean async : new boolean[] {false, true}) {
+            if (async) {
+                recoveryManager.startLogFlusher(10L, 1024L * 1024);
+            }
+            recoveryManager.setAsyncCommit(async);
+            long startIOs = recoveryManager.bufferManager.getNumIOs();
+            long start = System.nanoTime();
+            for (int j = 0; j < numTransactions; ++j, ++transNum) {
+                recoveryManager.startTransaction(DummyTransaction.create(transNum));
+                long pageNum = DiskSpaceManager.getVirtualPageNum(1, j % NUM_PAGES);
+                recoveryManager.logPageWrite(transNum, pageNum, (short) 0, new byte[4],
+                                             ByteBuffer.allocate(4).putInt(j).array());
+                recoveryManager.commit(transNum);
+                recoveryManager.end(transNum);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            recoveryManager.stopLogFlusher();
+            System.out.println((async ? "async" : "sync") + "\t" + (long) (numTransactions / seconds) +
+                               "\t" + (recoveryManager.bufferManager.getNumIOs() - startIOs));
+        }
+    }
+
+    /**
+     * Log pages used, how full they are, and log records per update, for
+     * benchmark.packingUpdates (default 2,000) updates of each of several sizes up to a
+     * whole page, along with the time to scan the records back.
+     */
+    @Test
+    public void testLogPageFillByUpdateSize() throws Exception {
+        int numUpdates = Integer.getInteger("benchmark.packingUpdates", 2000);
+
+        System.out.println("updates: " + numUpdates);
+        System.out.println("update size (bytes)	log pages	page fill	log records/update	scan (ms)");
+        long transNum = 1L;
+        for (int size : new int[] {16, 1024, 3000, BufferManager.EFFECTIVE_PAGE_SIZE}) {
+            byte[] before = new byte[size];
+            byte[] after = new byte[size];
+            Arrays.fill(after, (byte) 1);
+            recoveryManager.startTransaction(DummyTransaction.create(transNum));
+            long startLSN = recoveryManager.logManager.getLastLSN();
+            for (int j = 0; j < numUpdates; ++j) {
+                long pageNum = DiskSpaceManager.getVirtualPageNum(1, j % NUM_PAGES);
+                recoveryManager.logPageWrite(transNum, pageNum, (short) 0, before, after);
+            }
+            long endLSN = recoveryManager.logManager.getLastLSN();
+            long pages = LogManagerImpl.getLSNPage(endLSN) - LogManagerImpl.getLSNPage(startLSN) + 1;
+
+            long start = System.nanoTime();
+            long records = 0;
+            long bytes = 0;
+            Iterator<LogRecord> iter = recoveryManager.logManager.scanFrom(startLSN);
+            iter.next();
+            while (iter.hasNext()) {
+                ++records;
+                bytes += iter.next().toBytes().length;
+            }
+            long elapsed = (System.nanoTime() - start) / 1000000L;
+            System.out.println(size + "\t" + pages + "\t" +
+                               (double) bytes / (pages * DiskSpaceManager.PAGE_SIZE) + "\t" +
+                               (double) records / numUpdates + "\t" + elapsed);
+            recoveryManager.commit(transNum);
+            recoveryManager.end(transNum);
+            ++transNum;
+        }
+    }
+
+    /**
+     * Throughput of benchmark.concurrentUpdates (default 200,000) page updates by 1 to 8
+     * threads, each running its own transaction over its own pages, which stay in the
+     * buffer. Each update pins a page, writes 4 bytes, and unpins it, logging the write.
+     */
+    @Test
+    public void testConcurrentUpdateThroughput() throws Exception {
+        int numUpdates = Integer.getInteger("benchmark.concurrentUpdates", 200000);
+
+        System.out.println("updates: " + numUpdates);
+        System.out.println("threads	updates/s");
+        long transNum = 1L;
+        for (int numThreads : new int[] {1, 2, 4, 8}) {
+            Thread[] threads = new Thread[numThreads];
+            Transaction[] transactions = new Transaction[numThreads];
+            for (int i = 0; i < numThreads; ++i) {
+                transactions[i] = DummyTransaction.create(transNum++);
+                recoveryManager.startTransaction(transactions[i]);
+                final int thread = i;
+                threads[i] = new Thread(() -> {
+                    TransactionContext.setTransaction(transactions[thread].getTransactionContext());
+                    try {
+                        for (int j = thread; j < numUpdates; j += numThreads) {
+                            long pageNum = DiskSpaceManager.getVirtualPageNum(1, j % NUM_PAGES);
+                            Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(),
+                                        pageNum, false);
+                            try {
+                                page.getBuffer().putInt(0, j);
+                            } finally {
+                                page.unpin();
+                            }
+                        }
+                    } finally {
+                        TransactionContext.unsetTransaction();
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(numThreads + "\t" + (long) (numUpdates / seconds));
+            for (Transaction transaction : transactions) {
+                recoveryManager.commit(transaction.getTransNum());
+                recoveryManager.end(transaction.getTransNum());
+            }
+        }
+    }
+
+    /**
+     * Appends numRecords update records round-robin over NUM_PAGES pages, in runs of
+     * runLength records per page, without applying them, and shuts down.
+     * @return the DPT at the time of the crash
+     */
+    private Map<Long, Long> writeUpdates(int numRecords, int runLength) throws Exception {
+        LogManager logManager = recoveryManager.logManager;
+        Map<Long, Long> dirtyPageTable = new HashMap<>();
+        long prevLSN = 0L;
+        for (int i = 0; i < numRecords; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, (i / runLength) % NUM_PAGES);
+            short offset = (short) ((i % 1000) * 4);
+            byte[] after = ByteBuffer.allocate(4).putInt(i).array();
+            prevLSN = logManager.appendToLog(new UpdatePageLogRecord(1L, pageNum, prevLSN, offset,
+                                             new byte[4], after));
+            dirtyPageTable.putIfAbsent(pageNum, prevLSN);
+        }
+        shutdownRecoveryManager(recoveryManager);
+        // reopened so that cleanup has something to close
+        recoveryManager = loadRecoveryManager(testDir);
+        return dirtyPageTable;
+    }
+
+    /**
+     * Runs redo over a fresh copy of the crashed database in testDir.
+     * @return redo time in milliseconds
+     */
+    private long timeRedo(Map<Long, Long> dirtyPageTable, int threads, boolean prefetch,
+                          long readLatencyMicros) throws Exception {
+        // pages must start out unapplied for a fair comparison, so each run starts
+        // from a copy of the crashed database
+        String runDir = tempFolder.newFolder().getAbsolutePath();
+        copyDirectory(testDir, runDir);
+        ARIESRecoveryManager runRecoveryManager = loadRecoveryManager(runDir, readLatencyMicros);
+        runRecoveryManager.dirtyPageTable.putAll(dirtyPageTable);
+        runRecoveryManager.setRedoParallelism(threads);
+        runRecoveryManager.setRedoPrefetching(prefetch);
+
+        long start = System.nanoTime();
+        runRecoveryManager.restartRedo();
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        shutdownRecoveryManager(runRecoveryManager);
+        return elapsed;
+    }
+
+    /**
+     * Loads the recovery manager from disk.
+     * @param dir testDir
+     * @return recovery manager, loaded from disk
+     */
+    private ARIESRecoveryManager loadRecoveryManager(String dir) throws Exception {
+        return loadRecoveryManager(dir, 0L);
+    }
+
+    /**
+     * Loads the recovery manager from disk, with every page read delayed by readLatencyMicros.
+     */
+    private ARIESRecoveryManager loadRecoveryManager(String dir,
+            long readLatencyMicros) throws Exception {
+        return loadRecoveryManager(dir, readLatencyMicros, BUFFER_FRAMES);
+    }
+
+    /**
+     * Loads the recovery manager from disk, with every page read delayed by readLatencyMicros,
+     * and a buffer of the given number of frames.
+     */
+    private ARIESRecoveryManager loadRecoveryManager(String dir, long readLatencyMicros,
+            int bufferFrames) throws Exception {
+        ARIESRecoveryManager recoveryManager = RecoveryTestUtils.newRecoveryManager();
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir, recoveryManager) {
+            @Override
+            public void readPage(long page, byte[] buf) {
+                if (readLatencyMicros > 0) {
+                    LockSupport.parkNanos(readLatencyMicros * 1000L);
+                }
+                super.readPage(page, buf);
+            }
+        };
+        return RecoveryTestUtils.loadRecoveryManager(recoveryManager, diskSpaceManager, bufferFrames,
+                NUM_PAGES);
+    }
+}
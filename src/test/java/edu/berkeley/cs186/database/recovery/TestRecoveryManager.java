@@ -254,7 +254,7 @@ public class TestRecoveryManager {
 
     @Test
     @Category(PublicTests.class)
-    public void testTwoPartLogPageWrite() throws Exception {
+    public void testLargeLogPageWrite() throws Exception {
         long pageNum = 10000000002L;
         byte[] before = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
         byte[] after = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
@@ -268,19 +268,24 @@ public class TestRecoveryManager {
         Transaction transaction1 = DummyTransaction.create(1L);
         recoveryManager.startTransaction(transaction1);
 
-        long secondLSN = recoveryManager.logPageWrite(transaction1.getTransNum(), pageNum, (short) 0,
-                         before, after);
-        long firstLSN = secondLSN - 10000L; // previous log page, both at start of a log page
-
-        LogRecord firstLogRecord = logManager.fetchLogRecord(firstLSN);
-        LogRecord secondLogRecord = logManager.fetchLogRecord(secondLSN);
-
-        assertTrue(firstLogRecord instanceof UpdatePageLogRecord);
-        assertTrue(secondLogRecord instanceof UpdatePageLogRecord);
-        assertArrayEquals(before, ((UpdatePageLogRecord) firstLogRecord).before);
-        assertArrayEquals(new byte[0], ((UpdatePageLogRecord) secondLogRecord).before);
-        assertArrayEquals(new byte[0], ((UpdatePageLogRecord) firstLogRecord).after);
-        assertArrayEquals(after, ((UpdatePageLogRecord) secondLogRecord).after);
+        long prevLSN = transactionTable.get(1L).lastLSN;
+        long LSN = recoveryManager.logPageWrite(transaction1.getTransNum(), pageNum, (short) 0,
+                                                before, after);
+
+        // one record holding both images, spanning log pages
+        LogRecord logRecord = logManager.fetchLogRecord(LSN);
+        assertTrue(logRecord instanceof UpdatePageLogRecord);
+        assertArrayEquals(before, ((UpdatePageLogRecord) logRecord).before);
+        assertArrayEquals(after, ((UpdatePageLogRecord) logRecord).after);
+        assertEquals(Optional.of(prevLSN), logRecord.getPrevLSN());
+        assertTrue(LogManagerImpl.getLSNPage(LSN) <
+                   LogManagerImpl.getLSNPage(LSN + logRecord.toBytes().length));
+
+        // the next record follows it directly
+        long nextLSN = recoveryManager.commit(1L);
+        Iterator<LogRecord> iter = logManager.scanFrom(LSN);
+        assertEquals(logRecord, iter.next());
+        assertEquals(nextLSN, iter.next().getLSN());
 
         assertTrue(transactionTable.containsKey(1L));
         assertTrue(transactionTable.get(1L).touchedPages.contains(pageNum));
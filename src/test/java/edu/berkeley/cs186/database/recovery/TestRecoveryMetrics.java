@@ -0,0 +1,199 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.DummyLockManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.copyDirectory;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.loadRecoveryManager;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.page;
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestRecoveryMetrics {
+    private String testDir;
+    private ARIESRecoveryManager recoveryManager;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        recoveryManager = loadRecoveryManager(testDir);
+        DummyTransaction.cleanupTransactions();
+        LogRecord.onRedoHandler(t -> {});
+    }
+
+    @After
+    public void cleanup() {
+        recoveryManager.close();
+    }
+
+    @Test
+    public void testLogCounters() {
+        LogMetrics metrics = recoveryManager.getLogMetrics();
+        long records = metrics.getAppendedRecords();
+        long bytes = metrics.getAppendedBytes();
+        long flushes = metrics.getFlushes();
+
+        recoveryManager.startTransaction(DummyTransaction.create(1L));
+        for (int i = 0; i < 3; ++i) {
+            recoveryManager.logPageWrite(1L, page(i), (short) 0, new byte[4], new byte[] {1, 1, 1, 1});
+        }
+        long commitLSN = recoveryManager.commit(1L);
+
+        assertEquals(records + 4, metrics.getAppendedRecords());
+        assertTrue(metrics.getAppendedBytes() > bytes);
+        assertTrue(metrics.getAppendRecordsPerSecond() > 0.0);
+        assertTrue(metrics.getFlushes() > flushes);
+        assertTrue(metrics.getFlushedLSN() >= commitLSN);
+        assertEquals(commitLSN, metrics.getLastLSN());
+        assertTrue(metrics.getLogSizeBytes() >= commitLSN);
+        assertEquals(metrics.getFlushes(), Arrays.stream(metrics.getFlushLatencyHistogram()).sum());
+        assertTrue(metrics.getFlushLatencyP50Micros() <= metrics.getFlushLatencyP99Micros());
+    }
+
+    @Test
+    public void testCheckpointCounted() {
+        RecoveryMetrics metrics = recoveryManager.getMetrics();
+        long checkpoints = metrics.getCheckpoints();
+
+        recoveryManager.startTransaction(DummyTransaction.create(1L));
+        recoveryManager.logPageWrite(1L, page(0), (short) 0, new byte[4], new byte[] {1, 1, 1, 1});
+        assertTrue(metrics.getLogBytesSinceCheckpoint() > 0);
+        recoveryManager.checkpoint();
+
+        assertEquals(checkpoints + 1, metrics.getCheckpoints());
+        assertTrue(metrics.getLastCheckpointLSN() > 0);
+        assertEquals(1, metrics.getActiveTransactions());
+        assertEquals(1, metrics.getDirtyPages());
+    }
+
+    /**
+     * The oldest active LSN is held back by the oldest active transaction, and by the
+     * oldest unflushed change to a page.
+     */
+    @Test
+    public void testOldestActiveLSN() {
+        RecoveryMetrics metrics = recoveryManager.getMetrics();
+        recoveryManager.bufferManager.evictAll();
+        assertEquals(recoveryManager.logManager.getLastLSN(), metrics.getOldestActiveLSN());
+
+        recoveryManager.startTransaction(DummyTransaction.create(1L));
+        long firstLSN = recoveryManager.logPageWrite(1L, page(0), (short) 0, new byte[4],
+                        new byte[] {1, 1, 1, 1});
+        assertTrue(metrics.getOldestActiveLSN() < firstLSN);
+        long beginLSN = metrics.getOldestActiveLSN();
+
+        recoveryManager.startTransaction(DummyTransaction.create(2L));
+        long secondLSN = recoveryManager.logPageWrite(2L, page(1), (short) 0, new byte[4],
+                         new byte[] {2, 2, 2, 2});
+        assertEquals(beginLSN, metrics.getOldestActiveLSN());
+
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+        // the change transaction 1 made to page 0 is still in memory
+        assertEquals(firstLSN, metrics.getOldestActiveLSN());
+
+        // the records are not written to pages in the buffer, so write the pages out by hand
+        recoveryManager.diskIOHook(page(0));
+        assertEquals(recoveryManager.transactionTable.get(2L).beginLSN, metrics.getOldestActiveLSN());
+        assertTrue(metrics.getOldestActiveLSN() < secondLSN);
+
+        recoveryManager.commit(2L);
+        recoveryManager.end(2L);
+        recoveryManager.diskIOHook(page(1));
+        assertEquals(recoveryManager.logManager.getLastLSN(), metrics.getOldestActiveLSN());
+    }
+
+    /**
+     * Restart counts the records each phase processes, and reports each phase done.
+     */
+    @Test
+    public void testRestartProgress() throws Exception {
+        recoveryManager.startTransaction(DummyTransaction.create(1L));
+        recoveryManager.logPageWrite(1L, page(0), (short) 0, new byte[4], new byte[] {1, 1, 1, 1});
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+        recoveryManager.startTransaction(DummyTransaction.create(2L));
+        for (int i = 0; i < 5; ++i) {
+            recoveryManager.logPageWrite(2L, page(i), (short) 4, new byte[4], new byte[] {2, 2, 2, 2});
+        }
+        recoveryManager.logManager.flushToLSN(recoveryManager.logManager.getLastLSN());
+
+        String crashDir = tempFolder.newFolder("crash").getAbsolutePath();
+        copyDirectory(testDir, crashDir);
+        recoveryManager.close();
+        DummyTransaction.cleanupTransactions();
+        recoveryManager = loadRecoveryManager(crashDir);
+        RecoveryMetrics metrics = recoveryManager.getMetrics();
+        assertEquals("NOT_STARTED", metrics.getRestartPhase());
+
+        Runnable undo = recoveryManager.restart();
+        assertEquals("REDO", metrics.getRestartPhase());
+        // commit, end, 5 updates of the loser after the initial checkpoint
+        assertTrue(metrics.getAnalysisRecords() >= 8);
+        assertEquals(1.0, metrics.getAnalysisProgress(), 0.0);
+        assertTrue(metrics.getRedoRecords() >= 6);
+        assertEquals(1.0, metrics.getRedoProgress(), 0.0);
+        // the loser's oldest change is in memory and it began before its first record
+        assertTrue(metrics.getOldestActiveLSN() <= recoveryManager.transactionTable.get(2L).beginLSN);
+        assertEquals(0.0, metrics.getUndoProgress(), 0.0);
+
+        undo.run();
+        assertEquals("DONE", metrics.getRestartPhase());
+        // the abort record analysis wrote, and the 5 updates
+        assertEquals(6L, metrics.getUndoRecords());
+        assertEquals(1.0, metrics.getUndoProgress(), 0.0);
+        assertTrue(metrics.getAnalysisMillis() >= 0 && metrics.getUndoMillis() >= 0);
+    }
+
+    /**
+     * A database with ARIES registers its log and recovery metrics with the platform MBean
+     * server until it is closed.
+     */
+    @Test
+    public void testMBeansRegistered() throws Exception {
+        String dbDir = tempFolder.newFolder("db").getAbsolutePath();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName logName = new ObjectName("edu.berkeley.cs186.database:type=Log,directory=" +
+                                            ObjectName.quote(dbDir));
+        ObjectName recoveryName = new ObjectName("edu.berkeley.cs186.database:type=Recovery,directory=" +
+                ObjectName.quote(dbDir));
+
+        Database db = new Database(dbDir, 32, new DummyLockManager(), new ClockEvictionPolicy(), true);
+        try {
+            db.waitSetupFinished();
+            assertTrue(server.isRegistered(logName));
+            assertTrue(server.isRegistered(recoveryName));
+            assertTrue((Long) server.getAttribute(logName, "AppendedRecords") > 0);
+            assertTrue((Long) server.getAttribute(recoveryName, "Checkpoints") > 0);
+        } finally {
+            db.close();
+        }
+        assertFalse(server.isRegistered(logName));
+        assertFalse(server.isRegistered(recoveryName));
+    }
+}
@@ -0,0 +1,146 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.intBytes;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.loadRecoveryManager;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.page;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.shutdownRecoveryManager;
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestRedoPrefetcher {
+    private static final int NUM_PAGES = 10;
+
+    private String testDir;
+    private ARIESRecoveryManager recoveryManager;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        recoveryManager = loadRecoveryManager(testDir, NUM_PAGES);
+        DummyTransaction.cleanupTransactions();
+        LogRecord.onRedoHandler(t -> {});
+    }
+
+    @After
+    public void cleanup() {
+        recoveryManager.close();
+    }
+
+    @Test
+    public void testPrefetchOrderAndCapacity() throws Exception {
+        BufferManager bufferManager = recoveryManager.bufferManager;
+        bufferManager.evictAll();
+
+        // recLSNs in reverse page order, with a tie broken by page number
+        Map<Long, Long> dirtyPageTable = new HashMap<>();
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            dirtyPageTable.put(page(i), 100L * (NUM_PAGES - i));
+        }
+        dirtyPageTable.put(page(8), 100L * (NUM_PAGES - 9));
+
+        try (RedoPrefetcher prefetcher = new RedoPrefetcher(bufferManager, dirtyPageTable, 3, 2)) {
+            prefetcher.start();
+            awaitPrefetched(prefetcher, 3);
+            Thread.sleep(50);
+            assertEquals(3, prefetcher.getNumPrefetched());
+            assertEquals(new HashSet<>(Arrays.asList(page(8), page(9), page(7))), loadedPages());
+
+            // cursor reaches the first two pages: two more may be prefetched
+            prefetcher.advance(200L);
+            awaitPrefetched(prefetcher, 5);
+            Thread.sleep(50);
+            assertEquals(5, prefetcher.getNumPrefetched());
+            assertEquals(new HashSet<>(Arrays.asList(page(5), page(6), page(7), page(8), page(9))),
+                         loadedPages());
+
+            // cursor jumps past every page: nothing left to prefetch
+            prefetcher.advance(100L * NUM_PAGES);
+        }
+        assertTrue(recoveryManager.bufferManager.getNumFreeFrames() > 0);
+    }
+
+    @Test
+    public void testUnallocatedPageSkipped() throws Exception {
+        Map<Long, Long> dirtyPageTable = new HashMap<>();
+        dirtyPageTable.put(DiskSpaceManager.getVirtualPageNum(1, NUM_PAGES + 5), 10L);
+        dirtyPageTable.put(page(0), 20L);
+        recoveryManager.bufferManager.evictAll();
+
+        try (RedoPrefetcher prefetcher = new RedoPrefetcher(recoveryManager.bufferManager,
+                    dirtyPageTable, 4, 2)) {
+            prefetcher.start();
+            awaitPrefetched(prefetcher, 1);
+        }
+        assertEquals(Collections.singleton(page(0)), loadedPages());
+    }
+
+    @Test
+    public void testRedoWithPrefetch() throws Exception {
+        LogManager logManager = recoveryManager.logManager;
+        Map<Long, Long> dirtyPageTable = new HashMap<>();
+        long prevLSN = 0L;
+        for (int i = 0; i < 500; ++i) {
+            long pageNum = page(i % NUM_PAGES);
+            prevLSN = logManager.appendToLog(new UpdatePageLogRecord(1L, pageNum, prevLSN,
+                                             (short) ((i / NUM_PAGES) * 4), new byte[4], intBytes(i)));
+            dirtyPageTable.putIfAbsent(pageNum, prevLSN);
+        }
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir, NUM_PAGES);
+        recoveryManager.dirtyPageTable.putAll(dirtyPageTable);
+        recoveryManager.setRedoPrefetching(true);
+        recoveryManager.restartRedo();
+
+        for (int i = 0; i < 500; ++i) {
+            Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(),
+                        page(i % NUM_PAGES), false);
+            try {
+                assertEquals(i, page.getBuffer().getInt((i / NUM_PAGES) * 4));
+            } finally {
+                page.unpin();
+            }
+        }
+    }
+
+    private Set<Long> loadedPages() {
+        Set<Long> pages = new HashSet<>();
+        recoveryManager.bufferManager.iterPageNums((pageNum, dirty) -> {
+            if (DiskSpaceManager.getPartNum(pageNum) == 1) {
+                pages.add(pageNum);
+            }
+        });
+        return pages;
+    }
+
+    private static void awaitPrefetched(RedoPrefetcher prefetcher, int n) throws Exception {
+        while (prefetcher.getNumPrefetched() < n) {
+            Thread.sleep(5);
+        }
+    }
+}
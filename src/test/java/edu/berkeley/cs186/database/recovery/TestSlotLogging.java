@@ -0,0 +1,269 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.DummyLockManager;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestSlotLogging {
+    private static final String TABLE_NAME = "slots";
+
+    private String testDir;
+    private Database db;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        db = new Database(testDir, 32, new DummyLockManager(), new ClockEvictionPolicy(), true);
+        db.waitSetupFinished();
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(TestUtils.createSchemaWithAllTypes(), TABLE_NAME);
+        }
+    }
+
+    @After
+    public void cleanup() {
+        db.close();
+    }
+
+    @Test
+    public void testInsertLoggedAsOneSlotInsert() {
+        LogManager logManager = getLogManager();
+        Record input = TestUtils.createRecordWithAllTypes();
+        try (Transaction t = db.beginTransaction()) {
+            // so that the second insert does not need to allocate a page
+            addRecord(t, input.getValues());
+            long startLSN = logManager.getLastLSN();
+            RecordId rid = addRecord(t, input.getValues());
+
+            List<LogRecord> dataPageRecords = getRecordsAfter(startLSN, rid.getPageNum());
+            assertEquals(1, dataPageRecords.size());
+            LogRecord insert = dataPageRecords.get(0);
+            assertEquals(LogType.INSERT_SLOT, insert.getType());
+            assertArrayEquals(input.toBytes(TestUtils.createSchemaWithAllTypes()),
+                              ((InsertSlotLogRecord) insert).data);
+        }
+    }
+
+    @Test
+    public void testDeleteLoggedAsOneSlotDelete() {
+        LogManager logManager = getLogManager();
+        Record input = TestUtils.createRecordWithAllTypes();
+        try (Transaction t = db.beginTransaction()) {
+            // so that the delete does not empty (and free) the page
+            addRecord(t, input.getValues());
+            RecordId rid = addRecord(t, input.getValues());
+            long startLSN = logManager.getLastLSN();
+            deleteRecord(t, rid);
+
+            List<LogRecord> dataPageRecords = getRecordsAfter(startLSN, rid.getPageNum());
+            assertEquals(1, dataPageRecords.size());
+            assertEquals(LogType.DELETE_SLOT, dataPageRecords.get(0).getType());
+        }
+    }
+
+    @Test
+    public void testRollbackUndoesSlotChanges() throws Exception {
+        Record input = TestUtils.createRecordWithAllTypes();
+        List<RecordId> rids = new ArrayList<>();
+        try (Transaction t = db.beginTransaction()) {
+            for (int i = 0; i < 3; ++i) {
+                rids.add(addRecord(t, input.getValues()));
+            }
+        }
+
+        Transaction t2 = db.beginTransaction();
+        deleteRecord(t2, rids.get(0));
+        // reuses the deleted slot with different contents
+        List<DataBox> values = new ArrayList<>(input.getValues());
+        values.set(1, new IntDataBox(12345));
+        assertEquals(rids.get(0), addRecord(t2, values));
+        addRecord(t2, values);
+        t2.rollback();
+        // rollback finishes in the background
+        while (t2.getStatus() != Transaction.Status.COMPLETE) {
+            Thread.sleep(1);
+        }
+
+        try (Transaction t = db.beginTransaction()) {
+            for (RecordId rid : rids) {
+                assertEquals(input, t.getTransactionContext().getRecord(TABLE_NAME, rid));
+            }
+            Iterator<Record> iter = t.getTransactionContext().getRecordIterator(TABLE_NAME);
+            int count = 0;
+            while (iter.hasNext()) {
+                assertEquals(input, iter.next());
+                ++count;
+            }
+            assertEquals(3, count);
+        }
+    }
+
+    /**
+     * Log bytes per inserted row on data pages, for Table inserts (one slot insert record
+     * each), and for the same rows written to fresh pages as a write to the record and a
+     * write to the bitmap through the page buffer, as Table inserted records before slot
+     * records. Page allocation and the heap file's free space bookkeeping are logged the
+     * same way in both cases, and are not counted.
+     */
+    @Test
+    @Category(SystemTests.class)
+    public void testLogBytesPerInsert() {
+        final int numRows = 1000;
+        Schema schema = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        LogManager logManager = getLogManager();
+
+        long slotBytes;
+        try (Transaction t = db.beginTransaction()) {
+            long startLSN = logManager.getLastLSN();
+            Set<Long> dataPages = new HashSet<>();
+            for (int i = 0; i < numRows; ++i) {
+                dataPages.add(addRecord(t, input.getValues()).getPageNum());
+            }
+            slotBytes = getLogBytesAfter(startLSN, dataPages);
+        }
+
+        long pageWriteBytes;
+        try (Transaction t = db.beginTransaction()) {
+            BufferManager bufferManager = getRecoveryManager().bufferManager;
+            int recordsPerPage = t.getNumEntriesPerPage(TABLE_NAME);
+            int bitmapSize = recordsPerPage / 8;
+            long startLSN = logManager.getLastLSN();
+            Set<Long> dataPages = new HashSet<>();
+            TransactionContext.setTransaction(t.getTransactionContext());
+            try {
+                long pageNum = DiskSpaceManager.INVALID_PAGE_NUM;
+                for (int i = 0; i < numRows; ++i) {
+                    int entryNum = i % recordsPerPage;
+                    // each row is written under its own pin, as Table did, so that its
+                    // writes are logged when it is unpinned
+                    Page page;
+                    if (entryNum == 0) {
+                        page = bufferManager.fetchNewPage(new DummyLockContext(), 1, false);
+                        pageNum = page.getPageNum();
+                        dataPages.add(pageNum);
+                    } else {
+                        page = bufferManager.fetchPage(new DummyLockContext(), pageNum, false);
+                    }
+                    try {
+                        page.getBuffer().position(bitmapSize + entryNum * schema.getSizeInBytes())
+                        .put(input.toBytes(schema));
+                        byte[] bitmap = new byte[bitmapSize];
+                        page.getBuffer().get(bitmap);
+                        Bits.setBit(bitmap, entryNum, Bits.Bit.ONE);
+                        page.getBuffer().put(bitmap);
+                    } finally {
+                        page.unpin();
+                    }
+                }
+            } finally {
+                TransactionContext.unsetTransaction();
+            }
+            pageWriteBytes = getLogBytesAfter(startLSN, dataPages);
+        }
+
+        System.out.println("rows: " + numRows + ", row size (bytes): " + schema.getSizeInBytes());
+        System.out.println("logging\tlog bytes/row");
+        System.out.println("page writes\t" + (double) pageWriteBytes / numRows);
+        System.out.println("slot records\t" + (double) slotBytes / numRows);
+        assertTrue(slotBytes < pageWriteBytes);
+    }
+
+    /**
+     * @return bytes of the log records after startLSN that change one of pages (not
+     * counting allocation)
+     */
+    private long getLogBytesAfter(long startLSN, Set<Long> pages) {
+        long bytes = 0;
+        Iterator<LogRecord> iter = getLogManager().scanFrom(startLSN);
+        iter.next();
+        while (iter.hasNext()) {
+            LogRecord record = iter.next();
+            long pageNum = record.getPageNum().orElse(-1L);
+            if (record.getType() != LogType.ALLOC_PAGE && pages.contains(pageNum)) {
+                bytes += record.toBytes().length;
+            }
+        }
+        return bytes;
+    }
+
+    private RecordId addRecord(Transaction t, List<DataBox> values) {
+        TransactionContext.setTransaction(t.getTransactionContext());
+        try {
+            return t.getTransactionContext().addRecord(TABLE_NAME, values);
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+    }
+
+    private void deleteRecord(Transaction t, RecordId rid) {
+        TransactionContext.setTransaction(t.getTransactionContext());
+        try {
+            t.getTransactionContext().deleteRecord(TABLE_NAME, rid);
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+    }
+
+    private ARIESRecoveryManager getRecoveryManager() {
+        return (ARIESRecoveryManager) db.getRecoveryManager();
+    }
+
+    private LogManager getLogManager() {
+        return getRecoveryManager().logManager;
+    }
+
+    /**
+     * @return the log records after startLSN that are about pageNum
+     */
+    private List<LogRecord> getRecordsAfter(long startLSN, long pageNum) {
+        List<LogRecord> records = new ArrayList<>();
+        Iterator<LogRecord> iter = getLogManager().scanFrom(startLSN);
+        iter.next();
+        while (iter.hasNext()) {
+            LogRecord record = iter.next();
+            if (record.getPageNum().orElse(-1L) == pageNum) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,152 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.memory.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.loadRecoveryManager;
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestUndoChainCache {
+    private String testDir;
+    private ARIESRecoveryManager recoveryManager;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        recoveryManager = loadRecoveryManager(testDir);
+        DummyTransaction.cleanupTransactions();
+        LogRecord.onRedoHandler(t -> {});
+    }
+
+    @After
+    public void cleanup() {
+        recoveryManager.close();
+    }
+
+    @Test
+    public void testRemoveAndUndo() {
+        UndoChainCache cache = new UndoChainCache(1024L);
+        assertTrue(cache.add(10L, 0L, 10000000001L, (short) 0, new byte[] {1}));
+        assertTrue(cache.add(20L, 10L, 10000000002L, (short) 4, new byte[] {2, 2}));
+        assertTrue(cache.add(30L, 20L, 10000000003L, (short) 8, new byte[] {3, 3, 3}));
+        assertEquals(3, cache.size());
+
+        LogRecord clr = cache.removeAndUndo(20L, 1L, 40L);
+        assertEquals(LogType.UNDO_UPDATE_PAGE, clr.getType());
+        assertEquals(Optional.of(1L), clr.getTransNum());
+        assertEquals(Optional.of(10000000002L), clr.getPageNum());
+        assertEquals(Optional.of(40L), clr.getPrevLSN());
+        assertEquals(Optional.of(10L), clr.getUndoNextLSN());
+        assertEquals((short) 4, ((UndoUpdatePageLogRecord) clr).offset);
+        assertArrayEquals(new byte[] {2, 2}, ((UndoUpdatePageLogRecord) clr).after);
+
+        // the entry and everything after it are gone
+        assertEquals(1, cache.size());
+        assertEquals(UndoChainCache.ENTRY_OVERHEAD + 1, cache.getSizeBytes());
+        assertNull(cache.removeAndUndo(30L, 1L, 40L));
+        assertEquals(1L, cache.getHits());
+        assertEquals(1L, cache.getMisses());
+
+        // freed space is reused
+        assertTrue(cache.add(50L, 10L, 10000000004L, (short) 0, new byte[] {5}));
+        assertArrayEquals(new byte[] {5},
+                          ((UndoUpdatePageLogRecord) cache.removeAndUndo(50L, 1L, 60L)).after);
+        assertArrayEquals(new byte[] {1},
+                          ((UndoUpdatePageLogRecord) cache.removeAndUndo(10L, 1L, 70L)).after);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSizeLimit() {
+        UndoChainCache cache = new UndoChainCache(2 * (UndoChainCache.ENTRY_OVERHEAD + 4));
+        assertTrue(cache.add(10L, 0L, 10000000001L, (short) 0, new byte[4]));
+        assertTrue(cache.add(20L, 10L, 10000000001L, (short) 4, new byte[4]));
+        assertFalse(cache.add(30L, 20L, 10000000001L, (short) 8, new byte[4]));
+        assertEquals(2, cache.size());
+
+        UndoChainCache disabled = new UndoChainCache(0L);
+        assertFalse(disabled.add(10L, 0L, 10000000001L, (short) 0, new byte[4]));
+    }
+
+    /**
+     * Rolls back a transaction whose oldest updates are cached and whose newest are not,
+     * and checks the CLRs written and the page contents afterwards.
+     */
+    @Test
+    public void testRollbackWithPartialCache() throws Exception {
+        long pageNum = 10000000001L;
+        // room for the first three updates only
+        recoveryManager.setUndoCacheBytes(3 * (UndoChainCache.ENTRY_OVERHEAD + 4));
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+
+        long[] LSNs = new long[5];
+        for (int i = 0; i < 5; ++i) {
+            byte[] before = new byte[] {(byte) i, (byte) i, (byte) i, (byte) i};
+            LSNs[i] = recoveryManager.logPageWrite(1L, pageNum, (short) (4 * i), before, new byte[4]);
+            if (i == 0) {
+                recoveryManager.savepoint(1L, "savepoint 1");
+            }
+        }
+        UndoChainCache cache = recoveryManager.transactionTable.get(1L).undoChain;
+        assertEquals(3, cache.size());
+
+        recoveryManager.rollbackToSavepoint(1L, "savepoint 1");
+        // updates 4 and 3 are read from the log, 2 and 1 come from the cache
+        assertEquals(2L, cache.getHits());
+        assertEquals(2L, cache.getMisses());
+
+        Iterator<LogRecord> iter = recoveryManager.logManager.scanFrom(LSNs[4]);
+        iter.next(); // last page write record
+        long prevLSN = LSNs[4];
+        for (int i = 4; i >= 1; --i) {
+            LogRecord clr = iter.next();
+            assertEquals(LogType.UNDO_UPDATE_PAGE, clr.getType());
+            assertEquals(Optional.of(prevLSN), clr.getPrevLSN());
+            assertEquals(LSNs[i - 1],
+                         (long) clr.getUndoNextLSN().orElseThrow(NoSuchElementException::new));
+            assertEquals((short) (4 * i), ((UndoUpdatePageLogRecord) clr).offset);
+            assertArrayEquals(new byte[] {(byte) i, (byte) i, (byte) i, (byte) i},
+                              ((UndoUpdatePageLogRecord) clr).after);
+            prevLSN = clr.getLSN();
+        }
+        assertFalse(iter.hasNext());
+        assertEquals(1, cache.size());
+
+        Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            byte[] contents = new byte[20];
+            page.getBuffer().get(contents);
+            for (int i = 1; i < 5; ++i) {
+                assertEquals((byte) i, contents[4 * i]);
+            }
+        } finally {
+            page.unpin();
+        }
+    }
+}
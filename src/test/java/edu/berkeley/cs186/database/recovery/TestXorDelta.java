@@ -0,0 +1,189 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.memory.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.loadRecoveryManager;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.page;
+import static edu.berkeley.cs186.database.recovery.RecoveryTestUtils.shutdownRecoveryManager;
+import static org.junit.Assert.*;
+
+@Category(Proj99Tests.class)
+public class TestXorDelta {
+    private String testDir;
+    private ARIESRecoveryManager recoveryManager;
+
+    // 2 seconds per test
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                2000 * TimeoutScaling.factor)));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        testDir = tempFolder.newFolder("test-dir").getAbsolutePath();
+        recoveryManager = loadRecoveryManager(testDir);
+        DummyTransaction.cleanupTransactions();
+        LogRecord.onRedoHandler(t -> {});
+    }
+
+    @After
+    public void cleanup() {
+        recoveryManager.close();
+    }
+
+    @Test
+    public void testCompressRoundTrip() {
+        Random random = new Random(186);
+        byte[] noisy = new byte[1000];
+        random.nextBytes(noisy);
+        byte[] mixed = new byte[1000];
+        for (int i = 0; i < mixed.length; i += 50) {
+            mixed[i] = (byte) i;
+            mixed[i + 1] = (byte) (i + 1);
+        }
+        byte[][] inputs = {
+            new byte[0], new byte[] {7}, new byte[] {7, 7}, new byte[] {7, 7, 7},
+            new byte[300], noisy, mixed,
+        };
+        for (byte[] input : inputs) {
+            byte[] compressed = XorDelta.compress(input);
+            assertArrayEquals(input, XorDelta.decompress(compressed, input.length));
+        }
+        // runs of zeroes (unchanged bytes) take 2 bytes per 128
+        assertEquals(6, XorDelta.compress(new byte[300]).length);
+        assertTrue(XorDelta.compress(mixed).length < mixed.length / 4);
+        // incompressible input grows by at most a control byte per 128 bytes
+        assertTrue(XorDelta.compress(noisy).length <= noisy.length + (noisy.length + 127) / 128);
+    }
+
+    @Test
+    public void testDeltaRecordSmaller() {
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        byte[] before = new byte[200];
+        byte[] after = Arrays.copyOf(before, before.length);
+        after[10] = 1;
+        after[100] = 2;
+
+        long plainLSN = recoveryManager.logPageWrite(1L, page(0), (short) 0, before, after);
+        recoveryManager.setDeltaEncoding(true);
+        long deltaLSN = recoveryManager.logPageWrite(1L, page(0), (short) 0, before, after);
+
+        LogRecord plain = recoveryManager.logManager.fetchLogRecord(plainLSN);
+        LogRecord delta = recoveryManager.logManager.fetchLogRecord(deltaLSN);
+        assertEquals(LogType.UPDATE_PAGE, plain.getType());
+        assertEquals(LogType.UPDATE_PAGE_DELTA, delta.getType());
+        assertTrue(delta.toBytes().length * 10 < plain.toBytes().length);
+        assertTrue(delta.isUndoable());
+        assertTrue(delta.isRedoable());
+    }
+
+    /**
+     * Rolls back delta-encoded updates with the undo cache disabled, so that they are
+     * undone from the log with delta CLRs.
+     */
+    @Test
+    public void testRollbackFromLog() {
+        recoveryManager.setUndoCacheBytes(0L);
+        recoveryManager.setDeltaEncoding(true);
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+
+        writeAndLog(1L, page(0), 0, new byte[] {1, 2, 3, 4});
+        recoveryManager.savepoint(1L, "savepoint 1");
+        writeAndLog(1L, page(0), 2, new byte[] {5, 6, 7, 8});
+        writeAndLog(1L, page(1), 0, new byte[] {9, 9, 9, 9});
+        long lastLSN = recoveryManager.transactionTable.get(1L).lastLSN;
+
+        recoveryManager.rollbackToSavepoint(1L, "savepoint 1");
+
+        Iterator<LogRecord> iter = recoveryManager.logManager.scanFrom(lastLSN);
+        iter.next();
+        for (int i = 0; i < 2; ++i) {
+            assertEquals(LogType.UNDO_UPDATE_PAGE_DELTA, iter.next().getType());
+        }
+        assertFalse(iter.hasNext());
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 0, 0}, read(page(0), 0, 6));
+        assertArrayEquals(new byte[4], read(page(1), 0, 4));
+    }
+
+    /**
+     * Logs delta-encoded updates by a committed and an uncommitted transaction without
+     * applying them, crashes, and checks that restart redoes both and undoes the second.
+     */
+    @Test
+    public void testRestart() throws Exception {
+        recoveryManager.setDeltaEncoding(true);
+        Transaction transaction1 = DummyTransaction.create(1L);
+        Transaction transaction2 = DummyTransaction.create(2L);
+        recoveryManager.startTransaction(transaction1);
+        recoveryManager.startTransaction(transaction2);
+
+        recoveryManager.logPageWrite(1L, page(0), (short) 0, new byte[4], new byte[] {1, 2, 3, 4});
+        recoveryManager.logPageWrite(2L, page(0), (short) 2, new byte[] {3, 4, 0, 0},
+                                     new byte[] {5, 6, 7, 8});
+        recoveryManager.logPageWrite(1L, page(1), (short) 0, new byte[4], new byte[] {4, 3, 2, 1});
+        recoveryManager.logPageWrite(2L, page(1), (short) 0, new byte[] {4, 3, 2, 1},
+                                     new byte[] {0, 0, 0, 1});
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+        recoveryManager.logManager.flushToLSN(recoveryManager.logManager.getLastLSN());
+
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir);
+        recoveryManager.restart().run();
+
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 0, 0}, read(page(0), 0, 6));
+        assertArrayEquals(new byte[] {4, 3, 2, 1}, read(page(1), 0, 4));
+        // redoing again (e.g. after a crash during undo) must not apply the deltas twice
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir);
+        recoveryManager.restart().run();
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 0, 0}, read(page(0), 0, 6));
+        assertArrayEquals(new byte[] {4, 3, 2, 1}, read(page(1), 0, 4));
+    }
+
+    /**
+     * Writes bytes to a page without logging, then logs the write.
+     */
+    private void writeAndLog(long transNum, long pageNum, int offset, byte[] after) {
+        byte[] before = read(pageNum, offset, after.length);
+        Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            page.getBuffer().position(offset).put(after);
+        } finally {
+            page.unpin();
+        }
+        recoveryManager.logPageWrite(transNum, pageNum, (short) offset, before, after);
+    }
+
+    private byte[] read(long pageNum, int offset, int length) {
+        byte[] bytes = new byte[length];
+        Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(), pageNum, false);
+        try {
+            page.getBuffer().position(offset).get(bytes);
+        } finally {
+            page.unpin();
+        }
+        return bytes;
+    }
+}
@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.table;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.IndexBacktrackingIterator;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
@@ -55,6 +56,13 @@ public class MemoryHeapFile implements HeapFile, AutoCloseable {
         return bufferManager.fetchPage(new DummyLockContext(), pageNum, false);
     }
 
+    @Override
+    public Page getPage(long pageNum, LockContext lockContext) {
+        Page page = getPage(pageNum);
+        page.setLockContext(lockContext);
+        return page;
+    }
+
     @Override
     public Page getPageWithSpace(short requiredSpace) {
         for (Map.Entry<Long, Short> entry : freeSpace.entrySet()) {